@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class benchmarks RBTrees.applyBatch against applying the same mixed inserts and removes
+ * with individual calls, for batch sizes from 16 to 65536. Every batch consists of random values
+ * spread over the whole tree.
+ */
+public class BatchBenchmark {
+
+  private static final int TREE_SIZE = 1 << 20; // The number of values in the tree
+  private static final int OPS = 1 << 20; // The number of operations per measurement
+  private static final int REPEATS = 5; // The number of measurements per batch size
+
+  /**
+   * Creates a tree of the even values from 0 to 2 * (TREE_SIZE - 1)
+   *
+   * @return the tree
+   */
+  private static RBTrees<Integer> newTree() {
+    List<Integer> values = new ArrayList<>(TREE_SIZE);
+    for (int i = 0; i < TREE_SIZE; i++) {
+      values.add(2 * i);
+    }
+    return RBTrees.fromSorted(values);
+  }
+
+  /**
+   * Creates batches of inserts of odd values and removes of even values in equal parts
+   *
+   * @param batchSize the number of operations per batch
+   * @param random    the random generator
+   * @return the batches
+   */
+  private static List<List<RBTrees.Op<Integer>>> newBatches(int batchSize, Random random) {
+    List<List<RBTrees.Op<Integer>>> batches = new ArrayList<>();
+    for (int b = 0; b < OPS / batchSize; b++) {
+      List<RBTrees.Op<Integer>> batch = new ArrayList<>(batchSize);
+      for (int i = 0; i < batchSize; i++) {
+        int value = 2 * random.nextInt(TREE_SIZE);
+        batch.add(random.nextBoolean() ? RBTrees.Op.insert(value + 1) : RBTrees.Op.remove(value));
+      }
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  /**
+   * Applies the batches with individual calls
+   *
+   * @param tree    the tree
+   * @param batches the batches
+   * @return the number of operations which changed the tree
+   */
+  private static int applyIndividually(RBTrees<Integer> tree,
+      List<List<RBTrees.Op<Integer>>> batches) {
+    int changed = 0;
+    for (List<RBTrees.Op<Integer>> batch : batches) {
+      for (RBTrees.Op<Integer> op : batch) {
+        if (op.isInsert() ? tree.insert(op.getData()) : tree.remove(op.getData())) {
+          changed++;
+        }
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Applies the batches with applyBatch
+   *
+   * @param tree    the tree
+   * @param batches the batches
+   * @return the number of operations which changed the tree
+   */
+  private static int applyBatched(RBTrees<Integer> tree,
+      List<List<RBTrees.Op<Integer>>> batches) {
+    int changed = 0;
+    for (List<RBTrees.Op<Integer>> batch : batches) {
+      changed += tree.applyBatch(batch).cardinality();
+    }
+    return changed;
+  }
+
+  /**
+   * Runs the benchmark for a single batch size, keeping the fastest of REPEATS measurements of
+   * each variant
+   *
+   * @param batchSize the number of operations per batch
+   * @param warmUp    true to run without printing the results
+   */
+  private static void run(int batchSize, boolean warmUp) {
+    List<List<RBTrees.Op<Integer>>> batches = newBatches(batchSize, new Random(batchSize));
+
+    double individualNanos = Double.MAX_VALUE;
+    double batchedNanos = Double.MAX_VALUE;
+    for (int repeat = 0; repeat < REPEATS; repeat++) {
+      RBTrees<Integer> tree = newTree();
+      System.gc();
+      long start = System.nanoTime();
+      int individualChanged = applyIndividually(tree, batches);
+      individualNanos = Math.min(individualNanos, (System.nanoTime() - start) / (double) OPS);
+
+      tree = newTree();
+      System.gc();
+      start = System.nanoTime();
+      int batchedChanged = applyBatched(tree, batches);
+      batchedNanos = Math.min(batchedNanos, (System.nanoTime() - start) / (double) OPS);
+
+      if (individualChanged != batchedChanged) {
+        throw new IllegalStateException("The batched operations had different results");
+      }
+    }
+    if (!warmUp) {
+      System.out.printf("batch=%,6d individual=%,.0f ns/op (%,.2f Mops/s) batched=%,.0f ns/op "
+              + "(%,.2f Mops/s) speedup=%.2fx%n", batchSize, individualNanos,
+          1000 / individualNanos, batchedNanos, 1000 / batchedNanos,
+          individualNanos / batchedNanos);
+    }
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the batch sizes to benchmark, the powers of four from 16 to 65536 by default
+   */
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      args = new String[] {"16", "64", "256", "1024", "4096", "16384", "65536"};
+    }
+    run(1024, true);
+    for (String batchSize : args) {
+      run(Integer.parseInt(batchSize), false);
+    }
+  }
+}
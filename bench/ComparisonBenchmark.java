@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class benchmarks how a tree of records with composite string keys is ordered: by the
+ * natural ordering of the records, by a comparator, or by a cached long key. For every order it
+ * reports the key comparisons (compareTo, comparator or extractor calls) and the time per insert,
+ * contains and remove.
+ */
+public class ComparisonBenchmark {
+
+  private static final int ROUNDS = 5; // The number of timed rounds, the first one is a warm up
+
+  private static long comparisons; // The number of counted calls since the last reset
+
+  /**
+   * A record with a composite string key, which counts how often it is compared
+   */
+  private static final class Item implements Comparable<Item> {
+
+    final String name; // The composite key, a tenant and an item number
+    final long id; // A unique id with the same order as the name
+
+    /**
+     * Constructor for the item
+     *
+     * @param tenant the tenant of the item
+     * @param number the number of the item within the tenant
+     */
+    Item(int tenant, int number) {
+      name = String.format("tenant-%05d/item-%09d", tenant, number);
+      id = (long) tenant << 32 | number;
+    }
+
+    /**
+     * Compares the names of this item and another item and counts the comparison
+     *
+     * @param other the other item
+     * @return the comparison of the names
+     */
+    @Override
+    public int compareTo(Item other) {
+      comparisons++;
+      return name.compareTo(other.name);
+    }
+  }
+
+  /**
+   * Creates an empty tree ordered in the given way
+   *
+   * @param order natural, comparator or key
+   * @return the empty tree
+   */
+  private static RBTrees<Item> newTree(String order) {
+    switch (order) {
+      case "comparator":
+        return new RBTrees<>((Comparator<Item>) (a, b) -> {
+          comparisons++;
+          return a.name.compareTo(b.name);
+        });
+      case "key":
+        return new RBTrees<>(item -> {
+          comparisons++;
+          return item.id;
+        });
+      default:
+        return new RBTrees<>();
+    }
+  }
+
+  /**
+   * Runs the benchmark for a single order and tree size
+   *
+   * @param order natural, comparator or key
+   * @param size  the number of records in the tree
+   */
+  private static void run(String order, int size) {
+    List<Item> items = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      items.add(new Item(i % 1000, i));
+    }
+    Random random = new Random(42);
+
+    double[] nanos = new double[3];
+    double[] counted = new double[3];
+    for (int round = 0; round < ROUNDS; round++) {
+      Collections.shuffle(items, random);
+      RBTrees<Item> tree = newTree(order);
+      for (int phase = 0; phase < 3; phase++) {
+        comparisons = 0;
+        long start = System.nanoTime();
+        for (Item item : items) {
+          if (phase == 0) {
+            tree.insert(item);
+          } else if (phase == 1) {
+            tree.contains(item);
+          } else {
+            tree.remove(item);
+          }
+        }
+        if (round > 0) {
+          nanos[phase] += (System.nanoTime() - start) / (double) size;
+          counted[phase] += comparisons / (double) size;
+        }
+        Collections.shuffle(items, random);
+      }
+    }
+
+    int timed = ROUNDS - 1;
+    System.out.printf("%-10s size=%,d insert: %.1f calls %,.0f ns, contains: %.1f calls %,.0f ns, "
+            + "remove: %.1f calls %,.0f ns%n", order, size, counted[0] / timed, nanos[0] / timed,
+        counted[1] / timed, nanos[1] / timed, counted[2] / timed, nanos[2] / timed);
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the tree sizes to benchmark, 100K and 1M by default
+   */
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      args = new String[] {"100000", "1000000"};
+    }
+    for (String size : args) {
+      for (String order : new String[] {"natural", "comparator", "key"}) {
+        run(order, Integer.parseInt(size));
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * This class benchmarks expiring the oldest values of a tree keyed by time, as a sliding window
+ * does every second: the values older than a cutoff are removed one by one with remove, and at
+ * once with {@link RBTrees#removeHead(Comparable, boolean)}, which splits the tree at the cutoff
+ * in O(log n). Every tick inserts as many new timestamps as it expires, so the window keeps its
+ * size.
+ */
+public class ExpiryBenchmark {
+
+  private static final int TICKS = 20; // The ticks measured per setting
+
+  /**
+   * Runs the sliding window for a window size and a number of values expired per tick
+   *
+   * @param window the number of values in the window
+   * @param expire the number of values expired per tick
+   * @param bulk   true to expire with removeHead, false to remove every value
+   * @return the time of an expiry in microseconds, the fastest of the ticks
+   */
+  private static double run(int window, int expire, boolean bulk) {
+    RBTrees<Long> tree = new RBTrees<>();
+    long next = 0; // The next timestamp
+    for (; next < window; next++) {
+      tree.insert(next);
+    }
+    double fastest = Double.MAX_VALUE;
+    for (int tick = 0; tick < TICKS; tick++) {
+      long cutoff = next - window + expire; // the timestamps before it expire
+      long start = System.nanoTime();
+      if (bulk) {
+        tree.removeHead(cutoff, false);
+      } else {
+        for (long t = cutoff - expire; t < cutoff; t++) {
+          tree.remove(t);
+        }
+      }
+      fastest = Math.min(fastest, (System.nanoTime() - start) / 1e3);
+      for (int i = 0; i < expire; i++, next++) {
+        tree.insert(next);
+      }
+      if (tree.size() != window) {
+        throw new IllegalStateException("The window lost values");
+      }
+    }
+    return fastest;
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the window size, 1M by default
+   */
+  public static void main(String[] args) {
+    int window = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    run(window, 10_000, false); // warm up
+    run(window, 10_000, true);
+    for (int expire : new int[] {100, 1_000, 10_000, 100_000}) {
+      System.out.printf("window=%,d expire %,7d per tick: remove each %,10.0f us, removeHead "
+          + "%,6.0f us%n", window, expire, run(window, expire, false), run(window, expire, true));
+    }
+  }
+}
@@ -0,0 +1,132 @@
+import java.util.Random;
+
+/**
+ * This class benchmarks {@link RBTrees#contains(Comparable)} with and without a membership filter
+ * (see {@link RBTrees#setMembershipFilter(double)}), at hit ratios from all misses to all hits.
+ * The values are the even numbers and the misses are odd numbers in the same range, so a miss
+ * walks as deep into the tree as a hit. The cost of the filter on inserts and removes, its memory
+ * and its measured false positive rate are reported as well.
+ */
+public class FilterBenchmark {
+
+  private static final int PROBES = 1 << 20; // The number of lookups per measurement
+  private static final int REPEATS = 3; // The number of measurements, the fastest is reported
+  private static final double[] HIT_RATIOS = {0, 0.1, 0.5, 0.9, 1};
+
+  private static int found; // The number of lookups which found their value, read after a run
+
+  /**
+   * Builds a tree with a filter of the given rate, measuring the inserts and a churn of removes and
+   * inserts
+   *
+   * @param values the values in insertion order
+   * @param rate   the false positive rate, 0 for no filter
+   * @return the tree
+   */
+  private static RBTrees<Integer> build(int[] values, double rate) {
+    RBTrees<Integer> tree = new RBTrees<>();
+    tree.setMembershipFilter(rate);
+    long start = System.nanoTime();
+    for (int value : values) {
+      tree.insert(value);
+    }
+    double insertNanos = (System.nanoTime() - start) / (double) values.length;
+    int churn = values.length / 4;
+    start = System.nanoTime();
+    for (int i = 0; i < churn; i++) {
+      tree.remove(values[i]);
+    }
+    for (int i = 0; i < churn; i++) {
+      tree.insert(values[i]);
+    }
+    double churnNanos = (System.nanoTime() - start) / (2.0 * churn);
+    System.out.printf("  filter %-5s insert %,4.0f ns, remove/insert churn %,4.0f ns, filter %,d "
+        + "bytes (%.1f per value)%n", (rate == 0) ? "off" : rate, insertNanos, churnNanos,
+        tree.membershipFilterBytes(), tree.membershipFilterBytes() / (double) values.length);
+    return tree;
+  }
+
+  /**
+   * Measures the lookups of a tree
+   *
+   * @param tree   the tree
+   * @param probes the values to look up
+   * @return the fastest time of a lookup in nanoseconds
+   */
+  private static double lookup(RBTrees<Integer> tree, Integer[] probes) {
+    double nanos = Double.MAX_VALUE;
+    for (int repeat = 0; repeat < REPEATS; repeat++) {
+      found = 0;
+      long start = System.nanoTime();
+      for (Integer probe : probes) {
+        if (tree.contains(probe)) {
+          found++;
+        }
+      }
+      nanos = Math.min(nanos, (System.nanoTime() - start) / (double) probes.length);
+    }
+    return nanos;
+  }
+
+  /**
+   * Measures the false positive rate of a filter filled to its capacity
+   *
+   * @param rate the false positive rate the filter is sized for
+   */
+  private static void falsePositives(double rate) {
+    int capacity = 1_000_000;
+    CountingBloomFilter filter = new CountingBloomFilter(capacity, rate);
+    for (long i = 0; i < capacity; i++) {
+      filter.add(2 * i);
+    }
+    int positives = 0;
+    for (long i = 0; i < 10 * capacity; i++) {
+      if (filter.mightContain(2 * i + 1)) {
+        positives++;
+      }
+    }
+    System.out.printf("filter sized for %.3f at capacity: %d probes, measured %.4f%n", rate,
+        filter.probes(), positives / (10.0 * capacity));
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the tree size, 4M by default
+   */
+  public static void main(String[] args) {
+    int size = (args.length > 0) ? Integer.parseInt(args[0]) : 4_000_000;
+    falsePositives(0.01);
+    falsePositives(0.001);
+    Random random = new Random(42);
+    int[] values = new int[size];
+    for (int i = 0; i < size; i++) {
+      values[i] = 2 * i;
+    }
+    for (int i = size - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = values[i];
+      values[i] = values[j];
+      values[j] = swap;
+    }
+    Integer[][] probes = new Integer[HIT_RATIOS.length][PROBES];
+    for (int r = 0; r < HIT_RATIOS.length; r++) {
+      for (int i = 0; i < PROBES; i++) {
+        int even = 2 * random.nextInt(size);
+        probes[r][i] = (random.nextDouble() < HIT_RATIOS[r]) ? even : even + 1;
+      }
+    }
+    System.out.printf("size=%,d%n", size);
+    for (double rate : new double[] {0, 0.01, 0.001}) {
+      RBTrees<Integer> tree = build(values, rate);
+      StringBuilder line = new StringBuilder("  contains at hit ratio");
+      for (int r = 0; r < HIT_RATIOS.length; r++) {
+        line.append(String.format(" %.0f%%: %,.0f ns", 100 * HIT_RATIOS[r],
+            lookup(tree, probes[r])));
+      }
+      System.out.println(line);
+      tree = null;
+      System.gc();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+import java.util.Random;
+
+/**
+ * This class benchmarks the lookup latency of the sorted collection engines on large sets, ordered
+ * by the natural ordering of the values and by an extracted key. The values are inserted in random
+ * order, and every lookup searches a freshly boxed value, so only the nodes of the engine and the
+ * values they reference are missed in the cache.
+ */
+public class LookupBenchmark {
+
+  private static final int PROBES = 1 << 20; // The number of lookups per measurement
+  private static final int REPEATS = 3; // The number of measurements, the fastest is reported
+
+  private static int found; // The number of lookups which found their value, read after a run
+
+  /**
+   * Runs the benchmark for a single engine, order and set size
+   *
+   * @param engine the engine
+   * @param order  natural or key
+   * @param values the values in insertion order
+   * @param probes the values to look up
+   */
+  private static void run(SortedCollections.Engine engine, String order, int[] values,
+      Integer[] probes) {
+    SortedCollectionInterface<Integer> collection = order.equals("key")
+        ? SortedCollections.create(engine, value -> (long) value)
+        : SortedCollections.create(engine);
+    long start = System.nanoTime();
+    for (int value : values) {
+      collection.insert(value);
+    }
+    double insertNanos = (System.nanoTime() - start) / (double) values.length;
+
+    double lookupNanos = Double.MAX_VALUE;
+    for (int repeat = 0; repeat < REPEATS; repeat++) {
+      found = 0;
+      start = System.nanoTime();
+      for (Integer probe : probes) {
+        if (collection.contains(probe)) {
+          found++;
+        }
+      }
+      lookupNanos = Math.min(lookupNanos, (System.nanoTime() - start) / (double) probes.length);
+    }
+    if (found != probes.length) {
+      throw new IllegalStateException("A value was not found");
+    }
+    System.out.printf("%-11s %-7s size=%,d insert %,.0f ns, contains %,.0f ns%n", engine, order,
+        values.length, insertNanos, lookupNanos);
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the set sizes to benchmark, 1M and 10M by default. A set of 50M values needs a
+   *             heap of about 8GB for the red black tree.
+   */
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      args = new String[] {"1000000", "10000000"};
+    }
+    Random random = new Random(42);
+    for (String sizeArg : args) {
+      int size = Integer.parseInt(sizeArg);
+      int[] values = new int[size];
+      for (int i = 0; i < size; i++) {
+        values[i] = 2 * i;
+      }
+      for (int i = size - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int swap = values[i];
+        values[i] = values[j];
+        values[j] = swap;
+      }
+      Integer[] probes = new Integer[PROBES];
+      for (int i = 0; i < PROBES; i++) {
+        probes[i] = Integer.valueOf(2 * random.nextInt(size)); // boxed apart from the values
+      }
+      for (SortedCollections.Engine engine : SortedCollections.Engine.values()) {
+        for (String order : new String[] {"natural", "key"}) {
+          run(engine, order, values, probes);
+          System.gc();
+        }
+      }
+    }
+  }
+}
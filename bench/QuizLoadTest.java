@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class load tests {@link QuizServer}. It opens many sessions at once and plays them in
+ * rounds, where every round asks each session a question and answers it, so all of the sessions
+ * stay alive for the whole run. Every session is created with a known seed and mirrored by a local
+ * {@link QuizSession}, so the answers are correct and the grading is checked as well.
+ *
+ * Without a URL, a server is started in this process on a free port. The report has the throughput
+ * and the latencies of the question and answer requests.
+ */
+public class QuizLoadTest {
+
+  private static HttpClient client; // The client shared by all players
+  private static String base; // The URL of the sessions
+  private static final AtomicInteger failures = new AtomicInteger(); // The unexpected responses
+  private static final AtomicInteger retries = new AtomicInteger(); // The requests sent again
+
+  /**
+   * A session on the server and its local mirror
+   */
+  private static class Player {
+
+    final long seed; // The seed of the session
+    final QuizSession mirror; // The session mirrored locally
+    String id; // The id of the session on the server
+
+    Player(long seed) {
+      this.seed = seed;
+      this.mirror = new QuizSession(seed);
+    }
+  }
+
+  /**
+   * Sends a request and checks its status. A request is sent again once if its connection fails,
+   * as the server closes keep-alive connections which were idle for a while, and the client may
+   * pick one of them just as it is closed.
+   *
+   * @param request the request
+   * @param status  the expected status
+   * @return the body of the response
+   * @throws IOException          if the request failed
+   * @throws InterruptedException if the thread was interrupted
+   */
+  private static String send(HttpRequest request, int status)
+      throws IOException, InterruptedException {
+    HttpResponse<String> response;
+    try {
+      response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    } catch (IOException e) {
+      retries.incrementAndGet();
+      response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+    if (response.statusCode() != status) {
+      failures.incrementAndGet();
+    }
+    return response.body();
+  }
+
+  /**
+   * Plays one round of a session, asking a question and answering it correctly
+   *
+   * @param player the player
+   * @return the latencies of the question and the answer in nanoseconds
+   * @throws IOException          if a request failed
+   * @throws InterruptedException if the thread was interrupted
+   */
+  private static long[] playRound(Player player) throws IOException, InterruptedException {
+    URI session = URI.create(base + "/" + player.id);
+    long start = System.nanoTime();
+    String question = send(HttpRequest.newBuilder(URI.create(session + "/question"))
+        .POST(HttpRequest.BodyPublishers.noBody()).build(), 200);
+    long asked = System.nanoTime();
+    if (!question.equals(player.mirror.nextQuestion() + "\n")) {
+      failures.incrementAndGet();
+    }
+    String answer = RBTreeRenderer.PLAIN.render(player.mirror.getTree());
+    player.mirror.submit(answer);
+    String grade = send(HttpRequest.newBuilder(URI.create(session + "/answer"))
+        .POST(HttpRequest.BodyPublishers.ofString(answer)).build(), 200);
+    long answered = System.nanoTime();
+    if (!grade.equals("correct\n")) {
+      failures.incrementAndGet();
+    }
+    return new long[] {asked - start, answered - asked};
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the number of sessions, 5000 by default, the number of rounds, 10 by default, the
+   *             number of requests in flight, 64 by default, and the URL of a running server
+   * @throws Exception if the load test failed
+   */
+  public static void main(String[] args) throws Exception {
+    int sessions = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+    int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+    int inFlight = (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+    QuizServer server = null;
+    if (args.length > 3) {
+      base = args[3] + "/sessions";
+    } else {
+      server = new QuizServer(new InetSocketAddress("127.0.0.1", 0), sessions, 600);
+      server.start();
+      base = "http://127.0.0.1:" + server.getPort() + "/sessions";
+    }
+    ExecutorService players = Executors.newFixedThreadPool(inFlight, task -> {
+      Thread thread = new Thread(task);
+      thread.setDaemon(true); // a failed run must not keep the process alive
+      return thread;
+    });
+    // the JDK server closes connections idle for 30 seconds, so the client drops them sooner
+    System.setProperty("jdk.httpclient.keepalive.timeout", "20");
+    client = HttpClient.newHttpClient();
+
+    Player[] all = new Player[sessions];
+    long start = System.nanoTime();
+    Future<?>[] pending = new Future<?>[sessions];
+    for (int s = 0; s < sessions; s++) {
+      Player player = all[s] = new Player(s);
+      pending[s] = players.submit(() -> {
+        String body = send(HttpRequest.newBuilder(URI.create(base + "?seed=" + player.seed))
+            .POST(HttpRequest.BodyPublishers.noBody()).build(), 201);
+        if (!body.substring(body.indexOf('\n') + 1).equals(player.mirror.board())) {
+          failures.incrementAndGet();
+        }
+        player.id = body.substring(0, body.indexOf('\n'));
+        return null;
+      });
+    }
+    for (Future<?> future : pending) {
+      future.get();
+    }
+    System.out.printf("opened %,d sessions in %.2f s%n", sessions,
+        (System.nanoTime() - start) / 1e9);
+    if (server != null) {
+      System.out.printf("live sessions on the server: %,d%n", server.sessionCount());
+    }
+
+    long[] questionNanos = new long[sessions * rounds];
+    long[] answerNanos = new long[sessions * rounds];
+    start = System.nanoTime();
+    for (int round = 0; round < rounds; round++) {
+      for (int s = 0; s < sessions; s++) {
+        Player player = all[s];
+        int slot = round * sessions + s;
+        pending[s] = players.submit(() -> {
+          long[] nanos = playRound(player);
+          questionNanos[slot] = nanos[0];
+          answerNanos[slot] = nanos[1];
+          return null;
+        });
+      }
+      for (Future<?> future : pending) {
+        future.get();
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%,d sessions x %d rounds with %d requests in flight: %,.0f requests/s%n",
+        sessions, rounds, inFlight, 2.0 * sessions * rounds / seconds);
+    report("question", questionNanos);
+    report("answer", answerNanos);
+
+    for (int s = 0; s < sessions; s++) {
+      Player player = all[s];
+      pending[s] = players.submit(() -> send(HttpRequest.newBuilder(
+          URI.create(base + "/" + player.id)).DELETE().build(), 200));
+    }
+    for (Future<?> future : pending) {
+      future.get();
+    }
+    if (server != null) {
+      System.out.printf("live sessions after closing them: %,d%n", server.sessionCount());
+    }
+    System.out.println("unexpected responses: " + failures.get() + ", retries: " + retries.get());
+    players.shutdown();
+    if (server != null) {
+      server.stop();
+    }
+    if (failures.get() != 0) {
+      throw new IllegalStateException("The server answered unexpectedly");
+    }
+  }
+
+  /**
+   * Prints the percentiles of latencies
+   *
+   * @param name  the name of the request
+   * @param nanos the latencies in nanoseconds
+   */
+  private static void report(String name, long[] nanos) {
+    Arrays.sort(nanos);
+    System.out.printf("%-8s p50 %,.2f ms  p99 %,.2f ms  max %,.2f ms%n", name,
+        nanos[nanos.length / 2] / 1e6, nanos[(int) (nanos.length * 0.99)] / 1e6,
+        nanos[nanos.length - 1] / 1e6);
+  }
+}
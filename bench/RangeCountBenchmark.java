@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class benchmarks RBTrees.countRange against counting the same range with a linear scan over
+ * every node of the tree
+ */
+public class RangeCountBenchmark {
+
+  private static final int QUERIES = 1000; // The number of timed range counts per size
+  private static final int LINEAR_QUERIES = 10; // The number of timed linear scans per size
+
+  /**
+   * Counts the values between lo and hi by visiting every node of the tree
+   *
+   * @param node the node to start from
+   * @param lo   the lowest value to count
+   * @param hi   the highest value to count
+   * @return the number of values in the range
+   */
+  private static int linearCount(RBTrees.Node<Integer> node, int lo, int hi) {
+    if (node == null) {
+      return 0;
+    }
+    int count = (node.data >= lo && node.data <= hi) ? 1 : 0;
+    return count + linearCount(node.left, lo, hi) + linearCount(node.right, lo, hi);
+  }
+
+  /**
+   * Runs the benchmark for a single tree size
+   *
+   * @param size the number of values in the tree
+   */
+  private static void run(int size) {
+    List<Integer> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(i * 2);
+    }
+    RBTrees<Integer> tree = RBTrees.fromSorted(values);
+    values = null;
+    Random random = new Random(42);
+    int[] los = new int[QUERIES];
+    int[] his = new int[QUERIES];
+    for (int q = 0; q < QUERIES; q++) {
+      los[q] = random.nextInt(size * 2);
+      his[q] = los[q] + random.nextInt(size);
+    }
+
+    long checksum = 0;
+    // warm up both paths before timing them
+    for (int q = 0; q < QUERIES; q++) {
+      checksum += tree.countRange(los[q], his[q]);
+    }
+    checksum += linearCount(tree.getRoot(), los[0], his[0]);
+
+    long start = System.nanoTime();
+    for (int q = 0; q < QUERIES; q++) {
+      checksum += tree.countRange(los[q], his[q]);
+    }
+    double countRangeNanos = (System.nanoTime() - start) / (double) QUERIES;
+
+    start = System.nanoTime();
+    for (int q = 0; q < LINEAR_QUERIES; q++) {
+      checksum += linearCount(tree.getRoot(), los[q], his[q]);
+    }
+    double linearNanos = (System.nanoTime() - start) / (double) LINEAR_QUERIES;
+
+    System.out.printf("size=%,d countRange=%,.0f ns/op linear scan=%,.0f ns/op speedup=%,.0fx "
+        + "(checksum %d)%n", size, countRangeNanos, linearNanos, linearNanos / countRangeNanos,
+        checksum);
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the tree sizes to benchmark, 1M and 10M by default
+   */
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      args = new String[] {"1000000", "10000000"};
+    }
+    for (String size : args) {
+      run(Integer.parseInt(size));
+    }
+  }
+}
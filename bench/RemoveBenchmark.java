@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * This class benchmarks removal heavy workloads on RBTrees, with java.util.TreeSet as the baseline.
+ * For every workload it reports the key comparisons and the time per removal. The comparisons are
+ * counted by a key type whose compareTo increments a counter.
+ */
+public class RemoveBenchmark {
+
+  private static final int ROUNDS = 5; // The number of timed rounds, the first one is a warm up
+
+  /**
+   * A key which counts how often it is compared
+   */
+  private static final class CountedKey implements Comparable<CountedKey> {
+
+    static long comparisons; // The number of compareTo calls since the last reset
+
+    final int value; // The value of the key
+
+    /**
+     * Constructor for the key
+     *
+     * @param value the value of the key
+     */
+    CountedKey(int value) {
+      this.value = value;
+    }
+
+    /**
+     * Compares this key with another key and counts the comparison
+     *
+     * @param other the other key
+     * @return the comparison of the values of the keys
+     */
+    @Override
+    public int compareTo(CountedKey other) {
+      comparisons++;
+      return Integer.compare(value, other.value);
+    }
+  }
+
+  /**
+   * Creates an empty set of the benchmarked implementation
+   *
+   * @param implementation RBTrees or TreeSet
+   * @return the empty set
+   */
+  private static Set<CountedKey> newSet(String implementation) {
+    return implementation.equals("RBTrees") ? new RBTrees<>() : new TreeSet<>();
+  }
+
+  /**
+   * Runs the workloads for a single implementation and tree size. The drain workload removes every
+   * key in random order, the churn workload removes a random key and inserts it again, so that the
+   * tree stays full and most removals hit interior nodes with two children.
+   *
+   * @param implementation RBTrees or TreeSet
+   * @param size           the number of keys in the tree
+   */
+  private static void run(String implementation, int size) {
+    List<CountedKey> keys = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      keys.add(new CountedKey(i));
+    }
+    Random random = new Random(42);
+
+    double drainNanos = 0;
+    double drainComparisons = 0;
+    double churnNanos = 0;
+    double churnComparisons = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      Collections.shuffle(keys, random);
+      Set<CountedKey> set = newSet(implementation);
+      set.addAll(keys);
+      Collections.shuffle(keys, random);
+
+      // drain: remove every key
+      CountedKey.comparisons = 0;
+      long start = System.nanoTime();
+      for (CountedKey key : keys) {
+        set.remove(key);
+      }
+      long nanos = System.nanoTime() - start;
+      if (round > 0) {
+        drainNanos += nanos / (double) size;
+        drainComparisons += CountedKey.comparisons / (double) size;
+      }
+
+      // churn: remove and insert again, counting only the removals
+      set.addAll(keys);
+      Collections.shuffle(keys, random);
+      CountedKey.comparisons = 0;
+      long removeComparisons = 0;
+      nanos = 0;
+      for (CountedKey key : keys) {
+        start = System.nanoTime();
+        set.remove(key);
+        nanos += System.nanoTime() - start;
+        removeComparisons += CountedKey.comparisons;
+        set.add(key);
+        CountedKey.comparisons = 0;
+      }
+      if (round > 0) {
+        churnNanos += nanos / (double) size;
+        churnComparisons += removeComparisons / (double) size;
+      }
+    }
+
+    int timed = ROUNDS - 1;
+    System.out.printf("%-8s size=%,d drain: %.1f comparisons %,.0f ns per remove, "
+            + "churn: %.1f comparisons %,.0f ns per remove%n", implementation, size,
+        drainComparisons / timed, drainNanos / timed, churnComparisons / timed,
+        churnNanos / timed);
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the tree sizes to benchmark, 100K and 1M by default
+   */
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      args = new String[] {"100000", "1000000"};
+    }
+    for (String size : args) {
+      run("RBTrees", Integer.parseInt(size));
+      run("TreeSet", Integer.parseInt(size));
+    }
+  }
+}
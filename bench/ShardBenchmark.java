@@ -0,0 +1,112 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This class benchmarks the write scaling of {@link ShardedRBTrees} against
+ * {@link ConcurrentRBTrees}, whose single write lock serializes all writers. Every writer thread
+ * runs random inserts and removes over the same key space on a prefilled tree, from 1 to 32
+ * writers. A last run writes ascending keys to a sharded tree which starts with one shard, to show
+ * the resplits balancing it.
+ *
+ * The scaling is bounded by the processors of the machine, which are printed first.
+ */
+public class ShardBenchmark {
+
+  private static final int KEYS = 1 << 22; // The key space of the random writes
+  private static final int OPS = 2_000_000; // The operations shared by all writers of a run
+  private static final int SHARDS = 64; // The shards of the sharded tree
+
+  /**
+   * Runs random inserts and removes from several threads and measures their throughput
+   *
+   * @param tree    the tree
+   * @param writers the number of writer threads
+   * @return the operations per second
+   * @throws InterruptedException if the thread was interrupted
+   */
+  private static double run(SortedCollectionInterface<Integer> tree, int writers)
+      throws InterruptedException {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int w = 0; w < writers; w++) {
+      long seed = w;
+      threads.add(new Thread(() -> {
+        SplittableRandom random = new SplittableRandom(seed);
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int op = OPS / writers; op > 0; op--) {
+          int value = random.nextInt(KEYS);
+          if ((op & 1) == 0) {
+            tree.insert(value);
+          } else {
+            tree.remove(value);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return OPS / ((System.nanoTime() - begin) / 1e9);
+  }
+
+  /**
+   * Fills a tree with half of the key space
+   *
+   * @param tree the tree
+   * @param <C>  the type of the tree
+   * @return the tree
+   */
+  private static <C extends SortedCollectionInterface<Integer>> C prefill(C tree) {
+    SplittableRandom random = new SplittableRandom(99);
+    for (int i = 0; i < KEYS / 2; i++) {
+      tree.insert(random.nextInt(KEYS));
+    }
+    return tree;
+  }
+
+  /**
+   * The main method
+   *
+   * @param args unused
+   * @throws InterruptedException if the thread was interrupted
+   */
+  public static void main(String[] args) throws InterruptedException {
+    System.out.println("processors: " + Runtime.getRuntime().availableProcessors());
+    List<Integer> bounds = new ArrayList<>();
+    for (int s = 1; s < SHARDS; s++) {
+      bounds.add((int) ((long) KEYS * s / SHARDS));
+    }
+    ConcurrentRBTrees<Integer> single = prefill(new ConcurrentRBTrees<>());
+    ShardedRBTrees<Integer> sharded = prefill(new ShardedRBTrees<>(SHARDS, bounds));
+    run(single, 4); // warm up
+    run(sharded, 4);
+    for (int writers = 1; writers <= 32; writers *= 2) {
+      System.out.printf("%2d writers: ConcurrentRBTrees %,12.0f ops/s, ShardedRBTrees %,12.0f "
+          + "ops/s%n", writers, run(single, writers), run(sharded, writers));
+    }
+
+    ShardedRBTrees<Integer> growing = new ShardedRBTrees<>(SHARDS);
+    long begin = System.nanoTime();
+    for (int i = 0; i < KEYS; i++) {
+      growing.insert(i);
+    }
+    int[] sizes = growing.shardSizes();
+    int largest = 0;
+    for (int size : sizes) {
+      largest = Math.max(largest, size);
+    }
+    System.out.printf("%,d ascending inserts from one shard: %,.0f ms, %d shards, largest %,d "
+        + "of %,d%n", KEYS, (System.nanoTime() - begin) / 1e6, sizes.length, largest, KEYS);
+  }
+}
@@ -0,0 +1,87 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+
+/**
+ * This class benchmarks writing a tree to a binary snapshot file and reading it back, with the
+ * text of toString written through a FileWriter as the baseline for the smaller trees.
+ */
+public class SnapshotBenchmark {
+
+  private static final int TEXT_LIMIT = 1_000_000; // The largest tree whose text is written
+
+  /**
+   * Runs the benchmark for a single tree size
+   *
+   * @param size     the number of values in the tree
+   * @param file     the file of the snapshot
+   * @param textFile the file of the text
+   * @throws IOException if the files could not be written or read
+   */
+  private static void run(int size, Path file, Path textFile) throws IOException {
+    RBTrees<Integer> tree = RBTrees.fromSorted(new AbstractList<Integer>() {
+      @Override
+      public Integer get(int index) {
+        return 3 * index;
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    });
+
+    long start = System.nanoTime();
+    tree.writeTo(file, KeyCodec.INTEGER);
+    double writeMillis = (System.nanoTime() - start) / 1e6;
+    long bytes = Files.size(file);
+
+    String text = "";
+    if (size <= TEXT_LIMIT) {
+      start = System.nanoTime();
+      try (FileWriter writer = new FileWriter(textFile.toFile())) {
+        writer.write(tree.toString());
+      }
+      text = String.format(", toString text: %,.0f ms %,d bytes", (System.nanoTime() - start) / 1e6,
+          Files.size(textFile));
+    }
+
+    String expected = (size <= TEXT_LIMIT) ? tree.toString() : null;
+    tree = null;
+    System.gc();
+    start = System.nanoTime();
+    RBTrees<Integer> read = RBTrees.fromSnapshot(file, KeyCodec.INTEGER);
+    double readMillis = (System.nanoTime() - start) / 1e6;
+    if (read.size() != size || (expected != null && !expected.equals(read.toString()))) {
+      throw new IllegalStateException("The read tree differed from the written tree");
+    }
+
+    System.out.printf("size=%,d snapshot: write %,.0f ms, read %,.0f ms, %,d bytes%s%n", size,
+        writeMillis, readMillis, bytes, text);
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the tree sizes to benchmark, 1M and 10M by default
+   * @throws IOException if the temporary files could not be written or read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      args = new String[] {"1000000", "10000000"};
+    }
+    Path file = Files.createTempFile("rbtree", ".snapshot");
+    Path textFile = Files.createTempFile("rbtree", ".txt");
+    try {
+      run(100_000, file, textFile); // warm up
+      for (String size : args) {
+        run(Integer.parseInt(size), file, textFile);
+      }
+    } finally {
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(textFile);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * This class benchmarks the write-ahead log of {@link DurableRBTrees}: the throughput of random
+ * inserts and removes without a log and with the log, where every operation waits for its fsync,
+ * for one writer and for several writers sharing group commits, and the time to recover a tree
+ * from a checkpoint and a log tail.
+ */
+public class WalBenchmark {
+
+  /**
+   * Runs random inserts and removes of values below 2 * count, a third of them removes
+   *
+   * @param tree  the tree
+   * @param count the number of operations
+   * @param seed  the seed of the values
+   * @return the operations per second
+   */
+  private static double churn(SortedCollectionInterface<Integer> tree, int count, long seed) {
+    Random random = new Random(seed);
+    long start = System.nanoTime();
+    for (int op = 0; op < count; op++) {
+      int value = random.nextInt(2 * count);
+      if (random.nextInt(3) == 0) {
+        tree.remove(value);
+      } else {
+        tree.insert(value);
+      }
+    }
+    return count / ((System.nanoTime() - start) / 1e9);
+  }
+
+  /**
+   * Runs the churn in several threads at once, each with its own seed
+   *
+   * @param tree    the tree
+   * @param count   the number of operations over all threads
+   * @param seed    the seed of the first thread
+   * @param writers the number of threads
+   * @return the operations per second over all threads
+   * @throws InterruptedException if the wait for the threads was interrupted
+   */
+  private static double churn(SortedCollectionInterface<Integer> tree, int count, long seed,
+      int writers) throws InterruptedException {
+    Thread[] threads = new Thread[writers];
+    for (int i = 0; i < writers; i++) {
+      long threadSeed = seed + i;
+      threads[i] = new Thread(() -> churn(tree, count / writers, threadSeed));
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return count / writers * writers / ((System.nanoTime() - start) / 1e9);
+  }
+
+  /**
+   * Runs the churn on a durable tree in an empty directory
+   *
+   * @param name               the name of the setting
+   * @param directory          the directory
+   * @param count              the number of operations
+   * @param writers            the number of writing threads
+   * @param syncIntervalMillis the time the leader of a group fsync waits for more records
+   * @param syncBytes          the pending bytes which end the wait of the leader
+   * @param checkpointBytes    the log size of a checkpoint
+   * @throws IOException          if the log could not be written
+   * @throws InterruptedException if the wait for the writers was interrupted
+   */
+  private static void run(String name, Path directory, int count, int writers,
+      long syncIntervalMillis, int syncBytes, long checkpointBytes)
+      throws IOException, InterruptedException {
+    clear(directory);
+    double perSecond;
+    try (DurableRBTrees<Integer> tree = DurableRBTrees.open(directory, KeyCodec.INTEGER,
+        syncIntervalMillis, syncBytes)) {
+      tree.setCheckpointBytes(checkpointBytes);
+      perSecond = churn(tree, count, 42, writers);
+    }
+    System.out.printf("%-36s %,10d ops %,12.0f ops/s%n", name, count, perSecond);
+  }
+
+  /**
+   * Deletes the files of a directory
+   *
+   * @param directory the directory
+   * @throws IOException if the directory could not be read
+   */
+  private static void clear(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Measures the time to open a tree whose directory holds a checkpoint and a log tail
+   *
+   * @param directory  the directory
+   * @param checkpoint the number of operations in the checkpoint
+   * @param tail       the number of operations in the log after it
+   * @throws IOException          if the directory could not be written or read
+   * @throws InterruptedException if the wait for the writers was interrupted
+   */
+  private static void recover(Path directory, int checkpoint, int tail)
+      throws IOException, InterruptedException {
+    clear(directory);
+    int size;
+    try (DurableRBTrees<Integer> tree = DurableRBTrees.open(directory, KeyCodec.INTEGER, 0,
+        0)) {
+      churn(tree, checkpoint, 7, 64); // many writers, as every operation waits for its fsync
+      tree.checkpoint();
+      churn(tree, tail, 1_000, 64);
+      size = tree.size();
+    }
+    System.gc();
+    long start = System.nanoTime();
+    try (DurableRBTrees<Integer> tree = DurableRBTrees.open(directory, KeyCodec.INTEGER, 0,
+        0)) {
+      if (tree.size() != size) {
+        throw new IllegalStateException("The recovered tree had a different size");
+      }
+    }
+    System.out.printf("recover %,d checkpointed + %,d logged ops: %,.0f ms%n", checkpoint, tail,
+        (System.nanoTime() - start) / 1e6);
+  }
+
+  /**
+   * The main method
+   *
+   * @param args the directory of the logs, a temporary directory by default, which should be on
+   *             the disk being measured
+   * @throws IOException          if the logs could not be written or read
+   * @throws InterruptedException if the wait for the writers was interrupted
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path directory = (args.length > 0) ? Files.createDirectories(Path.of(args[0]))
+        : Files.createTempDirectory("rbtree-wal");
+    try {
+      churn(new RBTrees<>(), 1_000_000, 1); // warm up
+      run("warm up", directory, 100_000, 64, 0, 0, Long.MAX_VALUE);
+      System.out.printf("%-36s %,10d ops %,12.0f ops/s%n", "no log", 1_000_000,
+          churn(new RBTrees<>(), 1_000_000, 42));
+      run("1 writer, an fsync per op", directory, 5_000, 1, 0, 0, Long.MAX_VALUE);
+      run("4 writers, group commit", directory, 20_000, 4, 0, 0, Long.MAX_VALUE);
+      run("16 writers, group commit", directory, 100_000, 16, 0, 0, Long.MAX_VALUE);
+      run("64 writers, group commit", directory, 200_000, 64, 0, 0, Long.MAX_VALUE);
+      run("64 writers, group commit up to 1 ms", directory, 200_000, 64, 1, 64 << 10,
+          Long.MAX_VALUE);
+      run("64 writers, checkpoint every 1 MB", directory, 200_000, 64, 0, 0, 1 << 20);
+      recover(directory, 0, 1_000_000);
+      recover(directory, 1_000_000, 0);
+      recover(directory, 1_000_000, 100_000);
+    } finally {
+      clear(directory);
+      if (args.length == 0) {
+        Files.delete(directory);
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package rbtrees;
+
+import java.util.Random;
+
+/**
+ * The key distributions used by the benchmarks. Every distribution produces positions between 0
+ * and n - 1, which the benchmarks map to keys of the tree.
+ */
+public enum KeyDistribution {
+  /**
+   * Positions in ascending order, wrapping around at n
+   */
+  SEQUENTIAL,
+  /**
+   * Uniformly random positions
+   */
+  RANDOM,
+  /**
+   * Positions drawn from a Zipfian distribution (theta 0.99), scrambled so that the hot positions
+   * are spread over the whole tree instead of being its smallest keys
+   */
+  ZIPFIAN;
+
+  private static final double THETA = 0.99; // The skew of the Zipfian distribution
+
+  /**
+   * Generates positions from this distribution
+   *
+   * @param count the number of positions to generate
+   * @param n     the number of distinct positions
+   * @param seed  the random seed
+   * @return the positions
+   */
+  public int[] positions(int count, int n, long seed) {
+    Random random = new Random(seed);
+    int[] positions = new int[count];
+    switch (this) {
+      case SEQUENTIAL:
+        for (int i = 0; i < count; i++) {
+          positions[i] = i % n;
+        }
+        break;
+      case RANDOM:
+        for (int i = 0; i < count; i++) {
+          positions[i] = random.nextInt(n);
+        }
+        break;
+      default:
+        // the rejection-free generator of Gray et al., as used by YCSB
+        double zetaN = 0;
+        for (int i = 1; i <= n; i++) {
+          zetaN += 1 / Math.pow(i, THETA);
+        }
+        double zeta2 = 1 + 1 / Math.pow(2, THETA);
+        double alpha = 1 / (1 - THETA);
+        double eta = (1 - Math.pow(2.0 / n, 1 - THETA)) / (1 - zeta2 / zetaN);
+        for (int i = 0; i < count; i++) {
+          double u = random.nextDouble();
+          double uz = u * zetaN;
+          long rank;
+          if (uz < 1) {
+            rank = 0;
+          } else if (uz < 1 + Math.pow(0.5, THETA)) {
+            rank = 1;
+          } else {
+            rank = Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+          }
+          positions[i] = (int) Math.floorMod(rank * 2654435761L, (long) n);
+        }
+        break;
+    }
+    return positions;
+  }
+}
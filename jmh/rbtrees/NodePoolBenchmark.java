@@ -0,0 +1,83 @@
+package rbtrees;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of the allocations of a steady remove and insert churn on RBTrees, with and
+ * without a node pool. Run it with -prof gc: with the pool, gc.alloc.rate.norm is 0 bytes per
+ * operation once the pool is filled, without it every insert allocates a node.
+ *
+ * Every operation removes a key of the tree and inserts it again, using keys boxed up front, so
+ * the only allocations are those of the tree itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class NodePoolBenchmark {
+
+  static final int KEYS = 1 << 16; // The number of pre-generated keys, a power of two
+  static final int MASK = KEYS - 1;
+
+  /**
+   * A filled tree together with the keys the churn uses
+   */
+  @State(Scope.Thread)
+  public static class TreeState {
+
+    @Param({"0", "1024"})
+    public int poolCapacity;
+
+    @Param({"100000"})
+    public int size;
+
+    NavigableSet<Integer> set; // The tree under test
+    Integer[] keys; // Keys which are in the tree, boxed up front
+    int cursor; // The position of the next key to churn
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void fill() throws ReflectiveOperationException {
+      Class<?> type = Class.forName("RBTrees");
+      set = (NavigableSet<Integer>) type.getDeclaredConstructor().newInstance();
+      type.getMethod("setNodePoolCapacity", int.class).invoke(set, poolCapacity);
+      List<Integer> values = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        values.add(i);
+      }
+      Collections.shuffle(values, new Random(1));
+      set.addAll(values);
+      keys = new Integer[KEYS];
+      for (int i = 0; i < KEYS; i++) {
+        keys[i] = values.get(i % size);
+      }
+      cursor = 0;
+    }
+  }
+
+  @Benchmark
+  public boolean churn(TreeState tree) {
+    Integer key = tree.keys[tree.cursor++ & MASK];
+    tree.set.remove(key);
+    return tree.set.add(key);
+  }
+}
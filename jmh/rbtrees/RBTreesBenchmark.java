@@ -0,0 +1,212 @@
+package rbtrees;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of insert, remove, contains and mixed workloads on RBTrees, with
+ * java.util.TreeSet as the baseline of every benchmark. Both are driven through NavigableSet.
+ *
+ * A tree of the given size holds the even keys 2 * i, so the odd keys 2 * i + 1 are free to be
+ * inserted. The key distribution picks which positions i the operations touch.
+ *
+ * JMH does not accept benchmarks in the default package, and the trees live in the default
+ * package, so the implementations are created reflectively by class name.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RBTreesBenchmark {
+
+  static final int KEYS = 1 << 16; // The number of pre-generated keys, a power of two
+  static final int MASK = KEYS - 1;
+  static final int BATCH = 1024; // The number of inserts or removes per invocation
+
+  /**
+   * A filled tree together with the keys the operations use
+   */
+  @State(Scope.Thread)
+  public static class TreeState {
+
+    @Param({"RBTrees", "java.util.TreeSet"})
+    public String implementation;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    NavigableSet<Integer> set; // The tree under test
+    Integer[] present; // Keys which are in the tree, boxed up front
+    Integer[] absent; // Keys which are not in the tree, boxed up front
+    int cursor; // The position of the next key to use
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void fill() throws ReflectiveOperationException {
+      set = (NavigableSet<Integer>) Class.forName(implementation).getDeclaredConstructor()
+          .newInstance();
+      List<Integer> keys = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        keys.add(2 * i);
+      }
+      Collections.shuffle(keys, new Random(1));
+      set.addAll(keys);
+
+      int[] positions = distribution.positions(KEYS, size, 2);
+      present = new Integer[KEYS];
+      absent = new Integer[KEYS];
+      for (int i = 0; i < KEYS; i++) {
+        present[i] = 2 * positions[i];
+        absent[i] = 2 * positions[i] + 1;
+      }
+      cursor = 0;
+    }
+  }
+
+  /**
+   * Reserves a batch of absent keys to insert and removes them again after the invocation
+   */
+  @State(Scope.Thread)
+  public static class InsertBatch {
+
+    int start; // The position of the first key of the batch
+
+    @Setup(Level.Invocation)
+    public void reserve(TreeState tree) {
+      start = tree.cursor;
+      tree.cursor += BATCH;
+    }
+
+    @TearDown(Level.Invocation)
+    public void undo(TreeState tree) {
+      for (int j = 0; j < BATCH; j++) {
+        tree.set.remove(tree.absent[(start + j) & MASK]);
+      }
+    }
+  }
+
+  /**
+   * Reserves a batch of present keys to remove and inserts them again after the invocation
+   */
+  @State(Scope.Thread)
+  public static class RemoveBatch {
+
+    int start; // The position of the first key of the batch
+
+    @Setup(Level.Invocation)
+    public void reserve(TreeState tree) {
+      start = tree.cursor;
+      tree.cursor += BATCH;
+    }
+
+    @TearDown(Level.Invocation)
+    public void undo(TreeState tree) {
+      for (int j = 0; j < BATCH; j++) {
+        tree.set.add(tree.present[(start + j) & MASK]);
+      }
+    }
+  }
+
+  /**
+   * The read/write mix of the mixed benchmark. Writes alternate between inserting an absent key and
+   * removing it again, so the size of the tree stays the same.
+   */
+  @State(Scope.Thread)
+  public static class Mix {
+
+    @Param({"50", "90", "99"})
+    public int readPercent;
+
+    boolean[] reads; // Whether every operation of the sequence is a read
+    Integer pending; // The key inserted by the last write, removed by the next one
+
+    @Setup(Level.Trial)
+    public void generate() {
+      Random random = new Random(3);
+      reads = new boolean[KEYS];
+      for (int i = 0; i < KEYS; i++) {
+        reads[i] = random.nextInt(100) < readPercent;
+      }
+    }
+
+    @TearDown(Level.Iteration)
+    public void restore(TreeState tree) {
+      if (pending != null) {
+        tree.set.remove(pending);
+        pending = null;
+      }
+    }
+  }
+
+  @Benchmark
+  public boolean contains(TreeState tree) {
+    return tree.set.contains(tree.present[tree.cursor++ & MASK]);
+  }
+
+  @Benchmark
+  public boolean containsMiss(TreeState tree) {
+    return tree.set.contains(tree.absent[tree.cursor++ & MASK]);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int insert(TreeState tree, InsertBatch batch) {
+    int inserted = 0;
+    for (int j = 0; j < BATCH; j++) {
+      if (tree.set.add(tree.absent[(batch.start + j) & MASK])) {
+        inserted++;
+      }
+    }
+    return inserted;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int remove(TreeState tree, RemoveBatch batch) {
+    int removed = 0;
+    for (int j = 0; j < BATCH; j++) {
+      if (tree.set.remove(tree.present[(batch.start + j) & MASK])) {
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  @Benchmark
+  public boolean mixed(TreeState tree, Mix mix) {
+    int position = tree.cursor++ & MASK;
+    if (mix.reads[position]) {
+      return tree.set.contains(tree.present[position]);
+    }
+    if (mix.pending == null) {
+      mix.pending = tree.absent[position];
+      return tree.set.add(mix.pending);
+    }
+    boolean removed = tree.set.remove(mix.pending);
+    mix.pending = null;
+    return removed;
+  }
+}
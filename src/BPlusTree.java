@@ -0,0 +1,604 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class models a B+ tree, a sorted collection laid out for large sets whose lookups are bound
+ * by cache misses. Every node holds up to 32 values in one array, so a lookup visits about
+ * log32(n) nodes where {@link RBTrees} visits log2(n) nodes, one object per level. The
+ * values live in the leaves, which are linked in ascending order, and the inner nodes hold
+ * separators which only route the searches, so a separator may outlive the value it was copied
+ * from.
+ *
+ * The values are ordered like in {@link RBTrees}: by their natural ordering, by a
+ * {@link Comparator}, or by a long key extracted from every value. With an extracted key, every
+ * node keeps the keys in a long array next to its values, and a lookup binary searches those
+ * arrays without ever dereferencing a value.
+ *
+ * @param <T> A comparable generic data type
+ */
+public class BPlusTree<T extends Comparable<T>>
+    implements SortedCollectionInterface<T>, Iterable<T> {
+
+  private static final int MAX_VALUES = 32; // The most values of a leaf, or separators of a node
+  private static final int MIN_VALUES = MAX_VALUES / 2; // The fewest, except in the root
+
+  /**
+   * A node of the tree, whose arrays have one spare slot for an insert before the node is split
+   */
+  private static class Node {
+
+    final Object[] values = new Object[MAX_VALUES + 1]; // The values or the separators
+    final long[] keys; // The extracted keys of the values, null without a key extractor
+    int count; // The number of values or separators
+
+    /**
+     * The constructor of this class
+     *
+     * @param withKeys true if the tree orders its values by an extracted key
+     */
+    Node(boolean withKeys) {
+      keys = withKeys ? new long[MAX_VALUES + 1] : null;
+    }
+  }
+
+  /**
+   * A leaf, holding the values themselves
+   */
+  private static final class Leaf extends Node {
+
+    Leaf next; // The leaf with the next greater values, null for the last leaf
+
+    /**
+     * The constructor of this class
+     *
+     * @param withKeys true if the tree orders its values by an extracted key
+     */
+    Leaf(boolean withKeys) {
+      super(withKeys);
+    }
+  }
+
+  /**
+   * An inner node, where child i holds the values from separator i - 1 up to separator i
+   */
+  private static final class Inner extends Node {
+
+    final Node[] children = new Node[MAX_VALUES + 2]; // The count + 1 children
+
+    /**
+     * The constructor of this class
+     *
+     * @param withKeys true if the tree orders its values by an extracted key
+     */
+    Inner(boolean withKeys) {
+      super(withKeys);
+    }
+  }
+
+  private Node root; // The root, a leaf until the first split
+  private int size; // The number of values
+  private int modCount; // The number of structural modifications, checked by iterators
+  private final Comparator<? super T> comparator; // The order of the values, null if natural
+  private final ToLongFunction<? super T> keyExtractor; // The key the values are ordered by
+
+  private Node splitRight; // The new right sibling of the last node split by an insert
+  private Object splitValue; // The separator of splitRight
+  private long splitKey; // The key of splitValue
+
+  /**
+   * Constructor for a tree ordered by the natural ordering of the values
+   */
+  public BPlusTree() {
+    comparator = null;
+    keyExtractor = null;
+    root = new Leaf(false);
+  }
+
+  /**
+   * Constructor for a tree ordered by a comparator
+   *
+   * @param comparator the comparator ordering the values
+   * @throws NullPointerException if the comparator is null
+   */
+  public BPlusTree(Comparator<? super T> comparator) {
+    if (comparator == null) {
+      throw new NullPointerException("The comparator cannot be null");
+    }
+    this.comparator = comparator;
+    keyExtractor = null;
+    root = new Leaf(false);
+  }
+
+  /**
+   * Constructor for a tree ordered by a long key extracted from every value. The keys are kept in
+   * the nodes, so lookups only compare longs.
+   *
+   * @param keyExtractor extracts the key of a value, values with the same key are duplicates
+   * @throws NullPointerException if the key extractor is null
+   */
+  public BPlusTree(ToLongFunction<? super T> keyExtractor) {
+    if (keyExtractor == null) {
+      throw new NullPointerException("The key extractor cannot be null");
+    }
+    comparator = null;
+    this.keyExtractor = keyExtractor;
+    root = new Leaf(true);
+  }
+
+  /**
+   * Inserts the data into the tree
+   *
+   * @param data the data to insert
+   * @return true if the data was not already in the tree
+   * @throws NullPointerException if the data is null
+   */
+  @Override
+  public boolean insert(T data) {
+    if (data == null) {
+      throw new NullPointerException("The tree cannot store null values");
+    }
+    if (!insert(root, data, keyOf(data))) {
+      return false;
+    }
+    if (splitRight != null) {
+      // the root was split, so the tree grows by a level
+      Inner newRoot = new Inner(keyExtractor != null);
+      newRoot.children[0] = root;
+      newRoot.children[1] = splitRight;
+      insertAt(newRoot, 0, splitValue, splitKey);
+      root = newRoot;
+      splitRight = null;
+      splitValue = null;
+    }
+    size++;
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Inserts the data into the subtree of a node. If the node overflows, it is split and its new
+   * right sibling is left in splitRight for the parent to link.
+   *
+   * @param node the node
+   * @param data the data
+   * @param key  the key of the data
+   * @return true if the data was not already in the subtree
+   */
+  private boolean insert(Node node, T data, long key) {
+    int pos = search(node, data, key);
+    if (node instanceof Leaf) {
+      if (pos >= 0) {
+        return false;
+      }
+      insertAt(node, -pos - 1, data, key);
+      if (node.count > MAX_VALUES) {
+        splitLeaf((Leaf) node);
+      }
+      return true;
+    }
+
+    Inner inner = (Inner) node;
+    int child = (pos >= 0) ? pos + 1 : -pos - 1;
+    if (!insert(inner.children[child], data, key)) {
+      return false;
+    }
+    if (splitRight != null) {
+      Node right = splitRight;
+      splitRight = null;
+      insertAt(inner, child, splitValue, splitKey);
+      System.arraycopy(inner.children, child + 1, inner.children, child + 2,
+          inner.count - child - 1);
+      inner.children[child + 1] = right;
+      splitValue = null;
+      if (inner.count > MAX_VALUES) {
+        splitInner(inner);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Moves the upper half of an overflowing leaf into a new leaf
+   *
+   * @param leaf the leaf
+   */
+  private void splitLeaf(Leaf leaf) {
+    Leaf right = new Leaf(keyExtractor != null);
+    int mid = leaf.count / 2;
+    move(leaf, mid, right, 0, leaf.count - mid);
+    right.count = leaf.count - mid;
+    Arrays.fill(leaf.values, mid, leaf.count, null);
+    leaf.count = mid;
+    right.next = leaf.next;
+    leaf.next = right;
+    splitRight = right;
+    splitValue = right.values[0];
+    splitKey = keyAt(right, 0);
+  }
+
+  /**
+   * Moves the upper half of an overflowing inner node into a new node, and its middle separator up
+   * to the parent
+   *
+   * @param inner the inner node
+   */
+  private void splitInner(Inner inner) {
+    Inner right = new Inner(keyExtractor != null);
+    int mid = inner.count / 2;
+    int moved = inner.count - mid - 1;
+    move(inner, mid + 1, right, 0, moved);
+    System.arraycopy(inner.children, mid + 1, right.children, 0, moved + 1);
+    right.count = moved;
+    splitValue = inner.values[mid];
+    splitKey = keyAt(inner, mid);
+    Arrays.fill(inner.values, mid, inner.count, null);
+    Arrays.fill(inner.children, mid + 1, inner.count + 1, null);
+    inner.count = mid;
+    splitRight = right;
+  }
+
+  /**
+   * Removes the data from the tree
+   *
+   * @param data the data to remove
+   * @return true if the data was in the tree
+   */
+  @Override
+  public boolean remove(T data) {
+    if (data == null || !remove(root, data, keyOf(data))) {
+      return false;
+    }
+    if (root instanceof Inner && root.count == 0) {
+      // the last two children of the root were merged, so the tree shrinks by a level
+      root = ((Inner) root).children[0];
+    }
+    size--;
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Removes the data from the subtree of a node, refilling every child which drops below
+   * MIN_VALUES on the way back up
+   *
+   * @param node the node
+   * @param data the data
+   * @param key  the key of the data
+   * @return true if the data was in the subtree
+   */
+  private boolean remove(Node node, T data, long key) {
+    int pos = search(node, data, key);
+    if (node instanceof Leaf) {
+      if (pos < 0) {
+        return false;
+      }
+      removeAt(node, pos);
+      return true;
+    }
+
+    Inner inner = (Inner) node;
+    int child = (pos >= 0) ? pos + 1 : -pos - 1;
+    if (!remove(inner.children[child], data, key)) {
+      return false;
+    }
+    if (inner.children[child].count < MIN_VALUES) {
+      refill(inner, child);
+    }
+    return true;
+  }
+
+  /**
+   * Refills a child with too few values by borrowing one from a sibling which has more than
+   * MIN_VALUES, or otherwise by merging it with a sibling
+   *
+   * @param parent the parent of the child
+   * @param index  the index of the child
+   */
+  private void refill(Inner parent, int index) {
+    Node node = parent.children[index];
+    Node left = (index > 0) ? parent.children[index - 1] : null;
+    Node right = (index < parent.count) ? parent.children[index + 1] : null;
+    if (left != null && left.count > MIN_VALUES) {
+      borrowFromLeft(parent, index, left, node);
+    } else if (right != null && right.count > MIN_VALUES) {
+      borrowFromRight(parent, index, node, right);
+    } else if (left != null) {
+      merge(parent, index - 1, left, node);
+    } else {
+      merge(parent, index, node, right);
+    }
+  }
+
+  /**
+   * Moves the last value of the left sibling into a node. For inner nodes the value passes through
+   * the separator of the parent, together with the last child of the sibling.
+   *
+   * @param parent the parent
+   * @param index  the index of the node
+   * @param left   the left sibling
+   * @param node   the node
+   */
+  private void borrowFromLeft(Inner parent, int index, Node left, Node node) {
+    int last = left.count - 1;
+    if (node instanceof Leaf) {
+      insertAt(node, 0, left.values[last], keyAt(left, last));
+      removeAt(left, last);
+      setAt(parent, index - 1, node.values[0], keyAt(node, 0));
+      return;
+    }
+    Inner inner = (Inner) node;
+    Inner leftInner = (Inner) left;
+    insertAt(inner, 0, parent.values[index - 1], keyAt(parent, index - 1));
+    System.arraycopy(inner.children, 0, inner.children, 1, inner.count);
+    inner.children[0] = leftInner.children[last + 1];
+    leftInner.children[last + 1] = null;
+    setAt(parent, index - 1, left.values[last], keyAt(left, last));
+    removeAt(left, last);
+  }
+
+  /**
+   * Moves the first value of the right sibling into a node. For inner nodes the value passes
+   * through the separator of the parent, together with the first child of the sibling.
+   *
+   * @param parent the parent
+   * @param index  the index of the node
+   * @param node   the node
+   * @param right  the right sibling
+   */
+  private void borrowFromRight(Inner parent, int index, Node node, Node right) {
+    if (node instanceof Leaf) {
+      insertAt(node, node.count, right.values[0], keyAt(right, 0));
+      removeAt(right, 0);
+      setAt(parent, index, right.values[0], keyAt(right, 0));
+      return;
+    }
+    Inner inner = (Inner) node;
+    Inner rightInner = (Inner) right;
+    insertAt(inner, inner.count, parent.values[index], keyAt(parent, index));
+    inner.children[inner.count] = rightInner.children[0];
+    setAt(parent, index, right.values[0], keyAt(right, 0));
+    removeAt(right, 0);
+    System.arraycopy(rightInner.children, 1, rightInner.children, 0, right.count + 1);
+    rightInner.children[right.count + 1] = null;
+  }
+
+  /**
+   * Merges a node into its left sibling and removes it and their separator from the parent
+   *
+   * @param parent   the parent
+   * @param sepIndex the index of the separator between the nodes
+   * @param left     the left node, which keeps the values
+   * @param right    the right node, which is dropped
+   */
+  private void merge(Inner parent, int sepIndex, Node left, Node right) {
+    if (left instanceof Leaf) {
+      move(right, 0, left, left.count, right.count);
+      left.count += right.count;
+      ((Leaf) left).next = ((Leaf) right).next;
+    } else {
+      insertAt(left, left.count, parent.values[sepIndex], keyAt(parent, sepIndex));
+      move(right, 0, left, left.count, right.count);
+      System.arraycopy(((Inner) right).children, 0, ((Inner) left).children, left.count,
+          right.count + 1);
+      left.count += right.count;
+    }
+    removeAt(parent, sepIndex);
+    System.arraycopy(parent.children, sepIndex + 2, parent.children, sepIndex + 1,
+        parent.count - sepIndex);
+    parent.children[parent.count + 1] = null;
+  }
+
+  /**
+   * True if the tree contains the given data
+   *
+   * @param data the data
+   * @return true if it contains the data
+   */
+  @Override
+  public boolean contains(T data) {
+    if (data == null) {
+      return false;
+    }
+    long key = keyOf(data);
+    Node node = root;
+    while (node instanceof Inner) {
+      int pos = search(node, data, key);
+      node = ((Inner) node).children[(pos >= 0) ? pos + 1 : -pos - 1];
+    }
+    return search(node, data, key) >= 0;
+  }
+
+  /**
+   * Returns the size of the tree
+   *
+   * @return the size
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the tree is empty
+   *
+   * @return true if the tree is empty
+   */
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns an iterator over the values in ascending order, which walks the linked leaves
+   *
+   * @return the iterator
+   */
+  @Override
+  public Iterator<T> iterator() {
+    Node first = root;
+    while (first instanceof Inner) {
+      first = ((Inner) first).children[0];
+    }
+    Leaf firstLeaf = (Leaf) first;
+    return new Iterator<T>() {
+      private Leaf leaf = firstLeaf; // The leaf of the next value
+      private int index = 0; // The index of the next value in the leaf
+      private final int expectedModCount = modCount; // The modCount the tree is expected to have
+
+      @Override
+      public boolean hasNext() {
+        while (leaf != null && index == leaf.count) {
+          leaf = leaf.next;
+          index = 0;
+        }
+        return leaf != null;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public T next() {
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return (T) leaf.values[index++];
+      }
+    };
+  }
+
+  /**
+   * Binary searches the values of a node, comparing only the keys if the tree orders its values by
+   * an extracted key
+   *
+   * @param node the node
+   * @param data the data
+   * @param key  the key of the data
+   * @return the index of the data, or -(insertion point) - 1 if the node does not contain it
+   */
+  @SuppressWarnings("unchecked")
+  private int search(Node node, T data, long key) {
+    int lo = 0;
+    int hi = node.count - 1;
+    if (node.keys != null) {
+      long[] keys = node.keys;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        if (keys[mid] < key) {
+          lo = mid + 1;
+        } else if (keys[mid] > key) {
+          hi = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+    } else {
+      Object[] values = node.values;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        T value = (T) values[mid];
+        int comparison = (comparator == null) ? data.compareTo(value)
+            : comparator.compare(data, value);
+        if (comparison > 0) {
+          lo = mid + 1;
+        } else if (comparison < 0) {
+          hi = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+    }
+    return -(lo + 1);
+  }
+
+  /**
+   * Returns the key of the data, which is only used if the tree orders its values by an extracted
+   * key
+   *
+   * @param data the data
+   * @return the extracted key, or 0 if there is no key extractor
+   */
+  private long keyOf(T data) {
+    return (keyExtractor == null) ? 0 : keyExtractor.applyAsLong(data);
+  }
+
+  /**
+   * Returns the key at an index of a node
+   *
+   * @param node  the node
+   * @param index the index
+   * @return the key, or 0 if the tree has no key extractor
+   */
+  private static long keyAt(Node node, int index) {
+    return (node.keys == null) ? 0 : node.keys[index];
+  }
+
+  /**
+   * Inserts a value and its key at an index of a node, shifting the following values
+   *
+   * @param node  the node
+   * @param index the index
+   * @param value the value
+   * @param key   the key of the value
+   */
+  private static void insertAt(Node node, int index, Object value, long key) {
+    System.arraycopy(node.values, index, node.values, index + 1, node.count - index);
+    node.values[index] = value;
+    if (node.keys != null) {
+      System.arraycopy(node.keys, index, node.keys, index + 1, node.count - index);
+      node.keys[index] = key;
+    }
+    node.count++;
+  }
+
+  /**
+   * Removes the value and key at an index of a node, shifting the following values
+   *
+   * @param node  the node
+   * @param index the index
+   */
+  private static void removeAt(Node node, int index) {
+    System.arraycopy(node.values, index + 1, node.values, index, node.count - index - 1);
+    if (node.keys != null) {
+      System.arraycopy(node.keys, index + 1, node.keys, index, node.count - index - 1);
+    }
+    node.count--;
+    node.values[node.count] = null;
+  }
+
+  /**
+   * Replaces the value and key at an index of a node
+   *
+   * @param node  the node
+   * @param index the index
+   * @param value the value
+   * @param key   the key of the value
+   */
+  private static void setAt(Node node, int index, Object value, long key) {
+    node.values[index] = value;
+    if (node.keys != null) {
+      node.keys[index] = key;
+    }
+  }
+
+  /**
+   * Copies a range of values and keys from one node to another, without changing the counts
+   *
+   * @param from    the source node
+   * @param fromPos the first index in the source
+   * @param to      the target node
+   * @param toPos   the first index in the target
+   * @param length  the number of values
+   */
+  private static void move(Node from, int fromPos, Node to, int toPos, int length) {
+    System.arraycopy(from.values, fromPos, to.values, toPos, length);
+    if (from.keys != null) {
+      System.arraycopy(from.keys, fromPos, to.keys, toPos, length);
+    }
+  }
+}
@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/**
+ * This class models a thread safe Red Black Tree. Writers are serialized by the write lock of a
+ * {@link StampedLock}, while readers walk the tree without locking under an optimistic stamp and
+ * only fall back to the read lock if a writer ran while they were reading.
+ *
+ * An optimistic reader may observe the tree halfway through a rotation, so every optimistic walk
+ * is bounded, tolerates runtime exceptions caused by torn links, and revalidates its stamp
+ * periodically so that it never loops on a transient cycle.
+ *
+ * @param <T> A comparable generic data type
+ */
+public class ConcurrentRBTrees<T extends Comparable<T>> implements SortedCollectionInterface<T> {
+
+  private static final int MAX_DEPTH = 128; // No valid tree of at most 2^31 nodes is deeper
+  private static final int VALIDATE_INTERVAL = 64; // Hops between stamp validations of a walk
+
+  private final RBTrees<T> tree; // The tree guarded by the lock
+  private final StampedLock lock; // The lock serializing writers
+  private volatile int size; // The size of the tree, readable without a stamp
+
+  /**
+   * Constructor for the concurrent red black tree
+   */
+  public ConcurrentRBTrees() {
+    tree = new RBTrees<>();
+    lock = new StampedLock();
+    size = 0;
+  }
+
+  /**
+   * Insert method for the red black tree
+   *
+   * @param data The data to add to the Red black tree
+   * @return true if the insert operation was successful
+   */
+  @Override
+  public boolean insert(T data) {
+    long stamp = lock.writeLock();
+    try {
+      boolean inserted = tree.insert(data);
+      size = tree.size();
+      return inserted;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Remove method which removes the data
+   *
+   * @param data the data to remove
+   * @return true if the data was successfully removed
+   */
+  @Override
+  public boolean remove(T data) {
+    long stamp = lock.writeLock();
+    try {
+      boolean removed = tree.remove(data);
+      size = tree.size();
+      return removed;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * True if the tree contains the given data. The lookup does not take a lock unless a writer
+   * modified the tree during the walk.
+   *
+   * @param data the data
+   * @return true if it contains the data
+   */
+  @Override
+  public boolean contains(T data) {
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        int found = optimisticContains(data, stamp);
+        if (found >= 0 && lock.validate(stamp)) {
+          return found == 1;
+        }
+      } catch (RuntimeException e) {
+        // a torn read caused by a concurrent writer, retry under the read lock
+      }
+    }
+    stamp = lock.readLock();
+    try {
+      return tree.contains(data);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Walks the tree under an optimistic stamp
+   *
+   * @param data  the data to look for
+   * @param stamp the optimistic stamp
+   * @return 1 if found, 0 if not found and -1 if the walk had to be abandoned
+   */
+  private int optimisticContains(T data, long stamp) {
+    RBTrees.Node<T> currNode = tree.getRoot();
+    for (int hops = 1; currNode != null; hops++) {
+      if (hops > MAX_DEPTH || (hops % VALIDATE_INTERVAL == 0 && !lock.validate(stamp))) {
+        return -1;
+      }
+      int comparison = currNode.data.compareTo(data);
+      if (comparison == 0) {
+        return 1;
+      }
+      currNode = (comparison < 0) ? currNode.right : currNode.left;
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the values between lo and hi (both inclusive) in ascending order. The scan does not
+   * take a lock unless a writer modified the tree during the scan.
+   *
+   * @param lo the lowest value to return
+   * @param hi the highest value to return
+   * @return the values in the range
+   */
+  public List<T> range(T lo, T hi) {
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        List<T> values = new ArrayList<>();
+        if (collectRange(tree.getRoot(), lo, hi, values, stamp) && lock.validate(stamp)) {
+          return values;
+        }
+      } catch (RuntimeException e) {
+        // a torn read caused by a concurrent writer, retry under the read lock
+      }
+    }
+    stamp = lock.readLock();
+    try {
+      List<T> values = new ArrayList<>();
+      collectRange(tree.getRoot(), lo, hi, values, 0);
+      return values;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Collects the values in a range with an iterative in-order walk using an explicit stack
+   *
+   * @param root   the root of the tree
+   * @param lo     the lowest value to collect
+   * @param hi     the highest value to collect
+   * @param values the list to collect the values into
+   * @param stamp  the optimistic stamp to validate, or 0 if the read lock is held
+   * @return true if the walk completed, false if it had to be abandoned
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private boolean collectRange(RBTrees.Node<T> root, T lo, T hi, List<T> values, long stamp) {
+    RBTrees.Node<T>[] stack = (RBTrees.Node<T>[]) new RBTrees.Node[MAX_DEPTH];
+    int depth = 0;
+    int hops = 0;
+    RBTrees.Node<T> currNode = root;
+    while (currNode != null || depth > 0) {
+      if (stamp != 0 && ++hops % VALIDATE_INTERVAL == 0 && !lock.validate(stamp)) {
+        return false;
+      }
+      if (currNode != null) {
+        // Only descend to the left if smaller values can still be in the range
+        if (currNode.data.compareTo(lo) >= 0) {
+          if (depth == MAX_DEPTH) {
+            return false;
+          }
+          stack[depth++] = currNode;
+          currNode = currNode.left;
+        } else {
+          currNode = currNode.right;
+        }
+      } else {
+        currNode = stack[--depth];
+        if (currNode.data.compareTo(hi) > 0) {
+          return true;
+        }
+        values.add(currNode.data);
+        currNode = currNode.right;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the size of the tree
+   *
+   * @return the size
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the tree is empty
+   *
+   * @return true if the tree is empty
+   */
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Runs an action on the underlying tree while holding the read lock, used to inspect the tree in
+   * a consistent state
+   *
+   * @param action the action to run
+   * @param <R>    the result type of the action
+   * @return the result of the action
+   */
+  <R> R readLocked(Function<? super RBTrees<T>, R> action) {
+    long stamp = lock.readLock();
+    try {
+      return action.apply(tree);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Converts the tree into a string
+   *
+   * @return a string representation of this tree
+   */
+  @Override
+  public String toString() {
+    return readLocked(RBTrees::toString);
+  }
+}
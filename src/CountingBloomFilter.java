@@ -0,0 +1,195 @@
+import java.util.Arrays;
+
+/**
+ * This class models a counting Bloom filter over 64-bit hashes, which answers whether a value may
+ * be in a set or is certainly not in it, and supports removing values as well as adding them.
+ * Every position is a 4-bit counter, sixteen to a long, and all of the positions of a hash lie in a
+ * single block of 128 counters, which is one 64-byte cache line, so a lookup costs one cache miss
+ * however many positions it checks.
+ *
+ * A counter which reaches 15 stays there, as it can no longer tell how many values set it, so
+ * removing a value never causes a false negative. Saturation is rare at the load the filter is
+ * sized for.
+ */
+public final class CountingBloomFilter {
+
+  private static final int BLOCK_LONGS = 8; // The longs of a block, one cache line
+  private static final int BLOCK_COUNTERS = 16 * BLOCK_LONGS; // The counters of a block
+  private static final int MAX_COUNT = 15; // The value of a saturated counter
+  private static final int MAX_PROBES = 16; // The most counters a hash sets
+  private static final int POSITION_BITS = 7; // The bits of a hash picking a counter in a block
+
+  private final long[] counters; // The counters, in blocks of BLOCK_LONGS longs
+  private final int blocks; // The number of blocks
+  private final int probes; // The number of counters a hash sets
+  private final int capacity; // The number of values the filter was sized for
+  private final double falsePositiveRate; // The false positive rate at the capacity
+
+  /**
+   * Creates a filter for a number of values with a false positive rate
+   *
+   * @param capacity          the number of values, past which the false positive rate grows
+   * @param falsePositiveRate the rate at which a lookup of a missing value answers true
+   * @throws IllegalArgumentException if the capacity is not positive or the rate is not between
+   *                                  0 and 1
+   */
+  public CountingBloomFilter(int capacity, double falsePositiveRate) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The capacity must be positive");
+    }
+    if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+      throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+    }
+    double countersPerValue = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+    // Blocks vary in how many values they hold, which raises the false positive rate of a blocked
+    // filter above that of a classic one the more, the lower the rate, so it gets more counters:
+    // measured, 15% more at 1% and 40% more at 0.1% meet the rate
+    double overhead = Math.max(1, 0.65 - 0.25 * Math.log10(falsePositiveRate));
+    long total = (long) Math.ceil(capacity * countersPerValue * overhead);
+    long blockCount = Math.max(1, (total + BLOCK_COUNTERS - 1) / BLOCK_COUNTERS);
+    if (blockCount * BLOCK_LONGS > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("The filter would be too large");
+    }
+    this.blocks = (int) blockCount;
+    this.counters = new long[blocks * BLOCK_LONGS];
+    this.probes = (int) Math.max(1, Math.min(MAX_PROBES, Math.round(countersPerValue
+        * Math.log(2))));
+    this.capacity = capacity;
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  /**
+   * Adds a hash to the filter
+   *
+   * @param hash the hash of the value
+   */
+  public void add(long hash) {
+    long mixed = mix(hash);
+    int base = block(mixed);
+    long positions = mix(mixed);
+    for (int i = 0; i < probes; i++, positions >>>= POSITION_BITS) {
+      if (i == Long.SIZE / POSITION_BITS) {
+        positions = mix(positions ^ mixed); // the first hash is used up after nine probes
+      }
+      int position = (int) positions & (BLOCK_COUNTERS - 1);
+      int index = base + (position >>> 4);
+      int shift = (position & 15) << 2;
+      if (((counters[index] >>> shift) & MAX_COUNT) != MAX_COUNT) {
+        counters[index] += 1L << shift;
+      }
+    }
+  }
+
+  /**
+   * Removes a hash which was added to the filter. Removing a hash which was not added may cause
+   * false negatives.
+   *
+   * @param hash the hash of the value
+   */
+  public void remove(long hash) {
+    long mixed = mix(hash);
+    int base = block(mixed);
+    long positions = mix(mixed);
+    for (int i = 0; i < probes; i++, positions >>>= POSITION_BITS) {
+      if (i == Long.SIZE / POSITION_BITS) {
+        positions = mix(positions ^ mixed);
+      }
+      int position = (int) positions & (BLOCK_COUNTERS - 1);
+      int index = base + (position >>> 4);
+      int shift = (position & 15) << 2;
+      long count = (counters[index] >>> shift) & MAX_COUNT;
+      if (count != MAX_COUNT && count != 0) {
+        counters[index] -= 1L << shift;
+      }
+    }
+  }
+
+  /**
+   * Returns false if no value with the hash is in the filter, and true if one may be
+   *
+   * @param hash the hash of the value
+   * @return false if the value is certainly missing
+   */
+  public boolean mightContain(long hash) {
+    long mixed = mix(hash);
+    int base = block(mixed);
+    long positions = mix(mixed);
+    for (int i = 0; i < probes; i++, positions >>>= POSITION_BITS) {
+      if (i == Long.SIZE / POSITION_BITS) {
+        positions = mix(positions ^ mixed);
+      }
+      int position = (int) positions & (BLOCK_COUNTERS - 1);
+      if (((counters[base + (position >>> 4)] >>> ((position & 15) << 2)) & MAX_COUNT) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sets every counter to zero
+   */
+  public void clear() {
+    Arrays.fill(counters, 0);
+  }
+
+  /**
+   * Returns the number of values the filter was sized for
+   *
+   * @return the capacity
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the false positive rate the filter was sized for
+   *
+   * @return the false positive rate at the capacity
+   */
+  public double falsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  /**
+   * Returns the number of counters a hash sets
+   *
+   * @return the number of probes
+   */
+  public int probes() {
+    return probes;
+  }
+
+  /**
+   * Returns the memory used by the counters
+   *
+   * @return the size of the counters in bytes
+   */
+  public long memoryBytes() {
+    return 8L * counters.length;
+  }
+
+  /**
+   * Returns the first long of the block of a mixed hash
+   *
+   * @param mixed the mixed hash
+   * @return the index of the block's first long
+   */
+  private int block(long mixed) {
+    // the high 24 bits scaled to the block count
+    return (int) (((mixed >>> 40) * blocks) >>> 24) * BLOCK_LONGS;
+  }
+
+  /**
+   * Spreads the bits of a hash, so that hash codes which differ in few bits use unrelated counters
+   *
+   * @param hash the hash
+   * @return the mixed hash
+   */
+  private static long mix(long hash) {
+    // the finalizer of SplitMix64
+    hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+    hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+    return hash ^ (hash >>> 31);
+  }
+}
@@ -0,0 +1,701 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * This class models a Red Black Tree which survives a crash. Every insert and remove which changes
+ * the tree is appended to a write-ahead log, and the tree is checkpointed into a snapshot (see
+ * {@link RBTrees#writeTo(Path, KeyCodec)}) whenever the log grows past a limit, so that
+ * {@link #open} only loads the latest checkpoint and replays the log written after it.
+ *
+ * A directory holds checkpoint-n.rbs and log-n.wal, where the log holds the operations after the
+ * checkpoint of the same generation n. A log record is
+ * <pre>
+ *   length (4) | crc32c of op and value (4) | op (1, 1 insert, 2 remove) | value (codec)
+ * </pre>
+ * Recovery stops at the first record which is cut short or fails its checksum, and truncates the
+ * log there, as such a record can only come from a write torn by the crash.
+ *
+ * <p><b>Group commit:</b> an insert or remove which changed the tree returns once the fsync which
+ * covers its record completed, so every operation which returned survives a crash. The fsync runs
+ * outside the lock: a writer which finds none running leads the next one and writes every record
+ * pending by then, and the writers arriving meanwhile wait for it or lead the one after it, so
+ * concurrent writers share their fsyncs. The leader may wait up to syncIntervalMillis, or until
+ * syncBytes of records are pending, for more writers to join it; with both 0 it syncs at once.
+ *
+ * <p>The values are ordered by their natural ordering. All methods hold the lock of the tree,
+ * and insert and remove release it while they wait for their fsync, so a change is seen by other
+ * threads before it is durable.
+ *
+ * @param <T> A comparable generic data type
+ */
+public class DurableRBTrees<T extends Comparable<T>> implements SortedCollectionInterface<T>,
+    Closeable {
+
+  private static final byte INSERT = 1; // The op of a logged insert
+  private static final byte REMOVE = 2; // The op of a logged remove
+  private static final int HEADER = 8; // The bytes of a record before its op
+  private static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20; // The log size of a checkpoint
+
+  private final Path directory; // The directory of the checkpoints and logs
+  private final KeyCodec<T> codec; // Writes and reads the values
+  private final RBTrees<T> tree; // The tree in memory
+  private final long commitDelayNanos; // The time a leader waits for more records, 0 for none
+  private final int syncBytes; // The pending bytes which end the wait of a leader, 0 for none
+  private final Record pending; // The records written since the last fsync
+  private final DataOutputStream pendingOut; // Writes values into the pending records
+  private final CRC32C crc; // Computes the checksums of the records
+  private FileChannel log; // The log of the current generation
+  private long generation; // The generation of the current checkpoint and log
+  private long logBytes; // The bytes in the current log, pending records included
+  private long syncedBytes; // The bytes of the current log which were written and synced whole
+  private long durableBytes; // The bytes synced over all generations, the end of the pending ones
+  private boolean syncing; // True while a writer leads an fsync outside the lock
+  private long checkpointBytes; // The log size after which the tree is checkpointed
+  private boolean closed; // True once the tree was closed
+
+  /**
+   * A growable buffer whose bytes can be patched and written without copying them
+   */
+  private static class Record extends ByteArrayOutputStream {
+
+    Record(int size) {
+      super(size);
+    }
+
+    /**
+     * Writes an int at a position already written
+     *
+     * @param position the position
+     * @param value    the int
+     */
+    void putInt(int position, int value) {
+      buf[position] = (byte) (value >>> 24);
+      buf[position + 1] = (byte) (value >>> 16);
+      buf[position + 2] = (byte) (value >>> 8);
+      buf[position + 3] = (byte) value;
+    }
+
+    /**
+     * Drops the bytes written after a size
+     *
+     * @param size the size to cut the buffer back to
+     */
+    void truncate(int size) {
+      count = size;
+    }
+
+    /**
+     * Puts bytes in front of the written bytes
+     *
+     * @param bytes the bytes
+     */
+    void prepend(byte[] bytes) {
+      byte[] joined = Arrays.copyOf(bytes, bytes.length + count);
+      System.arraycopy(buf, 0, joined, bytes.length, count);
+      buf = joined;
+      count = joined.length;
+    }
+
+    /**
+     * Returns the written bytes as a buffer sharing them
+     *
+     * @return the buffer
+     */
+    ByteBuffer bytes() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+
+  /**
+   * Creates a durable tree over a recovered tree
+   *
+   * @param directory          the directory
+   * @param codec              the codec of the values
+   * @param tree               the recovered tree
+   * @param log                the log to append to, positioned after its last valid record
+   * @param generation         the generation of the log
+   * @param syncIntervalMillis the time a leader waits for more records, 0 for none
+   * @param syncBytes          the pending bytes which end the wait of a leader, 0 for none
+   * @throws IOException if the size of the log could not be read
+   */
+  private DurableRBTrees(Path directory, KeyCodec<T> codec, RBTrees<T> tree, FileChannel log,
+      long generation, long syncIntervalMillis, int syncBytes) throws IOException {
+    this.directory = directory;
+    this.codec = codec;
+    this.tree = tree;
+    this.log = log;
+    this.generation = generation;
+    this.logBytes = log.position();
+    this.syncedBytes = logBytes;
+    this.checkpointBytes = DEFAULT_CHECKPOINT_BYTES;
+    this.commitDelayNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+    this.syncBytes = syncBytes;
+    this.pending = new Record(Math.max(256, Math.min(syncBytes, 1 << 20) + 256));
+    this.pendingOut = new DataOutputStream(pending);
+    this.crc = new CRC32C();
+  }
+
+  /**
+   * Opens the durable tree in a directory, creating the directory if it does not exist, and
+   * recovers the tree from the latest checkpoint and the log after it
+   *
+   * @param directory          the directory
+   * @param codec              the codec of the values
+   * @param syncIntervalMillis the time the leader of a group fsync waits for more records to join
+   *                           it, 0 for none
+   * @param syncBytes          the pending bytes which end the wait of the leader early, 0 for none
+   * @param <T>                A comparable generic data type
+   * @return the recovered tree
+   * @throws IOException              if the directory could not be read or written
+   * @throws IllegalArgumentException if an fsync setting is negative
+   * @throws IllegalStateException    if the checkpoint is not a valid snapshot
+   */
+  public static <T extends Comparable<T>> DurableRBTrees<T> open(Path directory,
+      KeyCodec<T> codec, long syncIntervalMillis, int syncBytes) throws IOException {
+    if (syncIntervalMillis < 0 || syncBytes < 0) {
+      throw new IllegalArgumentException("The fsync settings cannot be negative");
+    }
+    Files.createDirectories(directory);
+    long generation = -1;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "checkpoint-*.rbs")) {
+      for (Path file : files) {
+        generation = Math.max(generation, generationOf(file));
+      }
+    }
+    RBTrees<T> tree = new RBTrees<>();
+    if (generation == -1) {
+      generation = 0; // a new directory, whose first log starts from the empty tree
+    } else {
+      tree.readFrom(checkpoint(directory, generation), codec);
+    }
+    deleteOlderThan(directory, generation);
+    FileChannel log = FileChannel.open(logFile(directory, generation), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      syncDirectory(directory); // the log may have just been created
+      long valid = replay(log, tree, codec);
+      log.truncate(valid);
+      log.position(valid);
+      return new DurableRBTrees<>(directory, codec, tree, log, generation, syncIntervalMillis,
+          syncBytes);
+    } catch (IOException | RuntimeException e) {
+      log.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Replays the valid records of a log into a tree
+   *
+   * @param log   the log
+   * @param tree  the tree
+   * @param codec the codec of the values
+   * @param <T>   A comparable generic data type
+   * @return the length of the valid records, after which the log was cut short or torn
+   * @throws IOException if the log could not be read
+   */
+  private static <T extends Comparable<T>> long replay(FileChannel log, RBTrees<T> tree,
+      KeyCodec<T> codec) throws IOException {
+    long size = log.size();
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16).limit(0); // empty until the first read
+    CRC32C crc = new CRC32C();
+    long valid = 0; // The end of the last valid record
+    log.position(0);
+    while (true) {
+      if (buffer.remaining() < HEADER) {
+        buffer.compact();
+        if (log.read(buffer) <= 0 && buffer.position() < HEADER) {
+          return valid;
+        }
+        buffer.flip();
+        continue;
+      }
+      int length = buffer.getInt(buffer.position());
+      if (length <= 0 || valid + HEADER + length > size) {
+        return valid; // a header cut short by the crash
+      }
+      if (buffer.remaining() < HEADER + length) {
+        if (buffer.capacity() < HEADER + length) {
+          ByteBuffer larger = ByteBuffer.allocate(HEADER + length);
+          larger.put(buffer);
+          buffer = larger;
+        } else {
+          buffer.compact();
+        }
+        log.read(buffer);
+        buffer.flip();
+        continue;
+      }
+      int checksum = buffer.getInt(buffer.position() + 4);
+      crc.reset();
+      crc.update(buffer.array(), buffer.position() + HEADER, length);
+      if ((int) crc.getValue() != checksum) {
+        return valid; // a record torn by the crash
+      }
+      byte op = buffer.get(buffer.position() + HEADER);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(),
+          buffer.position() + HEADER + 1, length - 1));
+      T value;
+      try {
+        value = codec.read(in);
+      } catch (EOFException e) {
+        throw new IllegalStateException("A log record is shorter than its value at " + valid);
+      }
+      if (op == INSERT) {
+        tree.insert(value);
+      } else if (op == REMOVE) {
+        tree.remove(value);
+      } else {
+        throw new IllegalStateException("The log has an unknown op " + op + " at " + valid);
+      }
+      buffer.position(buffer.position() + HEADER + length);
+      valid += HEADER + length;
+    }
+  }
+
+  /**
+   * Insert method for the red black tree, logging the insert if it changed the tree, and
+   * waiting until the record is synced
+   *
+   * @param data The data to add to the Red black tree
+   * @return true if the insert operation was successful
+   * @throws NullPointerException  if the data is null
+   * @throws UncheckedIOException  if the log could not be written
+   * @throws IllegalStateException if the tree was closed
+   */
+  @Override
+  public boolean insert(T data) {
+    long end;
+    synchronized (this) {
+      checkOpen();
+      int start = encode(INSERT, data);
+      if (!tree.insert(data)) {
+        pending.truncate(start);
+        return false;
+      }
+      end = append(start);
+    }
+    awaitDurable(end);
+    return true;
+  }
+
+  /**
+   * Remove method which removes the data, logging the remove if it changed the tree, and
+   * waiting until the record is synced
+   *
+   * @param data the data to remove
+   * @return true if the data was successfully removed
+   * @throws NullPointerException  if the data is null
+   * @throws UncheckedIOException  if the log could not be written
+   * @throws IllegalStateException if the tree was closed
+   */
+  @Override
+  public boolean remove(T data) {
+    long end;
+    synchronized (this) {
+      checkOpen();
+      int start = encode(REMOVE, data);
+      if (!tree.remove(data)) {
+        pending.truncate(start);
+        return false;
+      }
+      end = append(start);
+    }
+    awaitDurable(end);
+    return true;
+  }
+
+  /**
+   * True if the tree contains the given data
+   *
+   * @param data the data
+   * @return true if it contains the data
+   */
+  @Override
+  public synchronized boolean contains(T data) {
+    return tree.contains(data);
+  }
+
+  /**
+   * Returns the size of the tree
+   *
+   * @return the size
+   */
+  @Override
+  public synchronized int size() {
+    return tree.size();
+  }
+
+  /**
+   * Returns true if the tree is empty
+   *
+   * @return true if the tree is empty
+   */
+  @Override
+  public synchronized boolean isEmpty() {
+    return tree.isEmpty();
+  }
+
+  /**
+   * Sets the log size after which the tree is checkpointed, which bounds the time a recovery
+   * spends replaying the log. A checkpoint writes the whole tree while holding the lock.
+   *
+   * @param bytes the log size, 64MB by default
+   * @throws IllegalArgumentException if the size is not positive
+   */
+  public synchronized void setCheckpointBytes(long bytes) {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("The checkpoint size must be positive");
+    }
+    checkpointBytes = bytes;
+  }
+
+  /**
+   * Writes the pending records and syncs them, so every operation so far survives a crash
+   *
+   * @throws IOException           if the log could not be written
+   * @throws IllegalStateException if the tree was closed
+   */
+  public synchronized void force() throws IOException {
+    checkOpen();
+    sync();
+  }
+
+  /**
+   * Writes the tree into a new checkpoint and starts a new log, deleting the older checkpoint and
+   * log. The checkpoint is written to a temporary file and renamed once it is synced, so a crash
+   * leaves either the old or the new generation whole.
+   *
+   * @throws IOException           if the checkpoint could not be written
+   * @throws IllegalStateException if the tree was closed
+   */
+  public synchronized void checkpoint() throws IOException {
+    checkOpen();
+    sync();
+    long next = generation + 1;
+    Path temporary = directory.resolve("checkpoint-" + next + ".tmp");
+    tree.writeTo(temporary, codec);
+    Files.move(temporary, checkpoint(directory, next), StandardCopyOption.ATOMIC_MOVE);
+    FileChannel nextLog = FileChannel.open(logFile(directory, next), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    syncDirectory(directory); // the new checkpoint and log, before the old ones are deleted
+    log.close();
+    log = nextLog;
+    generation = next;
+    logBytes = 0;
+    syncedBytes = 0;
+    deleteOlderThan(directory, next);
+  }
+
+  /**
+   * Syncs the pending records and closes the log. The tree cannot be used afterwards.
+   *
+   * @throws IOException if the log could not be written
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      sync();
+    } finally {
+      closed = true;
+      log.close();
+    }
+  }
+
+  /**
+   * Returns the tree in the {@link RBTreeRenderer#PLAIN} format
+   *
+   * @return a string representation of the tree
+   */
+  @Override
+  public synchronized String toString() {
+    return tree.toString();
+  }
+
+  /**
+   * Encodes the record of an operation into the pending records. The record is encoded before the
+   * tree is changed, so that a value the codec cannot write leaves both the tree and the log as
+   * they were; the caller drops the record if the operation did not change the tree.
+   *
+   * @param op   the op of the record
+   * @param data the value of the operation
+   * @return the position of the record in the pending records
+   * @throws NullPointerException if the data is null
+   * @throws UncheckedIOException if the codec could not write the value
+   */
+  private int encode(byte op, T data) {
+    if (data == null) {
+      throw new NullPointerException("The data cannot be null");
+    }
+    int start = pending.size();
+    try {
+      pendingOut.writeLong(0); // the header, patched below
+      pendingOut.writeByte(op);
+      codec.write(data, pendingOut);
+    } catch (IOException e) {
+      pending.truncate(start);
+      throw new UncheckedIOException(e);
+    } catch (RuntimeException e) {
+      pending.truncate(start);
+      throw e;
+    }
+    int length = pending.size() - start - HEADER;
+    crc.reset();
+    crc.update(pending.bytes().array(), start + HEADER, length);
+    pending.putInt(start, length);
+    pending.putInt(start + 4, (int) crc.getValue());
+    return start;
+  }
+
+  /**
+   * Appends the last encoded record to the log, and checkpoints the tree if the log grew past the
+   * limit
+   *
+   * @param start the position of the record in the pending records
+   * @return the end of the record over all generations, which is durable once it is synced
+   * @throws UncheckedIOException if the checkpoint could not be written
+   */
+  private long append(int start) {
+    logBytes += pending.size() - start;
+    long end = durableBytes + pending.size();
+    if (syncing && syncBytes > 0 && pending.size() >= syncBytes) {
+      notifyAll(); // the leader stops waiting for more records
+    }
+    if (logBytes >= checkpointBytes) {
+      try {
+        checkpoint();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Waits until a record is synced. If no fsync is running the caller leads the next one: it waits
+   * for more records if the settings ask for it, takes every pending record and writes and syncs
+   * them outside the lock, while the writers arriving meanwhile wait for it. A failed fsync puts
+   * its records back in front of the pending ones, so the next one writes them again.
+   *
+   * @param end the end of the record over all generations
+   * @throws UncheckedIOException if the fsync led by the caller failed or the wait was interrupted
+   */
+  private void awaitDurable(long end) {
+    while (true) {
+      byte[] batch;
+      FileChannel channel;
+      long position;
+      boolean interrupted;
+      synchronized (this) {
+        while (syncing && durableBytes < end) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(
+                new InterruptedIOException("Interrupted before the record was synced"));
+          }
+        }
+        if (durableBytes >= end) {
+          return;
+        }
+        syncing = true;
+        interrupted = awaitBatch();
+        batch = pending.toByteArray();
+        pending.reset();
+        channel = log;
+        position = syncedBytes;
+      }
+      IOException failure = null;
+      try {
+        write(channel, ByteBuffer.wrap(batch), position);
+      } catch (IOException e) {
+        failure = e;
+      }
+      synchronized (this) {
+        syncing = false;
+        notifyAll();
+        if (failure != null) {
+          pending.prepend(batch);
+        } else {
+          syncedBytes = position + batch.length;
+          durableBytes += batch.length;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt(); // kept back so that it did not close the log
+      }
+      if (failure != null) {
+        throw new UncheckedIOException(failure);
+      }
+    }
+  }
+
+  /**
+   * Waits, as the leader of the next fsync, up to the commit delay for more records to join it,
+   * or until syncBytes of them are pending
+   *
+   * @return true if the wait was interrupted
+   */
+  private boolean awaitBatch() {
+    long deadline = System.nanoTime() + commitDelayNanos;
+    for (long left = commitDelayNanos; left > 0 && (syncBytes == 0 || pending.size() < syncBytes);
+        left = deadline - System.nanoTime()) {
+      try {
+        TimeUnit.NANOSECONDS.timedWait(this, left);
+      } catch (InterruptedException e) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes the pending records to the log and syncs them under the lock, once a running fsync
+   * finished
+   *
+   * @throws IOException if the log could not be written or the wait was interrupted
+   */
+  private void sync() throws IOException {
+    while (syncing) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while the log was synced");
+      }
+    }
+    if (pending.size() == 0) {
+      return;
+    }
+    write(log, pending.bytes(), syncedBytes);
+    syncedBytes += pending.size();
+    durableBytes += pending.size();
+    pending.reset();
+    notifyAll();
+  }
+
+  /**
+   * Writes records to a log after its last synced record and syncs them. The log is first cut back
+   * there, so that the records of a failed fsync, which are written again, do not follow a torn
+   * copy of themselves.
+   *
+   * @param channel  the log
+   * @param bytes    the records
+   * @param position the end of the last synced record
+   * @throws IOException if the log could not be written
+   */
+  private static void write(FileChannel channel, ByteBuffer bytes, long position)
+      throws IOException {
+    if (channel.size() > position) {
+      channel.truncate(position);
+    }
+    while (bytes.hasRemaining()) {
+      position += channel.write(bytes, position);
+    }
+    channel.force(false);
+  }
+
+  /**
+   * Syncs a directory, so that a renamed checkpoint or a created log survives a crash. Not every
+   * platform can open a directory, in which case the entries are left to the file system.
+   *
+   * @param directory the directory
+   */
+  private static void syncDirectory(Path directory) {
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // directories cannot be opened on this platform
+    }
+  }
+
+  /**
+   * Checks that the tree was not closed
+   *
+   * @throws IllegalStateException if the tree was closed
+   */
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The durable tree was closed");
+    }
+  }
+
+  /**
+   * Returns the checkpoint of a generation
+   *
+   * @param directory  the directory
+   * @param generation the generation
+   * @return the path of the checkpoint
+   */
+  private static Path checkpoint(Path directory, long generation) {
+    return directory.resolve("checkpoint-" + generation + ".rbs");
+  }
+
+  /**
+   * Returns the log of a generation
+   *
+   * @param directory  the directory
+   * @param generation the generation
+   * @return the path of the log
+   */
+  private static Path logFile(Path directory, long generation) {
+    return directory.resolve("log-" + generation + ".wal");
+  }
+
+  /**
+   * Returns the generation of a checkpoint or log file
+   *
+   * @param file the file
+   * @return the generation, or -1 if the name has none
+   */
+  private static long generationOf(Path file) {
+    String name = file.getFileName().toString();
+    try {
+      return Long.parseLong(name.substring(name.indexOf('-') + 1, name.lastIndexOf('.')));
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Deletes the checkpoints and logs of older generations, and temporary checkpoints left by a
+   * crash
+   *
+   * @param directory  the directory
+   * @param generation the current generation
+   * @throws IOException if the directory could not be read
+   */
+  private static void deleteOlderThan(Path directory, long generation) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+        "{checkpoint-*.rbs,checkpoint-*.tmp,log-*.wal}")) {
+      for (Path file : files) {
+        long fileGeneration = generationOf(file);
+        if (fileGeneration != -1 && (fileGeneration < generation
+            || file.toString().endsWith(".tmp"))) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+}
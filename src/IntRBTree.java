@@ -0,0 +1,500 @@
+import java.util.Arrays;
+
+/**
+ * This class models a Red Black Tree of primitive ints. Instead of a Node object per element, the
+ * tree is stored in parallel arrays indexed by slot number: the key, the parent (context 0), the
+ * left child (context 1) and the right child (context 2) of every node live in flat int arrays, and
+ * the colors are kept in a bitset. Removed slots are chained into a free list and reused by later
+ * inserts.
+ *
+ * The balancing cases are the same as those of {@link RBTrees}, so both trees produce identical
+ * shapes and colors for the same sequence of operations.
+ */
+public class IntRBTree implements IntSortedCollectionInterface {
+
+  private static final int NIL = -1; // The index used in place of a null node
+  private static final int DEFAULT_CAPACITY = 16; // The initial number of slots
+
+  private int[] keys; // The key stored in every slot
+  private int[] parent; // The parent of every slot
+  private int[] left; // The left child of every slot, also chains the free list
+  private int[] right; // The right child of every slot
+  private long[] black; // Bitset storing whether a slot is black (1) or red (0)
+
+  private int root; // The slot storing the root of the red black tree
+  private int size; // The size of the RB tree
+  private int used; // The number of slots which were ever handed out
+  private int freeHead; // The head of the free list of removed slots
+
+  /**
+   * Constructor for the red black tree
+   */
+  public IntRBTree() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructor for the red black tree with an initial number of slots
+   *
+   * @param initialCapacity the number of nodes that can be stored before the arrays are grown
+   * @throws IllegalArgumentException if the initial capacity is negative
+   */
+  public IntRBTree(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("The initial capacity cannot be negative");
+    }
+    initialCapacity = Math.max(initialCapacity, 1);
+    keys = new int[initialCapacity];
+    parent = new int[initialCapacity];
+    left = new int[initialCapacity];
+    right = new int[initialCapacity];
+    black = new long[(initialCapacity + 63) >>> 6];
+    root = NIL;
+    size = 0;
+    used = 0;
+    freeHead = NIL;
+  }
+
+  /**
+   * Returns the black height (0 for red, 1 for black) of a slot, NIL counts as black
+   *
+   * @param node the slot
+   * @return the black height of the slot
+   */
+  private int blackHeight(int node) {
+    if (node == NIL) {
+      return 1;
+    }
+    return (int) (black[node >>> 6] >>> node) & 1;
+  }
+
+  /**
+   * Sets the black height (0 for red, 1 for black) of a slot
+   *
+   * @param node        the slot
+   * @param blackHeight the black height
+   */
+  private void setBlackHeight(int node, int blackHeight) {
+    if (blackHeight == 0) {
+      black[node >>> 6] &= ~(1L << node);
+    } else {
+      black[node >>> 6] |= 1L << node;
+    }
+  }
+
+  /**
+   * Returns the child of a slot in the given context (1 for left, 2 for right)
+   *
+   * @param node    the slot
+   * @param context the context of the child
+   * @return the child slot
+   */
+  private int child(int node, int context) {
+    return (context == 1) ? left[node] : right[node];
+  }
+
+  /**
+   * Sets the child of a slot in the given context (1 for left, 2 for right)
+   *
+   * @param node    the slot
+   * @param context the context of the child
+   * @param child   the new child slot
+   */
+  private void setChild(int node, int context, int child) {
+    if (context == 1) {
+      left[node] = child;
+    } else {
+      right[node] = child;
+    }
+  }
+
+  /**
+   * Returns true if this is the right child
+   *
+   * @param node the slot
+   * @return true if this is the right child
+   */
+  private boolean isRightChild(int node) {
+    if (parent[node] == NIL) {
+      return false;
+    }
+    return right[parent[node]] == node;
+  }
+
+  /**
+   * Hands out a slot for a new node, reusing a removed slot if there is one
+   *
+   * @param data        the key of the new node
+   * @param blackHeight the black height of the new node
+   * @return the slot of the new node
+   */
+  private int allocate(int data, int blackHeight) {
+    int node;
+    if (freeHead != NIL) {
+      node = freeHead;
+      freeHead = left[node];
+    } else {
+      if (used == keys.length) {
+        grow();
+      }
+      node = used++;
+    }
+    keys[node] = data;
+    parent[node] = NIL;
+    left[node] = NIL;
+    right[node] = NIL;
+    setBlackHeight(node, blackHeight);
+    return node;
+  }
+
+  /**
+   * Returns a slot to the free list
+   *
+   * @param node the slot to free
+   */
+  private void free(int node) {
+    parent[node] = NIL;
+    right[node] = NIL;
+    left[node] = freeHead;
+    freeHead = node;
+  }
+
+  /**
+   * Grows the arrays by half of their current length
+   */
+  private void grow() {
+    int newCapacity = keys.length + (keys.length >> 1) + 1;
+    keys = Arrays.copyOf(keys, newCapacity);
+    parent = Arrays.copyOf(parent, newCapacity);
+    left = Arrays.copyOf(left, newCapacity);
+    right = Arrays.copyOf(right, newCapacity);
+    black = Arrays.copyOf(black, (newCapacity + 63) >>> 6);
+  }
+
+  /**
+   * Insert method for the red black tree
+   *
+   * @param newData The data to add to the Red black tree
+   * @return true if the insert operation was successful
+   */
+  @Override
+  public boolean insert(int newData) {
+    // If the root is null, then add the data to the root
+    if (root == NIL) {
+      root = allocate(newData, 1); // Instantiates the root to be a black node
+    } else {
+      // Otherwise find the place to insert the data
+      int currNode = root;
+      int context;
+      while (true) {
+        if (keys[currNode] < newData) {
+          context = 2;
+        } else if (keys[currNode] > newData) {
+          context = 1;
+        } else { // return false if the value is same ...
+          return false;
+        }
+        if (child(currNode, context) == NIL) {
+          break;
+        }
+        currNode = child(currNode, context);
+      }
+      // Instantiate the new node to enter the tree to be a new red node
+      int newNode = allocate(newData, 0);
+      setChild(currNode, context, newNode);
+      parent[newNode] = currNode;
+
+      // call the red black tree insertBalancer on the inserted node to balance the tree
+      insertBalancer(newNode);
+    }
+
+    size++;
+    return true;
+  }
+
+  /**
+   * Returns the sibling of the current node
+   *
+   * @param node The node whose sibling we are looking for
+   * @return The sibling of the current node
+   * @throws IllegalStateException if the node is root
+   */
+  private int getSibling(int node) {
+    if (parent[node] == NIL) {
+      throw new IllegalStateException("The node is parent");
+    }
+    int siblingContext = (isRightChild(node)) ? 1 : 2;
+    return child(parent[node], siblingContext);
+  }
+
+  /**
+   * The insert balancer function which balances the tree on the inserted node
+   *
+   * @param insertedNode the node which was inserted in the tree
+   */
+  private void insertBalancer(int insertedNode) {
+    // If the node is root set the black height 1
+    if (parent[insertedNode] == NIL) {
+      setBlackHeight(insertedNode, 1);
+      return;
+    } else if (blackHeight(parent[insertedNode]) == 1) { // otherwise if it is already valid,
+      // do nothing
+      return;
+    }
+
+    int childContext = (isRightChild(insertedNode)) ? 2 : 1;
+    int parentContext = (isRightChild(parent[insertedNode])) ? 2 : 1;
+    int aunt = getSibling(parent[insertedNode]);
+
+    // If the aunt is null or is a black node
+    if (blackHeight(aunt) == 1) {
+      // Case 1: the child and parent have the same context
+      if (childContext == parentContext) {
+        rotateNodes(parent[parent[insertedNode]], parent[insertedNode]);
+      } else { // Case 2: the parent and child are not on the same side
+        rotateNodes(parent[insertedNode], insertedNode);
+        rotateNodes(parent[insertedNode], insertedNode);
+      }
+    } else { // Case 3: If the aunt is a red node
+      // Switch the aunt and parent to be black and the grand parent to be red
+      setBlackHeight(aunt, 1);
+      setBlackHeight(parent[insertedNode], 1);
+      setBlackHeight(parent[parent[insertedNode]], 0);
+      // Call insertBalancer on the grand parent
+      insertBalancer(parent[parent[insertedNode]]);
+    }
+  }
+
+  /**
+   * Performs a valid RB Tree rotation so that the black height is not affected
+   *
+   * @param parentNode the parent node
+   * @param childNode  the child node
+   * @throws IllegalArgumentException if the parent and child do not have a relationship
+   */
+  private void rotateNodes(int parentNode, int childNode) throws IllegalArgumentException {
+    if (parent[childNode] != parentNode ||
+        (left[parentNode] != childNode && right[parentNode] != childNode)) {
+      throw new IllegalArgumentException(
+          "The nodes do not have a doubly linked parent child " + "relationship");
+    }
+
+    // Rotates the child and parent
+    int childContext = (isRightChild(childNode)) ? 2 : 1;
+    int hoppingChild = (childContext == 2) ? 1 : 2;
+    int hopping = child(childNode, hoppingChild);
+    setChild(parentNode, childContext, hopping);
+    if (hopping != NIL) {
+      parent[hopping] = parentNode;
+    }
+    setChild(childNode, hoppingChild, parentNode);
+    replaceNodes(parentNode, childNode);
+    parent[parentNode] = childNode;
+
+    // Switches their black heights
+    int parentHeight = blackHeight(parentNode);
+    setBlackHeight(parentNode, blackHeight(childNode));
+    setBlackHeight(childNode, parentHeight);
+  }
+
+  /**
+   * A helper method to replace a node with another node in the given tree
+   *
+   * @param nodeToReplace     the node to replace in the given rb tree
+   * @param nodeToReplaceWith the node to replace a given node with in the rb tree (NIL to remove)
+   */
+  private void replaceNodes(int nodeToReplace, int nodeToReplaceWith) {
+    if (root == nodeToReplace) {
+      root = nodeToReplaceWith;
+      if (nodeToReplaceWith != NIL) {
+        parent[nodeToReplaceWith] = NIL;
+      }
+    } else {
+      int replaceContext = (isRightChild(nodeToReplace)) ? 2 : 1;
+      setChild(parent[nodeToReplace], replaceContext, nodeToReplaceWith);
+      if (nodeToReplaceWith != NIL) {
+        parent[nodeToReplaceWith] = parent[nodeToReplace];
+      }
+    }
+  }
+
+  /**
+   * Remove method which removes the data
+   *
+   * @param data the data to remove
+   * @return true if the data was successfully removed
+   */
+  @Override
+  public boolean remove(int data) {
+    // Code to find the data
+    int currNode = root;
+    while (currNode != NIL && keys[currNode] != data) {
+      currNode = (keys[currNode] < data) ? right[currNode] : left[currNode];
+    }
+    if (currNode == NIL) {
+      return false;
+    }
+
+    if (left[currNode] != NIL && right[currNode] != NIL) { // If the node has 2 children
+      // Removes the successor's slot and moves its key into the current node, which keeps the
+      // current node's color exactly like the successor swap in RBTrees
+      int successor = getSuccessor(currNode);
+      int successorData = keys[successor];
+      removeNode(successor);
+      keys[currNode] = successorData;
+    } else {
+      removeNode(currNode);
+    }
+    size--;
+    return true;
+  }
+
+  /**
+   * Unlinks a node with at most one child from the tree and frees its slot
+   *
+   * @param currNode the node to unlink
+   */
+  private void removeNode(int currNode) {
+    // If the node to remove is a leaf node
+    if (left[currNode] == NIL && right[currNode] == NIL) {
+      if (blackHeight(currNode) == 0) {
+        // If the node is red replace it with null
+        replaceNodes(currNode, NIL);
+      } else if (currNode == root) {
+        // If the node is a black root set root to null
+        root = NIL;
+      } else {
+        // otherwise the current node is double black, remove the double black and then the node
+        removeDoubleBlack(currNode);
+        replaceNodes(currNode, NIL);
+      }
+    } else { // If the node has 1 child
+      int childNode = (left[currNode] != NIL) ? left[currNode] : right[currNode];
+      setBlackHeight(childNode, 1); // Convert child into a black node
+      replaceNodes(currNode, childNode); // replace the current node with child node
+    }
+    free(currNode);
+  }
+
+  /**
+   * Gets the successor of a node <b>WITH A CHILD</b>
+   *
+   * @param node the node whose successor is to be found
+   * @return the successor of the node
+   */
+  private int getSuccessor(int node) {
+    int currNode = right[node]; // Successor is the leftmost child of the right child
+    while (left[currNode] != NIL) {
+      currNode = left[currNode];
+    }
+    return currNode;
+  }
+
+  /**
+   * A private helper method to remove double blacks. Since only one node can be double black at a
+   * time, the extra black is implied by the argument instead of being stored in the color bitset.
+   *
+   * @param doubleBlackNode the double black node
+   */
+  private void removeDoubleBlack(int doubleBlackNode) {
+    if (doubleBlackNode == root) {
+      return;
+    }
+    int sibling = getSibling(doubleBlackNode);
+    int parentNode = parent[doubleBlackNode];
+
+    // Case 1: If the sibling is black and both children are not red nodes
+    if (blackHeight(sibling) == 1 && blackHeight(left[sibling]) != 0 &&
+        blackHeight(right[sibling]) != 0) {
+      setBlackHeight(sibling, 0); // Change sibling to be a red node
+      // Push the extra black up to the parent, which becomes double black if it was black
+      if (blackHeight(parentNode) == 1) {
+        removeDoubleBlack(parentNode);
+      } else {
+        setBlackHeight(parentNode, 1);
+      }
+    } else if (blackHeight(sibling) == 0) { // Case 2: If the siblings is red
+      rotateNodes(parentNode, sibling);
+      removeDoubleBlack(doubleBlackNode);
+    } else { // Case 3: If sibling is black and one of its child is red
+      int doubleBlackContext = (isRightChild(doubleBlackNode)) ? 2 : 1;
+      int oppositeContext = (doubleBlackContext == 2) ? 1 : 2;
+      if (blackHeight(child(sibling, oppositeContext)) == 0) {
+        rotateNodes(parentNode, sibling);
+        setBlackHeight(child(sibling, oppositeContext), 1); // Convert that node to a black node
+      } else { // otherwise rotate the siblings child once and then perform the same operation
+        rotateNodes(sibling, child(sibling, doubleBlackContext));
+        removeDoubleBlack(doubleBlackNode);
+      }
+    }
+  }
+
+  /**
+   * True if the tree contains the given data
+   *
+   * @param data the data
+   * @return true if it contains the data
+   */
+  @Override
+  public boolean contains(int data) {
+    int currNode = root;
+    while (currNode != NIL) {
+      int key = keys[currNode];
+      if (key == data) {
+        return true;
+      }
+      currNode = (key < data) ? right[currNode] : left[currNode];
+    }
+    return false;
+  }
+
+  /**
+   * Returns the size of the tree
+   *
+   * @return the size
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the tree is empty
+   *
+   * @return true if the tree is empty
+   */
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Converts the tree into a string in the same format as the uncolored {@link RBTrees#toString()}
+   *
+   * @return a string representation of this tree
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    toStringHelper("", root, sb, false);
+    return sb.toString();
+  }
+
+  /**
+   * Helper function to convert in string
+   *
+   * @param prefix  the prefix to build
+   * @param node    the node
+   * @param builder the string builder
+   * @param isLeft  checks if the current node is left
+   */
+  private void toStringHelper(String prefix, int node, StringBuilder builder, boolean isLeft) {
+    if (node == NIL) {
+      return;
+    }
+    builder.append(prefix).append(isLeft ? "|-- " : "\\-- ").append(keys[node]).append(" (")
+        .append(blackHeight(node)).append(")\n");
+    toStringHelper(prefix + (isLeft ? "|   " : "    "), left[node], builder, true);
+    toStringHelper(prefix + (isLeft ? "|   " : "    "), right[node], builder, false);
+  }
+}
@@ -0,0 +1,13 @@
+public interface IntSortedCollectionInterface {
+
+    public boolean insert(int data);
+
+    public boolean remove(int data);
+
+    public boolean contains(int data);
+
+    public int size();
+
+    public boolean isEmpty();
+
+}
@@ -0,0 +1,84 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the values of a tree to a binary snapshot and reads them back, see
+ * {@link RBTrees#writeTo(DataOutput, KeyCodec)}. A codec has to read exactly the bytes it wrote.
+ *
+ * @param <T> the type of the values
+ */
+public interface KeyCodec<T> {
+
+  /**
+   * Four bytes per value
+   */
+  KeyCodec<Integer> INTEGER = new KeyCodec<>() {
+    @Override
+    public void write(Integer value, DataOutput out) throws IOException {
+      out.writeInt(value);
+    }
+
+    @Override
+    public Integer read(DataInput in) throws IOException {
+      return in.readInt();
+    }
+  };
+
+  /**
+   * Eight bytes per value
+   */
+  KeyCodec<Long> LONG = new KeyCodec<>() {
+    @Override
+    public void write(Long value, DataOutput out) throws IOException {
+      out.writeLong(value);
+    }
+
+    @Override
+    public Long read(DataInput in) throws IOException {
+      return in.readLong();
+    }
+  };
+
+  /**
+   * The length of the UTF-8 bytes followed by the bytes, without the 64KB limit of writeUTF
+   */
+  KeyCodec<String> STRING = new KeyCodec<>() {
+    @Override
+    public void write(String value, DataOutput out) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    @Override
+    public String read(DataInput in) throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IllegalStateException("The string length was negative: " + length);
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  };
+
+  /**
+   * Writes a single value
+   *
+   * @param value the value, never null
+   * @param out   the output
+   * @throws IOException if the value could not be written
+   */
+  void write(T value, DataOutput out) throws IOException;
+
+  /**
+   * Reads a single value written by {@link #write(Object, DataOutput)}
+   *
+   * @param in the input
+   * @return the value
+   * @throws IOException if the value could not be read
+   */
+  T read(DataInput in) throws IOException;
+}
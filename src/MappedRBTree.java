@@ -0,0 +1,723 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32C;
+
+/**
+ * This class models a Red Black Tree of long keys whose nodes live off-heap in a memory-mapped
+ * file. A restarted JVM can {@link #open(Path)} the same file and serve {@link #contains(Long)}
+ * straight away, without replaying any inserts.
+ *
+ * The file starts with a header followed by fixed-width node records:
+ * <pre>
+ *   header: magic (8) | state (4) | root (4) | size (4) | used (4) | freeHead (4) | padding
+ *   node:   key (8) | parent (4) | left (4) | right (4) | blackHeight (1) | padding (3)
+ * </pre>
+ * Links are slot numbers, -1 standing for null, so the file is independent of where it is mapped.
+ *
+ * <p><b>Crash consistency:</b> the file is mapped privately, so mutations change only the memory
+ * of the process and the file keeps the state of the last completed {@link #force()} or
+ * {@link #close()}. {@link #force()} first writes the header and every node changed since the
+ * last force to a redo log next to the file (the file name followed by .redo), syncs it, and only
+ * then writes them into the file. {@link #open(Path)} replays a complete redo log, which finishes
+ * a force cut short by a crash, and ignores a torn one, whose force never touched the file. So
+ * however the process or the machine stops, the file is reopened in exactly the state of the last
+ * completed force, without a rebuild. The nodes changed between two forces are held in memory.
+ *
+ * <p>A single mapping is limited to 2GB, i.e. roughly 89 million nodes.
+ */
+public class MappedRBTree implements SortedCollectionInterface<Long>, Closeable {
+
+  private static final long MAGIC = 0x5242547265654d31L; // "RBTreeM1"
+  private static final long REDO_MAGIC = 0x5242547265655231L; // "RBTreeR1"
+  private static final int CLEAN = 0; // The state of a file written by force
+  private static final int NIL = -1; // The slot used in place of a null node
+
+  private static final int HEADER_SIZE = 64; // Bytes reserved for the header
+  private static final int STATE_OFFSET = 8;
+  private static final int ROOT_OFFSET = 12;
+  private static final int SIZE_OFFSET = 16;
+  private static final int USED_OFFSET = 20;
+  private static final int FREE_HEAD_OFFSET = 24;
+
+  private static final int NODE_SIZE = 24; // Bytes of a single node record
+  private static final int KEY = 0;
+  private static final int PARENT = 8;
+  private static final int LEFT = 12;
+  private static final int RIGHT = 16;
+  private static final int BLACK_HEIGHT = 20;
+
+  private static final int INITIAL_CAPACITY = 1024; // The number of slots of a new file
+
+  private final FileChannel channel; // The channel of the mapped file
+  private final FileChannel redo; // The channel of the redo log
+  private final Path redoFile; // The redo log, deleted by close
+  private final BitSet touched; // The slots changed since the last force
+  private MappedByteBuffer buffer; // The private mapping of the whole file
+  private int capacity; // The number of slots the current mapping can hold
+  private boolean dirty; // True if the tree changed since the last force
+
+  /**
+   * Maps the given channel, initializing the header if the file is new
+   *
+   * @param channel  the channel of the file, with any complete redo log replayed
+   * @param redo     the channel of the redo log
+   * @param redoFile the redo log
+   * @throws IOException if the file could not be mapped
+   */
+  private MappedRBTree(FileChannel channel, FileChannel redo, Path redoFile) throws IOException {
+    this.channel = channel;
+    this.redo = redo;
+    this.redoFile = redoFile;
+    this.touched = new BitSet();
+    long fileSize = channel.size();
+    if (fileSize == 0) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putLong(0, MAGIC);
+      header.putInt(STATE_OFFSET, CLEAN);
+      header.putInt(ROOT_OFFSET, NIL);
+      header.putInt(SIZE_OFFSET, 0);
+      header.putInt(USED_OFFSET, 0);
+      header.putInt(FREE_HEAD_OFFSET, NIL);
+      writeFully(channel, header, 0);
+      map(INITIAL_CAPACITY);
+      channel.force(true);
+    } else {
+      if (fileSize < HEADER_SIZE || (fileSize - HEADER_SIZE) % NODE_SIZE != 0) {
+        throw new IllegalStateException("The file is not a mapped red black tree");
+      }
+      map((int) ((fileSize - HEADER_SIZE) / NODE_SIZE));
+      if (buffer.getLong(0) != MAGIC) {
+        throw new IllegalStateException("The file is not a mapped red black tree");
+      }
+      if (buffer.getInt(STATE_OFFSET) != CLEAN) {
+        // only written by versions which changed the file in place before a force
+        throw new IllegalStateException(
+            "The file was not flushed after its last modification and cannot be trusted");
+      }
+    }
+  }
+
+  /**
+   * Opens the tree stored in the given file, creating an empty tree if the file does not exist,
+   * and finishes a force which a crash cut short
+   *
+   * @param file the file backing the tree
+   * @return the tree stored in the file
+   * @throws IOException           if the file could not be opened or mapped
+   * @throws IllegalStateException if the file is not a tree
+   */
+  public static MappedRBTree open(Path file) throws IOException {
+    Path redoFile = file.resolveSibling(file.getFileName() + ".redo");
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    FileChannel redo = null;
+    try {
+      redo = FileChannel.open(redoFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      syncDirectory(file.toAbsolutePath().getParent()); // the redo log may have just been created
+      replay(channel, redo);
+      return new MappedRBTree(channel, redo, redoFile);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      if (redo != null) {
+        redo.close();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Writes a complete redo log into the file and empties the log. A torn log, whose force never
+   * reached the file, is dropped.
+   *
+   * @param channel the channel of the file
+   * @param redo    the channel of the redo log
+   * @throws IOException if the log could not be read or the file could not be written
+   */
+  private static void replay(FileChannel channel, FileChannel redo) throws IOException {
+    long size = redo.size();
+    if (size == 0) {
+      return;
+    }
+    if (size >= Integer.MAX_VALUE) {
+      throw new IllegalStateException("The redo log is larger than any force writes");
+    }
+    ByteBuffer log = ByteBuffer.allocate((int) size);
+    while (log.hasRemaining() && redo.read(log, log.position()) > 0) {
+      // reads until the end of the log
+    }
+    if (isComplete(log)) {
+      int slots = log.getInt(8);
+      writeFully(channel, log.slice(12, HEADER_SIZE), 0);
+      for (int i = 0; i < slots; i++) {
+        int position = 12 + HEADER_SIZE + i * (4 + NODE_SIZE);
+        writeFully(channel, log.slice(position + 4, NODE_SIZE), offset(log.getInt(position)));
+      }
+      channel.force(true);
+    }
+    redo.truncate(0);
+    redo.force(true);
+  }
+
+  /**
+   * Returns true if a redo log was written whole: it has the magic, the length its slot count
+   * gives and a matching checksum
+   *
+   * @param log the redo log
+   * @return true if the log is complete
+   */
+  private static boolean isComplete(ByteBuffer log) {
+    int size = log.capacity();
+    if (size < 12 + HEADER_SIZE + 4 || log.getLong(0) != REDO_MAGIC) {
+      return false;
+    }
+    int slots = log.getInt(8);
+    if (slots < 0 || (long) slots * (4 + NODE_SIZE) != size - 12 - HEADER_SIZE - 4) {
+      return false;
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(log.slice(0, size - 4));
+    return (int) crc.getValue() == log.getInt(size - 4);
+  }
+
+  /**
+   * Maps the file so that it can hold the given number of slots. The mapping is private, so the
+   * header and the slots changed since the last force are copied into a new mapping.
+   *
+   * @param slots the number of slots
+   * @throws IOException if the file could not be mapped
+   */
+  private void map(int slots) throws IOException {
+    long bytes = HEADER_SIZE + (long) slots * NODE_SIZE;
+    if (bytes > Integer.MAX_VALUE) {
+      throw new IllegalStateException("The tree cannot grow beyond a 2GB mapping");
+    }
+    MappedByteBuffer old = buffer;
+    buffer = channel.map(FileChannel.MapMode.PRIVATE, 0, bytes);
+    capacity = slots;
+    if (old != null) {
+      buffer.put(0, old, 0, HEADER_SIZE);
+      for (int node = touched.nextSetBit(0); node >= 0; node = touched.nextSetBit(node + 1)) {
+        buffer.put(offset(node), old, offset(node), NODE_SIZE);
+      }
+    }
+  }
+
+  /**
+   * Writes the header and every node changed since the last force into the file and syncs it, so
+   * that it is reopened in this state. They are written to the redo log and synced first, so a
+   * crash while the file is written leaves a log which {@link #open(Path)} finishes.
+   *
+   * @throws IOException if the log or the file could not be written
+   */
+  public void force() throws IOException {
+    if (!dirty) {
+      return;
+    }
+    int slots = touched.cardinality();
+    ByteBuffer log = ByteBuffer.allocate(12 + HEADER_SIZE + slots * (4 + NODE_SIZE) + 4);
+    log.putLong(REDO_MAGIC).putInt(slots).put(buffer.slice(0, HEADER_SIZE));
+    for (int node = touched.nextSetBit(0); node >= 0; node = touched.nextSetBit(node + 1)) {
+      log.putInt(node).put(buffer.slice(offset(node), NODE_SIZE));
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(log.array(), 0, log.position());
+    log.putInt((int) crc.getValue()).flip();
+    redo.truncate(0);
+    writeFully(redo, log, 0);
+    redo.force(true);
+
+    writeFully(channel, buffer.slice(0, HEADER_SIZE), 0);
+    int node = touched.nextSetBit(0);
+    while (node >= 0) {
+      int end = touched.nextClearBit(node); // the run of changed slots from node on
+      writeFully(channel, buffer.slice(offset(node), (end - node) * NODE_SIZE), offset(node));
+      node = touched.nextSetBit(end);
+    }
+    channel.force(true);
+    // a log left behind by a crash from here on is replayed again, which writes the same bytes
+    redo.truncate(0);
+    touched.clear();
+    dirty = false;
+  }
+
+  /**
+   * Flushes the tree and closes the file
+   *
+   * @throws IOException if the flush or close failed
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      force();
+    } finally {
+      channel.close();
+      redo.close();
+    }
+    Files.deleteIfExists(redoFile);
+  }
+
+  /**
+   * Writes a whole buffer at a position of a channel
+   *
+   * @param channel  the channel
+   * @param bytes    the bytes
+   * @param position the position
+   * @throws IOException if the bytes could not be written
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer bytes, long position)
+      throws IOException {
+    while (bytes.hasRemaining()) {
+      position += channel.write(bytes, position);
+    }
+  }
+
+  /**
+   * Syncs a directory, so that a created redo log survives a crash. Not every platform can open a
+   * directory, in which case the entry is left to the file system.
+   *
+   * @param directory the directory
+   */
+  private static void syncDirectory(Path directory) {
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // directories cannot be opened on this platform
+    }
+  }
+
+  /**
+   * Notes that the tree changes, so that the next force writes the header
+   */
+  private void beginMutation() {
+    dirty = true;
+  }
+
+  /**
+   * Returns the byte offset of a slot
+   *
+   * @param node the slot
+   * @return the offset of the node record
+   */
+  private static int offset(int node) {
+    return HEADER_SIZE + node * NODE_SIZE;
+  }
+
+  private long key(int node) {
+    return buffer.getLong(offset(node) + KEY);
+  }
+
+  private void setKey(int node, long key) {
+    touched.set(node);
+    buffer.putLong(offset(node) + KEY, key);
+  }
+
+  private int parent(int node) {
+    return buffer.getInt(offset(node) + PARENT);
+  }
+
+  private void setParent(int node, int parent) {
+    touched.set(node);
+    buffer.putInt(offset(node) + PARENT, parent);
+  }
+
+  /**
+   * Returns the child of a slot in the given context (1 for left, 2 for right)
+   *
+   * @param node    the slot
+   * @param context the context of the child
+   * @return the child slot
+   */
+  private int child(int node, int context) {
+    return buffer.getInt(offset(node) + ((context == 1) ? LEFT : RIGHT));
+  }
+
+  /**
+   * Sets the child of a slot in the given context (1 for left, 2 for right)
+   *
+   * @param node    the slot
+   * @param context the context of the child
+   * @param child   the new child slot
+   */
+  private void setChild(int node, int context, int child) {
+    touched.set(node);
+    buffer.putInt(offset(node) + ((context == 1) ? LEFT : RIGHT), child);
+  }
+
+  /**
+   * Returns the black height (0 for red, 1 for black) of a slot, NIL counts as black
+   *
+   * @param node the slot
+   * @return the black height of the slot
+   */
+  private int blackHeight(int node) {
+    if (node == NIL) {
+      return 1;
+    }
+    return buffer.get(offset(node) + BLACK_HEIGHT);
+  }
+
+  private void setBlackHeight(int node, int blackHeight) {
+    touched.set(node);
+    buffer.put(offset(node) + BLACK_HEIGHT, (byte) blackHeight);
+  }
+
+  private int root() {
+    return buffer.getInt(ROOT_OFFSET);
+  }
+
+  private void setRoot(int root) {
+    buffer.putInt(ROOT_OFFSET, root);
+  }
+
+  /**
+   * Returns true if this is the right child
+   *
+   * @param node the slot
+   * @return true if this is the right child
+   */
+  private boolean isRightChild(int node) {
+    int parent = parent(node);
+    if (parent == NIL) {
+      return false;
+    }
+    return child(parent, 2) == node;
+  }
+
+  /**
+   * Hands out a slot for a new node, reusing a removed slot if there is one
+   *
+   * @param data        the key of the new node
+   * @param blackHeight the black height of the new node
+   * @return the slot of the new node
+   */
+  private int allocate(long data, int blackHeight) {
+    int node = buffer.getInt(FREE_HEAD_OFFSET);
+    if (node != NIL) {
+      buffer.putInt(FREE_HEAD_OFFSET, child(node, 1));
+    } else {
+      node = buffer.getInt(USED_OFFSET);
+      if (node == capacity) {
+        try {
+          map(capacity * 2);
+        } catch (IOException e) {
+          throw new IllegalStateException("The file could not be grown", e);
+        }
+      }
+      buffer.putInt(USED_OFFSET, node + 1);
+    }
+    setKey(node, data);
+    setParent(node, NIL);
+    setChild(node, 1, NIL);
+    setChild(node, 2, NIL);
+    setBlackHeight(node, blackHeight);
+    return node;
+  }
+
+  /**
+   * Returns a slot to the free list
+   *
+   * @param node the slot to free
+   */
+  private void free(int node) {
+    setParent(node, NIL);
+    setChild(node, 2, NIL);
+    setChild(node, 1, buffer.getInt(FREE_HEAD_OFFSET));
+    buffer.putInt(FREE_HEAD_OFFSET, node);
+  }
+
+  /**
+   * Insert method for the red black tree
+   *
+   * @param newData The data to add to the Red black tree
+   * @return true if the insert operation was successful
+   * @throws NullPointerException if the data is null
+   */
+  @Override
+  public boolean insert(Long newData) throws NullPointerException {
+    long data = newData;
+    int currNode = root();
+    int context = 0;
+    // Find the place to insert the data before touching the file
+    while (currNode != NIL) {
+      long key = key(currNode);
+      if (key == data) {
+        return false;
+      }
+      context = (key < data) ? 2 : 1;
+      if (child(currNode, context) == NIL) {
+        break;
+      }
+      currNode = child(currNode, context);
+    }
+
+    beginMutation();
+    if (currNode == NIL) {
+      setRoot(allocate(data, 1)); // Instantiates the root to be a black node
+    } else {
+      int newNode = allocate(data, 0);
+      setChild(currNode, context, newNode);
+      setParent(newNode, currNode);
+      insertBalancer(newNode);
+    }
+    buffer.putInt(SIZE_OFFSET, size() + 1);
+    return true;
+  }
+
+  /**
+   * Returns the sibling of the current node
+   *
+   * @param node The node whose sibling we are looking for
+   * @return The sibling of the current node
+   * @throws IllegalStateException if the node is root
+   */
+  private int getSibling(int node) {
+    if (parent(node) == NIL) {
+      throw new IllegalStateException("The node is parent");
+    }
+    int siblingContext = (isRightChild(node)) ? 1 : 2;
+    return child(parent(node), siblingContext);
+  }
+
+  /**
+   * The insert balancer function which balances the tree on the inserted node
+   *
+   * @param insertedNode the node which was inserted in the tree
+   */
+  private void insertBalancer(int insertedNode) {
+    int parent = parent(insertedNode);
+    // If the node is root set the black height 1
+    if (parent == NIL) {
+      setBlackHeight(insertedNode, 1);
+      return;
+    } else if (blackHeight(parent) == 1) { // otherwise if it is already valid, do nothing
+      return;
+    }
+
+    int childContext = (isRightChild(insertedNode)) ? 2 : 1;
+    int parentContext = (isRightChild(parent)) ? 2 : 1;
+    int aunt = getSibling(parent);
+
+    // If the aunt is null or is a black node
+    if (blackHeight(aunt) == 1) {
+      // Case 1: the child and parent have the same context
+      if (childContext == parentContext) {
+        rotateNodes(parent(parent), parent);
+      } else { // Case 2: the parent and child are not on the same side
+        rotateNodes(parent, insertedNode);
+        rotateNodes(parent(insertedNode), insertedNode);
+      }
+    } else { // Case 3: If the aunt is a red node
+      setBlackHeight(aunt, 1);
+      setBlackHeight(parent, 1);
+      setBlackHeight(parent(parent), 0);
+      insertBalancer(parent(parent));
+    }
+  }
+
+  /**
+   * Performs a valid RB Tree rotation so that the black height is not affected
+   *
+   * @param parentNode the parent node
+   * @param childNode  the child node
+   * @throws IllegalArgumentException if the parent and child do not have a relationship
+   */
+  private void rotateNodes(int parentNode, int childNode) throws IllegalArgumentException {
+    if (parent(childNode) != parentNode ||
+        (child(parentNode, 1) != childNode && child(parentNode, 2) != childNode)) {
+      throw new IllegalArgumentException(
+          "The nodes do not have a doubly linked parent child " + "relationship");
+    }
+
+    // Rotates the child and parent
+    int childContext = (isRightChild(childNode)) ? 2 : 1;
+    int hoppingChild = (childContext == 2) ? 1 : 2;
+    int hopping = child(childNode, hoppingChild);
+    setChild(parentNode, childContext, hopping);
+    if (hopping != NIL) {
+      setParent(hopping, parentNode);
+    }
+    setChild(childNode, hoppingChild, parentNode);
+    replaceNodes(parentNode, childNode);
+    setParent(parentNode, childNode);
+
+    // Switches their black heights
+    int parentHeight = blackHeight(parentNode);
+    setBlackHeight(parentNode, blackHeight(childNode));
+    setBlackHeight(childNode, parentHeight);
+  }
+
+  /**
+   * A helper method to replace a node with another node in the given tree
+   *
+   * @param nodeToReplace     the node to replace in the given rb tree
+   * @param nodeToReplaceWith the node to replace a given node with in the rb tree (NIL to remove)
+   */
+  private void replaceNodes(int nodeToReplace, int nodeToReplaceWith) {
+    if (root() == nodeToReplace) {
+      setRoot(nodeToReplaceWith);
+      if (nodeToReplaceWith != NIL) {
+        setParent(nodeToReplaceWith, NIL);
+      }
+    } else {
+      int replaceContext = (isRightChild(nodeToReplace)) ? 2 : 1;
+      setChild(parent(nodeToReplace), replaceContext, nodeToReplaceWith);
+      if (nodeToReplaceWith != NIL) {
+        setParent(nodeToReplaceWith, parent(nodeToReplace));
+      }
+    }
+  }
+
+  /**
+   * Remove method which removes the data
+   *
+   * @param data the data to remove
+   * @return true if the data was successfully removed
+   * @throws NullPointerException if the data is null
+   */
+  @Override
+  public boolean remove(Long data) throws NullPointerException {
+    long key = data;
+    int currNode = root();
+    while (currNode != NIL && key(currNode) != key) {
+      currNode = child(currNode, (key(currNode) < key) ? 2 : 1);
+    }
+    if (currNode == NIL) {
+      return false;
+    }
+
+    beginMutation();
+    if (child(currNode, 1) != NIL && child(currNode, 2) != NIL) { // If the node has 2 children
+      // Removes the successor's slot and moves its key into the current node
+      int successor = getSuccessor(currNode);
+      long successorData = key(successor);
+      removeNode(successor);
+      setKey(currNode, successorData);
+    } else {
+      removeNode(currNode);
+    }
+    buffer.putInt(SIZE_OFFSET, size() - 1);
+    return true;
+  }
+
+  /**
+   * Unlinks a node with at most one child from the tree and frees its slot
+   *
+   * @param currNode the node to unlink
+   */
+  private void removeNode(int currNode) {
+    if (child(currNode, 1) == NIL && child(currNode, 2) == NIL) { // If the node is a leaf node
+      if (blackHeight(currNode) == 0) {
+        replaceNodes(currNode, NIL);
+      } else if (currNode == root()) {
+        setRoot(NIL);
+      } else {
+        removeDoubleBlack(currNode);
+        replaceNodes(currNode, NIL);
+      }
+    } else { // If the node has 1 child
+      int childNode = (child(currNode, 1) != NIL) ? child(currNode, 1) : child(currNode, 2);
+      setBlackHeight(childNode, 1); // Convert child into a black node
+      replaceNodes(currNode, childNode);
+    }
+    free(currNode);
+  }
+
+  /**
+   * Gets the successor of a node <b>WITH A CHILD</b>
+   *
+   * @param node the node whose successor is to be found
+   * @return the successor of the node
+   */
+  private int getSuccessor(int node) {
+    int currNode = child(node, 2);
+    while (child(currNode, 1) != NIL) {
+      currNode = child(currNode, 1);
+    }
+    return currNode;
+  }
+
+  /**
+   * A private helper method to remove double blacks, the extra black being implied by the argument
+   *
+   * @param doubleBlackNode the double black node
+   */
+  private void removeDoubleBlack(int doubleBlackNode) {
+    if (doubleBlackNode == root()) {
+      return;
+    }
+    int sibling = getSibling(doubleBlackNode);
+    int parentNode = parent(doubleBlackNode);
+
+    // Case 1: If the sibling is black and both children are not red nodes
+    if (blackHeight(sibling) == 1 && blackHeight(child(sibling, 1)) != 0 &&
+        blackHeight(child(sibling, 2)) != 0) {
+      setBlackHeight(sibling, 0);
+      if (blackHeight(parentNode) == 1) {
+        removeDoubleBlack(parentNode);
+      } else {
+        setBlackHeight(parentNode, 1);
+      }
+    } else if (blackHeight(sibling) == 0) { // Case 2: If the siblings is red
+      rotateNodes(parentNode, sibling);
+      removeDoubleBlack(doubleBlackNode);
+    } else { // Case 3: If sibling is black and one of its child is red
+      int doubleBlackContext = (isRightChild(doubleBlackNode)) ? 2 : 1;
+      int oppositeContext = (doubleBlackContext == 2) ? 1 : 2;
+      if (blackHeight(child(sibling, oppositeContext)) == 0) {
+        rotateNodes(parentNode, sibling);
+        setBlackHeight(child(sibling, oppositeContext), 1);
+      } else {
+        rotateNodes(sibling, child(sibling, doubleBlackContext));
+        removeDoubleBlack(doubleBlackNode);
+      }
+    }
+  }
+
+  /**
+   * True if the tree contains the given data
+   *
+   * @param data the data
+   * @return true if it contains the data
+   */
+  @Override
+  public boolean contains(Long data) {
+    long key = data;
+    int currNode = root();
+    while (currNode != NIL) {
+      long currKey = key(currNode);
+      if (currKey == key) {
+        return true;
+      }
+      currNode = child(currNode, (currKey < key) ? 2 : 1);
+    }
+    return false;
+  }
+
+  /**
+   * Returns the size of the tree
+   *
+   * @return the size
+   */
+  @Override
+  public int size() {
+    return buffer.getInt(SIZE_OFFSET);
+  }
+
+  /**
+   * Returns true if the tree is empty
+   *
+   * @return true if the tree is empty
+   */
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+}
@@ -0,0 +1,442 @@
+/**
+ * This class models a persistent Red Black Tree. Nodes have no parent link, so every subtree can be
+ * shared between versions of the tree: an insert or remove copies only the nodes on the path it
+ * walks (plus the few siblings it recolors or rotates) and leaves the previous root untouched.
+ * Taking a {@link #snapshot()} is therefore O(1) and every update allocates O(log n) nodes.
+ *
+ * Nodes reachable from a root are never modified again. A snapshot is safe to read from another
+ * thread as long as it is handed over with a happens-before edge, e.g. through an executor.
+ *
+ * @param <T> A comparable generic data type
+ */
+public class PersistentRBTrees<T extends Comparable<T>> implements SortedCollectionInterface<T> {
+  /**
+   * A class modelling a parent free red black tree node
+   *
+   * @param <T> a generic comparable parameter
+   */
+  protected static class Node<T extends Comparable<T>> {
+
+    /**
+     * the data stored in the node
+     */
+    T data;
+    /**
+     * the left child (context 1) of the node
+     */
+    Node<T> left;
+    /**
+     * the right child (context 2) of the node
+     */
+    Node<T> right;
+    /**
+     * the blackHeight value of the current node
+     */
+    int blackHeight;
+
+    /**
+     * The constructor of this class
+     *
+     * @param data        the data
+     * @param left        the left child
+     * @param right       the right child
+     * @param blackHeight the black height
+     */
+    Node(T data, Node<T> left, Node<T> right, int blackHeight) {
+      this.data = data;
+      this.left = left;
+      this.right = right;
+      this.blackHeight = blackHeight;
+    }
+
+    /**
+     * Returns the child in the given context (1 for left, 2 for right)
+     *
+     * @param context the context of the child
+     * @return the child
+     */
+    Node<T> child(int context) {
+      return (context == 1) ? left : right;
+    }
+
+    /**
+     * Sets the child in the given context (1 for left, 2 for right)
+     *
+     * @param context the context of the child
+     * @param child   the new child
+     */
+    void setChild(int context, Node<T> child) {
+      if (context == 1) {
+        left = child;
+      } else {
+        right = child;
+      }
+    }
+
+    /**
+     * Returns a copy of this node which can be modified without affecting other versions
+     *
+     * @return the copy
+     */
+    Node<T> copy() {
+      return new Node<>(data, left, right, blackHeight);
+    }
+  }
+
+  private static final int MAX_PATH = 130; // Longer than any path of a tree of 2^31 nodes
+
+  private Node<T> root; // The root of the version this object points to
+  private int size; // The size of the version this object points to
+
+  /**
+   * Constructor for the persistent red black tree
+   */
+  public PersistentRBTrees() {
+    this(null, 0);
+  }
+
+  /**
+   * Constructor pointing at an existing version of the tree
+   *
+   * @param root the root of the version
+   * @param size the size of the version
+   */
+  private PersistentRBTrees(Node<T> root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Returns an independent tree sharing every node of the current version. Later updates to this
+   * tree do not affect the snapshot and vice versa.
+   *
+   * @return a snapshot of the tree
+   */
+  public PersistentRBTrees<T> snapshot() {
+    return new PersistentRBTrees<>(root, size);
+  }
+
+  /**
+   * Returns the root
+   *
+   * @return the root
+   */
+  protected Node<T> getRoot() {
+    return root;
+  }
+
+  /**
+   * Returns 1 for a black or null node and 0 for a red node
+   *
+   * @param node the node
+   * @return the black height of the node
+   */
+  private static int blackHeight(Node<?> node) {
+    return (node == null) ? 1 : node.blackHeight;
+  }
+
+  /**
+   * Links a node into the place of the path entry at the given index
+   *
+   * @param path  the copied path
+   * @param dirs  the contexts leading from every path entry to the next
+   * @param index the index of the path entry being replaced
+   * @param node  the node to link
+   */
+  private void link(Node<T>[] path, int[] dirs, int index, Node<T> node) {
+    if (index == 0) {
+      root = node;
+    } else {
+      path[index - 1].setChild(dirs[index - 1], node);
+    }
+  }
+
+  /**
+   * Copies the nodes of a path found by a descent and links the copies together under a new root
+   *
+   * @param path  the path, replaced by its copies
+   * @param dirs  the contexts leading from every path entry to the next
+   * @param depth the number of entries in the path
+   */
+  private void copyPath(Node<T>[] path, int[] dirs, int depth) {
+    for (int i = 0; i < depth; i++) {
+      path[i] = path[i].copy();
+      link(path, dirs, i, path[i]);
+    }
+  }
+
+  /**
+   * Insert method for the red black tree
+   *
+   * @param newData The data to add to the Red black tree
+   * @return true if the insert operation was successful
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  @Override
+  public boolean insert(T newData) {
+    Node<T>[] path = (Node<T>[]) new Node[MAX_PATH];
+    int[] dirs = new int[MAX_PATH];
+    int depth = 0;
+    // Find the place to insert the data without copying anything yet
+    for (Node<T> currNode = root; currNode != null; ) {
+      int comparison = currNode.data.compareTo(newData);
+      if (comparison == 0) {
+        return false;
+      }
+      path[depth] = currNode;
+      dirs[depth++] = (comparison < 0) ? 2 : 1;
+      currNode = currNode.child(dirs[depth - 1]);
+    }
+    copyPath(path, dirs, depth);
+    path[depth] = new Node<>(newData, null, null, 0);
+    link(path, dirs, depth, path[depth]);
+    insertBalancer(path, dirs, depth);
+    size++;
+    return true;
+  }
+
+  /**
+   * The insert balancer function which balances the copied path on the inserted node, using the
+   * same cases as {@link RBTrees}
+   *
+   * @param path  the copied path, ending at the inserted node
+   * @param dirs  the contexts leading from every path entry to the next
+   * @param index the index of the inserted node in the path
+   */
+  private void insertBalancer(Node<T>[] path, int[] dirs, int index) {
+    while (true) {
+      // If the node is root set the black height 1
+      if (index == 0) {
+        path[0].blackHeight = 1;
+        return;
+      }
+      Node<T> parent = path[index - 1];
+      if (parent.blackHeight == 1) { // otherwise if it is already valid, do nothing
+        return;
+      }
+      Node<T> grandParent = path[index - 2];
+      int parentContext = dirs[index - 2];
+      int childContext = dirs[index - 1];
+      Node<T> aunt = grandParent.child(3 - parentContext);
+
+      if (blackHeight(aunt) == 0) { // Case 3: If the aunt is a red node
+        aunt = aunt.copy();
+        grandParent.setChild(3 - parentContext, aunt);
+        aunt.blackHeight = 1;
+        parent.blackHeight = 1;
+        grandParent.blackHeight = 0;
+        index -= 2;
+        continue;
+      }
+      if (childContext != parentContext) { // Case 2: rotate the parent and child onto one side
+        Node<T> child = path[index];
+        parent.setChild(childContext, child.child(parentContext));
+        child.setChild(parentContext, parent);
+        grandParent.setChild(parentContext, child);
+        parent = child;
+      }
+      // Case 1: rotate the grand parent and parent and swap their colors
+      grandParent.setChild(parentContext, parent.child(3 - parentContext));
+      parent.setChild(3 - parentContext, grandParent);
+      link(path, dirs, index - 2, parent);
+      parent.blackHeight = 1;
+      grandParent.blackHeight = 0;
+      return;
+    }
+  }
+
+  /**
+   * Remove method which removes the data
+   *
+   * @param data the data to remove
+   * @return true if the data was successfully removed
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  @Override
+  public boolean remove(T data) {
+    Node<T>[] path = (Node<T>[]) new Node[MAX_PATH];
+    int[] dirs = new int[MAX_PATH];
+    int depth = 0;
+    Node<T> currNode = root;
+    // Code to find the data without copying anything yet
+    while (true) {
+      if (currNode == null) {
+        return false;
+      }
+      int comparison = currNode.data.compareTo(data);
+      path[depth] = currNode;
+      if (comparison == 0) {
+        break;
+      }
+      dirs[depth++] = (comparison < 0) ? 2 : 1;
+      currNode = currNode.child(dirs[depth - 1]);
+    }
+    int found = depth;
+    // If the node has 2 children, extend the path to the successor which will be unlinked instead
+    if (currNode.left != null && currNode.right != null) {
+      dirs[depth++] = 2;
+      currNode = currNode.right;
+      while (currNode.left != null) {
+        path[depth] = currNode;
+        dirs[depth++] = 1;
+        currNode = currNode.left;
+      }
+      path[depth] = currNode;
+    }
+    copyPath(path, dirs, depth + 1);
+    // Move the successor's data into the copy of the found node
+    path[found].data = path[depth].data;
+
+    Node<T> removed = path[depth];
+    Node<T> child = (removed.left != null) ? removed.left : removed.right;
+    if (child != null) { // If the node has 1 child, it is red and replaces the node as black
+      child = child.copy();
+      child.blackHeight = 1;
+      link(path, dirs, depth, child);
+    } else {
+      link(path, dirs, depth, null);
+      if (removed.blackHeight == 1 && depth > 0) { // A black leaf leaves a double black behind
+        removeDoubleBlack(path, dirs, depth - 1);
+      }
+    }
+    size--;
+    return true;
+  }
+
+  /**
+   * A private helper method to remove double blacks, using the same cases as {@link RBTrees}
+   *
+   * @param path  the copied path
+   * @param dirs  the contexts leading from every path entry to the next
+   * @param index the index of the parent of the double black node, which is its child in the
+   *              context dirs[index]
+   */
+  private void removeDoubleBlack(Node<T>[] path, int[] dirs, int index) {
+    while (true) {
+      Node<T> parent = path[index];
+      int doubleBlackContext = dirs[index];
+      int oppositeContext = 3 - doubleBlackContext;
+      Node<T> sibling = parent.child(oppositeContext).copy();
+      parent.setChild(oppositeContext, sibling);
+
+      if (sibling.blackHeight == 0) { // Case 2: If the siblings is red, rotate parent and sibling
+        parent.setChild(oppositeContext, sibling.child(doubleBlackContext));
+        sibling.setChild(doubleBlackContext, parent);
+        link(path, dirs, index, sibling);
+        sibling.blackHeight = 1;
+        parent.blackHeight = 0;
+        // The sibling now sits above the parent on the path
+        path[index + 1] = parent;
+        dirs[index + 1] = doubleBlackContext;
+        path[index] = sibling;
+        dirs[index] = doubleBlackContext;
+        index++;
+        continue;
+      }
+
+      Node<T> near = sibling.child(doubleBlackContext);
+      Node<T> far = sibling.child(oppositeContext);
+      if (blackHeight(near) == 1 && blackHeight(far) == 1) {
+        // Case 1: If the sibling is black and both children are not red nodes
+        sibling.blackHeight = 0;
+        if (parent.blackHeight == 0 || index == 0) {
+          parent.blackHeight = 1;
+          return;
+        }
+        index--; // the parent is double black now
+        continue;
+      }
+
+      // Case 3: If sibling is black and one of its child is red
+      if (blackHeight(far) == 1) { // rotate the near child over the sibling first
+        near = near.copy();
+        sibling.setChild(doubleBlackContext, near.child(oppositeContext));
+        near.setChild(oppositeContext, sibling);
+        parent.setChild(oppositeContext, near);
+        near.blackHeight = 1;
+        sibling.blackHeight = 0;
+        far = sibling;
+        sibling = near;
+      } else {
+        far = far.copy();
+        sibling.setChild(oppositeContext, far);
+      }
+      parent.setChild(oppositeContext, sibling.child(doubleBlackContext));
+      sibling.setChild(doubleBlackContext, parent);
+      link(path, dirs, index, sibling);
+      sibling.blackHeight = parent.blackHeight;
+      parent.blackHeight = 1;
+      far.blackHeight = 1;
+      return;
+    }
+  }
+
+  /**
+   * True if the tree contains the given data
+   *
+   * @param data the data
+   * @return true if it contains the data
+   */
+  @Override
+  public boolean contains(T data) {
+    Node<T> currNode = root;
+    while (currNode != null) {
+      int comparison = currNode.data.compareTo(data);
+      if (comparison == 0) {
+        return true;
+      }
+      currNode = (comparison < 0) ? currNode.right : currNode.left;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the size of the tree
+   *
+   * @return the size
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the tree is empty
+   *
+   * @return true if the tree is empty
+   */
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Converts the tree into a string in the same format as the uncolored {@link RBTrees#toString()}
+   *
+   * @return a string representation of this tree
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    toStringHelper("", root, sb, false);
+    return sb.toString();
+  }
+
+  /**
+   * Helper function to convert in string
+   *
+   * @param prefix  the prefix to build
+   * @param node    the node
+   * @param builder the string builder
+   * @param isLeft  checks if the current node is left
+   */
+  private void toStringHelper(String prefix, Node<T> node, StringBuilder builder, boolean isLeft) {
+    if (node == null) {
+      return;
+    }
+    builder.append(prefix).append(isLeft ? "|-- " : "\\-- ").append(node.data).append(" (")
+        .append(node.blackHeight).append(")\n");
+    toStringHelper(prefix + (isLeft ? "|   " : "    "), node.left, builder, true);
+    toStringHelper(prefix + (isLeft ? "|   " : "    "), node.right, builder, false);
+  }
+}
@@ -0,0 +1,310 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class serves quiz sessions over HTTP, so that many players share one process. Every session
+ * keeps its tree and its board in memory, and all bodies are plain UTF-8 text:
+ * <pre>
+ *   POST   /sessions[?seed=n]       creates a session: its id on the first line, then the board
+ *   GET    /sessions/{id}           the board
+ *   POST   /sessions/{id}/question  the next question
+ *   POST   /sessions/{id}/answer    grades the tree in the body: "correct", or "incorrect", the
+ *                                   first node which differs and the correct tree
+ *   DELETE /sessions/{id}           ends the session
+ * </pre>
+ * A missing session is 404, asking twice or answering without a question is 409, an answer over
+ * 64KB is 413, and a full server is 503. Sessions which are not used for the idle timeout are
+ * dropped.
+ *
+ * Requests are handled on virtual threads when the JDK has them (21 and later), and on a fixed pool
+ * of platform threads otherwise, which is enough as a request only holds its thread while its body
+ * is read and graded. An answer is read before its session is locked, so a slow client neither
+ * blocks the other requests of its session nor pins a carrier thread inside the lock.
+ */
+public class QuizServer {
+
+  private static final int MAX_ANSWER_BYTES = 1 << 16; // The largest answer body which is graded
+
+  private final HttpServer server; // The HTTP server
+  private final ExecutorService executor; // The threads handling the requests
+  private final Map<String, Entry> sessions; // The sessions by id
+  private final int maxSessions; // The number of sessions after which creating one fails
+  private final long idleNanos; // The time after which an unused session is dropped
+  private final AtomicLong lastSweep; // The time the idle sessions were last dropped
+
+  /**
+   * A session together with the time it was last used
+   */
+  private static class Entry {
+
+    final QuizSession session; // The session
+    volatile long lastUsed; // The time of the last request, from System.nanoTime
+
+    Entry(QuizSession session) {
+      this.session = session;
+      this.lastUsed = System.nanoTime();
+    }
+  }
+
+  /**
+   * Creates a server, which does not accept requests until it is started
+   *
+   * @param address     the address to listen on, port 0 picks a free port
+   * @param maxSessions the number of sessions after which creating one fails
+   * @param idleSeconds the time after which an unused session is dropped
+   * @throws IOException              if the address could not be bound
+   * @throws IllegalArgumentException if maxSessions or idleSeconds is not positive
+   */
+  public QuizServer(InetSocketAddress address, int maxSessions, long idleSeconds)
+      throws IOException {
+    if (maxSessions <= 0 || idleSeconds <= 0) {
+      throw new IllegalArgumentException("The session limits must be positive");
+    }
+    this.sessions = new ConcurrentHashMap<>();
+    this.maxSessions = maxSessions;
+    this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+    this.lastSweep = new AtomicLong(System.nanoTime());
+    this.executor = newExecutor();
+    this.server = HttpServer.create(address, 1024);
+    this.server.setExecutor(executor);
+    this.server.createContext("/sessions", this::handle);
+  }
+
+  /**
+   * Creates the executor of the requests: one virtual thread per request when the JDK has them,
+   * otherwise a fixed pool of platform threads
+   *
+   * @return the executor
+   */
+  static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // before JDK 21 the method is missing or needs preview features
+      return Executors.newFixedThreadPool(
+          Math.max(16, 4 * Runtime.getRuntime().availableProcessors()));
+    }
+  }
+
+  /**
+   * Starts accepting requests
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stops accepting requests, waits a second for the requests being handled and drops all sessions
+   */
+  public void stop() {
+    server.stop(1);
+    executor.shutdown();
+    sessions.clear();
+  }
+
+  /**
+   * Returns the port the server listens on
+   *
+   * @return the port
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Returns the number of live sessions
+   *
+   * @return the number of sessions
+   */
+  public int sessionCount() {
+    return sessions.size();
+  }
+
+  /**
+   * Handles a request below /sessions
+   *
+   * @param exchange the request and its response
+   * @throws IOException if the response could not be written
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String method = exchange.getRequestMethod();
+      String[] path = exchange.getRequestURI().getPath().split("/"); // "", "sessions", id, action
+      if (path.length < 2 || !path[1].equals("sessions")) {
+        respond(exchange, 404, "No such path\n");
+        return;
+      }
+      if (path.length == 2) {
+        if (method.equals("POST")) {
+          create(exchange);
+        } else {
+          respond(exchange, 405, "Only POST creates a session\n");
+        }
+        return;
+      }
+      Entry entry = (path.length <= 4) ? sessions.get(path[2]) : null;
+      if (entry == null) {
+        respond(exchange, 404, "No such session\n");
+        return;
+      }
+      entry.lastUsed = System.nanoTime();
+      QuizSession session = entry.session;
+      String action = (path.length == 4) ? path[3] : "";
+      try {
+        if (action.isEmpty() && method.equals("GET")) {
+          respond(exchange, 200, session.board());
+        } else if (action.isEmpty() && method.equals("DELETE")) {
+          sessions.remove(path[2]);
+          respond(exchange, 200, "deleted\n");
+        } else if (action.equals("question") && method.equals("POST")) {
+          respond(exchange, 200, session.nextQuestion() + "\n");
+        } else if (action.equals("answer") && method.equals("POST")) {
+          String answer = readAnswer(exchange);
+          if (answer == null) {
+            respond(exchange, 413, "The answer is larger than " + MAX_ANSWER_BYTES + " bytes\n");
+            return;
+          }
+          // the body is read before the session is locked, so a slow client only holds its thread
+          String mismatch = session.submit(answer);
+          respond(exchange, 200, (mismatch == null) ? "correct\n"
+              : "incorrect\n" + mismatch + "\n" + session.board());
+        } else {
+          respond(exchange, 405, "No such action\n");
+        }
+      } catch (IllegalStateException e) {
+        respond(exchange, 409, e.getMessage() + "\n");
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Reads the body of an answer, up to MAX_ANSWER_BYTES
+   *
+   * @param exchange the request and its response
+   * @return the body, or null if it is larger than MAX_ANSWER_BYTES
+   * @throws IOException if the body could not be read
+   */
+  private static String readAnswer(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      byte[] bytes = in.readNBytes(MAX_ANSWER_BYTES + 1);
+      return (bytes.length > MAX_ANSWER_BYTES) ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Creates a session, with the seed of the query if there is one
+   *
+   * @param exchange the request and its response
+   * @throws IOException if the response could not be written
+   */
+  private void create(HttpExchange exchange) throws IOException {
+    sweep();
+    if (sessions.size() >= maxSessions) {
+      respond(exchange, 503, "Too many sessions\n");
+      return;
+    }
+    long seed;
+    try {
+      seed = seed(exchange.getRequestURI());
+    } catch (NumberFormatException e) {
+      respond(exchange, 400, "The seed is not a number\n");
+      return;
+    }
+    Entry entry = new Entry(new QuizSession(seed));
+    String id;
+    do {
+      id = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    } while (sessions.putIfAbsent(id, entry) != null);
+    respond(exchange, 201, id + "\n" + entry.session.board());
+  }
+
+  /**
+   * Reads the seed of a request to create a session
+   *
+   * @param uri the request
+   * @return the seed of the query, or a random one if there is none
+   * @throws NumberFormatException if the seed is not a number
+   */
+  private static long seed(URI uri) {
+    String query = uri.getQuery();
+    if (query != null && query.startsWith("seed=")) {
+      return Long.parseLong(query.substring(5));
+    }
+    return ThreadLocalRandom.current().nextLong();
+  }
+
+  /**
+   * Drops the sessions which were not used for the idle timeout, at most once every tenth of it
+   */
+  private void sweep() {
+    long now = System.nanoTime();
+    long last = lastSweep.get();
+    if (now - last < idleNanos / 10 || !lastSweep.compareAndSet(last, now)) {
+      return;
+    }
+    for (Iterator<Entry> it = sessions.values().iterator(); it.hasNext(); ) {
+      if (now - it.next().lastUsed > idleNanos) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Writes a plain text response
+   *
+   * @param exchange the request and its response
+   * @param status   the status code
+   * @param body     the body, null for none
+   * @throws IOException if the response could not be written
+   */
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = (body == null) ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    // the JDK server sends a body of length 0 chunked, so an empty body is just the last chunk;
+    // -1 would send no body at all, after which the JDK client loses the connection
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Runs a server until the process is stopped
+   *
+   * @param args the port, 8080 by default, the maximum number of sessions, 100000 by default, and
+   *             the idle timeout in seconds, 1800 by default
+   * @throws IOException if the port could not be bound
+   */
+  public static void main(String[] args) throws IOException {
+    // The JDK server writes the headers and the body of a response apart, and with Nagle's
+    // algorithm the body then waits for the client's delayed ACK. The property is read when the
+    // first server is created, so it is set here unless it was given with -D.
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+    int maxSessions = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+    long idleSeconds = (args.length > 2) ? Long.parseLong(args[2]) : 1800;
+    QuizServer server = new QuizServer(new InetSocketAddress(port), maxSessions, idleSeconds);
+    server.start();
+    System.out.println("Quiz server listening on port " + server.getPort());
+  }
+}
@@ -0,0 +1,213 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class models a single player's quiz without any console or file, so that the same engine
+ * backs {@link RBTreeQuiz} and {@link QuizServer}. A session owns its tree, and the board, which is
+ * the tree in the {@link RBTreeRenderer#PLAIN} format as the player last saw it.
+ *
+ * A session alternates between asking a question, which applies an insert or a remove to the tree,
+ * and grading the answer to it. Two sessions created with the same seed and sizes ask the same
+ * questions. The methods are synchronized, so a session can be used by several threads at once.
+ */
+public class QuizSession {
+
+  private final Random random; // The source of the questions
+  private final RBTrees<Integer> tree; // The tree after the last question
+  private final List<Integer> values; // The values in the tree, to pick one to remove
+  private final int averageSize; // The size the tree tends to
+  private final int lowerBound; // The smallest value inserted
+  private final int range; // The number of values which can be inserted
+  private final StringBuilder board; // The tree as the player last saw it
+  private String question; // The question waiting for an answer, null if there is none
+  private int asked; // The number of questions asked
+  private int correct; // The number of questions answered correctly
+
+  /**
+   * Creates a session with a tree of 1 to 7 values between 1 and 100
+   *
+   * @param seed the seed of the questions
+   */
+  public QuizSession(long seed) {
+    this(seed, 7, 1, 100);
+  }
+
+  /**
+   * Creates a session with a tree of 1 to averageSize values
+   *
+   * @param seed        the seed of the questions
+   * @param averageSize the size the tree tends to
+   * @param lowerBound  the smallest value inserted
+   * @param range       the number of values which can be inserted, from lowerBound on
+   * @throws IllegalArgumentException if averageSize is not positive or range is smaller than
+   *                                  twice averageSize
+   */
+  public QuizSession(long seed, int averageSize, int lowerBound, int range) {
+    if (averageSize <= 0 || range < 2 * averageSize) {
+      throw new IllegalArgumentException("The range is too small for the average size");
+    }
+    this.random = new Random(seed);
+    this.tree = new RBTrees<>();
+    this.values = new ArrayList<>();
+    this.averageSize = averageSize;
+    this.lowerBound = lowerBound;
+    this.range = range;
+    this.board = new StringBuilder();
+
+    int initialAmount = random.nextInt(averageSize) + 1; // from 1 to averageSize
+    while (tree.size() < initialAmount) {
+      if (isRemove()) {
+        tree.remove(values.remove(random.nextInt(values.size())));
+      } else {
+        Integer randomInt = random.nextInt(range) + lowerBound;
+        tree.insert(randomInt);
+        if (!values.contains(randomInt)) {
+          values.add(randomInt);
+        }
+      }
+    }
+    renderBoard();
+  }
+
+  /**
+   * Asks the next question, applying its insert or remove to the tree
+   *
+   * @return the question
+   * @throws IllegalStateException if the last question was not answered
+   */
+  public synchronized String nextQuestion() {
+    if (question != null) {
+      throw new IllegalStateException("The last question was not answered");
+    }
+    if (isRemove()) {
+      Integer randomElementToRemove = values.remove(random.nextInt(values.size()));
+      tree.remove(randomElementToRemove);
+      question = "How will the tree look when (" + randomElementToRemove + ") is removed?";
+    } else {
+      Integer randomInt = random.nextInt(range) + lowerBound;
+      while (tree.contains(randomInt)) {
+        randomInt = random.nextInt(range) + lowerBound;
+      }
+      tree.insert(randomInt);
+      values.add(randomInt);
+      question = "How will the tree look when (" + randomInt + ") is inserted?";
+    }
+    asked++;
+    return question;
+  }
+
+  /**
+   * Grades the answer to the last question. Afterwards the board shows the correct tree.
+   *
+   * The answer is read while the session is locked, so the reader must not wait on a client, such
+   * as a reader over a request body; such an answer is read into a string first and graded by
+   * {@link #submit(String)}.
+   *
+   * @param answer the answer in the {@link RBTreeRenderer#PLAIN} format
+   * @return null if the answer is correct, otherwise a description of the first node which differs
+   * @throws IOException           if the answer could not be read
+   * @throws IllegalStateException if no question is waiting for an answer
+   */
+  public synchronized String submit(BufferedReader answer) throws IOException {
+    if (question == null) {
+      throw new IllegalStateException("No question was asked");
+    }
+    String mismatch = RBTreeAnswerChecker.check(tree, answer);
+    if (mismatch == null) {
+      correct++;
+    }
+    question = null;
+    renderBoard();
+    return mismatch;
+  }
+
+  /**
+   * Grades the answer to the last question. Afterwards the board shows the correct tree.
+   *
+   * @param answer the answer in the {@link RBTreeRenderer#PLAIN} format
+   * @return null if the answer is correct, otherwise a description of the first node which differs
+   * @throws IllegalStateException if no question is waiting for an answer
+   */
+  public String submit(String answer) {
+    try {
+      return submit(new BufferedReader(new StringReader(answer)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // a StringReader does not throw
+    }
+  }
+
+  /**
+   * Returns the board, which is the tree before the question waiting for an answer, or the tree
+   * after the last question if it was answered
+   *
+   * @return the board in the {@link RBTreeRenderer#PLAIN} format
+   */
+  public synchronized String board() {
+    return board.toString();
+  }
+
+  /**
+   * Returns the question waiting for an answer
+   *
+   * @return the question, null if there is none
+   */
+  public synchronized String question() {
+    return question;
+  }
+
+  /**
+   * Returns the tree, which already has the insert or remove of the last question applied. It must
+   * not be modified.
+   *
+   * @return the tree
+   */
+  public RBTrees<Integer> getTree() {
+    return tree;
+  }
+
+  /**
+   * Returns the number of questions asked
+   *
+   * @return the number of questions asked
+   */
+  public synchronized int asked() {
+    return asked;
+  }
+
+  /**
+   * Returns the number of questions answered correctly
+   *
+   * @return the number of questions answered correctly
+   */
+  public synchronized int correct() {
+    return correct;
+  }
+
+  /**
+   * Decides if the next question removes a value, which gets likelier as the tree grows
+   *
+   * @return true to remove a value, false to insert one
+   */
+  private boolean isRemove() {
+    int currEvent = random.nextInt(100); // 0 to 99
+    int probabilityRemove = 50 * tree.size() / averageSize;
+    return currEvent < probabilityRemove;
+  }
+
+  /**
+   * Renders the tree into the board, reusing its buffer
+   */
+  private void renderBoard() {
+    board.setLength(0);
+    try {
+      RBTreeRenderer.PLAIN.render(tree, board);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // a StringBuilder does not throw
+    }
+  }
+}
@@ -0,0 +1,65 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class grades a quiz answer written in the {@link RBTreeRenderer#PLAIN} format against the
+ * tree it should match. The answer is read a line at a time while the tree is walked in pre-order,
+ * and the first node which differs ends the check, so neither the tree nor the answer is ever
+ * rendered or held in memory as a whole.
+ *
+ * Only the value and the color of every line are compared, as the pre-order of a binary search
+ * tree already fixes its shape. The branches and the indentation of an answer may be sloppy, and
+ * blank lines are skipped. The checker holds no state and can grade many answers at once.
+ */
+public final class RBTreeAnswerChecker {
+
+  // A value followed by its color in parentheses, anywhere in a line
+  private static final Pattern NODE = Pattern.compile("(-?\\d+)\\s*\\((\\d)\\)");
+
+  /**
+   * Only the static methods are used
+   */
+  private RBTreeAnswerChecker() {
+  }
+
+  /**
+   * Compares an answer against a tree
+   *
+   * @param tree   the expected tree
+   * @param answer the answer, one node per line in pre-order
+   * @return null if the answer matches the tree, otherwise a description of the first node which
+   *     differs
+   * @throws IOException if the answer could not be read
+   */
+  public static String check(RBTrees<Integer> tree, BufferedReader answer) throws IOException {
+    Matcher matcher = NODE.matcher("");
+    RBTrees.Node<Integer> node = tree.getRoot();
+    int lineNumber = 0;
+    String line;
+    while ((line = answer.readLine()) != null) {
+      lineNumber++;
+      if (line.isBlank()) {
+        continue;
+      }
+      if (node == null) {
+        return "Line " + lineNumber + ": the tree has no more nodes, but found " + line.trim();
+      }
+      if (!matcher.reset(line).find()) {
+        return "Line " + lineNumber + ": expected " + node + ", but found no node in "
+            + line.trim();
+      }
+      if (!matcher.group(1).equals(node.data.toString())
+          || matcher.group(2).charAt(0) != Character.forDigit(node.blackHeight, 10)) {
+        return "Line " + lineNumber + ": expected " + node + ", but found " + matcher.group(1)
+            + " (" + matcher.group(2) + ")";
+      }
+      node = RBTrees.preOrderSuccessor(node);
+    }
+    if (node != null) {
+      return "Line " + (lineNumber + 1) + ": expected " + node + ", but the answer ended";
+    }
+    return null;
+  }
+}
@@ -0,0 +1,1183 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class models a sorted map on a Red Black Tree. The keys are kept in an {@link RBTrees} whose
+ * nodes also hold the values, so every mapping is a single node and the map shares the nodes and
+ * the balancing of the set. get, put, remove, computeIfAbsent, computeIfPresent, compute and merge
+ * find (or insert) the node of the key in a single descent from the root.
+ *
+ * Like the set, the map is a {@link NavigableMap} whose range views and key views are live, and it
+ * supports the order statistics of the set.
+ *
+ * @param <K> A comparable generic key type
+ * @param <V> the type of the values
+ */
+public class RBTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V>
+    implements NavigableMap<K, V> {
+
+  private final RBTrees<K> tree; // The tree of the keys, whose nodes hold the values
+  private final SubMap whole; // The view of the whole map, which the views are derived from
+
+  /**
+   * Constructor for the map, ordering its keys by their natural ordering
+   */
+  public RBTreeMap() {
+    this(new RBTrees<K>());
+  }
+
+  /**
+   * Constructor for a map ordering its keys with a comparator
+   *
+   * @param comparator the comparator
+   * @throws NullPointerException if the comparator is null
+   */
+  public RBTreeMap(Comparator<? super K> comparator) {
+    this(new RBTrees<K>(comparator));
+  }
+
+  /**
+   * Constructor for a map ordering its keys by a long key extracted from every key, which is cached
+   * in the node of the mapping
+   *
+   * @param keyExtractor the function extracting the long key of a key
+   * @throws NullPointerException if the key extractor is null
+   */
+  public RBTreeMap(ToLongFunction<? super K> keyExtractor) {
+    this(new RBTrees<K>(keyExtractor));
+  }
+
+  /**
+   * Constructor for a map on an empty tree
+   *
+   * @param tree the empty tree
+   */
+  private RBTreeMap(RBTrees<K> tree) {
+    this.tree = tree;
+    this.whole = new SubMap(true, null, true, true, null, true, false);
+  }
+
+  /**
+   * Returns the number of mappings
+   *
+   * @return the size
+   */
+  @Override
+  public int size() {
+    return tree.size();
+  }
+
+  /**
+   * Returns true if the map has no mappings
+   *
+   * @return true if the map is empty
+   */
+  @Override
+  public boolean isEmpty() {
+    return tree.isEmpty();
+  }
+
+  /**
+   * True if the map has a mapping for the key
+   *
+   * @param key the key
+   * @return true if the key is mapped
+   * @throws ClassCastException if the key cannot be compared with the keys in the map
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public boolean containsKey(Object key) {
+    return tree.getNode((K) key) != null;
+  }
+
+  /**
+   * Returns the value mapped to the key
+   *
+   * @param key the key
+   * @return the value, or null if the key is not mapped
+   * @throws ClassCastException if the key cannot be compared with the keys in the map
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public V get(Object key) {
+    return valueOf(tree.getNode((K) key));
+  }
+
+  /**
+   * Maps the key to the value
+   *
+   * @param key   the key
+   * @param value the value
+   * @return the value previously mapped to the key, or null if there was none
+   * @throws NullPointerException if the key is null
+   */
+  @Override
+  public V put(K key, V value) {
+    RBTrees.Node<K> node = tree.getOrInsert(checkKey(key), null);
+    V oldValue = valueOf(node);
+    node.value = value;
+    return oldValue;
+  }
+
+  /**
+   * Removes the mapping of the key
+   *
+   * @param key the key
+   * @return the value which was mapped to the key, or null if there was none
+   * @throws ClassCastException if the key cannot be compared with the keys in the map
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public V remove(Object key) {
+    RBTrees.Node<K> node = tree.getNode((K) key);
+    if (node == null) {
+      return null;
+    }
+    V oldValue = valueOf(node);
+    tree.removeNode(node);
+    return oldValue;
+  }
+
+  /**
+   * Removes every mapping
+   */
+  @Override
+  public void clear() {
+    tree.clear();
+  }
+
+  /**
+   * Maps the key to the value computed by the function if the key is not mapped (or is mapped to
+   * null). The new node is only linked into the tree if the function returns a value.
+   *
+   * @param key             the key
+   * @param mappingFunction computes the value from the key
+   * @return the current value of the key, or null if there is none
+   * @throws NullPointerException            if the key or the function is null
+   * @throws ConcurrentModificationException if the function modified the map
+   */
+  @Override
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    Objects.requireNonNull(mappingFunction);
+    RBTrees.Node<K> node = tree.getOrInsert(checkKey(key), mappingFunction);
+    if (node == null || node.value != null) {
+      return valueOf(node);
+    }
+    // the key was already mapped to null
+    int expectedModCount = tree.modCount();
+    V value = mappingFunction.apply(key);
+    checkModCount(expectedModCount);
+    node.value = value;
+    return value;
+  }
+
+  /**
+   * Replaces the value of the key with the value computed by the function if the key is mapped to
+   * a value, and removes the mapping if the function returns null
+   *
+   * @param key               the key
+   * @param remappingFunction computes the new value from the key and the old value
+   * @return the new value, or null if there is none
+   * @throws NullPointerException            if the key or the function is null
+   * @throws ConcurrentModificationException if the function modified the map
+   */
+  @Override
+  public V computeIfPresent(K key,
+      BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    RBTrees.Node<K> node = tree.getNode(checkKey(key));
+    if (node == null || node.value == null) {
+      return null;
+    }
+    int expectedModCount = tree.modCount();
+    return remap(node, remappingFunction.apply(key, valueOf(node)), expectedModCount);
+  }
+
+  /**
+   * Maps the key to the value computed from the key and its current value (null if there is none),
+   * and removes the mapping if the function returns null
+   *
+   * @param key               the key
+   * @param remappingFunction computes the new value from the key and the old value
+   * @return the new value, or null if there is none
+   * @throws NullPointerException            if the key or the function is null
+   * @throws ConcurrentModificationException if the function modified the map
+   */
+  @Override
+  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    int oldSize = tree.size();
+    RBTrees.Node<K> node = tree.getOrInsert(checkKey(key),
+        newKey -> remappingFunction.apply(newKey, null));
+    if (node == null || tree.size() != oldSize) { // the key was not mapped
+      return valueOf(node);
+    }
+    int expectedModCount = tree.modCount();
+    return remap(node, remappingFunction.apply(key, valueOf(node)), expectedModCount);
+  }
+
+  /**
+   * Maps the key to the value if the key is not mapped (or is mapped to null), and otherwise to the
+   * value computed from the old value and the value, removing the mapping if it is null
+   *
+   * @param key               the key
+   * @param value             the value to merge
+   * @param remappingFunction computes the new value from the old value and the value
+   * @return the new value, or null if there is none
+   * @throws NullPointerException            if the key, the value or the function is null
+   * @throws ConcurrentModificationException if the function modified the map
+   */
+  @Override
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(value);
+    Objects.requireNonNull(remappingFunction);
+    int oldSize = tree.size();
+    RBTrees.Node<K> node = tree.getOrInsert(checkKey(key), newKey -> value);
+    if (tree.size() != oldSize) { // the key was not mapped
+      return value;
+    }
+    if (node.value == null) {
+      node.value = value;
+      return value;
+    }
+    int expectedModCount = tree.modCount();
+    return remap(node, remappingFunction.apply(valueOf(node), value), expectedModCount);
+  }
+
+  /**
+   * Stores the result of a remapping function in a node, removing the node if it is null
+   *
+   * @param node             the node
+   * @param value            the result of the function
+   * @param expectedModCount the modCount of the tree before the function was called
+   * @return the value
+   * @throws ConcurrentModificationException if the function modified the map
+   */
+  private V remap(RBTrees.Node<K> node, V value, int expectedModCount) {
+    checkModCount(expectedModCount);
+    if (value == null) {
+      tree.removeNode(node);
+    } else {
+      node.value = value;
+    }
+    return value;
+  }
+
+  /**
+   * Checks that a function called by the map did not modify it
+   *
+   * @param expectedModCount the modCount of the tree before the function was called
+   * @throws ConcurrentModificationException if the tree was modified
+   */
+  private void checkModCount(int expectedModCount) {
+    if (tree.modCount() != expectedModCount) {
+      throw new ConcurrentModificationException("The function modified the map");
+    }
+  }
+
+  /**
+   * Checks that a key can be stored in the map
+   *
+   * @param key the key
+   * @return the key
+   * @throws NullPointerException if the key is null
+   */
+  private static <K> K checkKey(K key) {
+    if (key == null) {
+      throw new NullPointerException("The map cannot store null keys");
+    }
+    return key;
+  }
+
+  /**
+   * Returns the value of a node
+   *
+   * @param node the node (may be null)
+   * @return the value, or null if the node is null
+   */
+  @SuppressWarnings("unchecked")
+  private V valueOf(RBTrees.Node<K> node) {
+    return (node == null) ? null : (V) node.value;
+  }
+
+  /**
+   * Returns a snapshot of the mapping of a node
+   *
+   * @param node the node (may be null)
+   * @return the mapping, or null if the node is null
+   */
+  private Map.Entry<K, V> entryOf(RBTrees.Node<K> node) {
+    return (node == null) ? null : new AbstractMap.SimpleImmutableEntry<>(node.data, valueOf(node));
+  }
+
+  /**
+   * Returns the key of a node
+   *
+   * @param node the node (may be null)
+   * @return the key, or null if the node is null
+   */
+  private static <K extends Comparable<K>> K keyOf(RBTrees.Node<K> node) {
+    return (node == null) ? null : node.data;
+  }
+
+  /**
+   * Returns the key of a node, throwing if there is no node
+   *
+   * @param node the node (may be null)
+   * @return the key
+   * @throws NoSuchElementException if the node is null
+   */
+  private static <K extends Comparable<K>> K keyOrThrow(RBTrees.Node<K> node) {
+    if (node == null) {
+      throw new NoSuchElementException("The map is empty");
+    }
+    return node.data;
+  }
+
+  /**
+   * Removes the mapping of a node found by a navigation method and returns it
+   *
+   * @param node the node (may be null)
+   * @return the removed mapping, or null if the node is null
+   */
+  private Map.Entry<K, V> poll(RBTrees.Node<K> node) {
+    Map.Entry<K, V> entry = entryOf(node);
+    if (node != null) {
+      tree.removeNode(node);
+    }
+    return entry;
+  }
+
+  /**
+   * Returns the mapping at the given position in the order of the keys
+   *
+   * @param k the position of the mapping, starting at 0 for the smallest key
+   * @return the mapping with the k-th smallest key
+   * @throws IndexOutOfBoundsException if k is negative or not less than the size
+   */
+  public Map.Entry<K, V> select(int k) {
+    if (k < 0 || k >= tree.size()) {
+      throw new IndexOutOfBoundsException("Index " + k + " is out of bounds for size " + size());
+    }
+    return entryOf(tree.selectNode(k));
+  }
+
+  /**
+   * Returns the number of keys in the map which are smaller than the given key
+   *
+   * @param key the key
+   * @return the number of smaller keys
+   */
+  public int rank(K key) {
+    return tree.rank(key);
+  }
+
+  /**
+   * Returns the number of keys between lo and hi (both inclusive)
+   *
+   * @param lo the lowest key to count
+   * @param hi the highest key to count
+   * @return the number of keys in the range
+   */
+  public int countRange(K lo, K hi) {
+    return tree.countRange(lo, hi);
+  }
+
+  @Override
+  public Set<Map.Entry<K, V>> entrySet() {
+    return whole.entrySet();
+  }
+
+  @Override
+  public Comparator<? super K> comparator() {
+    return tree.comparator();
+  }
+
+  @Override
+  public K firstKey() {
+    return keyOrThrow(tree.leftmost(tree.getRoot()));
+  }
+
+  @Override
+  public K lastKey() {
+    return keyOrThrow(tree.rightmost(tree.getRoot()));
+  }
+
+  @Override
+  public Map.Entry<K, V> firstEntry() {
+    return entryOf(tree.leftmost(tree.getRoot()));
+  }
+
+  @Override
+  public Map.Entry<K, V> lastEntry() {
+    return entryOf(tree.rightmost(tree.getRoot()));
+  }
+
+  @Override
+  public Map.Entry<K, V> pollFirstEntry() {
+    return poll(tree.leftmost(tree.getRoot()));
+  }
+
+  @Override
+  public Map.Entry<K, V> pollLastEntry() {
+    return poll(tree.rightmost(tree.getRoot()));
+  }
+
+  @Override
+  public Map.Entry<K, V> lowerEntry(K key) {
+    return entryOf(tree.floorNode(key, false));
+  }
+
+  @Override
+  public K lowerKey(K key) {
+    return keyOf(tree.floorNode(key, false));
+  }
+
+  @Override
+  public Map.Entry<K, V> floorEntry(K key) {
+    return entryOf(tree.floorNode(key, true));
+  }
+
+  @Override
+  public K floorKey(K key) {
+    return keyOf(tree.floorNode(key, true));
+  }
+
+  @Override
+  public Map.Entry<K, V> ceilingEntry(K key) {
+    return entryOf(tree.ceilingNode(key, true));
+  }
+
+  @Override
+  public K ceilingKey(K key) {
+    return keyOf(tree.ceilingNode(key, true));
+  }
+
+  @Override
+  public Map.Entry<K, V> higherEntry(K key) {
+    return entryOf(tree.ceilingNode(key, false));
+  }
+
+  @Override
+  public K higherKey(K key) {
+    return keyOf(tree.ceilingNode(key, false));
+  }
+
+  /**
+   * Returns a live view of the keys in ascending order, which is also a
+   * {@link SortedCollectionInterface} (see {@link #keyCollection()}). Removing a key removes its
+   * mapping; keys cannot be inserted through the view.
+   *
+   * @return the key view
+   */
+  @Override
+  public NavigableSet<K> navigableKeySet() {
+    return new KeySet<>(this);
+  }
+
+  /**
+   * Returns the live view of the keys of {@link #navigableKeySet()} as a
+   * {@link SortedCollectionInterface}, so it can be used where the set is, without a cast
+   *
+   * @return the key view
+   */
+  public SortedCollectionInterface<K> keyCollection() {
+    return new KeySet<>(this);
+  }
+
+  @Override
+  public NavigableSet<K> keySet() {
+    return navigableKeySet();
+  }
+
+  @Override
+  public NavigableSet<K> descendingKeySet() {
+    return whole.descendingKeySet();
+  }
+
+  @Override
+  public NavigableMap<K, V> descendingMap() {
+    return whole.descendingMap();
+  }
+
+  @Override
+  public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey,
+      boolean toInclusive) {
+    return whole.subMap(fromKey, fromInclusive, toKey, toInclusive);
+  }
+
+  @Override
+  public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+    return whole.headMap(toKey, inclusive);
+  }
+
+  @Override
+  public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+    return whole.tailMap(fromKey, inclusive);
+  }
+
+  @Override
+  public SortedMap<K, V> subMap(K fromKey, K toKey) {
+    return subMap(fromKey, true, toKey, false);
+  }
+
+  @Override
+  public SortedMap<K, V> headMap(K toKey) {
+    return headMap(toKey, false);
+  }
+
+  @Override
+  public SortedMap<K, V> tailMap(K fromKey) {
+    return tailMap(fromKey, true);
+  }
+
+  /**
+   * A live mapping of a node, returned by the iterators of the entry sets
+   */
+  private class NodeEntry implements Map.Entry<K, V> {
+
+    private final RBTrees.Node<K> node; // The node of the mapping
+
+    /**
+     * The constructor of this class
+     *
+     * @param node the node of the mapping
+     */
+    NodeEntry(RBTrees.Node<K> node) {
+      this.node = node;
+    }
+
+    @Override
+    public K getKey() {
+      return node.data;
+    }
+
+    @Override
+    public V getValue() {
+      return valueOf(node);
+    }
+
+    @Override
+    public V setValue(V value) {
+      V oldValue = valueOf(node);
+      node.value = value;
+      return oldValue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+      return Objects.equals(node.data, entry.getKey()) && Objects.equals(node.value,
+          entry.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(node.data) ^ Objects.hashCode(node.value);
+    }
+
+    @Override
+    public String toString() {
+      return node.data + "=" + node.value;
+    }
+  }
+
+  /**
+   * A live view of the mappings within a range of keys, in ascending or descending order. Bounds
+   * are kept in the ascending order of the keys; descending views swap the navigation methods.
+   */
+  private class SubMap extends AbstractMap<K, V> implements NavigableMap<K, V> {
+
+    private final boolean fromStart; // True if the view has no lower bound
+    private final K lo; // The lower bound
+    private final boolean loInclusive; // True if the lower bound is in the view
+    private final boolean toEnd; // True if the view has no upper bound
+    private final K hi; // The upper bound
+    private final boolean hiInclusive; // True if the upper bound is in the view
+    private final boolean descending; // True if the view is in descending order
+
+    /**
+     * The constructor of this class
+     *
+     * @param fromStart   true if the view has no lower bound
+     * @param lo          the lower bound
+     * @param loInclusive true if the lower bound is in the view
+     * @param toEnd       true if the view has no upper bound
+     * @param hi          the upper bound
+     * @param hiInclusive true if the upper bound is in the view
+     * @param descending  true if the view is in descending order
+     * @throws IllegalArgumentException if the lower bound is more than the upper bound
+     */
+    SubMap(boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi, boolean hiInclusive,
+        boolean descending) {
+      if (!fromStart && !toEnd && tree.compare(lo, hi) > 0) {
+        throw new IllegalArgumentException("The lower bound is more than the upper bound");
+      }
+      this.fromStart = fromStart;
+      this.lo = lo;
+      this.loInclusive = loInclusive;
+      this.toEnd = toEnd;
+      this.hi = hi;
+      this.hiInclusive = hiInclusive;
+      this.descending = descending;
+    }
+
+    private boolean tooLow(K key) {
+      if (fromStart) {
+        return false;
+      }
+      int comparison = tree.compare(key, lo);
+      return comparison < 0 || (comparison == 0 && !loInclusive);
+    }
+
+    private boolean tooHigh(K key) {
+      if (toEnd) {
+        return false;
+      }
+      int comparison = tree.compare(key, hi);
+      return comparison > 0 || (comparison == 0 && !hiInclusive);
+    }
+
+    private boolean inRange(K key) {
+      return !tooLow(key) && !tooHigh(key);
+    }
+
+    /**
+     * Checks if a bound of a nested view lies within this view
+     *
+     * @param key       the bound
+     * @param inclusive true if the bound is inclusive
+     * @return true if the bound is allowed
+     */
+    private boolean inRange(K key, boolean inclusive) {
+      if (inclusive) {
+        return inRange(key);
+      }
+      return (fromStart || tree.compare(key, lo) >= 0) && (toEnd || tree.compare(key, hi) <= 0);
+    }
+
+    private RBTrees.Node<K> absLowest() {
+      RBTrees.Node<K> node = fromStart ? tree.leftmost(tree.getRoot())
+          : tree.ceilingNode(lo, loInclusive);
+      return (node == null || tooHigh(node.data)) ? null : node;
+    }
+
+    private RBTrees.Node<K> absHighest() {
+      RBTrees.Node<K> node = toEnd ? tree.rightmost(tree.getRoot())
+          : tree.floorNode(hi, hiInclusive);
+      return (node == null || tooLow(node.data)) ? null : node;
+    }
+
+    private RBTrees.Node<K> absCeiling(K key, boolean inclusive) {
+      if (tooLow(key)) {
+        return absLowest();
+      }
+      RBTrees.Node<K> node = tree.ceilingNode(key, inclusive);
+      return (node == null || tooHigh(node.data)) ? null : node;
+    }
+
+    private RBTrees.Node<K> absFloor(K key, boolean inclusive) {
+      if (tooHigh(key)) {
+        return absHighest();
+      }
+      RBTrees.Node<K> node = tree.floorNode(key, inclusive);
+      return (node == null || tooLow(node.data)) ? null : node;
+    }
+
+    private RBTrees.Node<K> lowestNode() {
+      return descending ? absHighest() : absLowest();
+    }
+
+    private RBTrees.Node<K> highestNode() {
+      return descending ? absLowest() : absHighest();
+    }
+
+    /**
+     * Returns an iterator over the mappings of the view
+     *
+     * @param reverse true to iterate against the order of the view
+     * @return the iterator
+     */
+    private Iterator<Map.Entry<K, V>> entryIterator(boolean reverse) {
+      RBTrees<K>.NodeIterator nodes;
+      if (descending != reverse) {
+        nodes = tree.new NodeIterator(absHighest(),
+            fromStart ? null : tree.floorNode(lo, !loInclusive), true);
+      } else {
+        nodes = tree.new NodeIterator(absLowest(),
+            toEnd ? null : tree.ceilingNode(hi, !hiInclusive), false);
+      }
+      return new Iterator<>() {
+        @Override
+        public boolean hasNext() {
+          return nodes.hasNext();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+          return new NodeEntry(nodes.nextNode());
+        }
+
+        @Override
+        public void remove() {
+          nodes.remove();
+        }
+      };
+    }
+
+    /**
+     * Returns the number of mappings in the view, counted with the subtree sizes in O(log n)
+     *
+     * @return the size
+     */
+    @Override
+    public int size() {
+      int below = fromStart ? 0 : tree.countBelow(lo, !loInclusive);
+      int upTo = toEnd ? tree.size() : tree.countBelow(hi, hiInclusive);
+      return Math.max(upTo - below, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return absLowest() == null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key) {
+      return inRange((K) key) && RBTreeMap.this.containsKey(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      return inRange((K) key) ? RBTreeMap.this.get(key) : null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+      if (!inRange(checkKey(key))) {
+        throw new IllegalArgumentException("The key is out of the range of the view");
+      }
+      return RBTreeMap.this.put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object key) {
+      return inRange((K) key) ? RBTreeMap.this.remove(key) : null;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+          return entryIterator(false);
+        }
+
+        @Override
+        public int size() {
+          return SubMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+          return SubMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return nodeOf(o) != null;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+          RBTrees.Node<K> node = nodeOf(o);
+          if (node == null) {
+            return false;
+          }
+          tree.removeNode(node);
+          return true;
+        }
+
+        /**
+         * Returns the node of a mapping in the view
+         *
+         * @param o the mapping
+         * @return the node, or null if the view does not contain the mapping
+         */
+        @SuppressWarnings("unchecked")
+        private RBTrees.Node<K> nodeOf(Object o) {
+          if (!(o instanceof Map.Entry)) {
+            return null;
+          }
+          Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+          K key = (K) entry.getKey();
+          if (key == null || !inRange(key)) {
+            return null;
+          }
+          RBTrees.Node<K> node = tree.getNode(key);
+          return (node != null && Objects.equals(node.value, entry.getValue())) ? node : null;
+        }
+      };
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+      return descending ? Collections.reverseOrder(tree.comparator()) : tree.comparator();
+    }
+
+    @Override
+    public K firstKey() {
+      return keyOrThrow(lowestNode());
+    }
+
+    @Override
+    public K lastKey() {
+      return keyOrThrow(highestNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> firstEntry() {
+      return entryOf(lowestNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> lastEntry() {
+      return entryOf(highestNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> pollFirstEntry() {
+      return poll(lowestNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> pollLastEntry() {
+      return poll(highestNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> lowerEntry(K key) {
+      return entryOf(descending ? absCeiling(key, false) : absFloor(key, false));
+    }
+
+    @Override
+    public K lowerKey(K key) {
+      return keyOf(descending ? absCeiling(key, false) : absFloor(key, false));
+    }
+
+    @Override
+    public Map.Entry<K, V> floorEntry(K key) {
+      return entryOf(descending ? absCeiling(key, true) : absFloor(key, true));
+    }
+
+    @Override
+    public K floorKey(K key) {
+      return keyOf(descending ? absCeiling(key, true) : absFloor(key, true));
+    }
+
+    @Override
+    public Map.Entry<K, V> ceilingEntry(K key) {
+      return entryOf(descending ? absFloor(key, true) : absCeiling(key, true));
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+      return keyOf(descending ? absFloor(key, true) : absCeiling(key, true));
+    }
+
+    @Override
+    public Map.Entry<K, V> higherEntry(K key) {
+      return entryOf(descending ? absFloor(key, false) : absCeiling(key, false));
+    }
+
+    @Override
+    public K higherKey(K key) {
+      return keyOf(descending ? absFloor(key, false) : absCeiling(key, false));
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+      return new KeySet<>(this);
+    }
+
+    @Override
+    public NavigableSet<K> keySet() {
+      return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+      return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public NavigableMap<K, V> descendingMap() {
+      return new SubMap(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+    }
+
+    @Override
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey,
+        boolean toInclusive) {
+      if (!inRange(fromKey, fromInclusive) || !inRange(toKey, toInclusive)) {
+        throw new IllegalArgumentException("The bounds are out of the range of the view");
+      }
+      if (descending) {
+        return new SubMap(false, toKey, toInclusive, false, fromKey, fromInclusive, true);
+      }
+      return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+      if (!inRange(toKey, inclusive)) {
+        throw new IllegalArgumentException("The bound is out of the range of the view");
+      }
+      if (descending) {
+        return new SubMap(false, toKey, inclusive, toEnd, hi, hiInclusive, true);
+      }
+      return new SubMap(fromStart, lo, loInclusive, false, toKey, inclusive, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+      if (!inRange(fromKey, inclusive)) {
+        throw new IllegalArgumentException("The bound is out of the range of the view");
+      }
+      if (descending) {
+        return new SubMap(fromStart, lo, loInclusive, false, fromKey, inclusive, true);
+      }
+      return new SubMap(false, fromKey, inclusive, toEnd, hi, hiInclusive, false);
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+      return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+      return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+      return tailMap(fromKey, true);
+    }
+  }
+
+  /**
+   * A live view of the keys of a map, which is also a {@link SortedCollectionInterface}. Removing a
+   * key removes its mapping, while inserting a key is not supported.
+   *
+   * @param <K> A comparable generic key type
+   */
+  private static class KeySet<K extends Comparable<K>> extends AbstractSet<K>
+      implements NavigableSet<K>, SortedCollectionInterface<K> {
+
+    private final NavigableMap<K, ?> map; // The map whose keys are viewed
+
+    /**
+     * The constructor of this class
+     *
+     * @param map the map whose keys are viewed
+     */
+    KeySet(NavigableMap<K, ?> map) {
+      this.map = map;
+    }
+
+    /**
+     * Returns an iterator over the keys of mappings
+     *
+     * @param entries the iterator over the mappings
+     * @return the iterator over their keys
+     */
+    private static <K> Iterator<K> keys(Iterator<? extends Map.Entry<K, ?>> entries) {
+      return new Iterator<>() {
+        @Override
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override
+        public K next() {
+          return entries.next().getKey();
+        }
+
+        @Override
+        public void remove() {
+          entries.remove();
+        }
+      };
+    }
+
+    /**
+     * Inserting keys is not supported, as a key cannot be mapped without a value
+     *
+     * @param data the key
+     * @return never
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean insert(K data) {
+      throw new UnsupportedOperationException("Keys can only be added through the map");
+    }
+
+    /**
+     * Removes the mapping of the key
+     *
+     * @param data the key
+     * @return true if the key was mapped
+     */
+    @Override
+    public boolean remove(K data) {
+      int oldSize = map.size();
+      map.remove(data);
+      return map.size() != oldSize;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      int oldSize = map.size();
+      map.remove(o);
+      return map.size() != oldSize;
+    }
+
+    @Override
+    public boolean contains(K data) {
+      return map.containsKey(data);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return map.containsKey(o);
+    }
+
+    @Override
+    public int size() {
+      return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return map.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+      map.clear();
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      return keys(map.entrySet().iterator());
+    }
+
+    @Override
+    public Iterator<K> descendingIterator() {
+      return keys(map.descendingMap().entrySet().iterator());
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+      return map.comparator();
+    }
+
+    @Override
+    public K first() {
+      return map.firstKey();
+    }
+
+    @Override
+    public K last() {
+      return map.lastKey();
+    }
+
+    @Override
+    public K lower(K data) {
+      return map.lowerKey(data);
+    }
+
+    @Override
+    public K floor(K data) {
+      return map.floorKey(data);
+    }
+
+    @Override
+    public K ceiling(K data) {
+      return map.ceilingKey(data);
+    }
+
+    @Override
+    public K higher(K data) {
+      return map.higherKey(data);
+    }
+
+    @Override
+    public K pollFirst() {
+      Map.Entry<K, ?> entry = map.pollFirstEntry();
+      return (entry == null) ? null : entry.getKey();
+    }
+
+    @Override
+    public K pollLast() {
+      Map.Entry<K, ?> entry = map.pollLastEntry();
+      return (entry == null) ? null : entry.getKey();
+    }
+
+    @Override
+    public NavigableSet<K> descendingSet() {
+      return new KeySet<>(map.descendingMap());
+    }
+
+    @Override
+    public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement,
+        boolean toInclusive) {
+      return new KeySet<>(map.subMap(fromElement, fromInclusive, toElement, toInclusive));
+    }
+
+    @Override
+    public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+      return new KeySet<>(map.headMap(toElement, inclusive));
+    }
+
+    @Override
+    public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+      return new KeySet<>(map.tailMap(fromElement, inclusive));
+    }
+
+    @Override
+    public NavigableSet<K> subSet(K fromElement, K toElement) {
+      return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public NavigableSet<K> headSet(K toElement) {
+      return headSet(toElement, false);
+    }
+
+    @Override
+    public NavigableSet<K> tailSet(K fromElement) {
+      return tailSet(fromElement, true);
+    }
+  }
+}
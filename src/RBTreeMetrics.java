@@ -0,0 +1,409 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class counts what the red black trees of the process do: comparisons, rotations,
+ * recolorings, fixup iterations, the deepest insert and latency histograms of insert, remove and
+ * contains. The counters are striped {@link LongAdder}s shared by every tree, so trees used from
+ * many threads do not contend on them.
+ *
+ * The metrics are collected only if the JVM is started with -Drbtrees.metrics=true. The switch is
+ * a static final field, so with metrics disabled the JIT removes every call site as dead code and
+ * the trees run exactly as without instrumentation. When enabled, the metrics are published as the
+ * MBean "RBTrees:type=Metrics" and can be read with {@link RBTrees#stats()}.
+ */
+public final class RBTreeMetrics implements RBTreeMetricsMBean {
+
+  /**
+   * True if the metrics are collected, read once from the system property rbtrees.metrics
+   */
+  public static final boolean ENABLED = Boolean.getBoolean("rbtrees.metrics");
+
+  static final RBTreeMetrics INSTANCE = new RBTreeMetrics(); // The counters of the process
+
+  private static final int BUCKETS = Long.SIZE; // The number of power of two latency buckets
+
+  private final LongAdder comparisons = new LongAdder(); // The comparisons of values
+  private final LongAdder rotations = new LongAdder(); // The rotations
+  private final LongAdder recolors = new LongAdder(); // The recolorings
+  private final LongAdder fixupSteps = new LongAdder(); // The iterations of the fixup loops
+  private final LongAccumulator maxFixupDepth = new LongAccumulator(Math::max, 0);
+  private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+  private final LongAdder[] insertLatencies = newHistogram(); // The insert latency buckets
+  private final LongAdder[] removeLatencies = newHistogram(); // The remove latency buckets
+  private final LongAdder[] containsLatencies = newHistogram(); // The contains latency buckets
+
+  static {
+    if (ENABLED) {
+      try {
+        ManagementFactory.getPlatformMBeanServer()
+            .registerMBean(INSTANCE, new ObjectName("RBTrees:type=Metrics"));
+      } catch (JMException e) {
+        // another class loader registered its metrics first, they stay readable through stats()
+      }
+    }
+  }
+
+  /**
+   * Only the shared instance exists
+   */
+  private RBTreeMetrics() {
+  }
+
+  /**
+   * Creates the buckets of a latency histogram
+   *
+   * @return the buckets
+   */
+  private static LongAdder[] newHistogram() {
+    LongAdder[] histogram = new LongAdder[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      histogram[i] = new LongAdder();
+    }
+    return histogram;
+  }
+
+  /**
+   * Counts a comparison
+   */
+  static void comparison() {
+    if (ENABLED) {
+      INSTANCE.comparisons.increment();
+    }
+  }
+
+  /**
+   * Counts a rotation
+   */
+  static void rotation() {
+    if (ENABLED) {
+      INSTANCE.rotations.increment();
+    }
+  }
+
+  /**
+   * Counts a recoloring
+   */
+  static void recolor() {
+    if (ENABLED) {
+      INSTANCE.recolors.increment();
+    }
+  }
+
+  /**
+   * Records a completed fixup
+   *
+   * @param steps the iterations of the fixup loop
+   */
+  static void fixup(int steps) {
+    if (ENABLED) {
+      INSTANCE.fixupSteps.add(steps);
+      INSTANCE.maxFixupDepth.accumulate(steps);
+    }
+  }
+
+  /**
+   * Records the depth of an inserted node
+   *
+   * @param depth the depth, 1 for the root
+   */
+  static void insertDepth(int depth) {
+    if (ENABLED) {
+      INSTANCE.maxDepth.accumulate(depth);
+    }
+  }
+
+  /**
+   * Returns the start time of an operation to pass to the record methods
+   *
+   * @return the current time in nanoseconds, or 0 if the metrics are disabled
+   */
+  static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records the latency of an insert
+   *
+   * @param start the time returned by {@link #start()}
+   */
+  static void insertDone(long start) {
+    if (ENABLED) {
+      record(INSTANCE.insertLatencies, start);
+    }
+  }
+
+  /**
+   * Records the latency of a remove
+   *
+   * @param start the time returned by {@link #start()}
+   */
+  static void removeDone(long start) {
+    if (ENABLED) {
+      record(INSTANCE.removeLatencies, start);
+    }
+  }
+
+  /**
+   * Records the latency of a contains
+   *
+   * @param start the time returned by {@link #start()}
+   */
+  static void containsDone(long start) {
+    if (ENABLED) {
+      record(INSTANCE.containsLatencies, start);
+    }
+  }
+
+  /**
+   * Counts a latency in the bucket of its highest bit
+   *
+   * @param histogram the buckets
+   * @param start     the start time of the operation
+   */
+  private static void record(LongAdder[] histogram, long start) {
+    long nanos = Math.max(System.nanoTime() - start, 1);
+    histogram[BUCKETS - 1 - Long.numberOfLeadingZeros(nanos)].increment();
+  }
+
+  /**
+   * Reads the buckets of a latency histogram
+   *
+   * @param histogram the buckets
+   * @return the counts of the buckets
+   */
+  private static long[] sum(LongAdder[] histogram) {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = histogram[i].sum();
+    }
+    return counts;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return ENABLED;
+  }
+
+  @Override
+  public long getComparisons() {
+    return comparisons.sum();
+  }
+
+  @Override
+  public long getRotations() {
+    return rotations.sum();
+  }
+
+  @Override
+  public long getRecolors() {
+    return recolors.sum();
+  }
+
+  @Override
+  public long getFixupSteps() {
+    return fixupSteps.sum();
+  }
+
+  @Override
+  public long getMaxFixupDepth() {
+    return maxFixupDepth.get();
+  }
+
+  @Override
+  public long getMaxDepth() {
+    return maxDepth.get();
+  }
+
+  @Override
+  public long[] getInsertLatencies() {
+    return sum(insertLatencies);
+  }
+
+  @Override
+  public long[] getRemoveLatencies() {
+    return sum(removeLatencies);
+  }
+
+  @Override
+  public long[] getContainsLatencies() {
+    return sum(containsLatencies);
+  }
+
+  @Override
+  public void reset() {
+    for (LongAdder counter : new LongAdder[] {comparisons, rotations, recolors, fixupSteps}) {
+      counter.reset();
+    }
+    maxFixupDepth.reset();
+    maxDepth.reset();
+    for (LongAdder[] histogram : new LongAdder[][] {insertLatencies, removeLatencies,
+        containsLatencies}) {
+      for (LongAdder bucket : histogram) {
+        bucket.reset();
+      }
+    }
+  }
+
+  /**
+   * Takes a snapshot of the counters. The counters are read one after another, so a snapshot taken
+   * while trees are modified is not atomic.
+   *
+   * @return the snapshot
+   */
+  Stats snapshot() {
+    return new Stats(this);
+  }
+
+  /**
+   * A snapshot of the metrics, returned by {@link RBTrees#stats()}
+   */
+  public static final class Stats {
+
+    private final long comparisons; // The comparisons of values
+    private final long rotations; // The rotations
+    private final long recolors; // The recolorings
+    private final long fixupSteps; // The iterations of the fixup loops
+    private final long maxFixupDepth; // The most iterations of a single fixup
+    private final long maxDepth; // The greatest depth a node was inserted at
+    private final long[] insertLatencies; // The insert latency buckets
+    private final long[] removeLatencies; // The remove latency buckets
+    private final long[] containsLatencies; // The contains latency buckets
+
+    /**
+     * Reads the counters of the metrics
+     *
+     * @param metrics the metrics
+     */
+    private Stats(RBTreeMetrics metrics) {
+      comparisons = metrics.getComparisons();
+      rotations = metrics.getRotations();
+      recolors = metrics.getRecolors();
+      fixupSteps = metrics.getFixupSteps();
+      maxFixupDepth = metrics.getMaxFixupDepth();
+      maxDepth = metrics.getMaxDepth();
+      insertLatencies = metrics.getInsertLatencies();
+      removeLatencies = metrics.getRemoveLatencies();
+      containsLatencies = metrics.getContainsLatencies();
+    }
+
+    /**
+     * Returns the number of comparisons
+     *
+     * @return the number of comparisons
+     * @see RBTreeMetricsMBean#getComparisons()
+     */
+    public long getComparisons() {
+      return comparisons;
+    }
+
+    /**
+     * Returns the number of rotations
+     *
+     * @return the number of rotations
+     */
+    public long getRotations() {
+      return rotations;
+    }
+
+    /**
+     * Returns the number of recolorings
+     *
+     * @return the number of recolorings
+     * @see RBTreeMetricsMBean#getRecolors()
+     */
+    public long getRecolors() {
+      return recolors;
+    }
+
+    /**
+     * Returns the number of iterations of the fixup loops
+     *
+     * @return the number of fixup iterations
+     */
+    public long getFixupSteps() {
+      return fixupSteps;
+    }
+
+    /**
+     * Returns the most iterations a single fixup took
+     *
+     * @return the deepest fixup
+     */
+    public long getMaxFixupDepth() {
+      return maxFixupDepth;
+    }
+
+    /**
+     * Returns the greatest depth a node was inserted at
+     *
+     * @return the deepest insert
+     * @see RBTreeMetricsMBean#getMaxDepth()
+     */
+    public long getMaxDepth() {
+      return maxDepth;
+    }
+
+    /**
+     * Returns the insert latency histogram
+     *
+     * @return the insert latency histogram
+     * @see RBTreeMetricsMBean#getInsertLatencies()
+     */
+    public long[] getInsertLatencies() {
+      return insertLatencies.clone();
+    }
+
+    /**
+     * Returns the remove latency histogram
+     *
+     * @return the remove latency histogram
+     */
+    public long[] getRemoveLatencies() {
+      return removeLatencies.clone();
+    }
+
+    /**
+     * Returns the contains latency histogram
+     *
+     * @return the contains latency histogram
+     */
+    public long[] getContainsLatencies() {
+      return containsLatencies.clone();
+    }
+
+    /**
+     * Converts the snapshot into a string, listing only the non empty latency buckets by their
+     * lower bound in nanoseconds
+     *
+     * @return a string representation of the snapshot
+     */
+    @Override
+    public String toString() {
+      return "comparisons=" + comparisons + " rotations=" + rotations + " recolors=" + recolors
+          + " fixupSteps=" + fixupSteps + " maxFixupDepth=" + maxFixupDepth + " maxDepth="
+          + maxDepth + "\ninsert " + histogramString(insertLatencies) + "\nremove "
+          + histogramString(removeLatencies) + "\ncontains " + histogramString(containsLatencies);
+    }
+
+    /**
+     * Converts a latency histogram into a string
+     *
+     * @param histogram the counts of the buckets
+     * @return the non empty buckets as lower bound=count
+     */
+    private static String histogramString(long[] histogram) {
+      StringBuilder builder = new StringBuilder("{");
+      for (int i = 0; i < histogram.length; i++) {
+        if (histogram[i] != 0) {
+          builder.append(builder.length() > 1 ? ", " : "").append(1L << i).append("ns=")
+              .append(histogram[i]);
+        }
+      }
+      return builder.append("}").toString();
+    }
+  }
+}
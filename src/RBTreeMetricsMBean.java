@@ -0,0 +1,83 @@
+/**
+ * The management interface of {@link RBTreeMetrics}, published as "RBTrees:type=Metrics"
+ */
+public interface RBTreeMetricsMBean {
+
+  /**
+   * Returns true if the metrics are collected, see {@link RBTreeMetrics#ENABLED}
+   *
+   * @return true if the metrics are collected
+   */
+  boolean isEnabled();
+
+  /**
+   * Returns the number of comparisons of values, compareTo, comparator or cached key comparisons
+   *
+   * @return the number of comparisons
+   */
+  long getComparisons();
+
+  /**
+   * Returns the number of rotations
+   *
+   * @return the number of rotations
+   */
+  long getRotations();
+
+  /**
+   * Returns the number of recolorings, a red aunt on insert or a black sibling with black children
+   * on remove
+   *
+   * @return the number of recolorings
+   */
+  long getRecolors();
+
+  /**
+   * Returns the number of iterations of the insert and double black fixup loops
+   *
+   * @return the number of fixup iterations
+   */
+  long getFixupSteps();
+
+  /**
+   * Returns the most iterations a single fixup took
+   *
+   * @return the deepest fixup
+   */
+  long getMaxFixupDepth();
+
+  /**
+   * Returns the greatest depth a node was inserted at, the root being at depth 1, which bounds the
+   * height every tree has reached
+   *
+   * @return the deepest insert
+   */
+  long getMaxDepth();
+
+  /**
+   * Returns the latencies of insert, where element i counts the calls which took from 2^i up to
+   * 2^(i+1) nanoseconds
+   *
+   * @return the insert latency histogram
+   */
+  long[] getInsertLatencies();
+
+  /**
+   * Returns the latencies of remove, see {@link #getInsertLatencies()}
+   *
+   * @return the remove latency histogram
+   */
+  long[] getRemoveLatencies();
+
+  /**
+   * Returns the latencies of contains, see {@link #getInsertLatencies()}
+   *
+   * @return the contains latency histogram
+   */
+  long[] getContainsLatencies();
+
+  /**
+   * Resets every counter to zero
+   */
+  void reset();
+}
@@ -1,9 +1,9 @@
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.UncheckedIOException;
 import java.util.Random;
 import java.util.Scanner;
 
@@ -12,68 +12,30 @@ import java.util.Scanner;
  */
 public class RBTreeQuiz {
 
-  private List<Integer> values;
-  private Random random;
-  private RBTrees<Integer> rbTree;
+  private QuizSession session;
   private static int RANGE_VAL = 100;
   private static int LOWER_BOUND = 1;
   private static int AVERAGE_SIZE = 7;
 
-  public static void saveToFile(File f, String str) {
+  public static void saveToFile(File f, RBTrees<?> tree) {
     try (FileWriter fw = new FileWriter(f)) {
-      fw.write(str);
+      RBTreeRenderer.PLAIN.render(tree, fw);
     } catch (IOException e) {
       // nothing
     }
   }
 
   public RBTreeQuiz() {
-    random = new Random();
-    rbTree = new RBTrees<>();
-    values = new LinkedList<>();
-
-    RBTrees.Node.color = false;
-    int initialAmount =
-        random.nextInt(AVERAGE_SIZE) + 1; // initial amount of the tree will be from 1 to
-    // Average_size
-    while (rbTree.size() < initialAmount) {
-      if (isRemove()) {
-        Integer randomElementToRemove = values.remove(random.nextInt(values.size()));
-        rbTree.remove(randomElementToRemove);
-      } else {
-        Integer randomInt = random.nextInt(RANGE_VAL) + LOWER_BOUND;
-        rbTree.insert(randomInt);
-        values.add(randomInt);
-      }
-    }
+    session = new QuizSession(new Random().nextLong(), AVERAGE_SIZE, LOWER_BOUND, RANGE_VAL);
   }
 
   public void askQuestion() {
-    if (isRemove()) {
-      Integer randomElementToRemove = values.remove(random.nextInt(values.size()));
-      rbTree.remove(randomElementToRemove);
-      System.out.println("How will the tree look when (" + randomElementToRemove + ") is removed?");
-    } else {
-      Integer randomInt = random.nextInt(RANGE_VAL) + LOWER_BOUND;
-      while (values.contains(randomInt)) {
-        randomInt = random.nextInt(RANGE_VAL) + LOWER_BOUND;
-      }
-      rbTree.insert(randomInt);
-      values.add(randomInt);
-      System.out.println("How will the tree look when (" + randomInt + ") is inserted?");
-    }
-  }
-
-
-  public boolean isRemove() {
-    int currEvent = random.nextInt(100); // 0 to 99
-    int probabilityRemove = 50 * rbTree.size() / AVERAGE_SIZE;
-    return currEvent < probabilityRemove;
+    System.out.println(session.nextQuestion());
   }
 
   public void runQuiz() {
     File file = new File("result.txt");
-    saveToFile(file, rbTree.toString());
+    saveToFile(file, session.getTree());
     System.out.println("Welcome to RBT Quiz.");
     System.out.println("You will be asked a series of remove or insert questions and you will " +
         "have to answer them in the result.txt file by editing the file.");
@@ -105,11 +67,10 @@ public class RBTreeQuiz {
       if (isCorrect) {
         System.out.println("\n\u001B[32mCorrect Answer\u001B[0m 🥳🥳🥳");
       } else {
-        RBTrees.Node.color = true;
         System.out.println("\n\u001B[31mIncorrect Answer...\u001B[0m\n  The correct answer has " +
-            "been written in your " + "result file.\n it was:\n" + rbTree.toString());
-        RBTrees.Node.color = false;
-        saveToFile(file, rbTree.toString());
+            "been written in your " + "result file.\n it was:\n" +
+            RBTreeRenderer.ANSI.render(session.getTree()));
+        saveToFile(file, session.getTree());
       }
     }
     System.out.println("Do you wish to keep results.txt? [Y/N]");
@@ -123,26 +84,22 @@ public class RBTreeQuiz {
   }
 
 
+  /**
+   * Checks the answer in the result file against the tree, and prints the first node which differs
+   *
+   * @param file the result file
+   * @return true if the answer is correct
+   */
   private boolean checkAnswer(File file) {
-    String rbString = rbTree.toString();
-    Scanner rbScanner = new Scanner(rbString);
-    try (Scanner fileScanner = new Scanner(file)) {
-      while (rbScanner.hasNextLine()) {
-        if (!fileScanner.hasNextLine()) {
-          return rbScanner.nextLine().isBlank();
-        }
-        String rLine = rbScanner.nextLine();
-        rLine = rLine.replaceAll("[^(0-9)]*", "");
-        String fLine = fileScanner.nextLine();
-        fLine = fLine.replaceAll("[^(0-9)]*", "");
-        if (!fLine.equals(rLine)) {
-          return false;
-        }
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String mismatch = session.submit(reader);
+      if (mismatch != null) {
+        System.out.println(mismatch);
       }
-    } catch (FileNotFoundException e) {
-      throw new RuntimeException(e);
+      return mismatch == null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
-    return true;
   }
 
   /**
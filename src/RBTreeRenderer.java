@@ -0,0 +1,259 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The formats a red black tree can be rendered in. A renderer writes straight into an
+ * {@link Appendable}, so a large tree can be streamed to a file or a socket. The nodes are visited
+ * through their parent links and the branches of the current path are kept in a single long, so
+ * rendering holds no memory beyond the output, and a renderer is stateless and can be used from
+ * several threads at once, as long as the rendered tree is not modified meanwhile.
+ */
+public enum RBTreeRenderer {
+
+  /**
+   * The format of {@link RBTrees#toString()}: one node per line below its parent, with the black
+   * height (0 red, 1 black, 2 double black) after the value
+   * <pre>
+   *   \-- 10 (1)
+   *       |-- 5 (0)
+   *       \-- 15 (0)
+   * </pre>
+   */
+  PLAIN {
+    @Override
+    void open(Appendable out, RBTrees.Node<?> node, int depth, long leftBranches)
+        throws IOException {
+      branch(out, depth, leftBranches);
+      out.append(String.valueOf(node.data)).append(" (")
+          .append(Character.forDigit(node.blackHeight, 10)).append(")\n");
+    }
+  },
+
+  /**
+   * The lines of {@link #PLAIN}, with the values colored by ANSI escapes instead of the black
+   * heights: red for red nodes, white for black nodes and cyan for double black nodes
+   */
+  ANSI {
+    @Override
+    void open(Appendable out, RBTrees.Node<?> node, int depth, long leftBranches)
+        throws IOException {
+      branch(out, depth, leftBranches);
+      String color = (node.blackHeight == 0) ? "\u001B[31m"
+          : (node.blackHeight == 1) ? "\u001B[37m" : "\u001B[36m";
+      out.append(color).append(String.valueOf(node.data)).append("\u001B[0m\n");
+    }
+  },
+
+  /**
+   * A single line, where every node is (value color left right) with R, B or D for red, black and
+   * double black, a missing child before a present one is -, and missing trailing children are
+   * left out: (10 B (5 R) (15 B - (17 R)))
+   */
+  COMPACT {
+    @Override
+    void open(Appendable out, RBTrees.Node<?> node, int depth, long leftBranches)
+        throws IOException {
+      out.append((depth == 0) ? "(" : " (").append(String.valueOf(node.data)).append(' ')
+          .append("RBD".charAt(node.blackHeight));
+      if (node.left == null && node.right != null) {
+        out.append(" -");
+      }
+    }
+
+    @Override
+    void close(Appendable out, RBTrees.Node<?> node) throws IOException {
+      out.append(')');
+    }
+  },
+
+  /**
+   * A JSON object per node, with the value as a number if it is one and as a string otherwise:
+   * {"value":10,"color":"black","left":{...},"right":null}. An empty tree is null.
+   */
+  JSON {
+    @Override
+    void open(Appendable out, RBTrees.Node<?> node, int depth, long leftBranches)
+        throws IOException {
+      out.append("{\"value\":");
+      if (node.data instanceof Number) {
+        out.append(node.data.toString());
+      } else {
+        quote(out, String.valueOf(node.data));
+      }
+      String color = (node.blackHeight == 0) ? "red"
+          : (node.blackHeight == 1) ? "black" : "double black";
+      out.append(",\"color\":\"").append(color).append("\",\"left\":")
+          .append((node.left == null) ? "null" : "");
+    }
+
+    @Override
+    void between(Appendable out, RBTrees.Node<?> node) throws IOException {
+      out.append(",\"right\":").append((node.right == null) ? "null" : "");
+    }
+
+    @Override
+    void close(Appendable out, RBTrees.Node<?> node) throws IOException {
+      out.append('}');
+    }
+
+    @Override
+    void empty(Appendable out) throws IOException {
+      out.append("null");
+    }
+  };
+
+  /**
+   * Writes a tree in this format
+   *
+   * @param tree the tree
+   * @param out  the output
+   * @throws IOException           if the output could not be written
+   * @throws IllegalStateException if the tree is deeper than a red black tree can be
+   */
+  public void render(RBTrees<?> tree, Appendable out) throws IOException {
+    RBTrees.Node<?> node = tree.getRoot();
+    if (node == null) {
+      empty(out);
+      return;
+    }
+    RBTrees.Node<?> previous = null;
+    int depth = 0; // The depth of the node, 0 for the root
+    long leftBranches = 0; // Bit i is set if the node at depth i on the path is a left child
+    while (node != null) {
+      boolean fromParent = previous == node.parent;
+      if (fromParent) {
+        open(out, node, depth, leftBranches);
+        if (node.left != null) {
+          previous = node;
+          node = node.left;
+          leftBranches = branchTo(leftBranches, ++depth, true);
+          continue;
+        }
+      }
+      if (fromParent || previous == node.left) {
+        between(out, node);
+        if (node.right != null) {
+          previous = node;
+          node = node.right;
+          leftBranches = branchTo(leftBranches, ++depth, false);
+          continue;
+        }
+      }
+      close(out, node);
+      previous = node;
+      node = node.parent;
+      depth--;
+    }
+  }
+
+  /**
+   * Renders a tree into a string
+   *
+   * @param tree the tree
+   * @return the tree in this format
+   */
+  public String render(RBTrees<?> tree) {
+    StringBuilder builder = new StringBuilder();
+    try {
+      render(tree, builder);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // a StringBuilder does not throw
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Writes a node before its children are written
+   *
+   * @param out          the output
+   * @param node         the node
+   * @param depth        the depth of the node, 0 for the root
+   * @param leftBranches bit i is set if the node at depth i on the path to the node is a left child
+   * @throws IOException if the output could not be written
+   */
+  abstract void open(Appendable out, RBTrees.Node<?> node, int depth, long leftBranches)
+      throws IOException;
+
+  /**
+   * Writes what comes between the left and the right subtree of a node
+   *
+   * @param out  the output
+   * @param node the node
+   * @throws IOException if the output could not be written
+   */
+  void between(Appendable out, RBTrees.Node<?> node) throws IOException {
+  }
+
+  /**
+   * Writes what comes after the subtrees of a node
+   *
+   * @param out  the output
+   * @param node the node
+   * @throws IOException if the output could not be written
+   */
+  void close(Appendable out, RBTrees.Node<?> node) throws IOException {
+  }
+
+  /**
+   * Writes an empty tree
+   *
+   * @param out the output
+   * @throws IOException if the output could not be written
+   */
+  void empty(Appendable out) throws IOException {
+  }
+
+  /**
+   * Records the branch taken to a child on the path
+   *
+   * @param leftBranches the branches of the path
+   * @param depth        the depth of the child
+   * @param left         true if the child is a left child
+   * @return the branches of the path to the child
+   * @throws IllegalStateException if the depth does not fit the long
+   */
+  private static long branchTo(long leftBranches, int depth, boolean left) {
+    if (depth >= Long.SIZE) {
+      throw new IllegalStateException("The tree is too deep to be a red black tree");
+    }
+    return left ? leftBranches | (1L << depth) : leftBranches & ~(1L << depth);
+  }
+
+  /**
+   * Writes the indentation and the branch of a line, which continues the lines of the left
+   * children on the path
+   *
+   * @param out          the output
+   * @param depth        the depth of the node
+   * @param leftBranches the branches of the path to the node
+   * @throws IOException if the output could not be written
+   */
+  private static void branch(Appendable out, int depth, long leftBranches) throws IOException {
+    for (int i = 0; i < depth; i++) {
+      out.append(((leftBranches >>> i) & 1) != 0 ? "|   " : "    ");
+    }
+    out.append(((leftBranches >>> depth) & 1) != 0 ? "|-- " : "\\-- ");
+  }
+
+  /**
+   * Writes a JSON string
+   *
+   * @param out   the output
+   * @param value the string
+   * @throws IOException if the output could not be written
+   */
+  private static void quote(Appendable out, String value) throws IOException {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+}
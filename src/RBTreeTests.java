@@ -1,10 +1,40 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -54,7 +84,7 @@ public class RBTreeTests {
     for (Integer i : orderToAdd) {
       tree.insert(i);
       assertTrue(blackHeightCheck(tree.getRoot()), "The black heights were not the same\n" + tree);
-      assertTrue(tree.getRoot().context[0] == null && checkIfAllNodesConnected(tree.getRoot()),
+      assertTrue(tree.getRoot().parent == null && checkIfAllNodesConnected(tree.getRoot()),
           "All nodes were not connected for tree\n" + tree);
     }
     assertEquals(tree.size(), expectedSize, "The size was not same");
@@ -74,13 +104,1313 @@ public class RBTreeTests {
       tree.remove(i);
       assertTrue(blackHeightCheck(tree.getRoot()), "The black heights were not the same\n" + tree);
       assertTrue(tree.getRoot() == null ||
-              tree.getRoot().context[0] == null && checkIfAllNodesConnected(tree.getRoot()),
+              tree.getRoot().parent == null && checkIfAllNodesConnected(tree.getRoot()),
           "All nodes were not connected for tree\n" + tree);
     }
     assertEquals(tree.size(), 0, "The size was not 0");
     assertTrue(tree.isEmpty(), "The size was not empty");
   }
 
+  /**
+   * Test to check if a tree built from sorted values is connected, has the same black heights and
+   * still supports removes afterwards
+   */
+  @Test
+  public void bulkLoadCheck() {
+    List<Integer> sorted = new ArrayList<>(orderToAdd);
+    Collections.sort(sorted);
+    tree = RBTrees.fromSorted(sorted);
+    assertEquals(expectedSize, tree.size(), "The size was not same");
+    assertTrue(blackHeightCheck(tree.getRoot()), "The black heights were not the same\n" + tree);
+    assertTrue(tree.getRoot().parent == null && checkIfAllNodesConnected(tree.getRoot()),
+        "All nodes were not connected for tree\n" + tree);
+    for (Integer i : orderToAdd) {
+      assertTrue(tree.contains(i), "The value was not loaded " + i);
+    }
+    for (Integer i : orderToRemove) {
+      assertTrue(tree.remove(i), "The value could not be removed " + i);
+      assertTrue(blackHeightCheck(tree.getRoot()), "The black heights were not the same\n" + tree);
+    }
+    assertTrue(tree.isEmpty(), "The size was not empty");
+  }
+
+  /**
+   * Test to check if unsorted values with duplicates are merged into an existing tree properly
+   */
+  @Test
+  public void bulkInsertCheck() {
+    List<Integer> half = orderToRemove.subList(0, expectedSize / 2);
+    for (Integer i : half) {
+      tree.insert(i);
+    }
+    List<Integer> values = new ArrayList<>(orderToAdd);
+    values.addAll(half);
+    Collections.shuffle(values);
+    assertEquals(expectedSize - half.size(), tree.bulkInsert(values),
+        "The number of inserted values was not same");
+    assertEquals(expectedSize, tree.size(), "The size was not same");
+    assertTrue(blackHeightCheck(tree.getRoot()), "The black heights were not the same\n" + tree);
+    assertTrue(tree.getRoot().parent == null && checkIfAllNodesConnected(tree.getRoot()),
+        "All nodes were not connected for tree\n" + tree);
+    for (Integer i : orderToAdd) {
+      assertTrue(tree.contains(i), "The value was not inserted " + i);
+      assertTrue(!tree.insert(i), "The value was inserted twice " + i);
+    }
+  }
+
+  /**
+   * Test to check if the subtree sizes stay correct through inserts, removes and bulk inserts, and
+   * select, rank and countRange agree with a sorted list
+   */
+  @Test
+  public void orderStatisticsCheck() {
+    List<Integer> half = orderToRemove.subList(0, expectedSize / 2);
+    for (Integer i : orderToAdd) {
+      tree.insert(i);
+      assertTrue(subtreeSizeCheck(tree.getRoot()), "The subtree sizes were not correct");
+    }
+    for (Integer i : half) {
+      tree.remove(i);
+      assertTrue(subtreeSizeCheck(tree.getRoot()), "The subtree sizes were not correct");
+    }
+    tree.bulkInsert(half.subList(0, half.size() / 2));
+    assertTrue(subtreeSizeCheck(tree.getRoot()), "The subtree sizes were not correct");
+
+    List<Integer> sorted = new ArrayList<>(orderToAdd);
+    sorted.removeAll(half.subList(half.size() / 2, half.size()));
+    Collections.sort(sorted);
+    assertEquals(sorted.size(), tree.size(), "The size was not same");
+    for (int k = 0; k < sorted.size(); k++) {
+      assertEquals(sorted.get(k), tree.select(k), "The selected value was not same for " + k);
+      assertEquals(k, tree.rank(sorted.get(k)), "The rank was not same for " + sorted.get(k));
+      assertEquals(k, tree.rank(sorted.get(k) - 1) + (sorted.contains(sorted.get(k) - 1) ? 1 : 0),
+          "The rank of a missing value was not same");
+    }
+    for (int r = 0; r < 100; r++) {
+      int lo = (int) (Math.random() * 100000);
+      int hi = lo + (int) (Math.random() * 20000);
+      long expected = sorted.stream().filter(v -> v >= lo && v <= hi).count();
+      assertEquals(expected, tree.countRange(lo, hi), "The range count was not same");
+    }
+  }
+
+  /**
+   * Test to check if iteration, navigation and range views agree with a TreeSet, including removals
+   * through iterators and views
+   */
+  @Test
+  public void navigationCheck() {
+    TreeSet<Integer> expected = new TreeSet<>(orderToAdd);
+    tree.addAll(orderToAdd);
+    assertEquals(new ArrayList<>(expected), new ArrayList<>(tree), "The iteration order differed");
+    assertEquals(new ArrayList<>(expected.descendingSet()), new ArrayList<>(tree.descendingSet()),
+        "The descending iteration order differed");
+    assertEquals(expected.first(), tree.first(), "The first value differed");
+    assertEquals(expected.last(), tree.last(), "The last value differed");
+
+    for (int r = 0; r < 200; r++) {
+      int lo = (int) (Math.random() * 100000);
+      int hi = lo + 2 + (int) (Math.random() * 20000); // keeps (lo + hi) / 2 inside the range
+      assertEquals(expected.floor(lo), tree.floor(lo), "The floor differed for " + lo);
+      assertEquals(expected.ceiling(lo), tree.ceiling(lo), "The ceiling differed for " + lo);
+      assertEquals(expected.lower(lo), tree.lower(lo), "The lower value differed for " + lo);
+      assertEquals(expected.higher(lo), tree.higher(lo), "The higher value differed for " + lo);
+
+      boolean loInclusive = Math.random() < 0.5;
+      boolean hiInclusive = Math.random() < 0.5;
+      NavigableSet<Integer> expectedView = expected.subSet(lo, loInclusive, hi, hiInclusive);
+      NavigableSet<Integer> view = tree.subSet(lo, loInclusive, hi, hiInclusive);
+      assertEquals(expectedView.size(), view.size(), "The size of the view differed");
+      assertEquals(new ArrayList<>(expectedView), new ArrayList<>(view), "The view differed");
+      assertEquals(new ArrayList<>(expectedView.descendingSet().headSet((lo + hi) / 2, true)),
+          new ArrayList<>(view.descendingSet().headSet((lo + hi) / 2, true)),
+          "The nested descending view differed");
+      assertEquals(new ArrayList<>(expected.headSet(lo, false).descendingSet()),
+          new ArrayList<>(tree.headSet(lo, false).descendingSet()), "The head view differed");
+      assertEquals(expected.tailSet(hi, false).size(), tree.tailSet(hi, false).size(),
+          "The size of the tail view differed");
+    }
+
+    // remove every other value through the iterator and a range through a view
+    Iterator<Integer> expectedIterator = expected.iterator();
+    Iterator<Integer> iterator = tree.iterator();
+    for (boolean skip = false; iterator.hasNext(); skip = !skip) {
+      assertEquals(expectedIterator.next(), iterator.next(), "The iterated value differed");
+      if (!skip) {
+        expectedIterator.remove();
+        iterator.remove();
+      }
+    }
+    expected.subSet(20000, 60000).clear();
+    tree.subSet(20000, 60000).clear();
+    assertEquals(new ArrayList<>(expected), new ArrayList<>(tree), "The removals differed");
+    assertEquals(expected.size(), tree.size(), "The size was not same");
+    assertTrue(blackHeightCheck(tree.getRoot()), "The black heights were not the same\n" + tree);
+    assertTrue(subtreeSizeCheck(tree.getRoot()), "The subtree sizes were not correct");
+  }
+
+  /**
+   * Test to check if sequential and parallel streams over the spliterator see every value once and
+   * in order
+   */
+  @Test
+  public void spliteratorCheck() {
+    tree.addAll(orderToAdd);
+    List<Integer> sorted = new ArrayList<>(orderToAdd);
+    Collections.sort(sorted);
+    assertEquals(sorted, tree.stream().collect(Collectors.toList()), "The stream order differed");
+    assertEquals(sorted, tree.parallelStream().collect(Collectors.toList()),
+        "The parallel stream order differed");
+    assertEquals(sorted.stream().mapToLong(Integer::longValue).sum(),
+        tree.parallelStream().mapToLong(Integer::longValue).sum(), "The parallel sum differed");
+    assertEquals(expectedSize, tree.spliterator().estimateSize(), "The estimated size differed");
+  }
+
+  /**
+   * Test to check if union, intersection and difference agree with a TreeSet, leave valid trees and
+   * leave the other tree as it was
+   */
+  @Test
+  public void setOperationsCheck() {
+    List<Integer> others = new ArrayList<>(orderToRemove.subList(0, expectedSize / 2));
+    for (int i = 0; i < expectedSize; i++) {
+      others.add((int) (Math.random() * 100000));
+    }
+    for (String operation : new String[] {"union", "intersection", "difference"}) {
+      RBTrees<Integer> first = new RBTrees<>();
+      RBTrees<Integer> second = new RBTrees<>();
+      first.addAll(orderToAdd);
+      second.addAll(others);
+      TreeSet<Integer> expected = new TreeSet<>(orderToAdd);
+      if (operation.equals("union")) {
+        expected.addAll(others);
+        first.union(second);
+      } else if (operation.equals("intersection")) {
+        expected.retainAll(others);
+        first.intersection(second);
+      } else {
+        expected.removeAll(others);
+        first.difference(second);
+      }
+      assertEquals(new ArrayList<>(expected), new ArrayList<>(first), "The " + operation +
+          " differed");
+      assertEquals(expected.size(), first.size(), "The size after the " + operation + " differed");
+      assertEquals(new ArrayList<>(new TreeSet<>(others)), new ArrayList<>(second),
+          "The other tree was changed by the " + operation);
+      assertTrue(blackHeightCheck(second.getRoot()) && subtreeSizeCheck(second.getRoot()),
+          "The other tree was not valid after the " + operation);
+      assertTrue(blackHeightCheck(first.getRoot()),
+          "The black heights were not the same after the " + operation + "\n" + first);
+      assertTrue(first.getRoot() == null || first.getRoot().parent == null &&
+          first.getRoot().blackHeight == 1 && checkIfAllNodesConnected(first.getRoot()),
+          "All nodes were not connected after the " + operation + "\n" + first);
+      assertTrue(subtreeSizeCheck(first.getRoot()), "The subtree sizes were not correct");
+      assertTrue(redRedCheck(first.getRoot()), "Two red nodes were linked after the " + operation);
+    }
+  }
+
+  /**
+   * Test to check if trees ordered by a comparator and by an extracted key agree with a TreeSet
+   * using the same order through inserts, removes and navigation
+   */
+  @Test
+  public void comparatorCheck() {
+    RBTrees<Integer> reversed = new RBTrees<>(Collections.reverseOrder());
+    RBTrees<Integer> keyed = new RBTrees<>(value -> -(long) value);
+    TreeSet<Integer> expected = new TreeSet<>(Collections.reverseOrder());
+    for (Integer i : orderToAdd) {
+      assertEquals(expected.add(i), reversed.insert(i), "The insert of " + i + " differed");
+      assertTrue(keyed.insert(i) && !keyed.insert(i), "The keyed insert of " + i + " failed");
+    }
+    for (Integer i : orderToRemove.subList(0, expectedSize / 2)) {
+      expected.remove(i);
+      assertTrue(reversed.remove(i) && keyed.remove(i), "The remove of " + i + " failed");
+      assertTrue(!reversed.contains(i) && !keyed.contains(i), i + " was still found");
+    }
+    for (RBTrees<Integer> ordered : List.of(reversed, keyed)) {
+      assertEquals(new ArrayList<>(expected), new ArrayList<>(ordered), "The iteration differed");
+      assertTrue(blackHeightCheck(ordered.getRoot()), "The black heights were not the same");
+      assertTrue(subtreeSizeCheck(ordered.getRoot()), "The subtree sizes were not correct");
+      for (int r = 0; r < 100; r++) {
+        int value = (int) (Math.random() * 100000);
+        assertEquals(expected.ceiling(value), ordered.ceiling(value), "The ceiling differed");
+        assertEquals(expected.headSet(value).size(), ordered.rank(value), "The rank differed");
+      }
+      assertTrue(ordered.comparator().compare(2, 1) < 0, "The comparator was not reversed");
+    }
+  }
+
+  /**
+   * Test to check if the map agrees with a TreeMap through puts, merges, computes and removes, and
+   * if its navigation, range views and key view match as well
+   */
+  @Test
+  public void mapCheck() {
+    RBTreeMap<Integer, Integer> map = new RBTreeMap<>();
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    for (Integer i : orderToAdd) {
+      assertEquals(expected.put(i, i), map.put(i, i), "The put of " + i + " differed");
+      int key = (int) (Math.random() * 100000);
+      assertEquals(expected.merge(key, 1, Integer::sum), map.merge(key, 1, Integer::sum),
+          "The merge of " + key + " differed");
+      assertEquals(expected.computeIfAbsent(i / 2, k -> -k), map.computeIfAbsent(i / 2, k -> -k),
+          "The computeIfAbsent of " + i / 2 + " differed");
+    }
+    for (Integer i : orderToRemove.subList(0, expectedSize / 2)) {
+      assertEquals(expected.remove(i), map.remove(i), "The remove of " + i + " differed");
+      assertEquals(expected.compute(i + 1, (k, v) -> (v == null) ? null : v + 1),
+          map.compute(i + 1, (k, v) -> (v == null) ? null : v + 1), "The compute differed");
+    }
+    assertEquals(expected, map, "The maps differed");
+    assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()),
+        "The entries differed");
+
+    for (int r = 0; r < 100; r++) {
+      int lo = (int) (Math.random() * 100000);
+      int hi = lo + 2 + (int) (Math.random() * 20000);
+      assertEquals(expected.floorEntry(lo), map.floorEntry(lo), "The floor differed for " + lo);
+      assertEquals(expected.higherKey(lo), map.higherKey(lo), "The higher key differed for " + lo);
+      NavigableMap<Integer, Integer> expectedView = expected.subMap(lo, true, hi, false);
+      NavigableMap<Integer, Integer> view = map.subMap(lo, true, hi, false);
+      assertEquals(expectedView.size(), view.size(), "The size of the view differed");
+      assertEquals(new ArrayList<>(expectedView.descendingMap().entrySet()),
+          new ArrayList<>(view.descendingMap().entrySet()), "The descending view differed");
+      assertEquals(expected.headMap(lo, false).lastEntry(), map.headMap(lo, false).lastEntry(),
+          "The last entry of the head view differed");
+      assertEquals(expected.headMap(lo).size(), map.rank(lo), "The rank differed");
+    }
+
+    SortedCollectionInterface<Integer> keys = map.keyCollection();
+    Integer first = map.firstKey();
+    assertTrue(keys.contains(first) && keys.remove(first) && !map.containsKey(first),
+        "Removing a key through the key view did not remove its mapping");
+    expected.remove(first);
+    expected.subMap(20000, 60000).clear();
+    map.subMap(20000, 60000).clear();
+    assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(map.keySet()),
+        "The keys differed after the removals");
+  }
+
+  /**
+   * Test to check if a batch applied with finger search has the same results as applying its
+   * operations one at a time in their original order
+   */
+  @Test
+  public void applyBatchCheck() {
+    tree.addAll(orderToAdd.subList(0, expectedSize / 2));
+    TreeSet<Integer> expected = new TreeSet<>(tree);
+    for (int batch = 0; batch < 10; batch++) {
+      List<RBTrees.Op<Integer>> ops = new ArrayList<>();
+      BitSet expectedResults = new BitSet();
+      int count = (int) (Math.random() * 3000);
+      for (int i = 0; i < count; i++) {
+        // a narrow range of values, so that the batch has operations on the same values
+        int value = (int) (Math.random() * 2000) * 50;
+        boolean insert = Math.random() < 0.5;
+        ops.add(insert ? RBTrees.Op.insert(value) : RBTrees.Op.remove(value));
+        expectedResults.set(i, insert ? expected.add(value) : expected.remove(value));
+      }
+      assertEquals(expectedResults, tree.applyBatch(ops), "The results of the batch differed");
+      assertEquals(new ArrayList<>(expected), new ArrayList<>(tree), "The values differed");
+      assertEquals(expected.size(), tree.size(), "The size was not same");
+      assertTrue(tree.getRoot() == null || blackHeightCheck(tree.getRoot()) &&
+          redRedCheck(tree.getRoot()) && checkIfAllNodesConnected(tree.getRoot()),
+          "The tree was not valid after the batch\n" + tree);
+      assertTrue(subtreeSizeCheck(tree.getRoot()), "The subtree sizes were not correct");
+    }
+  }
+
+  /**
+   * Test to check if a tree read from a snapshot has the same shape and colors as the written tree,
+   * through a stream and a file, and if a snapshot in the wrong order is rejected
+   */
+  @Test
+  public void snapshotCheck() throws IOException {
+    for (Integer i : orderToAdd) {
+      tree.insert(i);
+    }
+    for (Integer i : orderToRemove.subList(0, expectedSize / 2)) {
+      tree.remove(i);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    tree.writeTo(new DataOutputStream(bytes), KeyCodec.INTEGER);
+    RBTrees<Integer> read = new RBTrees<>();
+    read.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+        KeyCodec.INTEGER);
+    assertEquals(tree.toString(), read.toString(), "The read tree differed");
+    assertEquals(tree.size(), read.size(), "The size was not same");
+    assertTrue(read.getRoot() == null || checkIfAllNodesConnected(read.getRoot()),
+        "All nodes were not connected for tree\n" + read);
+    assertTrue(subtreeSizeCheck(read.getRoot()), "The subtree sizes were not correct");
+
+    RBTrees<Integer> reversed = new RBTrees<>(Collections.reverseOrder());
+    reversed.addAll(orderToAdd);
+    Path file = Files.createTempFile("rbtree", ".snapshot");
+    try {
+      reversed.writeTo(file, KeyCodec.INTEGER);
+      RBTrees<Integer> readReversed = new RBTrees<>(Collections.reverseOrder());
+      readReversed.readFrom(file, KeyCodec.INTEGER);
+      assertEquals(reversed.toString(), readReversed.toString(), "The read file differed");
+      for (Integer i : orderToRemove) {
+        assertTrue(readReversed.remove(i), "The value could not be removed " + i);
+      }
+      assertTrue(readReversed.isEmpty(), "The size was not empty");
+
+      if (expectedSize > 1) {
+        boolean rejected = false;
+        try {
+          RBTrees.fromSnapshot(file, KeyCodec.INTEGER);
+        } catch (IllegalStateException e) {
+          rejected = true;
+        }
+        assertTrue(rejected, "A snapshot in reverse order was read in natural order");
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Test to check if the metrics count the rotations, recolorings and comparisons of a workload and
+   * a latency for every call, when they are enabled
+   */
+  @Test
+  public void metricsCheck() {
+    if (!RBTreeMetrics.ENABLED) {
+      assertEquals(0, RBTrees.stats().getComparisons(), "Disabled metrics counted comparisons");
+      return;
+    }
+    RBTreeMetrics.Stats before = RBTrees.stats();
+    for (int i = 0; i < 1000; i++) {
+      tree.insert(i); // ascending inserts keep rotating and recoloring the right spine
+    }
+    RBTreeMetrics.Stats inserted = RBTrees.stats();
+    assertTrue(inserted.getRotations() > before.getRotations(), "No rotations were counted");
+    assertTrue(inserted.getRecolors() > before.getRecolors(), "No recolorings were counted");
+    assertTrue(inserted.getMaxDepth() >= 10, "A tree of 1000 nodes was less than 10 deep");
+    assertEquals(1000, Arrays.stream(inserted.getInsertLatencies()).sum()
+        - Arrays.stream(before.getInsertLatencies()).sum(), "Not every insert was timed");
+
+    // every contains compares the value with each node on the path to it
+    long expectedComparisons = 0;
+    for (int i = 0; i < 1000; i++) {
+      for (RBTrees.Node<Integer> node = tree.getNode(i); node != null; node = node.parent) {
+        expectedComparisons++;
+      }
+    }
+    before = RBTrees.stats();
+    for (int i = 0; i < 1000; i++) {
+      tree.contains(i);
+    }
+    RBTreeMetrics.Stats searched = RBTrees.stats();
+    assertEquals(expectedComparisons, searched.getComparisons() - before.getComparisons(),
+        "The comparisons were not counted once per level");
+    assertEquals(1000, Arrays.stream(searched.getContainsLatencies()).sum()
+        - Arrays.stream(before.getContainsLatencies()).sum(), "Not every contains was timed");
+
+    List<RBTrees.Op<Integer>> ops = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      ops.add(RBTrees.Op.remove(i));
+    }
+    before = RBTrees.stats();
+    tree.applyBatch(ops);
+    RBTreeMetrics.Stats batched = RBTrees.stats();
+    assertEquals(100, Arrays.stream(batched.getRemoveLatencies()).sum()
+        - Arrays.stream(before.getRemoveLatencies()).sum(), "Not every batch remove was timed");
+  }
+
+  /**
+   * Test to check if the B+ tree engines agree with a TreeSet through inserts and removes, both
+   * with the natural ordering and with an extracted key, and through splits and merges of nodes
+   */
+  @Test
+  public void bPlusTreeCrossCheck() {
+    List<SortedCollectionInterface<Integer>> engines = List.of(
+        SortedCollections.create(SortedCollections.Engine.B_PLUS_TREE),
+        SortedCollections.create(SortedCollections.Engine.B_PLUS_TREE, value -> (long) value));
+    for (SortedCollectionInterface<Integer> engine : engines) {
+      BPlusTree<Integer> bPlusTree = (BPlusTree<Integer>) engine;
+      TreeSet<Integer> expected = new TreeSet<>();
+      for (Integer i : orderToAdd) {
+        assertEquals(expected.add(i), bPlusTree.insert(i), "The insert of " + i + " differed");
+        assertTrue(!bPlusTree.insert(i), "A duplicate of " + i + " was inserted");
+      }
+      for (int i = 0; i < 100000; i += 7) { // ascending inserts only split the last leaves
+        assertEquals(expected.add(i), bPlusTree.insert(i), "The insert of " + i + " differed");
+      }
+      assertEquals(new ArrayList<>(expected), toList(bPlusTree), "The iteration differed");
+      for (int r = 0; r < 1000; r++) {
+        int value = (int) (Math.random() * 100000);
+        assertEquals(expected.contains(value), bPlusTree.contains(value), "contains differed");
+      }
+
+      List<Integer> removeOrder = new ArrayList<>(expected);
+      Collections.shuffle(removeOrder);
+      for (int i = 0; i < removeOrder.size(); i++) {
+        Integer value = removeOrder.get(i);
+        assertTrue(bPlusTree.remove(value), "The value could not be removed " + value);
+        assertTrue(!bPlusTree.remove(value) && !bPlusTree.contains(value), value + " was found");
+        expected.remove(value);
+        if (i % 1000 == 0) {
+          assertEquals(new ArrayList<>(expected), toList(bPlusTree), "The iteration differed");
+        }
+      }
+      assertTrue(bPlusTree.isEmpty() && !bPlusTree.iterator().hasNext(), "The tree was not empty");
+    }
+  }
+
+  /**
+   * Test to check if a tree with a node pool reuses the removed nodes for later inserts and stays
+   * valid through removes, polls and inserts
+   */
+  @Test
+  public void nodePoolCheck() {
+    tree.setNodePoolCapacity(expectedSize);
+    for (Integer i : orderToAdd) {
+      tree.insert(i);
+    }
+    Integer first = orderToRemove.get(0);
+    RBTrees.Node<Integer> removed = tree.getNode(first);
+    tree.remove(first);
+    tree.insert(-1);
+    assertTrue(tree.getNode(-1) == removed, "The removed node was not reused");
+    assertEquals(Integer.valueOf(-1), tree.pollFirst(), "The polled value was not the data");
+
+    for (int round = 0; round < 3; round++) {
+      for (Integer i : orderToRemove) {
+        tree.remove(i);
+      }
+      assertTrue(tree.isEmpty(), "The size was not empty");
+      for (Integer i : orderToAdd) {
+        tree.insert(i);
+        assertTrue(tree.getRoot().parent == null && checkIfAllNodesConnected(tree.getRoot()),
+            "All nodes were not connected for tree\n" + tree);
+      }
+      assertTrue(blackHeightCheck(tree.getRoot()) && redRedCheck(tree.getRoot()),
+          "The tree was not valid with reused nodes\n" + tree);
+      assertTrue(subtreeSizeCheck(tree.getRoot()), "The subtree sizes were not correct");
+      assertEquals(new ArrayList<>(new TreeSet<>(orderToAdd)), new ArrayList<>(tree),
+          "The values differed with reused nodes");
+    }
+  }
+
+  /**
+   * Test to check if every renderer writes the expected text for a small tree, and if renderers
+   * used from several threads at once write the same text as a single renderer
+   */
+  @Test
+  public void rendererCheck() throws InterruptedException {
+    RBTrees<Integer> small = new RBTrees<>();
+    assertEquals("", RBTreeRenderer.PLAIN.render(small), "An empty tree was not empty");
+    assertEquals("null", RBTreeRenderer.JSON.render(small), "An empty tree was not null");
+    small.insert(10);
+    small.insert(5);
+    small.insert(15);
+    small.insert(17);
+    assertEquals("\\-- 10 (1)\n    |-- 5 (1)\n    \\-- 15 (1)\n        \\-- 17 (0)\n",
+        small.toString(), "The plain rendering differed");
+    assertEquals("(10 B (5 B) (15 B - (17 R)))", RBTreeRenderer.COMPACT.render(small),
+        "The compact rendering differed");
+    small.remove(15);
+    small.remove(17);
+    assertEquals("{\"value\":10,\"color\":\"black\",\"left\":{\"value\":5,\"color\":\"red\","
+            + "\"left\":null,\"right\":null},\"right\":null}", RBTreeRenderer.JSON.render(small),
+        "The JSON rendering differed");
+    assertEquals("\\-- \u001B[37m10\u001B[0m\n    |-- \u001B[31m5\u001B[0m\n",
+        RBTreeRenderer.ANSI.render(small), "The ANSI rendering differed");
+
+    for (Integer i : orderToAdd) {
+      tree.insert(i);
+    }
+    String expected = tree.toString();
+    ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+    List<Thread> threads = new ArrayList<>();
+    for (RBTreeRenderer renderer : RBTreeRenderer.values()) {
+      String single = renderer.render(tree);
+      for (int t = 0; t < 2; t++) {
+        threads.add(new Thread(() -> {
+          for (int k = 0; k < 5; k++) {
+            if (!renderer.render(tree).equals(single)) {
+              failures.add("A concurrent " + renderer + " rendering differed");
+            }
+            if (!RBTreeRenderer.PLAIN.render(tree).equals(expected)) {
+              failures.add("A concurrent plain rendering differed");
+            }
+          }
+        }));
+      }
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(failures.isEmpty(), String.join("\n", failures));
+  }
+
+  /**
+   * Test to check if the answer checker accepts a correct answer with sloppy branches and blank
+   * lines, and reports the first wrong color, a missing node and an extra node
+   */
+  @Test
+  public void answerCheckerCheck() throws IOException {
+    for (Integer i : orderToAdd) {
+      tree.insert(i);
+    }
+    String answer = tree.toString();
+    assertEquals(null, RBTreeAnswerChecker.check(tree, new BufferedReader(new StringReader(
+        answer.replace("|-- ", "- ").replace("\n", "\n\n")))), "A correct answer was rejected");
+
+    String[] lines = answer.split("\n");
+    int wrong = lines.length / 2;
+    String node = lines[wrong].substring(lines[wrong].lastIndexOf("- ") + 2);
+    char color = node.charAt(node.length() - 2);
+    lines[wrong] = lines[wrong].replace(node, node.replace("(" + color + ")",
+        "(" + (color == '0' ? '1' : '0') + ")"));
+    String mismatch = RBTreeAnswerChecker.check(tree,
+        new BufferedReader(new StringReader(String.join("\n", lines))));
+    assertEquals("Line " + (wrong + 1) + ": expected " + node, mismatch.substring(0,
+        mismatch.indexOf(", ")), "The first differing node was not reported");
+
+    String shortAnswer = answer.substring(0, answer.lastIndexOf('\n', answer.length() - 2) + 1);
+    assertTrue(RBTreeAnswerChecker.check(tree, new BufferedReader(new StringReader(shortAnswer)))
+        .endsWith("but the answer ended"), "A missing node was not reported");
+    assertTrue(RBTreeAnswerChecker.check(tree, new BufferedReader(new StringReader(answer
+        + "\\-- 1 (0)\n"))).contains("no more nodes"), "An extra node was not reported");
+  }
+
+  /**
+   * Test to check if sessions with the same seed ask the same questions and grade answers alike,
+   * and if a session played through the quiz server agrees with a local session
+   */
+  @Test
+  public void quizSessionCheck() throws IOException, InterruptedException {
+    long seed = orderToAdd.get(0);
+    QuizSession first = new QuizSession(seed, 50, 1, 1000);
+    QuizSession second = new QuizSession(seed, 50, 1, 1000);
+    assertEquals(first.board(), second.board(), "The boards of the same seed differed");
+    for (int round = 0; round < 200; round++) {
+      String board = first.board();
+      assertEquals(first.nextQuestion(), second.nextQuestion(), "The questions differed");
+      assertEquals(board, first.board(), "The board changed before the answer");
+      boolean rejected = false;
+      try {
+        first.nextQuestion();
+      } catch (IllegalStateException e) {
+        rejected = true;
+      }
+      assertTrue(rejected, "A second question was asked before the answer");
+      assertEquals(null, first.submit(RBTreeRenderer.PLAIN.render(first.getTree())),
+          "A correct answer was rejected");
+      assertEquals(first.board(), RBTreeRenderer.PLAIN.render(first.getTree()),
+          "The board did not show the tree");
+      assertTrue(second.submit(board + "\\-- 0 (1)\n") != null, "A wrong answer was accepted");
+      assertTrue(blackHeightCheck(first.getTree().getRoot())
+          && redRedCheck(first.getTree().getRoot()), "The quiz tree was not valid");
+    }
+    assertEquals(200, first.correct(), "The correct answers were not counted");
+    assertEquals(0, second.correct(), "The wrong answers were counted");
+
+    QuizServer server = new QuizServer(new InetSocketAddress("127.0.0.1", 0), 1, 60);
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.getPort() + "/sessions";
+      HttpClient client = HttpClient.newHttpClient();
+      HttpResponse<String> created = client.send(HttpRequest.newBuilder(URI.create(base
+              + "?seed=" + seed)).POST(HttpRequest.BodyPublishers.noBody()).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(201, created.statusCode(), "The session was not created");
+      assertEquals(503, client.send(HttpRequest.newBuilder(URI.create(base))
+              .POST(HttpRequest.BodyPublishers.noBody()).build(),
+          HttpResponse.BodyHandlers.ofString()).statusCode(), "The session limit was not kept");
+      String id = created.body().substring(0, created.body().indexOf('\n'));
+      QuizSession local = new QuizSession(seed);
+      assertEquals(local.board(), created.body().substring(id.length() + 1),
+          "The served board differed");
+      URI session = URI.create(base + "/" + id);
+      for (int round = 0; round < 20; round++) {
+        String question = client.send(HttpRequest.newBuilder(URI.create(session + "/question"))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(),
+            HttpResponse.BodyHandlers.ofString()).body();
+        assertEquals(local.nextQuestion() + "\n", question, "The served question differed");
+        String answer = (round % 2 == 0) ? RBTreeRenderer.PLAIN.render(local.getTree())
+            : local.board();
+        String grade = client.send(HttpRequest.newBuilder(URI.create(session + "/answer"))
+                .POST(HttpRequest.BodyPublishers.ofString(answer)).build(),
+            HttpResponse.BodyHandlers.ofString()).body();
+        String mismatch = local.submit(answer);
+        assertEquals((mismatch == null) ? "correct\n" : "incorrect\n" + mismatch + "\n"
+            + local.board(), grade, "The served grade differed");
+      }
+      assertEquals(413, client.send(HttpRequest.newBuilder(URI.create(session + "/answer"))
+              .POST(HttpRequest.BodyPublishers.ofString("x".repeat(1 << 17))).build(),
+          HttpResponse.BodyHandlers.ofString()).statusCode(), "An oversized answer was graded");
+      assertEquals(409, client.send(HttpRequest.newBuilder(URI.create(session + "/answer"))
+              .POST(HttpRequest.BodyPublishers.ofString("")).build(),
+          HttpResponse.BodyHandlers.ofString()).statusCode(), "An answer without a question");
+      assertEquals(200, client.send(HttpRequest.newBuilder(session).DELETE().build(),
+          HttpResponse.BodyHandlers.ofString()).statusCode(), "The session was not deleted");
+      assertEquals(404, client.send(HttpRequest.newBuilder(session).GET().build(),
+          HttpResponse.BodyHandlers.ofString()).statusCode(), "The deleted session was found");
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * Test to check if validate accepts trees through sampled inserts and removes, and names the
+   * node of every kind of broken invariant, and if path validation finds damage on its path
+   */
+  @Test
+  public void validateCheck() {
+    tree.setPathValidationInterval(1);
+    for (Integer i : orderToAdd) {
+      tree.insert(i);
+    }
+    tree.validate();
+    for (Integer i : orderToRemove.subList(0, expectedSize / 2)) {
+      tree.remove(i);
+    }
+    tree.validate();
+
+    RBTrees<Integer> small = new RBTrees<>();
+    for (int i = 0; i < 100; i++) {
+      small.insert(i);
+    }
+    small.validate();
+    RBTrees.Node<Integer> node = small.getRoot().right.left; // an inner node right of the root
+    node.subtreeSize++;
+    assertTrue(violation(small::validate).contains(node.toString()), "A wrong size was missed");
+    assertTrue(violation(() -> small.validatePath(node.data)).contains(node.parent.toString()),
+        "A wrong size on the path was missed");
+    assertEquals(null, violation(() -> small.validatePath(-1)), "A node off the path was seen");
+    node.subtreeSize--;
+
+    RBTrees.Node<Integer> child = node.left;
+    child.parent = child;
+    assertTrue(violation(small::validate).contains("does not link back"), "A link was missed");
+    child.parent = node;
+
+    RBTrees.Node<Integer> low = small.getNode(10);
+    RBTrees.Node<Integer> high = small.getNode(90);
+    low.data = 90;
+    high.data = 10;
+    assertTrue(violation(small::validate) != null, "The order was not checked");
+    low.data = 10;
+    high.data = 90;
+
+    RBTrees.Node<Integer> leaf = small.leftmost(small.getRoot());
+    leaf.blackHeight = 1 - leaf.blackHeight;
+    assertTrue(violation(small::validate) != null, "A wrong color was missed");
+    assertTrue(violation(() -> small.validatePath(leaf.data)) != null,
+        "A wrong color on the path was missed");
+    leaf.blackHeight = 1 - leaf.blackHeight;
+    small.validate();
+
+    small.setPathValidationInterval(1);
+    RBTrees.Node<Integer> left = small.getRoot().left;
+    RBTrees.Node<Integer> right = small.getRoot().right;
+    Integer swap = left.data;
+    left.data = right.data;
+    right.data = swap;
+    assertTrue(violation(() -> small.insert(1000)) != null,
+        "A sampled insert did not validate its path");
+    assertTrue(violation(() -> small.pollFirst()) != null,
+        "A sampled poll did not validate its path");
+  }
+
+  /**
+   * Runs a check and returns the message of the invariant it found broken
+   *
+   * @param check the check
+   * @return the message, or null if the check passed
+   */
+  private static String violation(Runnable check) {
+    try {
+      check.run();
+      return null;
+    } catch (IllegalStateException e) {
+      return e.getMessage();
+    }
+  }
+
+  /**
+   * Collects the values of an iterable in iteration order
+   *
+   * @param values the iterable
+   * @return the values
+   */
+  private static List<Integer> toList(Iterable<Integer> values) {
+    List<Integer> list = new ArrayList<>();
+    values.forEach(list::add);
+    return list;
+  }
+
+  /**
+   * Test to check if the int specialized tree has the same shape and colors as the generic tree
+   * after every insert and remove
+   */
+  @Test
+  public void intTreeCrossCheck() {
+    IntRBTree intTree = new IntRBTree(4);
+    for (Integer i : orderToAdd) {
+      assertEquals(tree.insert(i), intTree.insert(i), "Insert results differed for " + i);
+      assertEquals(tree.toString(), intTree.toString(), "The trees differed after inserting " + i);
+    }
+    assertEquals(tree.size(), intTree.size(), "The size was not same");
+
+    for (Integer i : orderToRemove) {
+      assertEquals(tree.remove(i), intTree.remove(i), "Remove results differed for " + i);
+      assertEquals(tree.toString(), intTree.toString(), "The trees differed after removing " + i);
+      assertTrue(!intTree.contains(i), "The removed value was still found");
+    }
+    assertTrue(intTree.isEmpty(), "The size was not empty");
+  }
+
+  /**
+   * Test to check if a mapped tree can be reopened after closing it with all of its values, and
+   * still removes values properly afterwards
+   */
+  @Test
+  public void mappedTreeReopenCheck() throws IOException {
+    Path file = Files.createTempFile("rbtree", ".map");
+    Files.delete(file);
+    try {
+      try (MappedRBTree mapped = MappedRBTree.open(file)) {
+        for (Integer i : orderToAdd) {
+          assertTrue(mapped.insert((long) i), "The value could not be inserted " + i);
+        }
+      }
+      try (MappedRBTree mapped = MappedRBTree.open(file)) {
+        assertEquals(expectedSize, mapped.size(), "The size was not same after reopening");
+        for (Integer i : orderToAdd) {
+          assertTrue(mapped.contains((long) i), "The value was lost after reopening " + i);
+        }
+        for (Integer i : orderToRemove.subList(0, expectedSize / 2)) {
+          assertTrue(mapped.remove((long) i), "The value could not be removed " + i);
+          assertTrue(!mapped.contains((long) i), "The removed value was still found");
+        }
+        assertEquals(expectedSize - expectedSize / 2, mapped.size(), "The size was not same");
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Test to check if a mapped tree which was not closed is reopened in the state of its last force,
+   * and if a force cut short by a crash is finished from a complete redo log and dropped with a
+   * torn one
+   */
+  @Test
+  public void mappedTreeCrashCheck() throws IOException {
+    Path file = Files.createTempFile("rbtree", ".map");
+    Files.delete(file);
+    Path redoFile = file.resolveSibling(file.getFileName() + ".redo");
+    try {
+      // never closed, like a crash; the second half of the values is not forced
+      MappedRBTree crashed = MappedRBTree.open(file);
+      for (Integer i : orderToAdd.subList(0, expectedSize / 2)) {
+        crashed.insert((long) i);
+      }
+      crashed.force();
+      byte[] forced = Files.readAllBytes(file);
+      for (Integer i : orderToAdd.subList(expectedSize / 2, expectedSize)) {
+        crashed.insert((long) i);
+      }
+      for (Integer i : orderToRemove.subList(0, expectedSize / 4)) {
+        crashed.remove((long) i);
+      }
+      byte[] current = Files.readAllBytes(file);
+      // growing the mapping may append empty slots, which the forced header does not count
+      assertTrue(current.length >= forced.length
+          && Arrays.equals(Arrays.copyOf(forced, current.length), current),
+          "The file changed without a force");
+
+      Files.write(redoFile, new byte[] {1, 2, 3}); // a log torn while it was written
+      try (MappedRBTree reopened = MappedRBTree.open(file)) {
+        assertEquals(expectedSize / 2, reopened.size(), "The forced size was not reopened");
+        for (Integer i : orderToAdd) {
+          assertEquals(orderToAdd.indexOf(i) < expectedSize / 2, reopened.contains((long) i),
+              "The value was not in its forced state " + i);
+        }
+        for (Integer i : orderToAdd.subList(expectedSize / 2, expectedSize)) {
+          reopened.insert((long) i);
+        }
+        assertTrue(reopened.remove((long) orderToAdd.get(0)), "The value could not be removed");
+      }
+      assertTrue(!Files.exists(redoFile), "The redo log was not deleted on close");
+      try (MappedRBTree reopened = MappedRBTree.open(file)) {
+        assertEquals(expectedSize - 1, reopened.size(), "The closed size was not reopened");
+        assertTrue(!reopened.contains((long) orderToAdd.get(0)), "The removed value was found");
+      }
+    } finally {
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(redoFile);
+    }
+  }
+
+  /**
+   * Test to check if a durable tree is recovered after a crash from its checkpoint and the log
+   * after it, with the same shape as a tree which saw the same operations, and if a record torn by
+   * the crash is dropped
+   */
+  @Test
+  public void durableCheck() throws IOException {
+    Path directory = Files.createTempDirectory("rbtree-wal");
+    try {
+      // never closed, like a crash; every operation is synced before it returns
+      DurableRBTrees<Integer> crashed = DurableRBTrees.open(directory, KeyCodec.INTEGER, 0, 0);
+      crashed.setCheckpointBytes(200);
+      for (Integer i : orderToAdd) {
+        tree.insert(i);
+        assertTrue(crashed.insert(i), "The value could not be inserted " + i);
+      }
+      assertTrue(!crashed.insert(orderToAdd.get(0)), "A duplicate was inserted");
+      for (Integer i : orderToRemove.subList(0, expectedSize / 2)) {
+        tree.remove(i);
+        assertTrue(crashed.remove(i), "The value could not be removed " + i);
+      }
+      Path log;
+      try (Stream<Path> files = Files.list(directory)) {
+        List<Path> logs = files.filter(f -> f.toString().endsWith(".wal"))
+            .collect(Collectors.toList());
+        assertEquals(1, logs.size(), "The older logs were not deleted " + logs);
+        log = logs.get(0);
+      }
+      long valid = Files.size(log);
+      // a record cut short by the crash, whose value never reached the disk
+      Files.write(log, new byte[] {0, 0, 0, 5, 1, 2, 3, 4, 1, 0},
+          StandardOpenOption.APPEND);
+
+      try (DurableRBTrees<Integer> recovered = DurableRBTrees.open(directory, KeyCodec.INTEGER,
+          10, 1 << 12)) {
+        assertEquals(valid, Files.size(log), "The torn record was not truncated");
+        assertEquals(tree.toString(), recovered.toString(), "The recovered tree was not same");
+        for (Integer i : orderToRemove.subList(expectedSize / 2, expectedSize)) {
+          tree.remove(i);
+          assertTrue(recovered.remove(i), "The value could not be removed " + i);
+        }
+        recovered.insert(-1);
+        tree.insert(-1);
+      }
+      try (DurableRBTrees<Integer> reopened = DurableRBTrees.open(directory, KeyCodec.INTEGER,
+          0, 0)) {
+        assertEquals(tree.toString(), reopened.toString(), "The reopened tree was not same");
+        assertEquals(1, reopened.size(), "The size was not same after reopening");
+      }
+    } finally {
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : files.collect(Collectors.toList())) {
+          Files.deleteIfExists(file);
+        }
+      }
+      Files.deleteIfExists(directory);
+    }
+  }
+
+  /**
+   * Test to check if a value the codec fails to write changes neither the durable tree nor its log,
+   * so that the records before it and after it are recovered
+   */
+  @Test
+  public void durableCodecFailureCheck() throws IOException {
+    KeyCodec<Integer> positive = new KeyCodec<>() {
+      @Override
+      public void write(Integer value, DataOutput out) throws IOException {
+        out.writeShort(0); // half of a record is pending when the codec fails
+        if (value < 0) {
+          throw new IOException("Cannot write " + value);
+        }
+        out.writeInt(value);
+      }
+
+      @Override
+      public Integer read(DataInput in) throws IOException {
+        in.readShort();
+        return in.readInt();
+      }
+    };
+    Path directory = Files.createTempDirectory("rbtree-wal");
+    try {
+      try (DurableRBTrees<Integer> durable = DurableRBTrees.open(directory, positive, 0, 0)) {
+        durable.insert(1);
+        durable.insert(2);
+        boolean failed = false;
+        try {
+          durable.insert(-1);
+        } catch (UncheckedIOException e) {
+          failed = true;
+        }
+        assertTrue(failed, "The codec failure was not reported");
+        assertTrue(!durable.contains(-1), "The value the codec failed on was inserted");
+        durable.insert(3);
+        assertTrue(durable.remove(2), "The value could not be removed");
+      }
+      RBTrees<Integer> expected = new RBTrees<>(); // the same operations, so the same shape
+      expected.insert(1);
+      expected.insert(2);
+      expected.insert(3);
+      expected.remove(2);
+      try (DurableRBTrees<Integer> reopened = DurableRBTrees.open(directory, positive, 0, 0)) {
+        assertEquals(expected.toString(), reopened.toString(), "The records were not recovered");
+      }
+    } finally {
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : files.collect(Collectors.toList())) {
+          Files.deleteIfExists(file);
+        }
+      }
+      Files.deleteIfExists(directory);
+    }
+  }
+
+  /**
+   * Test to check if the inserts which returned from writers sharing group commits survive a crash,
+   * that is, if each of them waited for the fsync which covers its record
+   */
+  @Test
+  public void durableGroupCommitCheck() throws IOException, InterruptedException {
+    Path directory = Files.createTempDirectory("rbtree-wal");
+    try {
+      // never closed, like a crash; each leader waits 1 ms for more records
+      DurableRBTrees<Integer> crashed = DurableRBTrees.open(directory, KeyCodec.INTEGER, 1, 0);
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        int offset = t;
+        threads.add(new Thread(() -> {
+          for (int i = 0; i < 100; i++) {
+            crashed.insert(8 * i + offset);
+          }
+        }));
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      try (DurableRBTrees<Integer> recovered = DurableRBTrees.open(directory, KeyCodec.INTEGER,
+          0, 0)) {
+        assertEquals(800, recovered.size(), "An insert which returned was lost");
+        for (int i = 0; i < 800; i++) {
+          assertTrue(recovered.contains(i), "The value was lost " + i);
+        }
+      }
+    } finally {
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : files.collect(Collectors.toList())) {
+          Files.deleteIfExists(file);
+        }
+      }
+      Files.deleteIfExists(directory);
+    }
+  }
+
+  /**
+   * Test to check if a sharded tree written by several threads in ascending order, which sends
+   * every value to the last shard, resplits into its target number of shards, and still holds and
+   * iterates all of the values in order
+   */
+  @Test
+  public void shardedCheck() throws InterruptedException {
+    ShardedRBTrees<Integer> sharded = new ShardedRBTrees<>(8);
+    int perThread = 20000;
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int offset = t;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < perThread; i++) {
+          sharded.insert(4 * i + offset);
+          if (i % 3 == 0) {
+            sharded.remove(4 * i + offset);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    TreeSet<Integer> expected = new TreeSet<>();
+    for (int i = 0; i < 4 * perThread; i++) {
+      if ((i / 4) % 3 != 0) {
+        expected.add(i);
+      }
+    }
+    assertEquals(expected.size(), sharded.size(), "The size was not same");
+    assertEquals(8, sharded.shardCount(), "The tree did not resplit " + sharded);
+    int largest = Arrays.stream(sharded.shardSizes()).max().getAsInt();
+    assertTrue(largest <= 4 * expected.size() / 8, "The shards were not balanced " + sharded);
+    List<Integer> values = new ArrayList<>();
+    sharded.forEach(values::add);
+    assertEquals(new ArrayList<>(expected), values, "The values were not iterated in order");
+    for (int i = 0; i < 4 * perThread; i++) {
+      assertEquals(expected.contains(i), sharded.contains(i), "The value was not same " + i);
+    }
+  }
+
+  /**
+   * Test to check if values written by several threads at random places while the shards are
+   * resplit are routed to the shard owning them, so that each is found right after it was written
+   * and the iteration stays in ascending order
+   */
+  @Test
+  public void shardedResplitCheck() throws InterruptedException {
+    ShardedRBTrees<Integer> sharded = new ShardedRBTrees<>(32);
+    ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int offset = t;
+      threads.add(new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 30000; i++) {
+          int value = 4 * random.nextInt(1 << 20) + offset; // no two threads share a value
+          sharded.insert(value);
+          if (!sharded.contains(value)) {
+            failures.add("An inserted value was not found " + value);
+          }
+          if (i % 4 == 0) {
+            sharded.remove(value);
+            if (sharded.contains(value)) {
+              failures.add("A removed value was still found " + value);
+            }
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(failures.isEmpty(), "The values were routed wrongly " + failures.peek());
+    assertTrue(sharded.shardCount() > 1, "The tree did not resplit " + sharded);
+    List<Integer> values = new ArrayList<>();
+    sharded.forEach(values::add);
+    assertEquals(sharded.size(), values.size(), "The size was not same");
+    for (int k = 1; k < values.size(); k++) {
+      assertTrue(values.get(k - 1) < values.get(k), "The values were not in order at " + k);
+    }
+  }
+
+  /**
+   * Test to check if a tree with a membership filter finds every value it holds after inserts,
+   * removes and a union, and if the filter alone rejects most missing values at its false positive
+   * rate without ever rejecting a value it holds
+   */
+  @Test
+  public void membershipFilterCheck() {
+    tree.setMembershipFilter(0.01);
+    for (Integer i : orderToAdd) {
+      tree.insert(i);
+    }
+    for (Integer i : orderToRemove.subList(0, expectedSize / 2)) {
+      tree.remove(i);
+    }
+    RBTrees<Integer> other = new RBTrees<>();
+    for (int i = -1; i >= -2000; i--) {
+      other.insert(i);
+    }
+    tree.union(other);
+    TreeSet<Integer> expected = new TreeSet<>(orderToAdd);
+    expected.removeAll(orderToRemove.subList(0, expectedSize / 2));
+    for (int i = -2000; i <= 100000; i++) {
+      assertEquals(i < 0 || expected.contains(i), tree.contains(i), "The value was not same " + i);
+    }
+    assertTrue(tree.membershipFilterBytes() > 0, "The filter used no memory");
+
+    CountingBloomFilter filter = new CountingBloomFilter(100000, 0.01);
+    for (long i = 0; i < 100000; i++) {
+      filter.add(i);
+    }
+    for (long i = 0; i < 100000; i += 2) {
+      filter.remove(i);
+    }
+    int falsePositives = 0;
+    for (long i = 0; i < 100000; i++) {
+      if (i % 2 == 1) {
+        assertTrue(filter.mightContain(i), "The filter rejected a value it holds " + i);
+      } else if (filter.mightContain(i)) {
+        falsePositives++;
+      }
+    }
+    for (long i = 100000; i < 1000000; i++) {
+      if (filter.mightContain(i)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < 950000 * 0.01, "The filter had " + falsePositives
+        + " false positives");
+  }
+
+  /**
+   * Test to check if splitting, joining and removing ranges keep the same values as a TreeSet, a
+   * valid tree with correct sizes, and an up to date membership filter
+   */
+  @Test
+  public void splitJoinCheck() {
+    tree.setMembershipFilter(0.01);
+    for (Integer i : orderToAdd) {
+      tree.insert(i);
+    }
+    TreeSet<Integer> expected = new TreeSet<>(orderToAdd);
+    Integer median = orderToAdd.get(orderToAdd.size() / 2);
+
+    RBTrees<Integer> upper = tree.split(median);
+    tree.validate();
+    upper.validate();
+    assertEquals(new ArrayList<>(expected.headSet(median)), new ArrayList<>(tree),
+        "The lower half was not same");
+    assertEquals(new ArrayList<>(expected.tailSet(median)), new ArrayList<>(upper),
+        "The upper half was not same");
+    assertTrue(!tree.contains(median) && upper.contains(median), "The filter was not updated");
+
+    Integer pivot = upper.pollFirst();
+    assertTrue(RBTrees.join(tree, pivot, upper) == tree, "The left tree was not returned");
+    tree.validate();
+    assertTrue(upper.isEmpty(), "The right tree was not emptied");
+    assertEquals(new ArrayList<>(expected), new ArrayList<>(tree), "The joined tree was not same");
+    String error = "";
+    try {
+      RBTrees.join(tree, expected.first(), new RBTrees<>());
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    assertEquals("The pivot is not between the values of the trees", error, "The pivot was taken");
+
+    for (int round = 0; round < 5; round++) {
+      int lo = (int) (Math.random() * 100000);
+      int hi = lo + (int) (Math.random() * 20000);
+      int removed = expected.subSet(lo, true, hi, true).size();
+      expected.subSet(lo, true, hi, true).clear();
+      assertEquals(removed, tree.removeRange(lo, hi), "The removed count was not same");
+      tree.validate();
+    }
+    int cutoff = (int) (Math.random() * 30000);
+    expected.headSet(cutoff, false).clear();
+    tree.removeHead(cutoff, false);
+    tree.validate();
+    cutoff = 70000 + (int) (Math.random() * 30000);
+    expected.tailSet(cutoff, true).clear();
+    tree.removeTail(cutoff, true);
+    tree.validate();
+    cutoff = 30000 + (int) (Math.random() * 40000);
+    expected.subSet(cutoff, false, cutoff + 5000, false).clear();
+    tree.subSet(cutoff, false, cutoff + 5000, false).clear();
+    tree.validate();
+    assertEquals(new ArrayList<>(expected), new ArrayList<>(tree), "The values were not same");
+    for (int i = 0; i < 100000; i++) {
+      assertEquals(expected.contains(i), tree.contains(i), "The value was not same " + i);
+    }
+  }
+
+  /**
+   * Test to check if the persistent tree has the same shape and colors as the generic tree after
+   * every operation, while a snapshot taken before the removals stays unchanged
+   */
+  @Test
+  public void persistentTreeCrossCheck() {
+    PersistentRBTrees<Integer> persistentTree = new PersistentRBTrees<>();
+    for (Integer i : orderToAdd) {
+      assertEquals(tree.insert(i), persistentTree.insert(i), "Insert results differed for " + i);
+      assertEquals(tree.toString(), persistentTree.toString(),
+          "The trees differed after inserting " + i);
+    }
+    PersistentRBTrees<Integer> snapshot = persistentTree.snapshot();
+    String snapshotString = snapshot.toString();
+
+    for (Integer i : orderToRemove) {
+      assertEquals(tree.remove(i), persistentTree.remove(i), "Remove results differed for " + i);
+      assertEquals(tree.toString(), persistentTree.toString(),
+          "The trees differed after removing " + i);
+    }
+    assertTrue(persistentTree.isEmpty(), "The size was not empty");
+    assertEquals(snapshotString, snapshot.toString(), "The snapshot was modified");
+    assertEquals(expectedSize, snapshot.size(), "The size of the snapshot was modified");
+    for (Integer i : orderToAdd) {
+      assertTrue(snapshot.contains(i), "The snapshot lost a value " + i);
+    }
+  }
+
+  /**
+   * Stress test which runs writers, lock-free readers and an invariant checker at the same time on
+   * a concurrent tree. Values of orderToAdd are never removed, so readers must always find them,
+   * and the black heights and connectivity must hold whenever the checker looks at the tree.
+   */
+  @Test
+  public void concurrentStressCheck() throws InterruptedException {
+    ConcurrentRBTrees<Integer> concurrentTree = new ConcurrentRBTrees<>();
+    for (Integer i : orderToAdd) {
+      concurrentTree.insert(i);
+    }
+    AtomicBoolean running = new AtomicBoolean(true);
+    ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+    List<Thread> threads = new ArrayList<>();
+
+    for (int w = 0; w < 2; w++) {
+      threads.add(new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running.get()) {
+          // negative values never collide with orderToAdd
+          int value = -1 - random.nextInt(5000);
+          if (random.nextBoolean()) {
+            concurrentTree.insert(value);
+          } else {
+            concurrentTree.remove(value);
+          }
+        }
+      }));
+    }
+    for (int r = 0; r < 4; r++) {
+      threads.add(new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running.get()) {
+          Integer value = orderToAdd.get(random.nextInt(orderToAdd.size()));
+          if (!concurrentTree.contains(value)) {
+            failures.add("A permanent value was not found " + value);
+          }
+          List<Integer> range = concurrentTree.range(value - 500, value + 500);
+          for (int k = 1; k < range.size(); k++) {
+            if (range.get(k - 1) >= range.get(k)) {
+              failures.add("A range scan was not sorted " + range);
+              break;
+            }
+          }
+          if (!range.contains(value)) {
+            failures.add("A range scan missed a permanent value " + value);
+          }
+        }
+      }));
+    }
+    threads.add(new Thread(() -> {
+      while (running.get()) {
+        boolean valid = concurrentTree.readLocked(t -> blackHeightCheck(t.getRoot()) &&
+            t.getRoot().parent == null && checkIfAllNodesConnected(t.getRoot()));
+        if (!valid) {
+          failures.add("The invariants did not hold\n" + concurrentTree);
+        }
+      }
+    }));
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    Thread.sleep(1000);
+    running.set(false);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(failures.isEmpty(), String.valueOf(failures.peek()));
+    boolean valid = concurrentTree.readLocked(t -> blackHeightCheck(t.getRoot()) &&
+        checkIfAllNodesConnected(t.getRoot()));
+    assertTrue(valid, "The invariants did not hold after the run");
+  }
+
   /**
    * Private helper method which checks if all nodes are connected and no red nodes are connected
    * together
@@ -92,16 +1422,51 @@ public class RBTreeTests {
     if (node == null) {
       return true;
     }
-    if (node.context[1] != null && node.context[1].context[0] != node) {
-      return node.blackHeight == 1 || node.context[1].blackHeight == 1;
+    if (node.left != null && node.left.parent != node) {
+      return node.blackHeight == 1 || node.left.blackHeight == 1;
     }
-    if (node.context[2] != null && node.context[2].context[0] != node) {
-      return node.blackHeight == 1 || node.context[2].blackHeight == 1;
+    if (node.right != null && node.right.parent != node) {
+      return node.blackHeight == 1 || node.right.blackHeight == 1;
     }
 
-    return checkIfAllNodesConnected(node.context[1]) && checkIfAllNodesConnected(node.context[2]);
+    return checkIfAllNodesConnected(node.left) && checkIfAllNodesConnected(node.right);
+  }
+
+
+  /**
+   * Checks if no red node has a red child
+   *
+   * @param node the node from where we need to start checking
+   * @return true if no two red nodes are linked
+   */
+  private boolean redRedCheck(RBTrees.Node<Integer> node) {
+    if (node == null) {
+      return true;
+    }
+    for (int context = 1; context <= 2; context++) {
+      if (node.blackHeight == 0 && node.child(context) != null &&
+          node.child(context).blackHeight == 0) {
+        return false;
+      }
+    }
+    return redRedCheck(node.left) && redRedCheck(node.right);
   }
 
+  /**
+   * Checks if the subtree size of every node is the size of its children plus one
+   *
+   * @param node the node from where we need to start checking
+   * @return true if all subtree sizes are correct
+   */
+  private boolean subtreeSizeCheck(RBTrees.Node<Integer> node) {
+    if (node == null) {
+      return true;
+    }
+    int expected = 1 + (node.left == null ? 0 : node.left.subtreeSize) +
+        (node.right == null ? 0 : node.right.subtreeSize);
+    return node.subtreeSize == expected && subtreeSizeCheck(node.left) &&
+        subtreeSizeCheck(node.right);
+  }
 
   /**
    * Checks if the black height for both sides of the tree is the same
@@ -113,8 +1478,8 @@ public class RBTreeTests {
     if (root == null) {
       return true;
     }
-    return getBlackHeight(root.context[1]) == getBlackHeight(root.context[2]) &&
-        blackHeightCheck(root.context[1]) && blackHeightCheck(root.context[2]);
+    return getBlackHeight(root.left) == getBlackHeight(root.right) &&
+        blackHeightCheck(root.left) && blackHeightCheck(root.right);
   }
 
   /**
@@ -127,7 +1492,7 @@ public class RBTreeTests {
     if (node == null) {
       return 0;
     }
-    return Math.max(getBlackHeight(node.context[1]), getBlackHeight(node.context[2])) +
+    return Math.max(getBlackHeight(node.left), getBlackHeight(node.right)) +
         node.blackHeight;
   }
 
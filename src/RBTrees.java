@@ -1,12 +1,46 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
- * This class models a Red Black Tree
+ * This class models a Red Black Tree. It is also a {@link NavigableSet}, whose iterators and range
+ * views walk the tree through the parent links of the nodes instead of a stack.
+ *
+ * The values are ordered by their natural ordering, by a {@link Comparator}, or by a long key
+ * extracted from every value. An extracted key is cached in the node when the value is inserted,
+ * so lookups only compare longs and never call compareTo. Values which compare as equal in the
+ * order of the tree are duplicates, even if they are not equal.
  *
  * @param <T> A comparable generic data type
  */
-public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterface<T> {
+public class RBTrees<T extends Comparable<T>> extends AbstractSet<T>
+    implements SortedCollectionInterface<T>, NavigableSet<T> {
   /**
    * A class modelling a red black tree node
    *
@@ -19,27 +53,68 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
      */
     T data;
     /**
-     * the array of nodes which determine the parent (context 0), left child (context 1), and right
-     * child (context 2) for a red black tree
+     * the parent of the node (context 0), null for the root
+     */
+    Node<T> parent;
+    /**
+     * the left child of the node (context 1)
+     */
+    Node<T> left;
+    /**
+     * the right child of the node (context 2), also links the nodes kept in the node pool
      */
-    Node<T>[] context;
-    static boolean color;
+    Node<T> right;
     /**
      * the blackHeight value of the current node
      */
     int blackHeight;
+    /**
+     * the number of nodes in the subtree rooted at this node, including itself
+     */
+    int subtreeSize;
+    /**
+     * the key extracted from the data, if the tree orders its values by an extracted key
+     */
+    long key;
+    /**
+     * the value mapped to the data, if the tree backs an {@link RBTreeMap}
+     */
+    Object value;
 
     /**
      * The constructor of this class
      *
      * @param data        the data
-     * @param context     the context
      * @param blackHeight the black height
      */
-    public Node(T data, Node<T>[] context, int blackHeight) {
+    public Node(T data, int blackHeight) {
       this.data = data;
-      this.context = context;
       this.blackHeight = blackHeight;
+      this.subtreeSize = 1;
+    }
+
+    /**
+     * Returns the child in the given context, for the cases which pick a side by its index
+     *
+     * @param context 1 for the left child, 2 for the right child
+     * @return the child
+     */
+    Node<T> child(int context) {
+      return (context == 1) ? left : right;
+    }
+
+    /**
+     * Sets the child in the given context
+     *
+     * @param context 1 for the left child, 2 for the right child
+     * @param child   the new child
+     */
+    void setChild(int context, Node<T> child) {
+      if (context == 1) {
+        left = child;
+      } else {
+        right = child;
+      }
     }
 
     /**
@@ -48,10 +123,10 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
      * @return true if this is the right child
      */
     public boolean isRightChild() {
-      if (context[0] == null) {
+      if (parent == null) {
         return false;
       }
-      return context[0].context[2] == this;
+      return parent.right == this;
     }
 
     /**
@@ -60,33 +135,36 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
      * @return true if this node is
      */
     public boolean isRoot() {
-      return context[0] == null;
+      return parent == null;
     }
 
     /**
-     * To string method to print this nodes data with color
+     * To string method to print this nodes data with its black height
      *
      * @return a string representation of this node
      */
     @Override
     public String toString() {
-      String color;
-      if (blackHeight == 0) {
-        color = "\u001B[31m";
-      } else if (blackHeight == 1) {
-        color = "\u001B[37m";
-      } else {
-        color = "\u001B[36m";
-      }
-      if(Node.color)
-        return color + data.toString() + "\u001B[0m";
-       return data.toString()+" ("+blackHeight+")";
+      return data + " (" + blackHeight + ")";
     }
   }
 
 
   private Node<T> root; // The node storing the root of the red black tree
   private int size; // The size of the RB tree
+  private int modCount; // The number of structural modifications, checked by iterators
+  private Node<T> pool; // Removed nodes kept for reuse, linked through their right children
+  private int pooled; // The number of nodes in the pool
+  private int poolCapacity; // The most nodes the pool keeps, 0 if pooling is off
+  private int validationInterval; // Every how many inserts and removes a path is validated, 0 never
+  private int validationCountdown; // The inserts and removes left until the next path validation
+  private CountingBloomFilter filter; // Answers most lookups of missing values, null if off
+  private static final int MIN_FILTER_CAPACITY = 1024; // The fewest values a filter is sized for
+  private static final int SORT_RUN = 32; // The length of the runs applyBatch sorts by insertion
+  private static final int SNAPSHOT_MAGIC = 0x52425331; // "RBS1", the start of a snapshot
+  private static final int SNAPSHOT_BUFFER = 1 << 16; // The buffer size of snapshot files
+  private final Comparator<? super T> comparator; // The order of the values, null if natural
+  private final ToLongFunction<? super T> keyExtractor; // The key the values are ordered by
 
   /**
    * Constructor for the red black tree
@@ -95,6 +173,41 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
     // Instantiates the size and root
     root = null;
     size = 0;
+    comparator = null;
+    keyExtractor = null;
+  }
+
+  /**
+   * Constructor for a red black tree ordering its values with a comparator
+   *
+   * @param comparator the comparator
+   * @throws NullPointerException if the comparator is null
+   */
+  public RBTrees(Comparator<? super T> comparator) {
+    if (comparator == null) {
+      throw new NullPointerException("The comparator cannot be null");
+    }
+    root = null;
+    size = 0;
+    this.comparator = comparator;
+    keyExtractor = null;
+  }
+
+  /**
+   * Constructor for a red black tree ordering its values by a long key extracted from every value.
+   * The key of a value is extracted once when it is inserted and cached in its node.
+   *
+   * @param keyExtractor the function extracting the key of a value
+   * @throws NullPointerException if the key extractor is null
+   */
+  public RBTrees(ToLongFunction<? super T> keyExtractor) {
+    if (keyExtractor == null) {
+      throw new NullPointerException("The key extractor cannot be null");
+    }
+    root = null;
+    size = 0;
+    comparator = null;
+    this.keyExtractor = keyExtractor;
   }
 
   /**
@@ -111,52 +224,163 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
    * @param newData The data to add to the Red black tree
    * @return true if the insert operation was successful
    */
-  @SuppressWarnings("unchecked")
   @Override
   public boolean insert(T newData) {
-    // If the root is null, then add the data to the root
-    if (root == null) {
-      root = new Node<>(newData, (Node<T>[]) new Node[3], 1); // Instantiates the root to be a
-      // black node
-    } else {
-      // Otherwise find the place to insert the root
-      Node<T> currNode = root;
-      // Instantiate the new node to enter the tree to be a new red node
-      Node<T> newNode = new Node<>(newData, (Node<T>[]) new Node[3], 0);
-
-      // While an appropriate location is not found,
-      while (true) {
-        // If the newData is more than the current nodes data
-        if (currNode.data.compareTo(newData) < 0) {
-          // check if right node is null
-          if (currNode.context[2] == null) {
-            // if null, assign the right child to be the new node
-            currNode.context[2] = newNode;
-            // break the while loop
-            break;
-          }
-          // otherwise, change the current node to be the right node and continue to next iteration
-          currNode = currNode.context[2];
-          // similar process with the left node...
-        } else if (currNode.data.compareTo(newData) > 0) {
-          if (currNode.context[1] == null) {
-            currNode.context[1] = newNode;
-            break;
-          }
-          currNode = currNode.context[1];
-        } else { // return false if the value is same ...
-          return false;
-        }
+    long start = RBTreeMetrics.start();
+    int oldSize = size;
+    getOrInsert(newData, null);
+    RBTreeMetrics.insertDone(start);
+    return size != oldSize;
+  }
+
+  /**
+   * Returns the node of the data, inserting a new node for it if there is none, in a single
+   * descent from the root
+   *
+   * @param newData       the data to look up
+   * @param valueFunction computes the value of a new node from its data, no node is inserted if it
+   *                      returns null; null to insert a node with a null value
+   * @return the node of the data, or null if the value function returned null
+   * @throws ConcurrentModificationException if the value function modified the tree
+   */
+  Node<T> getOrInsert(T newData, Function<? super T, ?> valueFunction) {
+    long key = keyOf(newData);
+    // Find the place to insert the data, comparing it once with every node on the way
+    Node<T> parent = null;
+    int comparison = 0;
+    Node<T> currNode = root;
+    while (currNode != null) {
+      comparison = compare(newData, key, currNode);
+      if (comparison == 0) { // return the node if the value is same ...
+        return currNode;
+      }
+      parent = currNode;
+      // continue to the right node if the newData is more than the current nodes data
+      currNode = (comparison > 0) ? currNode.right : currNode.left;
+    }
+
+    Object value = null;
+    if (valueFunction != null) {
+      int expectedModCount = modCount;
+      value = valueFunction.apply(newData);
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException("The value function modified the tree");
+      }
+      if (value == null) {
+        return null;
       }
-      // assign the new node's parent to be the currNode
-      newNode.context[0] = currNode;
+    }
+
+    return linkNewNode(parent, comparison, newData, key, value);
+  }
+
+  /**
+   * Links a new node into the empty place found by a descent and rebalances the tree
+   *
+   * @param parent     the last node of the descent, null if the tree is empty
+   * @param comparison the comparison of the data with the parent
+   * @param newData    the data of the new node
+   * @param key        the key of the data
+   * @param value      the value of the new node
+   * @return the new node
+   */
+  private Node<T> linkNewNode(Node<T> parent, int comparison, T newData, long key, Object value) {
+    // Instantiate the new node, which is black if it becomes the root and red otherwise
+    Node<T> newNode = newNode(newData, key, (parent == null) ? 1 : 0);
+    newNode.value = value;
+    if (RBTreeMetrics.ENABLED) {
+      RBTreeMetrics.insertDepth(depthOf(parent) + 1);
+    }
+    // If the tree is empty, then add the data to the root
+    if (parent == null) {
+      root = newNode;
+    } else {
+      parent.setChild((comparison > 0) ? 2 : 1, newNode);
+      // assign the new node's parent to be the parent
+      newNode.parent = parent;
+      // every ancestor of the new node gains one node in its subtree
+      adjustSubtreeSizes(parent, 1);
 
       // call the red black tree insertBalancer on the inserted node to balance the tree
       insertBalancer(newNode);
+      if (root.parent != null) {
+        root = root.parent; // a rotation at the root
+      }
     }
 
     size++;
-    return true;
+    modCount++;
+    if (filter != null) {
+      if (size > filter.capacity()) {
+        rebuildFilter(filter.falsePositiveRate());
+      } else {
+        filter.add(hashOf(newData));
+      }
+    }
+    if (validationInterval != 0) {
+      sampleValidation(newData);
+    }
+    return newNode;
+  }
+
+  /**
+   * Creates a detached node for the data
+   *
+   * @param data        the data
+   * @param key         the key of the data
+   * @param blackHeight the black height
+   * @return the node
+   */
+  private Node<T> newNode(T data, long key, int blackHeight) {
+    Node<T> node = pool;
+    if (node == null) {
+      node = new Node<>(data, blackHeight);
+    } else {
+      pool = node.right;
+      pooled--;
+      node.right = null;
+      node.data = data;
+      node.blackHeight = blackHeight;
+      node.subtreeSize = 1;
+    }
+    node.key = key;
+    return node;
+  }
+
+  /**
+   * Keeps a node which left the tree in the node pool, if the pool has room
+   *
+   * @param node the removed node
+   */
+  private void recycle(Node<T> node) {
+    if (pooled < poolCapacity) {
+      node.data = null;
+      node.value = null;
+      node.parent = null;
+      node.left = null;
+      node.right = pool;
+      pool = node;
+      pooled++;
+    }
+  }
+
+  /**
+   * Keeps up to the given number of removed nodes and reuses them for later inserts, so that a tree
+   * whose size goes up and down allocates no nodes once the pool is filled. Pooling is off by
+   * default, and a capacity of 0 turns it off again and drops the pooled nodes.
+   *
+   * @param capacity the most nodes the pool keeps
+   * @throws IllegalArgumentException if the capacity is negative
+   */
+  public void setNodePoolCapacity(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("The node pool capacity cannot be negative");
+    }
+    poolCapacity = capacity;
+    while (pooled > capacity) {
+      pool = pool.right;
+      pooled--;
+    }
   }
 
 
@@ -167,7 +391,7 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
    * @return The sibling of the current node
    * @throws IllegalStateException if the node is root
    */
-  private Node<T> getSibling(Node<T> node) {
+  private static <T extends Comparable<T>> Node<T> getSibling(Node<T> node) {
     if (node.isRoot()) {
       throw new IllegalStateException("The node is parent");
     }
@@ -175,77 +399,117 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
     // if the node is right child, instantiate the sibling context to be the other nodes context
     int siblingContext = (node.isRightChild()) ? 1 : 2;
     // return the node's sibling
-    return node.context[0].context[siblingContext];
+    return node.parent.child(siblingContext);
   }
 
   /**
-   * The insert balancer function which balances the tree on the inserted node
+   * The insert balancer function which balances the tree on the inserted node. A red aunt only
+   * recolors and moves the violation up to the grand parent, so the loop climbs the tree instead of
+   * recursing, and stops after at most two rotations.
+   *
+   * The balancer works on the nodes alone, so it balances a detached subtree as well as the tree. A
+   * rotation at the root makes the root's former child the root, which the caller finds as the
+   * parent of the former root.
    *
    * @param insertedNode the node which was inserted in the tree
+   * @param <T>          A comparable generic data type
+   * @return true if a red root was turned black, i.e. the black height of the tree grew
    */
-  private void insertBalancer(Node<T> insertedNode) {
-    // If the node is root set the black height 1
-    if (insertedNode.isRoot()) {
-      insertedNode.blackHeight = 1;
-      return;
-    } else if (insertedNode.context[0].blackHeight == 1) { // otherwise if it is already valid,
-      // do nothing
-      return;
-    }
+  private static <T extends Comparable<T>> boolean insertBalancer(Node<T> insertedNode) {
+    Node<T> redNode = insertedNode; // the red node which may have a red parent
+    int steps = 0; // the iterations, counted by the metrics
+    while (true) {
+      steps++;
+      // If the node is root set the black height 1
+      if (redNode.isRoot()) {
+        boolean grew = redNode.blackHeight == 0;
+        redNode.blackHeight = 1;
+        RBTreeMetrics.fixup(steps);
+        return grew;
+      }
+      Node<T> parent = redNode.parent;
+      if (parent.blackHeight == 1) { // otherwise if it is already valid, do nothing
+        RBTreeMetrics.fixup(steps);
+        return false;
+      }
+
+      int childContext = (redNode.isRightChild()) ? 2 : 1;
+      int parentContext = (parent.isRightChild()) ? 2 : 1;
+      Node<T> aunt = getSibling(parent);
+
+      // If the aunt is null or is a black node
+      if (aunt == null || aunt.blackHeight == 1) {
+        // Case 1: If the red parent's aunt is a black, and inserted node and the aunt are on
+        // different sides, ie if the child and parent have the same context
+        if (childContext == parentContext) {
+          rotate(parent.parent, parent);
+        } else { // Case 2: If the parent and child have different contexts, ie they are not on the
+          // same side:
+          rotate(parent, redNode); // Rotate the parent and child, so they are on same side now
+          // Perform same rotation as case 1
+          rotate(redNode.parent, redNode);
+        }
+        RBTreeMetrics.fixup(steps);
+        return false;
+      }
 
-    int childContext = (insertedNode.isRightChild()) ? 2 : 1;
-    int parentContext = (insertedNode.context[0].isRightChild()) ? 2 : 1;
-    Node<T> aunt = getSibling(insertedNode.context[0]);
-
-    // If the aunt is null or is a black node
-    if (aunt == null || aunt.blackHeight == 1) {
-      // Case 1: If the red parent's aunt is a black, and inserted node and the aunt are on
-      // different sides, ie if the child and parent have the same context
-      if (childContext == parentContext) {
-        rotateNodes(insertedNode.context[0].context[0], insertedNode.context[0]);
-      } else { // Case 2: If the parent and child have different contexts, ie they are not on the
-        // same side:
-        rotateNodes(insertedNode.context[0], insertedNode); // Rotate the parent and child, so
-        // they are on same side now
-        // Perform same rotation as case 1
-        rotateNodes(insertedNode.context[0], insertedNode);
-      }
-    } else { // Case 3: If the aunt is a red node
+      // Case 3: If the aunt is a red node
+      RBTreeMetrics.recolor();
       // Switch the aunt and parent to be black
       aunt.blackHeight = 1;
-      insertedNode.context[0].blackHeight = 1;
-      // Switch the grand Parent to be red to maintain balance
-      insertedNode.context[0].context[0].blackHeight = 0;
-      // Call insertBalancer on the grand parent
-      insertBalancer(insertedNode.context[0].context[0]);
+      parent.blackHeight = 1;
+      // Switch the grand Parent to be red to maintain balance, and continue from it
+      redNode = parent.parent;
+      redNode.blackHeight = 0;
     }
-
   }
 
   /**
-   * Performs a valid RB Tree rotation so that the black height is not affected
+   * Performs a valid RB Tree rotation so that the black height is not affected, moving the root of
+   * the tree to the child if the parent was the root
    *
    * @param parent the parent node
    * @param child  the child node
    * @throws IllegalArgumentException if the parent and child do not have a relationship
    */
   private void rotateNodes(Node<T> parent, Node<T> child) throws IllegalArgumentException {
+    rotate(parent, child);
+    if (root == parent) {
+      root = child;
+    }
+  }
+
+  /**
+   * Performs a valid RB Tree rotation so that the black height is not affected, on the nodes alone
+   *
+   * @param parent the parent node
+   * @param child  the child node
+   * @param <T>    A comparable generic data type
+   * @throws IllegalArgumentException if the parent and child do not have a relationship
+   */
+  private static <T extends Comparable<T>> void rotate(Node<T> parent, Node<T> child)
+      throws IllegalArgumentException {
 
-    if (child.context[0] != parent || (parent.context[1] != child && parent.context[2] != child)) {
+    if (child.parent != parent || (parent.left != child && parent.right != child)) {
       throw new IllegalArgumentException(
           "The nodes do not have a doubly linked parent child " + "relationship");
     }
 
+    RBTreeMetrics.rotation();
     // Rotates the child and parent
     int childContext = (child.isRightChild()) ? 2 : 1;
     int hoppingChild = (child.isRightChild()) ? 1 : 2;
-    parent.context[childContext] = child.context[hoppingChild];
-    if (child.context[hoppingChild] != null) {
-      child.context[hoppingChild].context[0] = parent;
+    parent.setChild(childContext, child.child(hoppingChild));
+    if (child.child(hoppingChild) != null) {
+      child.child(hoppingChild).parent = parent;
+    }
+    child.setChild(hoppingChild, parent);
+    // the child takes the place of the parent below the grand parent, if any
+    if (parent.parent != null) {
+      parent.parent.setChild((parent.isRightChild()) ? 2 : 1, child);
     }
-    child.context[hoppingChild] = parent;
-    replaceNodes(parent, child);
-    parent.context[0] = child;
+    child.parent = parent.parent;
+    parent.parent = child;
 
 
     // Switches their black heights
@@ -253,6 +517,10 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
     parent.blackHeight = child.blackHeight;
     child.blackHeight = parentHeight;
 
+    // The parent is now below the child, so its subtree size is recomputed first
+    updateSubtreeSize(parent);
+    updateSubtreeSize(child);
+
 
   }
 
@@ -266,13 +534,13 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
     if (root == nodeToReplace) {
       root = nodeToReplaceWith;
       if (nodeToReplaceWith != null) {
-        nodeToReplaceWith.context[0] = null;
+        nodeToReplaceWith.parent = null;
       }
     } else {
       int replaceContext = (nodeToReplace.isRightChild()) ? 2 : 1;
-      nodeToReplace.context[0].context[replaceContext] = nodeToReplaceWith;
+      nodeToReplace.parent.setChild(replaceContext, nodeToReplaceWith);
       if (nodeToReplaceWith != null) {
-        nodeToReplaceWith.context[0] = nodeToReplace.context[0];
+        nodeToReplaceWith.parent = nodeToReplace.parent;
       }
     }
   }
@@ -285,25 +553,89 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
    */
   @Override
   public boolean remove(T data) {
-
-    if(root == null){
-      return false;
+    long start = RBTreeMetrics.start();
+    Node<T> currNode = getNode(data);
+    if (currNode != null) {
+      removeNode(currNode);
     }
-    // Code to find the data
+    RBTreeMetrics.removeDone(start);
+    return currNode != null;
+  }
+
+  /**
+   * Returns the node of the data
+   *
+   * @param data the data to look for
+   * @return the node, or null if the tree does not contain the data
+   */
+  Node<T> getNode(T data) {
+    long key = keyOf(data);
     Node<T> currNode = root;
-    while (currNode.data.compareTo(data) != 0) {
-      if (currNode.data.compareTo(data) < 0) {
-        currNode = currNode.context[2];
-      } else {
-        currNode = currNode.context[1];
-      }
-      if (currNode == null) {
-        return false;
+    while (currNode != null) {
+      int comparison = compare(data, key, currNode);
+      if (comparison == 0) {
+        return currNode;
       }
+      currNode = (comparison > 0) ? currNode.right : currNode.left;
+    }
+    return null;
+  }
+
+  /**
+   * Removes a node of the tree without searching for it. A node with two children is replaced by
+   * its successor node, which keeps its data and value. The removed node goes to the node pool, so
+   * it must not be read afterwards.
+   *
+   * @param currNode the node to remove
+   */
+  void removeNode(Node<T> currNode) {
+    if (currNode.left != null && currNode.right != null) { // If the node has 2 children
+      Node<T> successor = getSuccessor(currNode); // gets the successor of the current node
+      unlinkNode(successor); // Unlinks the successor, which has at most one child, where it is
+
+      // Shifts the successor and currNode's children to the successor
+      successor.left = currNode.left;
+      successor.right = currNode.right;
+
+      replaceNodes(currNode, successor); // replaces the current node with the successor in effect
+      // removing the currNode
+
+      // Assigns the successors new children's parent to successor if they exist
+      if(successor.left != null)
+        successor.left.parent = successor;
+      if(successor.right!=null)
+        successor.right.parent = successor;
+
+      successor.blackHeight = currNode.blackHeight; // Replaces the black heights to not cause any
+      // problems
+      successor.subtreeSize = currNode.subtreeSize; // The successor takes over the whole subtree
+    } else {
+      unlinkNode(currNode);
+    }
+    size--;
+    modCount++;
+    if (filter != null) {
+      filter.remove(hashOf(currNode.data));
+    }
+    if (validationInterval != 0) {
+      sampleValidation(currNode.data);
     }
+    recycle(currNode);
+  }
+
+  /**
+   * Unlinks a node with at most one child from the tree and rebalances it. The size and modCount
+   * of the tree are left to the caller.
+   *
+   * @param currNode the node to unlink
+   */
+  private void unlinkNode(Node<T> currNode) {
+    // The node leaves the tree, so it no longer counts towards the subtree sizes above it
+    currNode.subtreeSize = 0;
+    adjustSubtreeSizes(currNode.parent, -1);
 
     // If the node to remove is a leaf node
-    if (currNode.context[1] == null && currNode.context[2] == null) {
+    if (currNode.left == null && currNode.right == null) {
       // If the node is red
       if (currNode.blackHeight == 0) {
         // replace it with null
@@ -322,35 +654,57 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
           replaceNodes(currNode, null);
         }
       }
-    } else if (currNode.context[1] != null &&
-        currNode.context[2] != null) { // If the node has 2 children
-      Node<T> successor = getSuccessor(currNode); // gets the successor of the current node
-      remove(successor.data); // Removes the successor from the tree
-      size++; // in order to fix the offset caused by above remove operation
+    } else { // If the node has 1 child
+      int childIndex = (currNode.left != null) ? 1 : 2;
+      currNode.child(childIndex).blackHeight++; // Convert child into a black node
+      replaceNodes(currNode, currNode.child(childIndex)); // replace the current node with child
+      // node
+    }
+  }
 
-      // Shifts the successor and currNode's children to the successor
-      successor.context[1] = currNode.context[1];
-      successor.context[2] = currNode.context[2];
+  /**
+   * Returns the depth of a node, counting the nodes on the path from the root
+   *
+   * @param node the node (may be null)
+   * @return the depth of the node, 1 for the root and 0 for null
+   */
+  private static int depthOf(Node<?> node) {
+    int depth = 0;
+    for (; node != null; node = node.parent) {
+      depth++;
+    }
+    return depth;
+  }
 
-      replaceNodes(currNode, successor); // replaces the current node with the successor in effect
-      // removing the currNode
+  /**
+   * Returns the subtree size of a node
+   *
+   * @param node the node (may be null)
+   * @return the number of nodes in the subtree rooted at the node
+   */
+  private static int subtreeSize(Node<?> node) {
+    return (node == null) ? 0 : node.subtreeSize;
+  }
 
-      // Assigns the successors new children's parent to successor if they exist
-      if(successor.context[1] != null)
-        successor.context[1].context[0] = successor;
-      if(successor.context[2]!=null)
-        successor.context[2].context[0] = successor;
+  /**
+   * Recomputes the subtree size of a node from its children
+   *
+   * @param node the node to update
+   */
+  private static <T extends Comparable<T>> void updateSubtreeSize(Node<T> node) {
+    node.subtreeSize = subtreeSize(node.left) + subtreeSize(node.right) + 1;
+  }
 
-      successor.blackHeight = currNode.blackHeight; // Replaces the black heights to not cause any
-      // problems
-    } else { // If the node has 1 child
-      int childIndex = (currNode.context[1] != null) ? 1 : 2;
-      currNode.context[childIndex].blackHeight++; // Convert child into a black node
-      replaceNodes(currNode, currNode.context[childIndex]); // replace the current node with child
-      // node
+  /**
+   * Adds a delta to the subtree size of a node and all of its ancestors
+   *
+   * @param node  the lowest node to update (may be null)
+   * @param delta the change in size
+   */
+  private static <T extends Comparable<T>> void adjustSubtreeSizes(Node<T> node, int delta) {
+    for (; node != null; node = node.parent) {
+      node.subtreeSize += delta;
     }
-    size--;
-    return true;
   }
 
   /**
@@ -360,57 +714,61 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
    * @return the successor of the node
    */
   private Node<T> getSuccessor(Node<T> node) {
-    Node<T> currNode = node.context[2]; // Successor is the leftmost child of the right child
-    while (currNode.context[1] != null) {
-      currNode = currNode.context[1]; // keep changing to the left node until a leaf is found
+    Node<T> currNode = node.right; // Successor is the leftmost child of the right child
+    while (currNode.left != null) {
+      currNode = currNode.left; // keep changing to the left node until a leaf is found
     }
     return currNode;
   }
 
   /**
-   * A private helper method to remove double blacks
+   * A private helper method to remove double blacks. The cases which do not resolve the double
+   * black hand it to the parent or to the same node in a new shape, so the loop repeats on that
+   * node instead of recursing.
    *
    * @param doubleBlackNode removes the double black node
    */
   private void removeDoubleBlack(Node<T> doubleBlackNode) {
-    if (doubleBlackNode == root) {
-      doubleBlackNode.blackHeight--;
-      return;
-    }
-    Node<T> sibling = getSibling(doubleBlackNode);
-    Node<T> parent = doubleBlackNode.context[0];
-
-    // Case 3: If the sibling is black and both  children are not red nodes
-    if (sibling.blackHeight == 1 &&
-        (sibling.context[1] == null || sibling.context[1].blackHeight != 0) &&
-        (sibling.context[2] == null || sibling.context[2].blackHeight != 0)) {
-      sibling.blackHeight--; // Change sibling to be a red node
-      doubleBlackNode.blackHeight--; // change the double blacks black-height
-      parent.blackHeight++; // Increment the parent to account for the deficit black height
-      if (parent.blackHeight == 2) { // call remove double black on parent
-        removeDoubleBlack(parent);
-      }
-    } else if (sibling.blackHeight == 0) { // Case 2: If the siblings is red
-      // rotate the parent and sibling
-      rotateNodes(parent, sibling);
-      // call this method again, as we have one of the solved cases now
-      removeDoubleBlack(doubleBlackNode);
-    } else { // Case 3: If sibling is black and one of its child is red
-      int doubleBlackContext = (doubleBlackNode.isRightChild()) ? 2 : 1;
-      int oppositeContext = (doubleBlackContext == 2) ? 1 : 2;
-      // if the siblings opposite context child is not null, and is red, then
-      if (sibling.context[oppositeContext] != null &&
-          sibling.context[oppositeContext].blackHeight == 0) {
-        rotateNodes(parent, sibling); // rotate parent and sibling
-        sibling.context[oppositeContext].blackHeight++;// Convert that sibling node to a black node
-        doubleBlackNode.blackHeight--; // remove the double black height
+    int steps = 0; // the iterations, counted by the metrics
+    while (doubleBlackNode != root) {
+      steps++;
+      Node<T> sibling = getSibling(doubleBlackNode);
+      Node<T> parent = doubleBlackNode.parent;
 
-      } else { // otherwise rotate the siblings child once and then perform the same operation
-        rotateNodes(sibling, sibling.context[doubleBlackContext]);
-        removeDoubleBlack(doubleBlackNode); // call double black again now.
+      // Case 3: If the sibling is black and both  children are not red nodes
+      if (sibling.blackHeight == 1 &&
+          (sibling.left == null || sibling.left.blackHeight != 0) &&
+          (sibling.right == null || sibling.right.blackHeight != 0)) {
+        RBTreeMetrics.recolor();
+        sibling.blackHeight--; // Change sibling to be a red node
+        doubleBlackNode.blackHeight--; // change the double blacks black-height
+        parent.blackHeight++; // Increment the parent to account for the deficit black height
+        if (parent.blackHeight != 2) {
+          RBTreeMetrics.fixup(steps);
+          return;
+        }
+        doubleBlackNode = parent; // continue with the parent, which is double black now
+      } else if (sibling.blackHeight == 0) { // Case 2: If the siblings is red
+        // rotate the parent and sibling, the next iteration then has one of the solved cases
+        rotateNodes(parent, sibling);
+      } else { // Case 3: If sibling is black and one of its child is red
+        int doubleBlackContext = (doubleBlackNode.isRightChild()) ? 2 : 1;
+        int oppositeContext = (doubleBlackContext == 2) ? 1 : 2;
+        // if the siblings opposite context child is not null, and is red, then
+        if (sibling.child(oppositeContext) != null &&
+            sibling.child(oppositeContext).blackHeight == 0) {
+          rotateNodes(parent, sibling); // rotate parent and sibling
+          sibling.child(oppositeContext).blackHeight++; // Convert that sibling to a black node
+          doubleBlackNode.blackHeight--; // remove the double black height
+          RBTreeMetrics.fixup(steps);
+          return;
+        }
+        // otherwise rotate the siblings child once, the next iteration performs the same operation
+        rotateNodes(sibling, sibling.child(doubleBlackContext));
       }
     }
-
+    doubleBlackNode.blackHeight--;
+    RBTreeMetrics.fixup(steps);
   }
 
   /**
@@ -421,69 +779,2585 @@ public class RBTrees<T extends Comparable<T>> implements SortedCollectionInterfa
    */
   @Override
   public boolean contains(T data) {
-    Node<T> currNode = root;
-    while (currNode != null) {
-      if (currNode.data.compareTo(data) == 0) {
-        return true;
-      } else if (currNode.data.compareTo(data) < 0) {
-        currNode = currNode.context[2];
-      } else {
-        currNode = currNode.context[1];
+    long start = RBTreeMetrics.start();
+    boolean found = (filter == null || filter.mightContain(hashOf(data))) && getNode(data) != null;
+    RBTreeMetrics.containsDone(start);
+    return found;
+  }
+
+  /**
+   * Returns a snapshot of the metrics of every tree in the process, which are only collected if
+   * the JVM was started with -Drbtrees.metrics=true (see {@link RBTreeMetrics})
+   *
+   * @return the snapshot, all zeros if the metrics are disabled
+   */
+  public static RBTreeMetrics.Stats stats() {
+    return RBTreeMetrics.INSTANCE.snapshot();
+  }
+
+  /**
+   * Checks every invariant of the tree in a single in-order walk over the parent links, in O(n)
+   * time and O(1) space: the links between parents and children agree, the values are in strictly
+   * increasing order with their cached keys, the root is black, no red node has a red child, every
+   * path from the root to a null child has the same number of black nodes, and the subtree sizes
+   * and the size are right.
+   *
+   * @throws IllegalStateException naming the first node which breaks an invariant
+   */
+  public void validate() {
+    if (root == null) {
+      if (size != 0) {
+        throw new IllegalStateException("The tree is empty but its size is " + size);
+      }
+      return;
+    }
+    if (root.parent != null || root.blackHeight != 1) {
+      throw new IllegalStateException("The root " + root + " has a parent or is not black");
+    }
+    int blackDepth = 0; // The black nodes from the root to the current node
+    int leafDepth = -1; // The black nodes on every path from the root to a null child
+    int count = 0; // The nodes visited in order
+    Node<T> last = null; // The node visited in order before the current node
+    Node<T> previous = null;
+    Node<T> node = root;
+    while (node != null) {
+      boolean fromParent = previous == node.parent;
+      if (fromParent) {
+        checkNode(node);
+        blackDepth += node.blackHeight;
+        if (node.left != null) {
+          previous = node;
+          node = node.left;
+          continue;
+        }
+        leafDepth = checkBlackDepth(node, leafDepth, blackDepth);
+      }
+      if (fromParent || previous == node.left) {
+        if (last != null && compareNodes(last, node) >= 0) {
+          throw new IllegalStateException("The node " + node + " is not after " + last);
+        }
+        last = node;
+        if (++count > size) {
+          throw new IllegalStateException("The tree has more nodes than its size " + size);
+        }
+        if (node.right != null) {
+          previous = node;
+          node = node.right;
+          continue;
+        }
+        leafDepth = checkBlackDepth(node, leafDepth, blackDepth);
+      }
+      if (node.subtreeSize != 1 + subtreeSize(node.left) + subtreeSize(node.right)) {
+        throw new IllegalStateException("The node " + node + " has the wrong subtree size "
+            + node.subtreeSize);
       }
+      blackDepth -= node.blackHeight;
+      previous = node;
+      node = node.parent;
+    }
+    if (count != size) {
+      throw new IllegalStateException("The tree has " + count + " nodes but its size is " + size);
     }
-    return false;
   }
 
   /**
-   * Returns the size of the tree
+   * Checks the invariants along the search path of a value in O(log n) time: every node on the
+   * path and its children are checked as in {@link #validate()}, every node on the path is ordered
+   * between the nodes above it, and the path down to a null child has as many black nodes as the
+   * leftmost and the rightmost paths. Damage away from these paths is not seen, which only
+   * {@link #validate()} finds.
    *
-   * @return the size
+   * @param data the value whose path is checked, which need not be in the tree
+   * @throws IllegalStateException naming the first node which breaks an invariant
    */
-  @Override
-  public int size() {
-    return size;
+  public void validatePath(T data) {
+    if (root == null) {
+      return;
+    }
+    if (root.parent != null || root.blackHeight != 1) {
+      throw new IllegalStateException("The root " + root + " has a parent or is not black");
+    }
+    int leafDepth = 0; // The black nodes on the leftmost path
+    for (Node<T> node = root; node != null; node = node.left) {
+      leafDepth += node.blackHeight;
+    }
+    int rightDepth = 0; // The black nodes on the rightmost path
+    for (Node<T> node = root; node != null; node = node.right) {
+      rightDepth += node.blackHeight;
+    }
+    if (leafDepth != rightDepth) {
+      throw new IllegalStateException("The leftmost path has " + leafDepth + " black nodes but the "
+          + "rightmost path has " + rightDepth);
+    }
+    long key = keyOf(data);
+    Node<T> lower = null; // The closest node above which the path passed to the right
+    Node<T> upper = null; // The closest node above which the path passed to the left
+    int blackDepth = 0;
+    Node<T> node = root;
+    while (node != null) {
+      checkNode(node);
+      if (node.subtreeSize != 1 + subtreeSize(node.left) + subtreeSize(node.right)) {
+        throw new IllegalStateException("The node " + node + " has the wrong subtree size "
+            + node.subtreeSize);
+      }
+      if ((lower != null && compareNodes(lower, node) >= 0)
+          || (upper != null && compareNodes(node, upper) >= 0)) {
+        throw new IllegalStateException("The node " + node + " is out of order with the nodes "
+            + "above it");
+      }
+      blackDepth += node.blackHeight;
+      // past a node holding the value, the path goes on to the left to end at a null child
+      if (compareNodes(data, key, node) > 0) {
+        lower = node;
+        node = node.right;
+      } else {
+        upper = node;
+        node = node.left;
+      }
+    }
+    if (blackDepth != leafDepth) {
+      throw new IllegalStateException("The path of " + data + " has " + blackDepth
+          + " black nodes but the leftmost path has " + leafDepth);
+    }
   }
 
   /**
-   * Returns true if the tree is empty
+   * Validates the path of every validationInterval-th node linked or unlinked, so that a tree in
+   * production catches a broken invariant close to the operation which broke it at a small cost.
+   * Every mutator is sampled, including the map operations, applyBatch, the polls and the removes
+   * of iterators and views; the bulk operations, which rebuild the tree, are not. Sampling is off
+   * by default, and an interval of 0 turns it off again.
    *
-   * @return true if the tree is empty
+   * @param interval every how many inserts and removes a path is validated
+   * @throws IllegalArgumentException if the interval is negative
    */
-  @Override
-  public boolean isEmpty() {
-    return size == 0;
+  public void setPathValidationInterval(int interval) {
+    if (interval < 0) {
+      throw new IllegalArgumentException("The path validation interval cannot be negative");
+    }
+    validationInterval = interval;
+    validationCountdown = interval;
   }
 
-
   /**
-   * Converts the tree into a string
+   * Puts a counting Bloom filter in front of {@link #contains(Comparable)}, so that most lookups of
+   * missing values return after probing a single cache line instead of walking a path of the tree.
+   * Inserts and removes keep the filter up to date, and bulk operations such as bulkLoad or union
+   * rebuild it in O(n). The filter is sized for twice the values of the tree and rebuilt at twice
+   * the size once the tree outgrows it, at 5.5 to 11 bytes per value for a rate of 1% (see
+   * {@link #membershipFilterBytes()}). It is off by default, and a rate of 0 turns it off again.
    *
-   * @return a string representation of this tree
+   * <p>The filter hashes the extracted key of a value, or its hashCode with the natural ordering,
+   * which therefore has to be consistent with equals, as it is for numbers and strings.
+   *
+   * @param falsePositiveRate the rate at which a lookup of a missing value still walks the tree
+   * @throws IllegalArgumentException if the rate is not between 0 (inclusive) and 1
+   * @throws IllegalStateException    if the tree is ordered by a comparator, whose equal values
+   *                                  may have different hash codes
    */
-  @Override
-  public String toString() {
-    StringBuilder sb = new StringBuilder();
-    // toStringHelper1(0, sb, root);
-    toStringHelper("", root, sb, false);
-    return sb.toString();
+  public void setMembershipFilter(double falsePositiveRate) {
+    if (!(falsePositiveRate >= 0 && falsePositiveRate < 1)) {
+      throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+    }
+    if (falsePositiveRate == 0) {
+      filter = null;
+      return;
+    }
+    if (comparator != null) {
+      throw new IllegalStateException("A tree ordered by a comparator cannot have a filter");
+    }
+    rebuildFilter(falsePositiveRate);
   }
 
+  /**
+   * Returns the memory used by the membership filter
+   *
+   * @return the size of the filter in bytes, 0 if there is none
+   */
+  public long membershipFilterBytes() {
+    return (filter == null) ? 0 : filter.memoryBytes();
+  }
 
   /**
-   * Helper function to convert in string
+   * Replaces the membership filter with one sized for twice the values of the tree and adds them
    *
-   * @param prefix  the prefix to build
-   * @param node    the node
-   * @param builder the string builder
-   * @param isLeft  checks if the current node is left
+   * @param falsePositiveRate the false positive rate of the filter
    */
-  private void toStringHelper(String prefix, Node<T> node, StringBuilder builder, boolean isLeft) {
-    if (node == null) {
-      return;
+  private void rebuildFilter(double falsePositiveRate) {
+    int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_FILTER_CAPACITY, 2L * size));
+    filter = new CountingBloomFilter(capacity, falsePositiveRate);
+    refillFilter();
+  }
+
+  /**
+   * Adds every value of the tree to the membership filter after a bulk change, growing the filter
+   * if the tree outgrew it
+   */
+  private void refillFilter() {
+    if (filter == null) {
+      return;
+    }
+    if (size > filter.capacity()) {
+      rebuildFilter(filter.falsePositiveRate());
+      return;
+    }
+    filter.clear();
+    for (Node<T> currNode = leftmost(root); currNode != null; currNode = successorOf(currNode)) {
+      filter.add(hashOf(currNode.data));
+    }
+  }
+
+  /**
+   * Returns the hash of a value in the membership filter
+   *
+   * @param data the value
+   * @return the extracted key of the value, or its hash code
+   */
+  private long hashOf(T data) {
+    return (keyExtractor != null) ? keyExtractor.applyAsLong(data) : data.hashCode();
+  }
+
+  /**
+   * Counts a node linked or unlinked, and validates the path of its value if it is sampled
+   *
+   * @param data the value inserted or removed
+   * @throws IllegalStateException if the path breaks an invariant
+   */
+  private void sampleValidation(T data) {
+    if (--validationCountdown <= 0) {
+      validationCountdown = validationInterval;
+      validatePath(data);
+    }
+  }
+
+  /**
+   * Checks the invariants between a node and its children: the children link back to the node,
+   * the node is red or black, its cached key is right, a red node has no red child, and the
+   * children are on the right sides of it
+   *
+   * @param node the node
+   * @throws IllegalStateException if an invariant is broken
+   */
+  private void checkNode(Node<T> node) {
+    if (node.blackHeight != 0 && node.blackHeight != 1) {
+      throw new IllegalStateException("The node " + node + " is neither red nor black");
+    }
+    if (keyExtractor != null && node.key != keyExtractor.applyAsLong(node.data)) {
+      throw new IllegalStateException("The node " + node + " has the wrong key " + node.key);
+    }
+    for (int context = 1; context <= 2; context++) {
+      Node<T> child = node.child(context);
+      if (child == null) {
+        continue;
+      }
+      if (child.parent != node) {
+        throw new IllegalStateException("The child " + child + " of " + node
+            + " does not link back to it");
+      }
+      if (node.blackHeight == 0 && child.blackHeight == 0) {
+        throw new IllegalStateException("The red node " + node + " has a red child " + child);
+      }
+      int comparison = compareNodes(child, node);
+      if ((context == 1) ? comparison >= 0 : comparison <= 0) {
+        throw new IllegalStateException("The child " + child + " is on the wrong side of " + node);
+      }
+    }
+  }
+
+  /**
+   * Checks that a path to a null child has as many black nodes as the paths before it
+   *
+   * @param node       the node with the null child
+   * @param leafDepth  the black nodes on the paths before, -1 for the first path
+   * @param blackDepth the black nodes on this path
+   * @return the black nodes on every path
+   * @throws IllegalStateException if the paths differ
+   */
+  private static int checkBlackDepth(Node<?> node, int leafDepth, int blackDepth) {
+    if (leafDepth != -1 && leafDepth != blackDepth) {
+      throw new IllegalStateException("The path to a null child of " + node + " has "
+          + blackDepth + " black nodes but the paths before it have " + leafDepth);
+    }
+    return blackDepth;
+  }
+
+  /**
+   * Compares the values of two nodes without counting it in the metrics
+   *
+   * @param a the first node
+   * @param b the second node
+   * @return a negative number, zero or a positive number if a is less than, equal to or more than b
+   */
+  private int compareNodes(Node<T> a, Node<T> b) {
+    return compareNodes(a.data, a.key, b);
+  }
+
+  /**
+   * Compares a value with the value of a node without counting it in the metrics
+   *
+   * @param data the value
+   * @param key  the key of the value, from keyOf
+   * @param node the node
+   * @return a negative number, zero or a positive number if the value is less than, equal to or
+   *         more than the value of the node
+   */
+  private int compareNodes(T data, long key, Node<T> node) {
+    if (keyExtractor != null) {
+      return Long.compare(key, node.key);
+    }
+    return (comparator == null) ? data.compareTo(node.data) : comparator.compare(data, node.data);
+  }
+
+  /**
+   * Returns the size of the tree
+   *
+   * @return the size
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the tree is empty
+   *
+   * @return true if the tree is empty
+   */
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+
+  /**
+   * Adds the data to the tree, same as {@link #insert(Comparable)}
+   *
+   * @param data the data to add
+   * @return true if the data was not already in the tree
+   */
+  @Override
+  public boolean add(T data) {
+    return insert(data);
+  }
+
+  /**
+   * True if the tree contains the given object
+   *
+   * @param o the object
+   * @return true if it contains the object
+   * @throws ClassCastException if the object cannot be compared with the data in the tree
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public boolean contains(Object o) {
+    return contains((T) o);
+  }
+
+  /**
+   * Removes the given object from the tree
+   *
+   * @param o the object
+   * @return true if the object was successfully removed
+   * @throws ClassCastException if the object cannot be compared with the data in the tree
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public boolean remove(Object o) {
+    return remove((T) o);
+  }
+
+  /**
+   * Removes every value from the tree
+   */
+  @Override
+  public void clear() {
+    root = null;
+    size = 0;
+    modCount++;
+    if (filter != null) {
+      filter.clear();
+    }
+  }
+
+  /**
+   * Compares two values in the order of the tree
+   *
+   * @param a the first value
+   * @param b the second value
+   * @return a negative number, zero or a positive number if a is less than, equal to or more than b
+   */
+  int compare(T a, T b) {
+    RBTreeMetrics.comparison();
+    if (keyExtractor != null) {
+      return Long.compare(keyExtractor.applyAsLong(a), keyExtractor.applyAsLong(b));
+    }
+    return (comparator == null) ? a.compareTo(b) : comparator.compare(a, b);
+  }
+
+  /**
+   * Compares the data being looked up with a node, using the cached key of the node if the tree
+   * orders its values by an extracted key
+   *
+   * @param data the data
+   * @param key  the key of the data, from keyOf
+   * @param node the node
+   * @return a negative number, zero or a positive number if the data is less than, equal to or more
+   *         than the data of the node
+   */
+  private int compare(T data, long key, Node<T> node) {
+    return compare(data, key, node.data, node.key);
+  }
+
+  /**
+   * Compares two values whose keys were already extracted
+   *
+   * @param a    the first value
+   * @param aKey the key of the first value, from keyOf
+   * @param b    the second value
+   * @param bKey the key of the second value, from keyOf
+   * @return a negative number, zero or a positive number if a is less than, equal to or more than b
+   */
+  private int compare(T a, long aKey, T b, long bKey) {
+    RBTreeMetrics.comparison();
+    if (keyExtractor != null) {
+      return Long.compare(aKey, bKey);
+    }
+    return (comparator == null) ? a.compareTo(b) : comparator.compare(a, b);
+  }
+
+  /**
+   * Returns the key of the data, which is only used if the tree orders its values by an extracted
+   * key
+   *
+   * @param data the data
+   * @return the extracted key, or 0 if there is no key extractor
+   */
+  private long keyOf(T data) {
+    return (keyExtractor == null) ? 0 : keyExtractor.applyAsLong(data);
+  }
+
+  /**
+   * Returns true if the other tree orders its values in the same way as this tree
+   *
+   * @param other the other tree
+   * @return true if both trees use the same comparator or key extractor
+   */
+  private boolean sameOrder(RBTrees<T> other) {
+    return comparator == other.comparator && keyExtractor == other.keyExtractor;
+  }
+
+  /**
+   * Returns the number of structural modifications of the tree, used by views to detect concurrent
+   * modifications
+   *
+   * @return the modification count
+   */
+  int modCount() {
+    return modCount;
+  }
+
+  /**
+   * Returns the comparator of the tree. A tree ordering its values by an extracted key returns a
+   * comparator of the keys.
+   *
+   * @return the comparator, or null if the natural ordering is used
+   */
+  @Override
+  public Comparator<? super T> comparator() {
+    if (keyExtractor != null) {
+      return Comparator.comparingLong(keyExtractor);
+    }
+    return comparator;
+  }
+
+  /**
+   * Returns the leftmost node under a node
+   *
+   * @param node the node to start from (may be null)
+   * @return the leftmost node, or null if the node is null
+   */
+  Node<T> leftmost(Node<T> node) {
+    if (node == null) {
+      return null;
+    }
+    while (node.left != null) {
+      node = node.left;
+    }
+    return node;
+  }
+
+  /**
+   * Returns the rightmost node under a node
+   *
+   * @param node the node to start from (may be null)
+   * @return the rightmost node, or null if the node is null
+   */
+  Node<T> rightmost(Node<T> node) {
+    if (node == null) {
+      return null;
+    }
+    while (node.right != null) {
+      node = node.right;
+    }
+    return node;
+  }
+
+  /**
+   * Returns the in-order successor of any node using the parent links
+   *
+   * @param node the node whose successor is to be found
+   * @return the successor, or null if the node is the last node
+   */
+  Node<T> successorOf(Node<T> node) {
+    if (node.right != null) {
+      return leftmost(node.right);
+    }
+    while (node.isRightChild()) {
+      node = node.parent;
+    }
+    return node.parent;
+  }
+
+  /**
+   * Returns the in-order predecessor of any node using the parent links
+   *
+   * @param node the node whose predecessor is to be found
+   * @return the predecessor, or null if the node is the first node
+   */
+  Node<T> predecessorOf(Node<T> node) {
+    if (node.left != null) {
+      return rightmost(node.left);
+    }
+    while (node.parent != null && node.parent.left == node) {
+      node = node.parent;
+    }
+    return node.parent;
+  }
+
+  /**
+   * Returns the node with the smallest value more than (or equal to) the given data
+   *
+   * @param data      the data
+   * @param inclusive true if a node equal to the data is returned as well
+   * @return the node, or null if there is none
+   */
+  Node<T> ceilingNode(T data, boolean inclusive) {
+    long key = keyOf(data);
+    Node<T> best = null;
+    Node<T> currNode = root;
+    while (currNode != null) {
+      int comparison = compare(data, key, currNode);
+      if (comparison < 0 || (comparison == 0 && inclusive)) {
+        if (comparison == 0) {
+          return currNode;
+        }
+        best = currNode;
+        currNode = currNode.left;
+      } else {
+        currNode = currNode.right;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns the node with the largest value less than (or equal to) the given data
+   *
+   * @param data      the data
+   * @param inclusive true if a node equal to the data is returned as well
+   * @return the node, or null if there is none
+   */
+  Node<T> floorNode(T data, boolean inclusive) {
+    long key = keyOf(data);
+    Node<T> best = null;
+    Node<T> currNode = root;
+    while (currNode != null) {
+      int comparison = compare(data, key, currNode);
+      if (comparison > 0 || (comparison == 0 && inclusive)) {
+        if (comparison == 0) {
+          return currNode;
+        }
+        best = currNode;
+        currNode = currNode.right;
+      } else {
+        currNode = currNode.left;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns the data of a node
+   *
+   * @param node the node (may be null)
+   * @return the data, or null if the node is null
+   */
+  private static <T extends Comparable<T>> T dataOf(Node<T> node) {
+    return (node == null) ? null : node.data;
+  }
+
+  /**
+   * Returns the data of a node, throwing if there is no node
+   *
+   * @param node the node (may be null)
+   * @return the data of the node
+   * @throws NoSuchElementException if the node is null
+   */
+  private static <T extends Comparable<T>> T dataOrThrow(Node<T> node) {
+    if (node == null) {
+      throw new NoSuchElementException("The tree is empty");
+    }
+    return node.data;
+  }
+
+  /**
+   * Removes a node found by a navigation method and returns its data
+   *
+   * @param node the node (may be null)
+   * @return the data of the removed node, or null if the node is null
+   */
+  private T poll(Node<T> node) {
+    if (node == null) {
+      return null;
+    }
+    T data = node.data;
+    removeNode(node);
+    return data;
+  }
+
+  /**
+   * Returns the smallest value
+   *
+   * @return the smallest value
+   * @throws NoSuchElementException if the tree is empty
+   */
+  @Override
+  public T first() {
+    return dataOrThrow(leftmost(root));
+  }
+
+  /**
+   * Returns the largest value
+   *
+   * @return the largest value
+   * @throws NoSuchElementException if the tree is empty
+   */
+  @Override
+  public T last() {
+    return dataOrThrow(rightmost(root));
+  }
+
+  /**
+   * Returns the largest value less than the data
+   *
+   * @param data the data
+   * @return the value, or null if there is none
+   */
+  @Override
+  public T lower(T data) {
+    return dataOf(floorNode(data, false));
+  }
+
+  /**
+   * Returns the largest value less than or equal to the data
+   *
+   * @param data the data
+   * @return the value, or null if there is none
+   */
+  @Override
+  public T floor(T data) {
+    return dataOf(floorNode(data, true));
+  }
+
+  /**
+   * Returns the smallest value more than or equal to the data
+   *
+   * @param data the data
+   * @return the value, or null if there is none
+   */
+  @Override
+  public T ceiling(T data) {
+    return dataOf(ceilingNode(data, true));
+  }
+
+  /**
+   * Returns the smallest value more than the data
+   *
+   * @param data the data
+   * @return the value, or null if there is none
+   */
+  @Override
+  public T higher(T data) {
+    return dataOf(ceilingNode(data, false));
+  }
+
+  /**
+   * Removes and returns the smallest value
+   *
+   * @return the smallest value, or null if the tree is empty
+   */
+  @Override
+  public T pollFirst() {
+    return poll(leftmost(root));
+  }
+
+  /**
+   * Removes and returns the largest value
+   *
+   * @return the largest value, or null if the tree is empty
+   */
+  @Override
+  public T pollLast() {
+    return poll(rightmost(root));
+  }
+
+  /**
+   * Returns an iterator over the values in ascending order. Every step follows the parent links
+   * and takes amortized O(1) time without allocating.
+   *
+   * @return the iterator
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return new NodeIterator(leftmost(root), null, false);
+  }
+
+  /**
+   * Returns an iterator over the values in descending order
+   *
+   * @return the iterator
+   */
+  @Override
+  public Iterator<T> descendingIterator() {
+    return new NodeIterator(rightmost(root), null, true);
+  }
+
+  /**
+   * Returns a live view of the tree in descending order
+   *
+   * @return the descending view
+   */
+  @Override
+  public NavigableSet<T> descendingSet() {
+    return new SubSet(true, null, true, true, null, true, true);
+  }
+
+  /**
+   * Returns a live view of the values between two bounds
+   *
+   * @param fromElement   the lower bound
+   * @param fromInclusive true if the lower bound is in the view
+   * @param toElement     the upper bound
+   * @param toInclusive   true if the upper bound is in the view
+   * @return the view
+   * @throws IllegalArgumentException if the lower bound is more than the upper bound
+   */
+  @Override
+  public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement,
+      boolean toInclusive) {
+    return new SubSet(false, fromElement, fromInclusive, false, toElement, toInclusive, false);
+  }
+
+  /**
+   * Returns a live view of the values below a bound
+   *
+   * @param toElement the upper bound
+   * @param inclusive true if the bound is in the view
+   * @return the view
+   */
+  @Override
+  public NavigableSet<T> headSet(T toElement, boolean inclusive) {
+    return new SubSet(true, null, true, false, toElement, inclusive, false);
+  }
+
+  /**
+   * Returns a live view of the values above a bound
+   *
+   * @param fromElement the lower bound
+   * @param inclusive   true if the bound is in the view
+   * @return the view
+   */
+  @Override
+  public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
+    return new SubSet(false, fromElement, inclusive, true, null, true, false);
+  }
+
+  /**
+   * Returns a live view of the values from fromElement (inclusive) to toElement (exclusive)
+   *
+   * @param fromElement the lower bound
+   * @param toElement   the upper bound
+   * @return the view
+   */
+  @Override
+  public NavigableSet<T> subSet(T fromElement, T toElement) {
+    return subSet(fromElement, true, toElement, false);
+  }
+
+  /**
+   * Returns a live view of the values below toElement (exclusive)
+   *
+   * @param toElement the upper bound
+   * @return the view
+   */
+  @Override
+  public NavigableSet<T> headSet(T toElement) {
+    return headSet(toElement, false);
+  }
+
+  /**
+   * Returns a live view of the values from fromElement (inclusive)
+   *
+   * @param fromElement the lower bound
+   * @return the view
+   */
+  @Override
+  public NavigableSet<T> tailSet(T fromElement) {
+    return tailSet(fromElement, true);
+  }
+
+  /**
+   * Returns a spliterator over the values in ascending order. It splits at the median position
+   * found through the subtree sizes, so both halves always report their exact size and parallel
+   * streams divide the tree evenly.
+   *
+   * @return the spliterator
+   */
+  @Override
+  public Spliterator<T> spliterator() {
+    return new NodeSpliterator(leftmost(root), 0, size);
+  }
+
+  /**
+   * Adds every value of the other tree to this tree with the split/join algorithm, which takes
+   * O(m log(n/m + 1)) work for trees of sizes n and m and runs the independent halves in parallel.
+   * The values of the other tree are first copied into new nodes in O(m), so it is left as it was.
+   *
+   * @param other the tree to take the values from
+   * @throws IllegalArgumentException if the other tree is this tree or is ordered differently
+   */
+  public void union(RBTrees<T> other) {
+    combine(other, SetOperation.UNION);
+  }
+
+  /**
+   * Keeps only the values of this tree which are also in the other tree, with the split/join
+   * algorithm running the independent halves in parallel. The other tree is left as it was.
+   *
+   * @param other the tree whose values are kept
+   * @throws IllegalArgumentException if the other tree is this tree or is ordered differently
+   */
+  public void intersection(RBTrees<T> other) {
+    combine(other, SetOperation.INTERSECTION);
+  }
+
+  /**
+   * Removes every value of the other tree from this tree, with the split/join algorithm running
+   * the independent halves in parallel. The other tree is left as it was.
+   *
+   * @param other the tree whose values are removed
+   * @throws IllegalArgumentException if the other tree is this tree or is ordered differently
+   */
+  public void difference(RBTrees<T> other) {
+    combine(other, SetOperation.DIFFERENCE);
+  }
+
+  /**
+   * Combines this tree with a copy of another tree
+   *
+   * @param other     the other tree
+   * @param operation the set operation to perform
+   * @throws IllegalArgumentException if the other tree is this tree or is ordered differently
+   */
+  private void combine(RBTrees<T> other, SetOperation operation) {
+    if (other == this) {
+      throw new IllegalArgumentException("A tree cannot be combined with itself");
+    }
+    if (!sameOrder(other)) {
+      throw new IllegalArgumentException("The trees do not order their values in the same way");
+    }
+    Subtree<T> result = ForkJoinPool.commonPool().invoke(
+        new SetOperationTask(operation, wholeTree(), copyOf(other)));
+    setWholeTree(result);
+  }
+
+  /**
+   * Copies the values of another tree into a balanced detached subtree of new nodes, which the
+   * set operations can take apart without changing the other tree
+   *
+   * @param other the tree to copy
+   * @return the detached copy
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private Subtree<T> copyOf(RBTrees<T> other) {
+    Node<T>[] nodes = (Node<T>[]) new Node[other.size];
+    int count = 0;
+    for (Node<T> currNode = leftmost(other.root); currNode != null;
+        currNode = successorOf(currNode)) {
+      nodes[count++] = newNode(currNode.data, currNode.key, 1);
+    }
+    Node<T> copy = buildFromSorted(nodes, 0, count - 1, 0, redLevel(count), null);
+    int blackHeight = 0;
+    for (Node<T> currNode = copy; currNode != null; currNode = currNode.left) {
+      blackHeight += currNode.blackHeight;
+    }
+    return new Subtree<>(copy, blackHeight);
+  }
+
+  /**
+   * Detaches the whole tree as a subtree, measuring its black height along the leftmost path
+   *
+   * @return the detached subtree
+   */
+  private Subtree<T> wholeTree() {
+    int blackHeight = 0;
+    for (Node<T> currNode = root; currNode != null; currNode = currNode.left) {
+      blackHeight += currNode.blackHeight;
+    }
+    return new Subtree<>(root, blackHeight);
+  }
+
+  /**
+   * Replaces the contents of the tree with a detached subtree, refilling the membership filter
+   *
+   * @param subtree the subtree which becomes the tree
+   */
+  private void setWholeTree(Subtree<T> subtree) {
+    replaceRoot(subtree);
+    refillFilter();
+  }
+
+  /**
+   * Replaces the contents of the tree with a detached subtree, leaving the membership filter to
+   * the caller
+   *
+   * @param subtree the subtree which becomes the tree
+   */
+  private void replaceRoot(Subtree<T> subtree) {
+    root = subtree.root;
+    if (root != null) {
+      root.parent = null;
+      root.blackHeight = 1;
+    }
+    size = subtreeSize(root);
+    modCount++;
+  }
+
+  /**
+   * Detaches a child of a node so that it can be used as a separate subtree
+   *
+   * @param node         the parent node
+   * @param context      the context of the child
+   * @param childHeight  the black height of the children of the node
+   * @return the detached child
+   */
+  private static <T extends Comparable<T>> Subtree<T> detach(Node<T> node, int context,
+      int childHeight) {
+    Node<T> child = node.child(context);
+    node.setChild(context, null);
+    if (child != null) {
+      child.parent = null;
+    }
+    return new Subtree<>(child, childHeight);
+  }
+
+  /**
+   * Joins two subtrees and a pivot node, where every value of left is less than the pivot and every
+   * value of right is more than the pivot. The taller subtree is descended along its spine to the
+   * black node of the other subtree's black height, the pivot is linked there as a red node and the
+   * usual insertBalancer fixes any red-red violation, so the work is O(|hL - hR| + 1).
+   *
+   * @param left  the left subtree
+   * @param pivot the pivot node, whose links are overwritten
+   * @param right the right subtree
+   * @return the joined subtree
+   */
+  private static <T extends Comparable<T>> Subtree<T> join(Subtree<T> left, Node<T> pivot,
+      Subtree<T> right) {
+    left.blackenRoot();
+    right.blackenRoot();
+    pivot.parent = null;
+    if (left.blackHeight == right.blackHeight) {
+      pivot.left = left.root;
+      pivot.right = right.root;
+      pivot.blackHeight = 1;
+      linkChildren(pivot);
+      return new Subtree<>(pivot, left.blackHeight + 1);
+    }
+
+    boolean leftTaller = left.blackHeight > right.blackHeight;
+    Subtree<T> taller = leftTaller ? left : right;
+    Subtree<T> shorter = leftTaller ? right : left;
+    int spine = leftTaller ? 2 : 1; // the side of the taller subtree facing the shorter one
+
+    // Find the first black node on the spine with the black height of the shorter subtree
+    Node<T> spineParent = null;
+    Node<T> spineNode = taller.root;
+    int height = taller.blackHeight;
+    while (spineNode != null && (height > shorter.blackHeight || spineNode.blackHeight == 0)) {
+      height -= spineNode.blackHeight;
+      spineParent = spineNode;
+      spineNode = spineNode.child(spine);
+    }
+
+    // Link the pivot as a red node in place of that node, with the shorter subtree beside it
+    pivot.setChild(3 - spine, spineNode);
+    pivot.setChild(spine, shorter.root);
+    pivot.blackHeight = 0;
+    linkChildren(pivot);
+    spineParent.setChild(spine, pivot);
+    pivot.parent = spineParent;
+
+    adjustSubtreeSizes(spineParent, pivot.subtreeSize - subtreeSize(spineNode));
+    boolean grew = insertBalancer(pivot);
+    Node<T> root = (taller.root.parent != null) ? taller.root.parent : taller.root;
+    return new Subtree<>(root, taller.blackHeight + (grew ? 1 : 0));
+  }
+
+  /**
+   * Sets the parent links and the subtree size of a node from its children
+   *
+   * @param node the node
+   */
+  private static <T extends Comparable<T>> void linkChildren(Node<T> node) {
+    for (int context = 1; context <= 2; context++) {
+      if (node.child(context) != null) {
+        node.child(context).parent = node;
+      }
+    }
+    node.subtreeSize = subtreeSize(node.left) + subtreeSize(node.right) + 1;
+  }
+
+  /**
+   * Joins two subtrees without a pivot, where every value of left is less than every value of
+   * right, by splitting off the last node of left and using it as the pivot
+   *
+   * @param left  the left subtree
+   * @param right the right subtree
+   * @return the joined subtree
+   */
+  private static <T extends Comparable<T>> Subtree<T> join(Subtree<T> left, Subtree<T> right) {
+    if (left.root == null) {
+      return right;
+    }
+    if (right.root == null) {
+      return left;
+    }
+    Split<T> split = splitLast(left);
+    return join(split.left, split.node, right);
+  }
+
+  /**
+   * Splits the last node off a non empty subtree
+   *
+   * @param subtree the subtree
+   * @return the remaining subtree on the left and the last node
+   */
+  private static <T extends Comparable<T>> Split<T> splitLast(Subtree<T> subtree) {
+    Node<T> node = subtree.root;
+    int childHeight = subtree.blackHeight - node.blackHeight;
+    Subtree<T> left = detach(node, 1, childHeight);
+    Subtree<T> right = detach(node, 2, childHeight);
+    if (right.root == null) {
+      return new Split<>(left, node, null);
+    }
+    Split<T> split = splitLast(right);
+    return new Split<>(join(left, node, split.left), split.node, null);
+  }
+
+  /**
+   * Splits a subtree into the values less than and more than the given data, in O(log n)
+   *
+   * @param subtree the subtree, which is taken apart
+   * @param data    the data to split at
+   * @param key     the key of the data
+   * @return the values less than the data, the node equal to the data (if any), and the values more
+   *         than the data
+   */
+  private Split<T> split(Subtree<T> subtree, T data, long key) {
+    Node<T> node = subtree.root;
+    if (node == null) {
+      return new Split<>(subtree, null, new Subtree<>(null, 0));
+    }
+    int childHeight = subtree.blackHeight - node.blackHeight;
+    Subtree<T> left = detach(node, 1, childHeight);
+    Subtree<T> right = detach(node, 2, childHeight);
+    int comparison = compare(data, key, node);
+    if (comparison == 0) {
+      node.subtreeSize = 1;
+      return new Split<>(left, node, right);
+    } else if (comparison < 0) {
+      Split<T> split = split(left, data, key);
+      return new Split<>(split.left, split.node, join(split.right, node, right));
+    } else {
+      Split<T> split = split(right, data, key);
+      return new Split<>(join(left, node, split.left), split.node, split.right);
+    }
+  }
+
+  /**
+   * Moves the values more than or equal to the data into a new tree, which is returned, and keeps
+   * the values less than the data. The tree is cut along the search path of the data and both
+   * halves are rebalanced by joining subtrees of matching black height, in O(log n) time. With a
+   * membership filter, the moved values also leave this filter and fill one of the new tree, in
+   * O(k) for k moved values.
+   *
+   * @param data the smallest value of the new tree
+   * @return the new tree, ordered like this tree
+   * @throws NullPointerException if the data is null
+   */
+  public RBTrees<T> split(T data) {
+    if (data == null) {
+      throw new NullPointerException("The tree cannot split at a null value");
+    }
+    Split<T> parts = split(wholeTree(), data, keyOf(data));
+    Subtree<T> tail = (parts.node == null) ? parts.right
+        : join(new Subtree<>(null, 0), parts.node, parts.right);
+    RBTrees<T> other = emptyCopy();
+    other.replaceRoot(tail);
+    replaceRoot(parts.left);
+    if (filter != null) {
+      forgetFiltered(other.root);
+      other.rebuildFilter(filter.falsePositiveRate());
+    }
+    return other;
+  }
+
+  /**
+   * Joins two trees and a pivot value between them into the left tree, which is returned, in
+   * O(|hL - hR| + 1) time for trees of black heights hL and hR: the shorter tree is linked under
+   * the pivot at the node of the same black height on the spine of the taller tree. The right tree
+   * is left empty. With a membership filter on the left tree, the values of the right tree are
+   * added to it in O(m) for m values.
+   *
+   * @param left  the tree of the values less than the pivot
+   * @param pivot the value between the trees
+   * @param right the tree of the values more than the pivot
+   * @param <T>   A comparable generic data type
+   * @return the left tree, holding every value
+   * @throws NullPointerException     if the pivot is null
+   * @throws IllegalArgumentException if the trees are the same or ordered differently, or the
+   *                                  pivot is not between them
+   */
+  public static <T extends Comparable<T>> RBTrees<T> join(RBTrees<T> left, T pivot,
+      RBTrees<T> right) {
+    if (pivot == null) {
+      throw new NullPointerException("The pivot cannot be null");
+    }
+    if (left == right) {
+      throw new IllegalArgumentException("A tree cannot be joined with itself");
+    }
+    if (!left.sameOrder(right)) {
+      throw new IllegalArgumentException("The trees do not order their values in the same way");
+    }
+    long key = left.keyOf(pivot);
+    if ((left.root != null && left.compare(pivot, key, left.rightmost(left.root)) <= 0)
+        || (right.root != null && right.compare(pivot, key, right.leftmost(right.root)) >= 0)) {
+      throw new IllegalArgumentException("The pivot is not between the values of the trees");
+    }
+    Node<T> pivotNode = left.newNode(pivot, key, 0);
+    Subtree<T> joined = join(left.wholeTree(), pivotNode, right.wholeTree());
+    right.clear();
+    left.replaceRoot(joined);
+    if (left.filter != null) {
+      if (left.size > left.filter.capacity()) {
+        left.rebuildFilter(left.filter.falsePositiveRate());
+      } else {
+        // the pivot and every value after it came from the right tree
+        for (Node<T> currNode = pivotNode; currNode != null;
+            currNode = left.successorOf(currNode)) {
+          left.filter.add(left.hashOf(currNode.data));
+        }
+      }
+    }
+    return left;
+  }
+
+  /**
+   * Removes the values between lo and hi (both inclusive) by splitting the tree at both bounds and
+   * joining the outer parts, in O(log n) time however many values are removed. With a membership
+   * filter, the removed values also leave the filter in O(k) for k removed values.
+   *
+   * @param lo the lowest value to remove
+   * @param hi the highest value to remove
+   * @return the number of values removed
+   */
+  public int removeRange(T lo, T hi) {
+    if (compare(lo, hi) > 0) {
+      return 0;
+    }
+    return removeBetween(false, lo, true, false, hi, true);
+  }
+
+  /**
+   * Removes the values less than (or equal to) the given data in O(log n) time, the same as
+   * clearing {@link #headSet(Comparable, boolean)}. It expires the oldest values of a tree keyed by
+   * time.
+   *
+   * @param toElement the upper bound of the values to remove
+   * @param inclusive true if the value equal to the bound is removed as well
+   * @return the number of values removed
+   */
+  public int removeHead(T toElement, boolean inclusive) {
+    return removeBetween(true, null, false, false, toElement, inclusive);
+  }
+
+  /**
+   * Removes the values more than (or equal to) the given data in O(log n) time, the same as
+   * clearing {@link #tailSet(Comparable, boolean)}
+   *
+   * @param fromElement the lower bound of the values to remove
+   * @param inclusive   true if the value equal to the bound is removed as well
+   * @return the number of values removed
+   */
+  public int removeTail(T fromElement, boolean inclusive) {
+    return removeBetween(false, fromElement, inclusive, true, null, false);
+  }
+
+  /**
+   * Removes the values within a range by splitting off the values below and above it and joining
+   * them. The removed nodes are dropped as a whole subtree instead of being unlinked one by one.
+   *
+   * @param fromStart   true if the range has no lower bound
+   * @param lo          the lower bound
+   * @param loInclusive true if the lower bound is in the range
+   * @param toEnd       true if the range has no upper bound
+   * @param hi          the upper bound
+   * @param hiInclusive true if the upper bound is in the range
+   * @return the number of values removed
+   */
+  private int removeBetween(boolean fromStart, T lo, boolean loInclusive, boolean toEnd, T hi,
+      boolean hiInclusive) {
+    int oldSize = size;
+    Subtree<T> below = new Subtree<>(null, 0); // The values kept below the range
+    Subtree<T> above = new Subtree<>(null, 0); // The values kept above the range
+    Subtree<T> removed = wholeTree();
+    if (!fromStart) {
+      Split<T> split = split(removed, lo, keyOf(lo));
+      below = split.left;
+      removed = split.right;
+      if (split.node != null) {
+        if (loInclusive) {
+          removed = join(new Subtree<>(null, 0), split.node, removed);
+        } else {
+          below = join(below, split.node, new Subtree<>(null, 0));
+        }
+      }
+    }
+    if (!toEnd) {
+      Split<T> split = split(removed, hi, keyOf(hi));
+      removed = split.left;
+      above = split.right;
+      if (split.node != null) {
+        if (hiInclusive) {
+          removed = join(removed, split.node, new Subtree<>(null, 0));
+        } else {
+          above = join(new Subtree<>(null, 0), split.node, above);
+        }
+      }
+    }
+    replaceRoot(join(below, above));
+    if (filter != null && removed.root != null) {
+      removed.root.parent = null;
+      forgetFiltered(removed.root);
+    }
+    return oldSize - size;
+  }
+
+  /**
+   * Removes the values of a detached subtree from the membership filter
+   *
+   * @param subtreeRoot the root of the subtree, whose parent is null
+   */
+  private void forgetFiltered(Node<T> subtreeRoot) {
+    for (Node<T> currNode = leftmost(subtreeRoot); currNode != null;
+        currNode = successorOf(currNode)) {
+      filter.remove(hashOf(currNode.data));
+    }
+  }
+
+  /**
+   * Creates an empty tree ordered like this tree
+   *
+   * @return the empty tree
+   */
+  private RBTrees<T> emptyCopy() {
+    if (comparator != null) {
+      return new RBTrees<T>(comparator);
+    }
+    return (keyExtractor != null) ? new RBTrees<T>(keyExtractor) : new RBTrees<T>();
+  }
+
+  /**
+   * Returns the value at the given position in sorted order
+   *
+   * @param k the position of the value, starting at 0 for the smallest value
+   * @return the k-th smallest value
+   * @throws IndexOutOfBoundsException if k is negative or not less than the size
+   */
+  public T select(int k) {
+    if (k < 0 || k >= size) {
+      throw new IndexOutOfBoundsException("Index " + k + " is out of bounds for size " + size);
+    }
+    return selectNode(k).data;
+  }
+
+  /**
+   * Returns the node at the given position in sorted order
+   *
+   * @param k the position of the node, between 0 and size - 1
+   * @return the k-th smallest node
+   */
+  Node<T> selectNode(int k) {
+    Node<T> currNode = root;
+    while (true) {
+      int leftSize = subtreeSize(currNode.left);
+      if (k < leftSize) {
+        currNode = currNode.left;
+      } else if (k > leftSize) {
+        k -= leftSize + 1;
+        currNode = currNode.right;
+      } else {
+        return currNode;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of values in the tree which are smaller than the given data, which is also
+   * the position of the data in sorted order if the tree contains it
+   *
+   * @param data the data
+   * @return the number of smaller values
+   */
+  public int rank(T data) {
+    return countBelow(data, false);
+  }
+
+  /**
+   * Returns the number of values between lo and hi (both inclusive)
+   *
+   * @param lo the lowest value to count
+   * @param hi the highest value to count
+   * @return the number of values in the range
+   */
+  public int countRange(T lo, T hi) {
+    if (compare(lo, hi) > 0) {
+      return 0;
+    }
+    return countBelow(hi, true) - countBelow(lo, false);
+  }
+
+  /**
+   * Counts the values smaller than (or equal to) the given data in a single descent
+   *
+   * @param data      the data
+   * @param inclusive true if values equal to the data are counted as well
+   * @return the number of values counted
+   */
+  int countBelow(T data, boolean inclusive) {
+    long key = keyOf(data);
+    int count = 0;
+    Node<T> currNode = root;
+    while (currNode != null) {
+      int comparison = compare(data, key, currNode);
+      if (comparison > 0) {
+        // the node and its whole left subtree are counted
+        count += subtreeSize(currNode.left) + 1;
+        currNode = currNode.right;
+      } else if (comparison < 0) {
+        currNode = currNode.left;
+      } else {
+        return count + subtreeSize(currNode.left) + (inclusive ? 1 : 0);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Builds a tree from a collection iterated in strictly ascending order, in linear time
+   *
+   * @param sorted the sorted values
+   * @param <T>    A comparable generic data type
+   * @return the tree containing the values
+   * @throws NullPointerException     if a value is null
+   * @throws IllegalArgumentException if the values are not strictly ascending
+   */
+  public static <T extends Comparable<T>> RBTrees<T> fromSorted(Collection<? extends T> sorted) {
+    RBTrees<T> tree = new RBTrees<>();
+    tree.bulkLoad(sorted.iterator(), sorted.size());
+    return tree;
+  }
+
+  /**
+   * Loads values given in strictly ascending order into this empty tree. The tree is built
+   * perfectly balanced in linear time, without comparing against existing nodes or rebalancing.
+   *
+   * @param sorted the iterator over the sorted values
+   * @param count  the number of values to take from the iterator
+   * @throws IllegalStateException    if the tree is not empty
+   * @throws NullPointerException     if a value is null
+   * @throws IllegalArgumentException if the values are not strictly ascending or fewer than count
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void bulkLoad(Iterator<? extends T> sorted, int count) {
+    if (root != null) {
+      throw new IllegalStateException("Values can only be bulk loaded into an empty tree");
+    }
+    Node<T>[] nodes = (Node<T>[]) new Node[count];
+    for (int i = 0; i < count; i++) {
+      if (!sorted.hasNext()) {
+        throw new IllegalArgumentException("The iterator had fewer than " + count + " values");
+      }
+      T data = sorted.next();
+      if (data == null) {
+        throw new NullPointerException("The tree cannot store null values");
+      }
+      long key = keyOf(data);
+      if (i > 0 && compare(data, key, nodes[i - 1]) <= 0) {
+        throw new IllegalArgumentException("The values were not strictly ascending at " + data);
+      }
+      nodes[i] = newNode(data, key, 1);
+    }
+    root = buildFromSorted(nodes, 0, count - 1, 0, redLevel(count), null);
+    size = count;
+    modCount++;
+    refillFilter();
+  }
+
+  /**
+   * Inserts every value of an unsorted collection. The values are sorted and merged with the nodes
+   * of the tree in a single in-order pass, and the tree is rebuilt from the merged nodes, so the
+   * cost is O(n + m log m) instead of m separate root to leaf inserts.
+   *
+   * @param values the values to insert
+   * @return the number of values which were not already in the tree
+   * @throws NullPointerException if a value is null
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public int bulkInsert(Collection<? extends T> values) {
+    T[] sortedValues = (T[]) values.toArray(new Comparable[0]);
+    for (T value : sortedValues) {
+      if (value == null) {
+        throw new NullPointerException("The tree cannot store null values");
+      }
+    }
+    Arrays.sort(sortedValues, this::compare);
+
+    Node<T>[] merged = (Node<T>[]) new Node[size + sortedValues.length];
+    int count = 0;
+    int next = 0; // the next value of sortedValues to merge
+    // Walk the existing nodes in order and merge the new values in between them
+    for (Node<T> currNode = leftmost(root); currNode != null; currNode = successorOf(currNode)) {
+      while (next < sortedValues.length) {
+        long key = keyOf(sortedValues[next]);
+        int comparison = compare(sortedValues[next], key, currNode);
+        if (comparison > 0) {
+          break;
+        }
+        if (comparison != 0 &&
+            (count == 0 || compare(sortedValues[next], key, merged[count - 1]) != 0)) {
+          merged[count++] = newNode(sortedValues[next], key, 1);
+        }
+        next++;
+      }
+      merged[count++] = currNode;
+    }
+    for (; next < sortedValues.length; next++) {
+      long key = keyOf(sortedValues[next]);
+      if (count == 0 || compare(sortedValues[next], key, merged[count - 1]) != 0) {
+        merged[count++] = newNode(sortedValues[next], key, 1);
+      }
+    }
+
+    int inserted = count - size;
+    root = buildFromSorted(merged, 0, count - 1, 0, redLevel(count), null);
+    size = count;
+    modCount++;
+    refillFilter();
+    return inserted;
+  }
+
+  /**
+   * Applies a batch of inserts and removes. The operations are sorted by their data (keeping the
+   * order of operations on equal data) and applied in ascending order, and every search starts from
+   * the node touched by the previous operation instead of the root: it climbs the parent links only
+   * until the data is within the range of the subtree and descends from there. A dense batch thus
+   * costs O(log d) per operation for a distance d between consecutive values, instead of O(log n).
+   * Climbing and descending again only beats a descent from the root if d is below sqrt(n), so
+   * sparser batches are neither sorted nor use fingers, and are applied in the given order. Each
+   * operation counts in the insert or remove latencies of the metrics; the sort is not timed.
+   *
+   * @param ops the operations
+   * @return a bitmap with bit i set if operation i changed the tree
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public BitSet applyBatch(List<? extends Op<T>> ops) {
+    int count = ops.size();
+    boolean[] inserts = new boolean[count];
+    T[] data = (T[]) new Comparable[count];
+    long[] keys = new long[count];
+    int i = 0;
+    for (Op<T> op : ops) {
+      inserts[i] = op.insert;
+      data[i] = op.data;
+      keys[i] = keyOf(op.data);
+      i++;
+    }
+    // The values are d = n / m apart on average, so fingers pay off if m * m is at least n
+    boolean useFinger = (long) count * count >= size;
+    int[] order = useFinger ? sortedOrder(data, keys) : null;
+
+    BitSet results = new BitSet(count);
+    Node<T> finger = null; // A node whose range starts at or below the data of the next operation
+    for (int step = 0; step < count; step++) {
+      long start = RBTreeMetrics.start(); // every operation is timed as an insert or a remove
+      int index = useFinger ? order[step] : step;
+      T opData = data[index];
+      long key = keys[index];
+      // Find the data or the place to insert it, starting from the finger
+      Node<T> parent = null;
+      int comparison = 0;
+      Node<T> currNode = (finger == null) ? root : fingerStart(finger, opData, key);
+      while (currNode != null) {
+        comparison = compare(opData, key, currNode);
+        if (comparison == 0) {
+          break;
+        }
+        parent = currNode;
+        currNode = (comparison > 0) ? currNode.right : currNode.left;
+      }
+
+      if (inserts[index]) {
+        if (currNode == null) {
+          currNode = linkNewNode(parent, comparison, opData, key, null);
+          results.set(index);
+        }
+        finger = useFinger ? currNode : null;
+      } else if (currNode != null) {
+        // the predecessor stays in the tree and still starts at or below the next data
+        finger = useFinger ? predecessorOf(currNode) : null;
+        removeNode(currNode);
+        results.set(index);
+      } else {
+        finger = useFinger ? parent : null;
+      }
+      if (inserts[index]) {
+        RBTreeMetrics.insertDone(start);
+      } else {
+        RBTreeMetrics.removeDone(start);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Sorts the positions of values with a stable merge sort: runs of SORT_RUN positions are sorted
+   * by insertion, and runs which are already in order are not merged again, so sorted input takes a
+   * single pass
+   *
+   * @param data the values
+   * @param keys the keys of the values
+   * @return the positions of the values in ascending order of the values
+   */
+  private int[] sortedOrder(T[] data, long[] keys) {
+    int count = data.length;
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    for (int lo = 0; lo < count; lo += SORT_RUN) {
+      int hi = Math.min(lo + SORT_RUN, count);
+      for (int i = lo + 1; i < hi; i++) {
+        int position = order[i];
+        int j = i - 1;
+        while (j >= lo &&
+            compare(data[order[j]], keys[order[j]], data[position], keys[position]) > 0) {
+          order[j + 1] = order[j];
+          j--;
+        }
+        order[j + 1] = position;
+      }
+    }
+
+    int[] buffer = new int[count];
+    for (int width = SORT_RUN; width < count; width *= 2) {
+      for (int lo = 0; lo + width < count; lo += 2 * width) {
+        int mid = lo + width;
+        int hi = Math.min(lo + 2 * width, count);
+        int last = order[mid - 1];
+        int first = order[mid];
+        if (compare(data[last], keys[last], data[first], keys[first]) <= 0) {
+          continue; // the two runs are already in order
+        }
+        // Merge the runs into the buffer, taking from the left run on ties to stay stable
+        int left = lo;
+        int right = mid;
+        for (int k = lo; k < hi; k++) {
+          if (right >= hi || (left < mid && compare(data[order[left]], keys[order[left]],
+              data[order[right]], keys[order[right]]) <= 0)) {
+            buffer[k] = order[left++];
+          } else {
+            buffer[k] = order[right++];
+          }
+        }
+        System.arraycopy(buffer, lo, order, lo, hi - lo);
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Climbs from a finger node to the lowest ancestor whose subtree range contains the data, given
+   * that the range of the finger starts at or below the data. Only the ancestors bounding a subtree
+   * from above are compared with the data.
+   *
+   * @param finger the finger node
+   * @param data   the data
+   * @param key    the key of the data
+   * @return the node to descend from
+   */
+  private Node<T> fingerStart(Node<T> finger, T data, long key) {
+    Node<T> currNode = finger;
+    while (true) {
+      // the upper bound of a subtree is the parent of the top of the right spine leading to it
+      Node<T> top = currNode;
+      while (top.isRightChild()) {
+        top = top.parent;
+      }
+      Node<T> bound = top.parent;
+      if (bound == null || compare(data, key, bound) < 0) {
+        return currNode;
+      }
+      currNode = bound;
+    }
+  }
+
+  /**
+   * Writes a binary snapshot of this tree to a file, see {@link #writeTo(DataOutput, KeyCodec)}.
+   * The file is replaced and forced to the disk before returning.
+   *
+   * @param file  the file
+   * @param codec the codec writing the values
+   * @throws IOException                     if the file could not be written
+   * @throws ConcurrentModificationException if the tree was modified while it was written
+   */
+  public void writeTo(Path file, KeyCodec<? super T> codec) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(channel), SNAPSHOT_BUFFER))) {
+      writeTo(out, codec);
+      out.flush();
+      channel.force(false);
+    }
+  }
+
+  /**
+   * Writes a binary snapshot of this tree: a magic number and the size, followed by the nodes in
+   * pre-order in blocks of up to 64 nodes. Every block starts with a long whose bit i is set if
+   * node i of the block is red, followed by the values of the nodes written by the codec. The
+   * snapshot holds the exact shape and colors of the tree, but not the values of an
+   * {@link RBTreeMap}. The nodes are visited through the parent links, so only a single block is
+   * held besides the output.
+   *
+   * @param out   the output
+   * @param codec the codec writing the values
+   * @throws IOException                     if the output could not be written
+   * @throws ConcurrentModificationException if the tree was modified while it was written
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void writeTo(DataOutput out, KeyCodec<? super T> codec) throws IOException {
+    int expectedModCount = modCount;
+    out.writeInt(SNAPSHOT_MAGIC);
+    out.writeInt(size);
+    Node<T>[] block = (Node<T>[]) new Node[Long.SIZE];
+    int filled = 0;
+    Node<T> node = root;
+    while (node != null) {
+      block[filled++] = node;
+      node = preOrderSuccessor(node);
+      if (filled == block.length || node == null) {
+        long reds = 0;
+        for (int i = 0; i < filled; i++) {
+          if (block[i].blackHeight == 0) {
+            reds |= 1L << i;
+          }
+        }
+        out.writeLong(reds);
+        for (int i = 0; i < filled; i++) {
+          codec.write(block[i].data, out);
+        }
+        filled = 0;
+      }
+    }
+    if (modCount != expectedModCount) {
+      throw new ConcurrentModificationException("The tree was modified while it was written");
+    }
+  }
+
+  /**
+   * Reads a snapshot written by {@link #writeTo(Path, KeyCodec)} into this empty tree
+   *
+   * @param file  the file
+   * @param codec the codec reading the values
+   * @throws IOException           if the file could not be read
+   * @throws IllegalStateException if the tree is not empty or the file is not a valid snapshot
+   */
+  public void readFrom(Path file, KeyCodec<? extends T> codec) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)),
+        SNAPSHOT_BUFFER))) {
+      readFrom(in, codec);
+    }
+  }
+
+  /**
+   * Reads a snapshot written by {@link #writeTo(DataOutput, KeyCodec)} into this empty tree. The
+   * nodes are linked as they are read, in O(n) without rebalancing: a pre-order node is the left
+   * child of the previous node if it is smaller, and otherwise the right child of the last of the
+   * previous node's ancestors it is greater than. Only the path to the previous node is held, and
+   * the snapshot is checked to be a valid red black tree in the order of this tree.
+   *
+   * @param in    the input
+   * @param codec the codec reading the values
+   * @throws IOException           if the input could not be read
+   * @throws IllegalStateException if the tree is not empty or the input is not a valid snapshot
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void readFrom(DataInput in, KeyCodec<? extends T> codec) throws IOException {
+    if (root != null) {
+      throw new IllegalStateException("A snapshot can only be read into an empty tree");
+    }
+    if (in.readInt() != SNAPSHOT_MAGIC) {
+      throw new IllegalStateException("The input is not a red black tree snapshot");
+    }
+    int count = in.readInt();
+    if (count < 0) {
+      throw new IllegalStateException("The snapshot has a negative size: " + count);
+    }
+    Node<T> newRoot = null;
+    // A red black tree of at most 2^31 nodes is less than 64 levels deep
+    Node<T>[] path = (Node<T>[]) new Node[Long.SIZE];
+    int depth = 0;
+    Node<T> lowerBound = null; // The greatest node the subtree of the previous node is right of
+    long reds = 0;
+    for (int i = 0; i < count; i++) {
+      if (i % Long.SIZE == 0) {
+        reds = in.readLong();
+      }
+      T data = codec.read(in);
+      if (data == null) {
+        throw new IllegalStateException("The snapshot contains a null value");
+      }
+      long key = keyOf(data);
+      Node<T> node = newNode(data, key, ((reds >>> (i % Long.SIZE)) & 1) == 0 ? 1 : 0);
+      if (newRoot == null) {
+        newRoot = node;
+      } else {
+        int comparison = compare(data, key, path[depth - 1]);
+        if (comparison < 0) {
+          if (lowerBound != null && compare(data, key, lowerBound) <= 0) {
+            throw new IllegalStateException("The snapshot is not ordered at " + data);
+          }
+          node.parent = path[depth - 1];
+          path[depth - 1].left = node;
+        } else {
+          Node<T> parent = null;
+          while (comparison > 0) {
+            parent = path[--depth];
+            comparison = (depth > 0) ? compare(data, key, path[depth - 1]) : -1;
+          }
+          if (comparison == 0) {
+            throw new IllegalStateException("The snapshot contains a duplicate " + data);
+          }
+          lowerBound = parent;
+          node.parent = parent;
+          parent.right = node;
+        }
+        if (depth == path.length) {
+          throw new IllegalStateException("The snapshot is too deep to be a red black tree");
+        }
+      }
+      path[depth++] = node;
+    }
+    linkSnapshot(newRoot);
+    root = newRoot;
+    size = count;
+    modCount++;
+    refillFilter();
+  }
+
+  /**
+   * Reads a snapshot written by {@link #writeTo(Path, KeyCodec)} into a new tree ordered by the
+   * natural ordering of the values
+   *
+   * @param file  the file
+   * @param codec the codec reading the values
+   * @param <T>   A comparable generic data type
+   * @return the tree
+   * @throws IOException           if the file could not be read
+   * @throws IllegalStateException if the file is not a valid snapshot
+   */
+  public static <T extends Comparable<T>> RBTrees<T> fromSnapshot(Path file, KeyCodec<T> codec)
+      throws IOException {
+    RBTrees<T> tree = new RBTrees<>();
+    tree.readFrom(file, codec);
+    return tree;
+  }
+
+  /**
+   * Returns the node after the given node in pre-order
+   *
+   * @param node the node
+   * @return the next node in pre-order, null if there is none
+   */
+  static <T extends Comparable<T>> Node<T> preOrderSuccessor(Node<T> node) {
+    if (node.left != null) {
+      return node.left;
+    }
+    if (node.right != null) {
+      return node.right;
+    }
+    // climb until a node is the left child of a parent with a right child
+    while (node.parent != null) {
+      Node<T> parent = node.parent;
+      if (parent.left == node && parent.right != null) {
+        return parent.right;
+      }
+      node = parent;
+    }
+    return null;
+  }
+
+  /**
+   * Computes the subtree sizes of a tree read from a snapshot in a single post-order walk over the
+   * parent links, and checks that the root is black, no red node has a red parent and every path
+   * has the same number of black nodes
+   *
+   * @param root the root of the read tree, may be null
+   * @throws IllegalStateException if the tree is not a valid red black tree
+   */
+  private static <T extends Comparable<T>> void linkSnapshot(Node<T> root) {
+    if (root != null && root.blackHeight != 1) {
+      throw new IllegalStateException("The root of the snapshot is red");
+    }
+    int blackDepth = 0; // The black nodes from the root to the current node
+    int leafDepth = -1; // The black nodes on every path from the root to a null child
+    Node<T> previous = null;
+    Node<T> node = root;
+    while (node != null) {
+      boolean fromParent = previous == node.parent;
+      if (fromParent) {
+        if (node.blackHeight == 0 && node.parent != null
+            && node.parent.blackHeight == 0) {
+          throw new IllegalStateException("The snapshot has a red child of red " + node.data);
+        }
+        blackDepth += node.blackHeight;
+        if (node.left != null) {
+          previous = node;
+          node = node.left;
+          continue;
+        }
+        leafDepth = checkLeafDepth(leafDepth, blackDepth);
+      }
+      if (fromParent || previous == node.left) {
+        if (node.right != null) {
+          previous = node;
+          node = node.right;
+          continue;
+        }
+        leafDepth = checkLeafDepth(leafDepth, blackDepth);
+      }
+      node.subtreeSize = 1 + subtreeSize(node.left) + subtreeSize(node.right);
+      blackDepth -= node.blackHeight;
+      previous = node;
+      node = node.parent;
+    }
+  }
+
+  /**
+   * Checks that a path to a null child has as many black nodes as the paths before it
+   *
+   * @param leafDepth  the black nodes on the paths before, -1 for the first path
+   * @param blackDepth the black nodes on this path
+   * @return the black nodes on every path
+   * @throws IllegalStateException if the paths differ
+   */
+  private static int checkLeafDepth(int leafDepth, int blackDepth) {
+    if (leafDepth != -1 && leafDepth != blackDepth) {
+      throw new IllegalStateException("The snapshot has paths with different black heights");
+    }
+    return blackDepth;
+  }
+
+  /**
+   * Computes the depth at which the nodes of a tree built by buildFromSorted are colored red: the
+   * deepest level when it is not full, so that every path has the same number of black nodes
+   *
+   * @param count the number of nodes
+   * @return the depth of the red nodes
+   */
+  private static int redLevel(int count) {
+    int level = 0;
+    for (int m = count - 1; m >= 0; m = m / 2 - 1) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Links a sorted range of nodes into a balanced subtree
+   *
+   * @param nodes    the sorted nodes
+   * @param lo       the first index of the range
+   * @param hi       the last index of the range
+   * @param level    the depth of the subtree's root
+   * @param redLevel the depth at which nodes are red
+   * @param parent   the parent of the subtree's root
+   * @return the root of the subtree
+   */
+  private Node<T> buildFromSorted(Node<T>[] nodes, int lo, int hi, int level, int redLevel,
+      Node<T> parent) {
+    if (lo > hi) {
+      return null;
+    }
+    int mid = (lo + hi) >>> 1;
+    Node<T> node = nodes[mid];
+    node.parent = parent;
+    node.left = buildFromSorted(nodes, lo, mid - 1, level + 1, redLevel, node);
+    node.right = buildFromSorted(nodes, mid + 1, hi, level + 1, redLevel, node);
+    node.blackHeight = (level == redLevel && level != 0) ? 0 : 1;
+    node.subtreeSize = hi - lo + 1;
+    return node;
+  }
+
+  /**
+   * Converts the tree into a string in the {@link RBTreeRenderer#PLAIN} format. Other formats, or
+   * streaming a large tree, go through {@link RBTreeRenderer#render(RBTrees, Appendable)}.
+   *
+   * @return a string representation of this tree
+   */
+  @Override
+  public String toString() {
+    return RBTreeRenderer.PLAIN.render(this);
+  }
+
+  /**
+   * An in-order cursor which steps between nodes using the parent links
+   */
+  class NodeIterator implements Iterator<T> {
+
+    private Node<T> next; // The node returned by the next call to next()
+    private final Node<T> fence; // The first node which is not returned, null for the end
+    private final boolean descending; // True if the cursor walks in descending order
+    private Node<T> lastReturned; // The node returned by the last call to next()
+    private int expectedModCount; // The modCount the tree is expected to have
+
+    /**
+     * The constructor of this class
+     *
+     * @param first      the first node to return
+     * @param fence      the first node which is not returned, null to walk to the end
+     * @param descending true to walk in descending order
+     */
+    NodeIterator(Node<T> first, Node<T> fence, boolean descending) {
+      this.next = first;
+      this.fence = fence;
+      this.descending = descending;
+      this.expectedModCount = modCount;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null && next != fence;
+    }
+
+    @Override
+    public T next() {
+      return nextNode().data;
+    }
+
+    /**
+     * Returns the next node
+     *
+     * @return the next node
+     * @throws NoSuchElementException          if there is no next node
+     * @throws ConcurrentModificationException if the tree was modified outside of the iterator
+     */
+    Node<T> nextNode() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      lastReturned = next;
+      next = descending ? predecessorOf(next) : successorOf(next);
+      return lastReturned;
+    }
+
+    /**
+     * Removes the last returned value. A node with two children is replaced by its successor node
+     * in removeNode, so the next node of an ascending walk stays valid.
+     */
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeNode(lastReturned);
+      lastReturned = null;
+      expectedModCount = modCount;
+    }
+  }
+
+  /**
+   * A live view of the values of the tree within a range, in ascending or descending order. Bounds
+   * are kept in the ascending order of the tree; descending views swap the navigation methods.
+   */
+  private class SubSet extends AbstractSet<T> implements NavigableSet<T> {
+
+    private final boolean fromStart; // True if the view has no lower bound
+    private final T lo; // The lower bound
+    private final boolean loInclusive; // True if the lower bound is in the view
+    private final boolean toEnd; // True if the view has no upper bound
+    private final T hi; // The upper bound
+    private final boolean hiInclusive; // True if the upper bound is in the view
+    private final boolean descending; // True if the view is in descending order
+
+    /**
+     * The constructor of this class
+     *
+     * @param fromStart   true if the view has no lower bound
+     * @param lo          the lower bound
+     * @param loInclusive true if the lower bound is in the view
+     * @param toEnd       true if the view has no upper bound
+     * @param hi          the upper bound
+     * @param hiInclusive true if the upper bound is in the view
+     * @param descending  true if the view is in descending order
+     * @throws IllegalArgumentException if the lower bound is more than the upper bound
+     */
+    SubSet(boolean fromStart, T lo, boolean loInclusive, boolean toEnd, T hi, boolean hiInclusive,
+        boolean descending) {
+      if (!fromStart && !toEnd && compare(lo, hi) > 0) {
+        throw new IllegalArgumentException("The lower bound is more than the upper bound");
+      }
+      this.fromStart = fromStart;
+      this.lo = lo;
+      this.loInclusive = loInclusive;
+      this.toEnd = toEnd;
+      this.hi = hi;
+      this.hiInclusive = hiInclusive;
+      this.descending = descending;
+    }
+
+    private boolean tooLow(T data) {
+      if (fromStart) {
+        return false;
+      }
+      int comparison = compare(data, lo);
+      return comparison < 0 || (comparison == 0 && !loInclusive);
+    }
+
+    private boolean tooHigh(T data) {
+      if (toEnd) {
+        return false;
+      }
+      int comparison = compare(data, hi);
+      return comparison > 0 || (comparison == 0 && !hiInclusive);
+    }
+
+    private boolean inRange(T data) {
+      return !tooLow(data) && !tooHigh(data);
+    }
+
+    /**
+     * Checks if a bound of a nested view lies within this view
+     *
+     * @param data      the bound
+     * @param inclusive true if the bound is inclusive
+     * @return true if the bound is allowed
+     */
+    private boolean inRange(T data, boolean inclusive) {
+      if (inclusive) {
+        return inRange(data);
+      }
+      return (fromStart || compare(data, lo) >= 0) && (toEnd || compare(data, hi) <= 0);
+    }
+
+    private Node<T> absLowest() {
+      Node<T> node = fromStart ? leftmost(root) : ceilingNode(lo, loInclusive);
+      return (node == null || tooHigh(node.data)) ? null : node;
+    }
+
+    private Node<T> absHighest() {
+      Node<T> node = toEnd ? rightmost(root) : floorNode(hi, hiInclusive);
+      return (node == null || tooLow(node.data)) ? null : node;
+    }
+
+    private Node<T> absCeiling(T data, boolean inclusive) {
+      if (tooLow(data)) {
+        return absLowest();
+      }
+      Node<T> node = ceilingNode(data, inclusive);
+      return (node == null || tooHigh(node.data)) ? null : node;
+    }
+
+    private Node<T> absFloor(T data, boolean inclusive) {
+      if (tooHigh(data)) {
+        return absHighest();
+      }
+      Node<T> node = floorNode(data, inclusive);
+      return (node == null || tooLow(node.data)) ? null : node;
+    }
+
+    private Iterator<T> ascendingIterator() {
+      return new NodeIterator(absLowest(), toEnd ? null : ceilingNode(hi, !hiInclusive), false);
+    }
+
+    private Iterator<T> reverseIterator() {
+      return new NodeIterator(absHighest(), fromStart ? null : floorNode(lo, !loInclusive), true);
+    }
+
+    /**
+     * Returns the number of values in the view, counted with the subtree sizes in O(log n)
+     *
+     * @return the size
+     */
+    @Override
+    public int size() {
+      int below = fromStart ? 0 : countBelow(lo, !loInclusive);
+      int upTo = toEnd ? size : countBelow(hi, hiInclusive);
+      return Math.max(upTo - below, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return absLowest() == null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean contains(Object o) {
+      return inRange((T) o) && RBTrees.this.contains((T) o);
+    }
+
+    @Override
+    public boolean add(T data) {
+      if (!inRange(data)) {
+        throw new IllegalArgumentException("The value is out of the range of the view");
+      }
+      return insert(data);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean remove(Object o) {
+      return inRange((T) o) && RBTrees.this.remove((T) o);
+    }
+
+    /**
+     * Removes every value of the view from the tree in O(log n), see {@link #removeRange}
+     */
+    @Override
+    public void clear() {
+      removeBetween(fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return descending ? reverseIterator() : ascendingIterator();
+    }
+
+    @Override
+    public Iterator<T> descendingIterator() {
+      return descending ? ascendingIterator() : reverseIterator();
+    }
+
+    @Override
+    public Comparator<? super T> comparator() {
+      return descending ? Collections.reverseOrder(RBTrees.this.comparator())
+          : RBTrees.this.comparator();
+    }
+
+    @Override
+    public T first() {
+      return dataOrThrow(descending ? absHighest() : absLowest());
+    }
+
+    @Override
+    public T last() {
+      return dataOrThrow(descending ? absLowest() : absHighest());
+    }
+
+    @Override
+    public T lower(T data) {
+      return dataOf(descending ? absCeiling(data, false) : absFloor(data, false));
+    }
+
+    @Override
+    public T floor(T data) {
+      return dataOf(descending ? absCeiling(data, true) : absFloor(data, true));
+    }
+
+    @Override
+    public T ceiling(T data) {
+      return dataOf(descending ? absFloor(data, true) : absCeiling(data, true));
+    }
+
+    @Override
+    public T higher(T data) {
+      return dataOf(descending ? absFloor(data, false) : absCeiling(data, false));
+    }
+
+    @Override
+    public T pollFirst() {
+      return poll(descending ? absHighest() : absLowest());
+    }
+
+    @Override
+    public T pollLast() {
+      return poll(descending ? absLowest() : absHighest());
+    }
+
+    @Override
+    public NavigableSet<T> descendingSet() {
+      return new SubSet(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+    }
+
+    @Override
+    public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement,
+        boolean toInclusive) {
+      if (!inRange(fromElement, fromInclusive) || !inRange(toElement, toInclusive)) {
+        throw new IllegalArgumentException("The bounds are out of the range of the view");
+      }
+      if (descending) {
+        return new SubSet(false, toElement, toInclusive, false, fromElement, fromInclusive, true);
+      }
+      return new SubSet(false, fromElement, fromInclusive, false, toElement, toInclusive, false);
+    }
+
+    @Override
+    public NavigableSet<T> headSet(T toElement, boolean inclusive) {
+      if (!inRange(toElement, inclusive)) {
+        throw new IllegalArgumentException("The bound is out of the range of the view");
+      }
+      if (descending) {
+        return new SubSet(false, toElement, inclusive, toEnd, hi, hiInclusive, true);
+      }
+      return new SubSet(fromStart, lo, loInclusive, false, toElement, inclusive, false);
+    }
+
+    @Override
+    public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
+      if (!inRange(fromElement, inclusive)) {
+        throw new IllegalArgumentException("The bound is out of the range of the view");
+      }
+      if (descending) {
+        return new SubSet(fromStart, lo, loInclusive, false, fromElement, inclusive, true);
+      }
+      return new SubSet(false, fromElement, inclusive, toEnd, hi, hiInclusive, false);
+    }
+
+    @Override
+    public NavigableSet<T> subSet(T fromElement, T toElement) {
+      return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public NavigableSet<T> headSet(T toElement) {
+      return headSet(toElement, false);
+    }
+
+    @Override
+    public NavigableSet<T> tailSet(T fromElement) {
+      return tailSet(fromElement, true);
+    }
+  }
+
+  /**
+   * A spliterator over a range of positions, which splits at the median position and locates the
+   * first node of a split off half through the subtree sizes
+   */
+  private class NodeSpliterator implements Spliterator<T> {
+
+    private Node<T> current; // The next node, null if it still has to be located by its position
+    private int index; // The position of the next node
+    private final int fence; // The first position which is not covered
+    private final int expectedModCount; // The modCount the tree is expected to have
+
+    /**
+     * The constructor of this class
+     *
+     * @param current the node at the first position, or null to locate it when needed
+     * @param index   the first position
+     * @param fence   the first position which is not covered
+     */
+    NodeSpliterator(Node<T> current, int index, int fence) {
+      this.current = current;
+      this.index = index;
+      this.fence = fence;
+      this.expectedModCount = modCount;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+      if (action == null) {
+        throw new NullPointerException();
+      }
+      if (index >= fence) {
+        return false;
+      }
+      if (current == null) {
+        current = selectNode(index);
+      }
+      T data = current.data;
+      current = successorOf(current);
+      index++;
+      action.accept(data);
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+      if (action == null) {
+        throw new NullPointerException();
+      }
+      if (index < fence && current == null) {
+        current = selectNode(index);
+      }
+      for (; index < fence; index++) {
+        action.accept(current.data);
+        current = successorOf(current);
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+      int mid = (index + fence) >>> 1;
+      if (mid <= index) {
+        return null;
+      }
+      NodeSpliterator prefix = new NodeSpliterator(current, index, mid);
+      index = mid;
+      current = null;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return fence - index;
+    }
+
+    @Override
+    public int characteristics() {
+      return Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.ORDERED | Spliterator.SIZED |
+          Spliterator.SUBSIZED | Spliterator.NONNULL;
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+      return comparator();
+    }
+  }
+
+  /**
+   * A subtree detached from a tree, together with its black height: the number of black nodes on
+   * every path from its root (included) down to a null child
+   *
+   * @param <T> a generic comparable parameter
+   */
+  private static class Subtree<T extends Comparable<T>> {
+
+    Node<T> root; // The root of the subtree, may be red
+    int blackHeight; // The black height of the subtree
+
+    Subtree(Node<T> root, int blackHeight) {
+      this.root = root;
+      this.blackHeight = blackHeight;
+    }
+
+    /**
+     * Turns a red root black, which adds one to the black height
+     */
+    void blackenRoot() {
+      if (root != null && root.blackHeight == 0) {
+        root.blackHeight = 1;
+        blackHeight++;
+      }
+    }
+  }
+
+  /**
+   * The result of splitting a subtree at a value
+   *
+   * @param <T> a generic comparable parameter
+   */
+  private static class Split<T extends Comparable<T>> {
+
+    final Subtree<T> left; // The values less than the split value
+    final Node<T> node; // The detached node equal to the split value, or null
+    final Subtree<T> right; // The values more than the split value
+
+    Split(Subtree<T> left, Node<T> node, Subtree<T> right) {
+      this.left = left;
+      this.node = node;
+      this.right = right;
+    }
+  }
+
+  /**
+   * An insert or a remove in a batch passed to applyBatch
+   *
+   * @param <T> the data type
+   */
+  public static final class Op<T> {
+
+    final boolean insert; // True for an insert, false for a remove
+    final T data; // The data to insert or remove
+
+    /**
+     * The constructor of this class
+     *
+     * @param insert true for an insert, false for a remove
+     * @param data   the data
+     * @throws NullPointerException if the data is null
+     */
+    private Op(boolean insert, T data) {
+      if (data == null) {
+        throw new NullPointerException("The tree cannot store null values");
+      }
+      this.insert = insert;
+      this.data = data;
+    }
+
+    /**
+     * Creates an insert of the data
+     *
+     * @param data the data to insert
+     * @param <T>  the data type
+     * @return the operation
+     */
+    public static <T> Op<T> insert(T data) {
+      return new Op<>(true, data);
+    }
+
+    /**
+     * Creates a remove of the data
+     *
+     * @param data the data to remove
+     * @param <T>  the data type
+     * @return the operation
+     */
+    public static <T> Op<T> remove(T data) {
+      return new Op<>(false, data);
+    }
+
+    /**
+     * Returns true if this is an insert
+     *
+     * @return true for an insert, false for a remove
+     */
+    public boolean isInsert() {
+      return insert;
+    }
+
+    /**
+     * Returns the data of the operation
+     *
+     * @return the data
+     */
+    public T getData() {
+      return data;
+    }
+
+    @Override
+    public String toString() {
+      return (insert ? "insert " : "remove ") + data;
+    }
+  }
+
+  /**
+   * The set operations performed with split and join
+   */
+  private enum SetOperation {
+    UNION, INTERSECTION, DIFFERENCE
+  }
+
+  /**
+   * A fork/join task combining two detached subtrees. The two recursive halves work on disjoint
+   * nodes, so they are forked while the subtrees are large and run sequentially below
+   * PARALLEL_THRESHOLD nodes. Tasks are never serialized, as ForkJoinTask merely inherits
+   * Serializable.
+   */
+  @SuppressWarnings("serial")
+  private class SetOperationTask extends RecursiveTask<Subtree<T>> {
+
+    private static final int PARALLEL_THRESHOLD = 4096; // Nodes below which no task is forked
+
+    private final SetOperation operation; // The operation to perform
+    private final Subtree<T> a; // The first subtree
+    private final Subtree<T> b; // The second subtree
+
+    SetOperationTask(SetOperation operation, Subtree<T> a, Subtree<T> b) {
+      this.operation = operation;
+      this.a = a;
+      this.b = b;
+    }
+
+    @Override
+    protected Subtree<T> compute() {
+      if (a.root == null) {
+        return (operation == SetOperation.UNION) ? b : a;
+      }
+      if (b.root == null) {
+        return (operation == SetOperation.INTERSECTION) ? b : a;
+      }
+      // Union and intersection split b at the root of a, difference splits a at the root of b
+      Subtree<T> pivotTree = (operation == SetOperation.DIFFERENCE) ? b : a;
+      Subtree<T> splitTree = (operation == SetOperation.DIFFERENCE) ? a : b;
+      Node<T> pivot = pivotTree.root;
+      int childHeight = pivotTree.blackHeight - pivot.blackHeight;
+      Subtree<T> pivotLeft = detach(pivot, 1, childHeight);
+      Subtree<T> pivotRight = detach(pivot, 2, childHeight);
+      Split<T> split = split(splitTree, pivot.data, pivot.key);
+
+      SetOperationTask leftTask;
+      SetOperationTask rightTask;
+      if (operation == SetOperation.DIFFERENCE) {
+        leftTask = new SetOperationTask(operation, split.left, pivotLeft);
+        rightTask = new SetOperationTask(operation, split.right, pivotRight);
+      } else {
+        leftTask = new SetOperationTask(operation, pivotLeft, split.left);
+        rightTask = new SetOperationTask(operation, pivotRight, split.right);
+      }
+      Subtree<T> left;
+      Subtree<T> right;
+      if (subtreeSize(a.root) + subtreeSize(b.root) > PARALLEL_THRESHOLD) {
+        leftTask.fork();
+        right = rightTask.compute();
+        left = leftTask.join();
+      } else {
+        left = leftTask.compute();
+        right = rightTask.compute();
+      }
+
+      if (operation == SetOperation.UNION ||
+          (operation == SetOperation.INTERSECTION && split.node != null)) {
+        return RBTrees.join(left, pivot, right);
+      }
+      return RBTrees.join(left, right);
     }
-    builder.append(prefix).append(isLeft ? "|-- " : "\\-- ").append(node).append("\n");
-    toStringHelper(prefix + (isLeft ? "|   " : "    "), node.context[1], builder, true);
-    toStringHelper(prefix + (isLeft ? "|   " : "    "), node.context[2], builder, false);
   }
 
   /**
@@ -0,0 +1,443 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * This class models a thread safe set which range-partitions its values across independent Red
+ * Black Trees, so that writers to different ranges never contend. Every shard owns the values from
+ * its lower bound up to the lower bound of the next shard, and has its own {@link StampedLock}.
+ * An operation finds its shard in the current layout with a binary search over the lower bounds and
+ * only locks that shard.
+ *
+ * A shard which grows past twice the average size is split at its median, and if the tree already
+ * has its target number of shards the two smallest neighbours are merged in the same step. Such a
+ * resplit locks only the shards it replaces, publishes a new layout and marks the replaced shards
+ * as retired, so an operation which locked a retired shard routes itself again.
+ *
+ * {@link #size()} and {@link #iterator()} do not take a global lock either, so they are weakly
+ * consistent: the size is the sum of the shard sizes, and the iterator returns the values in
+ * ascending order, with or without the values written while it runs.
+ *
+ * @param <T> A comparable generic data type
+ */
+public class ShardedRBTrees<T extends Comparable<T>> implements SortedCollectionInterface<T>,
+    Iterable<T> {
+
+  private static final int CHECK_INTERVAL = 256; // Writes to a shard between balance checks
+  private static final int MIN_SPLIT_SIZE = 1024; // The smallest shard which is split
+  private static final int BATCH = 256; // The values an iterator copies under one read lock
+
+  private final int targetShards; // The number of shards the tree grows to
+  private final ReentrantLock resplitLock; // Allows a single resplit at a time
+  private volatile Layout<T> layout; // The shards and their lower bounds
+
+  /**
+   * A single partition of the values
+   */
+  private static class Shard<T extends Comparable<T>> {
+
+    final RBTrees<T> tree; // The values of the shard
+    final StampedLock lock; // Guards the tree
+    volatile int size; // The size of the tree, readable without the lock
+    boolean retired; // True once the shard was replaced by a resplit, guarded by the lock
+    int writes; // The writes since the last balance check, guarded by the lock
+
+    Shard(RBTrees<T> tree) {
+      this.tree = tree;
+      this.lock = new StampedLock();
+      this.size = tree.size();
+    }
+  }
+
+  /**
+   * The shards in ascending order together with their lower bounds, never modified once published
+   */
+  private static class Layout<T extends Comparable<T>> {
+
+    final List<T> bounds; // The lowest value of every shard but the first, which has no bound
+    final List<Shard<T>> shards; // The shards in ascending order
+
+    Layout(List<T> bounds, List<Shard<T>> shards) {
+      this.bounds = bounds;
+      this.shards = shards;
+    }
+
+    /**
+     * Returns the index of the shard owning the data
+     *
+     * @param data the data
+     * @return the index of the shard
+     */
+    int indexOf(T data) {
+      int low = 0;
+      int high = bounds.size(); // bounds.get(i) is the lower bound of shard i + 1
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (bounds.get(middle).compareTo(data) <= 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+
+  /**
+   * Creates a sharded tree which starts with a single shard and splits it as the values arrive,
+   * until it has the target number of shards
+   *
+   * @param targetShards the number of shards, which should be a few times the number of writers
+   * @throws IllegalArgumentException if the number of shards is not positive
+   */
+  public ShardedRBTrees(int targetShards) {
+    this(targetShards, new ArrayList<>());
+  }
+
+  /**
+   * Creates a sharded tree which is partitioned at the given values from the start, for a key space
+   * whose distribution is known. The shards are still resplit if they become imbalanced.
+   *
+   * @param targetShards the number of shards the tree keeps, at least one more than the bounds
+   * @param bounds       the lower bounds of all shards but the first, in ascending order
+   * @throws IllegalArgumentException if the bounds are not ascending or there are too many
+   */
+  public ShardedRBTrees(int targetShards, List<? extends T> bounds) {
+    if (targetShards <= 0 || bounds.size() >= targetShards) {
+      throw new IllegalArgumentException("The tree cannot have " + targetShards + " shards and "
+          + bounds.size() + " bounds");
+    }
+    List<Shard<T>> shards = new ArrayList<>();
+    shards.add(new Shard<T>(new RBTrees<T>()));
+    for (int i = 0; i < bounds.size(); i++) {
+      if (i > 0 && bounds.get(i - 1).compareTo(bounds.get(i)) >= 0) {
+        throw new IllegalArgumentException("The bounds are not in ascending order");
+      }
+      shards.add(new Shard<T>(new RBTrees<T>()));
+    }
+    this.targetShards = targetShards;
+    this.resplitLock = new ReentrantLock();
+    this.layout = new Layout<>(List.copyOf(bounds), List.copyOf(shards));
+  }
+
+  /**
+   * Insert method for the sharded tree
+   *
+   * @param data The data to add to the tree
+   * @return true if the insert operation was successful
+   * @throws NullPointerException if the data is null
+   */
+  @Override
+  public boolean insert(T data) {
+    return write(data, true);
+  }
+
+  /**
+   * Remove method which removes the data
+   *
+   * @param data the data to remove
+   * @return true if the data was successfully removed
+   * @throws NullPointerException if the data is null
+   */
+  @Override
+  public boolean remove(T data) {
+    return write(data, false);
+  }
+
+  /**
+   * Inserts or removes the data under the lock of its shard, and resplits the shard if it grew
+   * past the others
+   *
+   * @param data   the data
+   * @param insert true to insert the data, false to remove it
+   * @return true if the shard changed
+   * @throws NullPointerException if the data is null
+   */
+  private boolean write(T data, boolean insert) {
+    if (data == null) {
+      throw new NullPointerException("The data cannot be null");
+    }
+    while (true) {
+      Shard<T> shard = shardOf(data);
+      long stamp = shard.lock.writeLock();
+      boolean changed;
+      boolean check;
+      try {
+        if (shard.retired) {
+          continue; // a resplit replaced the shard, route again with the new layout
+        }
+        changed = insert ? shard.tree.insert(data) : shard.tree.remove(data);
+        shard.size = shard.tree.size();
+        check = changed && ++shard.writes >= CHECK_INTERVAL;
+        if (check) {
+          shard.writes = 0;
+        }
+      } finally {
+        shard.lock.unlockWrite(stamp);
+      }
+      if (check && isHot(shard)) {
+        resplit(shard);
+      }
+      return changed;
+    }
+  }
+
+  /**
+   * True if the tree contains the given data
+   *
+   * @param data the data
+   * @return true if it contains the data
+   * @throws NullPointerException if the data is null
+   */
+  @Override
+  public boolean contains(T data) {
+    if (data == null) {
+      throw new NullPointerException("The data cannot be null");
+    }
+    while (true) {
+      Shard<T> shard = shardOf(data);
+      long stamp = shard.lock.readLock();
+      try {
+        if (!shard.retired) {
+          return shard.tree.contains(data);
+        }
+      } finally {
+        shard.lock.unlockRead(stamp);
+      }
+    }
+  }
+
+  /**
+   * Returns the shard owning the data in the current layout, which is read once, so that the index
+   * and the shards come from the same layout even if a resplit publishes a new one meanwhile
+   *
+   * @param data the data
+   * @return the shard, which may be retired by the time it is locked
+   */
+  private Shard<T> shardOf(T data) {
+    Layout<T> current = layout;
+    return current.shards.get(current.indexOf(data));
+  }
+
+  /**
+   * Returns the size of the tree, the sum of the shard sizes without a global lock
+   *
+   * @return the size
+   */
+  @Override
+  public int size() {
+    int size = 0;
+    for (Shard<T> shard : layout.shards) {
+      size += shard.size;
+    }
+    return size;
+  }
+
+  /**
+   * Returns true if the tree is empty
+   *
+   * @return true if the tree is empty
+   */
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Returns the number of shards
+   *
+   * @return the number of shards
+   */
+  public int shardCount() {
+    return layout.shards.size();
+  }
+
+  /**
+   * Returns the sizes of the shards in ascending order of their values
+   *
+   * @return the sizes of the shards
+   */
+  public int[] shardSizes() {
+    List<Shard<T>> shards = layout.shards;
+    int[] sizes = new int[shards.size()];
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = shards.get(i).size;
+    }
+    return sizes;
+  }
+
+  /**
+   * Returns a weakly consistent iterator over the values in ascending order. It copies a batch of
+   * values at a time under the read lock of a single shard, and continues after the last value it
+   * returned, so it keeps its place across resplits. It does not support remove.
+   *
+   * @return the iterator
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private final List<T> batch = new ArrayList<>(); // The values copied from a shard
+      private int position; // The position of the next value in the batch
+      private T last; // The last value copied, null before the first batch
+      private boolean exhausted; // True once the last shard was copied
+
+      @Override
+      public boolean hasNext() {
+        if (position == batch.size() && !exhausted) {
+          fill();
+        }
+        return position < batch.size();
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return batch.get(position++);
+      }
+
+      /**
+       * Copies the next batch of values after the last value copied, moving on to the following
+       * shards while the shards are empty
+       */
+      private void fill() {
+        batch.clear();
+        position = 0;
+        Layout<T> current = layout;
+        int index = (last == null) ? 0 : current.indexOf(last);
+        while (batch.isEmpty()) {
+          if (index == current.shards.size()) {
+            exhausted = true;
+            return;
+          }
+          Shard<T> shard = current.shards.get(index);
+          long stamp = shard.lock.readLock();
+          try {
+            if (shard.retired) {
+              current = layout; // route again with the new layout
+              index = (last == null) ? 0 : current.indexOf(last);
+              continue;
+            }
+            Iterator<T> values = (last == null) ? shard.tree.iterator()
+                : shard.tree.tailSet(last, false).iterator();
+            while (batch.size() < BATCH && values.hasNext()) {
+              batch.add(values.next());
+            }
+          } finally {
+            shard.lock.unlockRead(stamp);
+          }
+          index++;
+        }
+        last = batch.get(batch.size() - 1);
+      }
+    };
+  }
+
+  /**
+   * True if a shard has grown past its share of the values. While the tree has fewer shards than
+   * its target, every shard past the smallest split size is hot.
+   *
+   * @param shard the shard
+   * @return true if the shard should be split
+   */
+  private boolean isHot(Shard<T> shard) {
+    int size = shard.size;
+    if (size < MIN_SPLIT_SIZE) {
+      return false;
+    }
+    return shardCount() < targetShards || size > 2L * size() / targetShards;
+  }
+
+  /**
+   * Splits a hot shard at its median. If the tree has its target number of shards, the two
+   * neighbouring shards with the fewest values are merged as well, unless they have more values
+   * together than the hot shard. Another resplit in progress skips this one, as the hot shard is
+   * checked again after its next writes.
+   *
+   * @param hot the hot shard
+   */
+  private void resplit(Shard<T> hot) {
+    if (!resplitLock.tryLock()) {
+      return;
+    }
+    try {
+      Layout<T> current = layout;
+      int hotIndex = current.shards.indexOf(hot);
+      if (hotIndex < 0 || !isHot(hot)) {
+        return; // replaced or shrunk since the check
+      }
+      int mergeIndex = -1; // The first of the neighbours to merge
+      if (current.shards.size() >= targetShards) {
+        long fewest = hot.size;
+        for (int i = 0; i + 1 < current.shards.size(); i++) {
+          long pair = (long) current.shards.get(i).size + current.shards.get(i + 1).size;
+          if (i != hotIndex && i + 1 != hotIndex && pair < fewest) {
+            fewest = pair;
+            mergeIndex = i;
+          }
+        }
+        if (mergeIndex == -1) {
+          return;
+        }
+      }
+      // lock in ascending order, as writers hold a single shard lock at a time
+      List<Shard<T>> locked = new ArrayList<>();
+      for (int i = 0; i < current.shards.size(); i++) {
+        if (i == hotIndex || (mergeIndex != -1 && (i == mergeIndex || i == mergeIndex + 1))) {
+          locked.add(current.shards.get(i));
+        }
+      }
+      long[] stamps = new long[locked.size()];
+      for (int i = 0; i < stamps.length; i++) {
+        stamps[i] = locked.get(i).lock.writeLock();
+      }
+      try {
+        List<T> bounds = new ArrayList<>(current.bounds);
+        List<Shard<T>> shards = new ArrayList<>(current.shards);
+        // split first, as the merge below only shifts the shards after the pair. Both take
+        // O(log n) with split and join, and reuse the trees, as no one reads a retired shard.
+        T median = hot.tree.select(hot.tree.size() / 2);
+        RBTrees<T> upper = hot.tree.split(median);
+        shards.set(hotIndex, new Shard<>(hot.tree));
+        shards.add(hotIndex + 1, new Shard<>(upper));
+        bounds.add(hotIndex, median);
+        if (mergeIndex != -1) {
+          int first = (mergeIndex > hotIndex) ? mergeIndex + 1 : mergeIndex;
+          RBTrees<T> low = shards.get(first).tree;
+          RBTrees<T> high = shards.get(first + 1).tree;
+          if (!high.isEmpty()) {
+            RBTrees.join(low, high.pollFirst(), high);
+          }
+          shards.set(first, new Shard<>(low));
+          shards.remove(first + 1);
+          bounds.remove(first); // the lower bound of the second shard of the pair
+        }
+        for (Shard<T> shard : locked) {
+          shard.retired = true;
+        }
+        layout = new Layout<>(List.copyOf(bounds), List.copyOf(shards));
+      } finally {
+        for (int i = 0; i < stamps.length; i++) {
+          locked.get(i).lock.unlockWrite(stamps[i]);
+        }
+      }
+    } finally {
+      resplitLock.unlock();
+    }
+  }
+
+  /**
+   * Converts the tree into a string with the sizes of its shards
+   *
+   * @return a string representation of this tree
+   */
+  @Override
+  public String toString() {
+    return "ShardedRBTrees" + Arrays.toString(shardSizes());
+  }
+}
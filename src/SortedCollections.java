@@ -0,0 +1,85 @@
+import java.util.Comparator;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class creates the sorted collection engines behind {@link SortedCollectionInterface}, so
+ * that a caller can choose the layout fitting its workload without depending on the classes.
+ */
+public final class SortedCollections {
+
+  /**
+   * The available engines
+   */
+  public enum Engine {
+    /**
+     * {@link RBTrees}, a red black tree with ranks, range views and navigation
+     */
+    RED_BLACK,
+    /**
+     * {@link BPlusTree}, a tree of wide nodes whose lookups touch far fewer cache lines, for very
+     * large sets that are mostly searched
+     */
+    B_PLUS_TREE
+  }
+
+  /**
+   * Only the static factory methods are used
+   */
+  private SortedCollections() {
+  }
+
+  /**
+   * Creates an empty collection ordered by the natural ordering of the values
+   *
+   * @param engine the engine
+   * @param <T>    A comparable generic data type
+   * @return the collection
+   * @throws NullPointerException if the engine is null
+   */
+  public static <T extends Comparable<T>> SortedCollectionInterface<T> create(Engine engine) {
+    switch (engine) {
+      case B_PLUS_TREE:
+        return new BPlusTree<>();
+      default:
+        return new RBTrees<>();
+    }
+  }
+
+  /**
+   * Creates an empty collection ordered by a comparator
+   *
+   * @param engine     the engine
+   * @param comparator the comparator ordering the values
+   * @param <T>        A comparable generic data type
+   * @return the collection
+   * @throws NullPointerException if the engine or the comparator is null
+   */
+  public static <T extends Comparable<T>> SortedCollectionInterface<T> create(Engine engine,
+      Comparator<? super T> comparator) {
+    switch (engine) {
+      case B_PLUS_TREE:
+        return new BPlusTree<T>(comparator);
+      default:
+        return new RBTrees<T>(comparator);
+    }
+  }
+
+  /**
+   * Creates an empty collection ordered by a long key extracted from every value
+   *
+   * @param engine       the engine
+   * @param keyExtractor extracts the key of a value, values with the same key are duplicates
+   * @param <T>          A comparable generic data type
+   * @return the collection
+   * @throws NullPointerException if the engine or the key extractor is null
+   */
+  public static <T extends Comparable<T>> SortedCollectionInterface<T> create(Engine engine,
+      ToLongFunction<? super T> keyExtractor) {
+    switch (engine) {
+      case B_PLUS_TREE:
+        return new BPlusTree<T>(keyExtractor);
+      default:
+        return new RBTrees<T>(keyExtractor);
+    }
+  }
+}